@@ -0,0 +1,414 @@
+package processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This annotation processor generates a util.EntityMapper for every class annotated with @Entity. The
+ * mapper holds the same sql templates AnnotationStrategy would build, and reads and writes the entity's
+ * fields directly (or through its getters and setters when a field is private), so Catnap doesn't need
+ * reflection for the entity at runtime.
+ *
+ * The mapper of pkg.Outer.Model is generated as pkg.Outer_Model_CatnapMapper. No mapper is generated,
+ * and a warning is printed, when an entity can't be mapped without reflection, for example when it has a
+ * final field; Catnap then falls back to its runtime mapping for that entity.
+ */
+@SupportedAnnotationTypes("annotations.Entity")
+public class EntityMapperProcessor extends AbstractProcessor {
+
+    private final static String ENTITY = "annotations.Entity";
+    private final static String ID = "annotations.Id";
+    private final static String ORDER_BY = "annotations.OrderBy";
+    private final static String SUFFIX = "_CatnapMapper";
+
+    // java type -> { JDBC getter/setter suffix, boxed type }
+    private final static Map<String, String[]> PRIMITIVES = new HashMap<>();
+    private final static Map<String, String> WRAPPERS = new HashMap<>();
+    // wrapper type -> util.ColumnType constant used to bind it
+    private final static Map<String, String> WRAPPER_COLUMN_TYPES = new HashMap<>();
+
+    static {
+        PRIMITIVES.put("int", new String[]{"Int", "Integer"});
+        PRIMITIVES.put("long", new String[]{"Long", "Long"});
+        PRIMITIVES.put("double", new String[]{"Double", "Double"});
+        PRIMITIVES.put("float", new String[]{"Float", "Float"});
+        PRIMITIVES.put("short", new String[]{"Short", "Short"});
+        PRIMITIVES.put("byte", new String[]{"Byte", "Byte"});
+        PRIMITIVES.put("boolean", new String[]{"Boolean", "Boolean"});
+
+        WRAPPERS.put("java.lang.Integer", "Int");
+        WRAPPERS.put("java.lang.Long", "Long");
+        WRAPPERS.put("java.lang.Double", "Double");
+        WRAPPERS.put("java.lang.Float", "Float");
+        WRAPPERS.put("java.lang.Short", "Short");
+        WRAPPERS.put("java.lang.Byte", "Byte");
+        WRAPPERS.put("java.lang.Boolean", "Boolean");
+
+        WRAPPER_COLUMN_TYPES.put("java.lang.Integer", "INTEGER_OBJECT");
+        WRAPPER_COLUMN_TYPES.put("java.lang.Long", "LONG_OBJECT");
+        WRAPPER_COLUMN_TYPES.put("java.lang.Double", "DOUBLE_OBJECT");
+        WRAPPER_COLUMN_TYPES.put("java.lang.Float", "FLOAT_OBJECT");
+        WRAPPER_COLUMN_TYPES.put("java.lang.Short", "SHORT_OBJECT");
+        WRAPPER_COLUMN_TYPES.put("java.lang.Byte", "BYTE_OBJECT");
+        WRAPPER_COLUMN_TYPES.put("java.lang.Boolean", "BOOLEAN_OBJECT");
+        WRAPPER_COLUMN_TYPES.put("java.lang.Character", "CHARACTER_OBJECT");
+    }
+
+    /**
+     * A mapped field of an entity as seen by the processor.
+     */
+    private static class Column {
+        String name;
+        String type;
+        boolean id;
+        String orderDirection;
+        String read;
+        String write;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation: annotations) {
+            for (Element element: roundEnv.getElementsAnnotatedWith(annotation)) {
+                if(element.getKind() == ElementKind.CLASS) {
+                    generate((TypeElement) element);
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * This method generates the mapper of an entity, or prints a warning explaining why it can't.
+     *
+     * @param entity     the class annotated with @Entity
+     */
+    private void generate(TypeElement entity) {
+        if(entity.getModifiers().contains(Modifier.PRIVATE) || entity.getModifiers().contains(Modifier.ABSTRACT)
+                || (entity.getNestingKind().isNested() && !entity.getModifiers().contains(Modifier.STATIC))) {
+            warn(entity, "Catnap mappers can only be generated for non-abstract, non-private top level or static nested classes");
+            return;
+        }
+
+        List<Column> columns = new ArrayList<>();
+        Column idColumn = null;
+        for (VariableElement field: ElementFilter.fieldsIn(entity.getEnclosedElements())) {
+            if(field.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            if(field.getModifiers().contains(Modifier.FINAL)) {
+                // hydrate and set have to write every column, which can't be done to a final field without reflection
+                warn(entity, "Final field " + field.getSimpleName() + " can't be written, no Catnap mapper will be generated");
+                return;
+            }
+
+            Column column = new Column();
+            column.name = field.getSimpleName().toString();
+            column.type = field.asType().toString();
+            column.id = getAnnotation(field, ID) != null;
+            AnnotationMirror orderBy = getAnnotation(field, ORDER_BY);
+            column.orderDirection = orderBy != null ? getValue(orderBy, "direction", "ASC") : null;
+
+            if(!field.getModifiers().contains(Modifier.PRIVATE)) {
+                column.read = "e." + column.name;
+                column.write = "e." + column.name + " = %s";
+            } else {
+                String capitalized = Character.toUpperCase(column.name.charAt(0)) + column.name.substring(1);
+                String getter = findMethod(entity, "get" + capitalized, 0);
+                if(getter == null && column.type.equals("boolean")) {
+                    getter = findMethod(entity, "is" + capitalized, 0);
+                }
+                String setter = findMethod(entity, "set" + capitalized, 1);
+                if(getter == null || setter == null) {
+                    warn(entity, "Private field " + column.name + " has no getter and setter, no Catnap mapper will be generated");
+                    return;
+                }
+                column.read = "e." + getter + "()";
+                column.write = "e." + setter + "(%s)";
+            }
+
+            if(column.id && idColumn == null) {
+                idColumn = column;
+            }
+            columns.add(column);
+        }
+
+        if(idColumn == null) {
+            warn(entity, "Entity has no @Id field, no Catnap mapper will be generated");
+            return;
+        }
+
+        String packageName = getPackage(entity);
+        String binaryName = processingEnv.getElementUtils().getBinaryName(entity).toString();
+        String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)).replace('$', '_');
+        String mapperName = simpleName + SUFFIX;
+
+        try (Writer writer = processingEnv.getFiler()
+                .createSourceFile(packageName.isEmpty() ? mapperName : packageName + "." + mapperName, entity)
+                .openWriter()) {
+            writer.write(source(entity, packageName, mapperName, columns, idColumn));
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write Catnap mapper: " + e.getMessage(), entity);
+        }
+    }
+
+    /**
+     * This method writes the java source of a mapper.
+     */
+    private String source(TypeElement entity, String packageName, String mapperName, List<Column> columns, Column idColumn) {
+        String type = entity.getQualifiedName().toString();
+        String table = getValue(getAnnotation(entity, ENTITY), "name", "none");
+        if(table.equals("none")) {
+            table = entity.getSimpleName().toString();
+        }
+
+        List<Column> valueColumns = new ArrayList<>();
+        List<Column> orderByColumns = new ArrayList<>();
+        for (Column column: columns) {
+            if(column != idColumn) {
+                valueColumns.add(column);
+            }
+            if(column.orderDirection != null) {
+                orderByColumns.add(column);
+            }
+        }
+
+        StringBuilder src = new StringBuilder();
+        if(!packageName.isEmpty()) {
+            src.append("package ").append(packageName).append(";\n\n");
+        }
+        src.append("import exceptions.CatnapException;\n\n");
+        src.append("import java.sql.PreparedStatement;\n");
+        src.append("import java.sql.ResultSet;\n");
+        src.append("import java.sql.SQLException;\n\n");
+        src.append("/**\n * Generated by catnap-processor for ").append(type).append(". Do not edit.\n */\n");
+        src.append("public final class ").append(mapperName).append(" implements util.EntityMapper {\n\n");
+
+        // column names
+        src.append("    private final static String[] COLUMNS = {");
+        for (int i = 0; i < columns.size(); i++) {
+            src.append(i == 0 ? "" : ", ").append('"').append(columns.get(i).name).append('"');
+        }
+        src.append("};\n\n");
+
+        // sql templates, these must match the ones built by AnnotationStrategy
+        StringBuilder insert = new StringBuilder("INSERT INTO " + table + " (");
+        StringBuilder values = new StringBuilder(" VALUES (");
+        StringBuilder update = new StringBuilder("UPDATE " + table + " SET ");
+        for (int i = 0; i < valueColumns.size(); i++) {
+            String separator = i == 0 ? "" : ", ";
+            insert.append(separator).append(valueColumns.get(i).name);
+            values.append(separator).append("?");
+            update.append(separator).append(valueColumns.get(i).name).append(" = ?");
+        }
+        insert.append(")").append(values).append(");");
+        update.append(" WHERE ").append(idColumn.name).append(" = ?;");
+
+        StringBuilder getAll = new StringBuilder("SELECT * FROM " + table);
+        for (int i = 0; i < orderByColumns.size(); i++) {
+            getAll.append(i == 0 ? " ORDER BY " : ", ").append(orderByColumns.get(i).name).append(" ").append(orderByColumns.get(i).orderDirection);
+        }
+        getAll.append(";");
+
+        method(src, "String[] getColumnNames()", "return COLUMNS.clone();");
+        method(src, "String getInsertSql()", "return \"" + insert + "\";");
+        method(src, "String getGetSql()", "return \"SELECT * FROM " + table + " WHERE " + idColumn.name + " = ?;\";");
+        method(src, "String getGetAllSql()", "return \"" + getAll + "\";");
+        method(src, "String getUpdateSql()", "return \"" + update + "\";");
+        method(src, "String getDeleteSql()", "return \"DELETE FROM " + table + " WHERE " + idColumn.name + " = ?;\";");
+
+        // binders
+        StringBuilder bindInsert = new StringBuilder(type + " e = (" + type + ") entity;\n");
+        for (int i = 0; i < valueColumns.size(); i++) {
+            bindInsert.append("        ").append(bind(valueColumns.get(i), i + 1)).append("\n");
+        }
+        method(src, "void bindInsert(PreparedStatement statement, Object entity) throws SQLException", bindInsert.toString().trim());
+
+        StringBuilder bindUpdate = new StringBuilder(type + " e = (" + type + ") entity;\n");
+        for (int i = 0; i < valueColumns.size(); i++) {
+            bindUpdate.append("        ").append(bind(valueColumns.get(i), i + 1)).append("\n");
+        }
+        bindUpdate.append("        ").append(bind(idColumn, valueColumns.size() + 1));
+        method(src, "void bindUpdate(PreparedStatement statement, Object entity) throws SQLException", bindUpdate.toString().trim());
+
+        // hydration
+        StringBuilder hydrate = new StringBuilder(type + " e = (" + type + ") newInstance();\n");
+        for (int i = 0; i < columns.size(); i++) {
+            hydrate.append("        if(columns[" + i + "] != 0) ").append(hydrate(columns.get(i), i)).append("\n");
+        }
+        hydrate.append("        return e;");
+        method(src, "Object hydrate(ResultSet rs, int[] columns) throws SQLException, CatnapException", hydrate.toString());
+
+        // accessor
+        method(src, "Object newInstance() throws CatnapException", hasNoArgConstructor(entity)
+                ? "return new " + type + "();"
+                : "throw new CatnapException(\"Tried initializing an entity of type " + type + " and failed. It may be missing a no arg constructor!\");");
+        accessorSwitch(src, type, columns, "Object get(Object entity, int column)", null, true);
+        accessorSwitch(src, type, columns, "void set(Object entity, int column, Object value)", null, false);
+        for (String primitive: new String[]{"int", "long", "double", "boolean"}) {
+            String name = PRIMITIVES.get(primitive)[0];
+            accessorSwitch(src, type, columns, primitive + " get" + name + "(Object entity, int column)", primitive, true);
+            accessorSwitch(src, type, columns, "void set" + name + "(Object entity, int column, " + primitive + " value)", primitive, false);
+        }
+
+        src.append("}\n");
+        return src.toString();
+    }
+
+    private void method(StringBuilder src, String signature, String body) {
+        src.append("    @Override\n    public ").append(signature).append(" {\n        ").append(body).append("\n    }\n\n");
+    }
+
+    /**
+     * This method writes a switch over the column index for one of the EntityAccessor methods. When
+     * onlyType is set, only columns of that exact type are handled.
+     */
+    private void accessorSwitch(StringBuilder src, String type, List<Column> columns, String signature, String onlyType, boolean getter) {
+        StringBuilder body = new StringBuilder(type + " e = (" + type + ") entity;\n        switch (column) {\n");
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            if(onlyType != null && !column.type.equals(onlyType)) {
+                continue;
+            }
+
+            body.append("            case ").append(i).append(":\n");
+            if(getter) {
+                body.append("                return ").append(column.read).append(";\n");
+            } else {
+                String value = onlyType != null ? "value" : "(" + boxed(column.type) + ") value";
+                body.append("                ").append(String.format(column.write, value)).append(";\n");
+                body.append("                return;\n");
+            }
+        }
+        body.append("            default:\n");
+        body.append("                throw new CatnapException(\"Column \" + column + \" of entity: ").append(type)
+                .append(" can't be accessed with ").append(signature.substring(signature.indexOf(' ') + 1, signature.indexOf('('))).append("\");\n");
+        body.append("        }");
+        method(src, signature + " throws CatnapException", body.toString());
+    }
+
+    private String bind(Column column, int index) {
+        String[] primitive = PRIMITIVES.get(column.type);
+        if(primitive != null) {
+            return "statement.set" + primitive[0] + "(" + index + ", " + column.read + ");";
+        }
+        if(column.type.equals("char")) {
+            return "statement.setString(" + index + ", String.valueOf(" + column.read + "));";
+        }
+        if(column.type.equals("java.lang.String")) {
+            return "statement.setString(" + index + ", " + column.read + ");";
+        }
+        String columnType = WRAPPER_COLUMN_TYPES.get(column.type);
+        if(columnType != null) {
+            return "util.ColumnType." + columnType + ".bind(statement, " + index + ", " + column.read + ");";
+        }
+        return "statement.setObject(" + index + ", " + column.read + ");";
+    }
+
+    private String hydrate(Column column, int position) {
+        String label = "columns[" + position + "]";
+        String[] primitive = PRIMITIVES.get(column.type);
+        if(primitive != null) {
+            return String.format(column.write, "rs.get" + primitive[0] + "(" + label + ")") + ";";
+        }
+        if(column.type.equals("char") || column.type.equals("java.lang.Character")) {
+            String value = "rs.getString(" + label + ")";
+            return "{ String v = " + value + "; " + String.format(column.write, column.type.equals("char")
+                    ? "v == null || v.isEmpty() ? '\\0' : v.charAt(0)"
+                    : "v == null || v.isEmpty() ? null : Character.valueOf(v.charAt(0))") + "; }";
+        }
+        if(column.type.equals("java.lang.String")) {
+            return String.format(column.write, "rs.getString(" + label + ")") + ";";
+        }
+        String wrapper = WRAPPERS.get(column.type);
+        if(wrapper != null) {
+            return "{ " + column.type + " v = rs.get" + wrapper + "(" + label + "); "
+                    + String.format(column.write, "rs.wasNull() ? null : v") + "; }";
+        }
+        return String.format(column.write, "(" + column.type + ") rs.getObject(" + label + ")") + ";";
+    }
+
+    private String boxed(String type) {
+        String[] primitive = PRIMITIVES.get(type);
+        if(primitive != null) {
+            return primitive[1];
+        }
+        return type.equals("char") ? "Character" : type;
+    }
+
+    private boolean hasNoArgConstructor(TypeElement entity) {
+        List<ExecutableElement> constructors = ElementFilter.constructorsIn(entity.getEnclosedElements());
+        for (ExecutableElement constructor: constructors) {
+            if(constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return constructors.isEmpty();
+    }
+
+    private String findMethod(TypeElement entity, String name, int parameters) {
+        for (ExecutableElement method: ElementFilter.methodsIn(entity.getEnclosedElements())) {
+            if(method.getSimpleName().contentEquals(name) && method.getParameters().size() == parameters
+                    && !method.getModifiers().contains(Modifier.PRIVATE) && !method.getModifiers().contains(Modifier.STATIC)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private String getPackage(TypeElement entity) {
+        Element element = entity;
+        while (!(element instanceof PackageElement)) {
+            element = element.getEnclosingElement();
+        }
+        return ((PackageElement) element).getQualifiedName().toString();
+    }
+
+    private AnnotationMirror getAnnotation(Element element, String annotationType) {
+        for (AnnotationMirror mirror: element.getAnnotationMirrors()) {
+            if(((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationType)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private String getValue(AnnotationMirror mirror, String name, String defaultValue) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry: mirror.getElementValues().entrySet()) {
+            if(entry.getKey().getSimpleName().contentEquals(name)) {
+                return String.valueOf(entry.getValue().getValue());
+            }
+        }
+        return defaultValue;
+    }
+
+    private void warn(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message, element);
+    }
+}
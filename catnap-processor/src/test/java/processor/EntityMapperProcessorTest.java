@@ -0,0 +1,206 @@
+package processor;
+
+import annotations.Entity;
+import exceptions.CatnapException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.EntityMapper;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class EntityMapperProcessorTest {
+
+    private final static String PLANT = "package models;\n"
+            + "import annotations.*;\n"
+            + "@Entity(name = \"Plants\")\n"
+            + "public class Plant {\n"
+            + "    @Id public int plantId;\n"
+            + "    public String species;\n"
+            + "    @OrderBy(direction = \"DESC\") public Double height;\n"
+            + "}\n";
+
+    private final static String ACCOUNT = "package models;\n"
+            + "import annotations.*;\n"
+            + "@Entity\n"
+            + "public class Account {\n"
+            + "    @Id private long id;\n"
+            + "    private boolean active;\n"
+            + "    public long getId() { return id; }\n"
+            + "    public void setId(long id) { this.id = id; }\n"
+            + "    public boolean isActive() { return active; }\n"
+            + "    public void setActive(boolean active) { this.active = active; }\n"
+            + "}\n";
+
+    private final static String FROZEN = "package models;\n"
+            + "import annotations.*;\n"
+            + "@Entity\n"
+            + "public class Frozen {\n"
+            + "    @Id public int id;\n"
+            + "    public final String code = \"x\";\n"
+            + "}\n";
+
+    private final static String OUTER = "package models;\n"
+            + "import annotations.*;\n"
+            + "public class Outer {\n"
+            + "    @Entity public class Inner { @Id public int id; }\n"
+            + "    @Entity public static abstract class Base { @Id public int id; }\n"
+            + "    @Entity public static class Nested { @Id public int id; }\n"
+            + "}\n";
+
+    @TempDir
+    Path output;
+
+    private final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+    /**
+     * This method compiles the given sources with the processor and returns a class loader for the output.
+     */
+    private ClassLoader compile(String... sources) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<JavaFileObject> units = new ArrayList<>();
+        for (String source: sources) {
+            String name = source.substring(source.indexOf("class ") + 6, source.indexOf(' ', source.indexOf("class ") + 6));
+            units.add(new SimpleJavaFileObject(URI.create("string:///models/" + name + ".java"), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            });
+        }
+
+        // the generated code needs the catnap classes, which are on the test classpath
+        String classpath = new File(Entity.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, null)) {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics,
+                    Arrays.asList("-classpath", classpath, "-d", output.toString(), "-s", output.toString()), null, units);
+            task.setProcessors(Collections.singletonList(new EntityMapperProcessor()));
+
+            assertTrue(task.call(), () -> "compilation failed: " + messages(Diagnostic.Kind.ERROR));
+        }
+
+        return new URLClassLoader(new URL[]{output.toUri().toURL()}, getClass().getClassLoader());
+    }
+
+    private EntityMapper mapper(ClassLoader loader, String entityType) throws Exception {
+        return (EntityMapper) loader.loadClass(EntityMapper.mapperName(loader.loadClass(entityType)))
+                .getDeclaredConstructor().newInstance();
+    }
+
+    private boolean generated(String mapperName) {
+        return Files.exists(output.resolve("models").resolve(mapperName + ".java"));
+    }
+
+    private List<String> messages(Diagnostic.Kind kind) {
+        return diagnostics.getDiagnostics().stream()
+                .filter(diagnostic -> diagnostic.getKind() == kind)
+                .map(diagnostic -> diagnostic.getMessage(null))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testPublicFields() throws Exception {
+        EntityMapper mapper = mapper(compile(PLANT), "models.Plant");
+
+        assertArrayEquals(new String[]{"plantId", "species", "height"}, mapper.getColumnNames());
+        assertEquals("INSERT INTO Plants (species, height) VALUES (?, ?);", mapper.getInsertSql());
+        assertEquals("SELECT * FROM Plants ORDER BY height DESC;", mapper.getGetAllSql());
+        assertEquals("UPDATE Plants SET species = ?, height = ? WHERE plantId = ?;", mapper.getUpdateSql());
+    }
+
+    @Test
+    public void testPrivateFieldsWithAccessors() throws Exception {
+        EntityMapper mapper = mapper(compile(ACCOUNT), "models.Account");
+        Object account = mapper.newInstance();
+
+        mapper.setLong(account, 0, 12L);
+        mapper.setBoolean(account, 1, true);
+
+        assertEquals(12L, mapper.getLong(account, 0));
+        assertTrue(mapper.getBoolean(account, 1));
+        assertEquals(12L, account.getClass().getMethod("getId").invoke(account));
+    }
+
+    @Test
+    public void testFinalFieldFallsBackToRuntimeMapping() throws Exception {
+        compile(FROZEN);
+
+        assertFalse(generated("Frozen_CatnapMapper"));
+        assertTrue(messages(Diagnostic.Kind.WARNING).stream().anyMatch(message -> message.contains("Final field code")));
+    }
+
+    @Test
+    public void testNestedAndAbstractClasses() throws Exception {
+        ClassLoader loader = compile(OUTER);
+
+        assertFalse(generated("Outer_Inner_CatnapMapper"));
+        assertFalse(generated("Outer_Base_CatnapMapper"));
+        assertTrue(generated("Outer_Nested_CatnapMapper"));
+        assertNotNull(mapper(loader, "models.Outer$Nested"));
+    }
+
+    @Test
+    public void testHydrateByColumnIndex() throws Exception {
+        EntityMapper mapper = mapper(compile(PLANT), "models.Plant");
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getInt(3)).thenReturn(4);
+        when(rs.getString(1)).thenReturn("fern");
+        when(rs.getDouble(2)).thenReturn(0.0);
+        when(rs.wasNull()).thenReturn(true);
+
+        Object plant = mapper.hydrate(rs, new int[]{3, 1, 2});
+
+        assertEquals(4, mapper.getInt(plant, 0));
+        assertEquals("fern", mapper.get(plant, 1));
+        assertNull(mapper.get(plant, 2));
+        verify(rs, never()).getObject(anyInt());
+    }
+
+    @Test
+    public void testHydrateSkipsColumnsNotSelected() throws Exception {
+        EntityMapper mapper = mapper(compile(PLANT), "models.Plant");
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getInt(1)).thenReturn(4);
+
+        Object plant = mapper.hydrate(rs, new int[]{1, 0, 0});
+
+        assertEquals(4, mapper.getInt(plant, 0));
+        assertNull(mapper.get(plant, 1));
+        verify(rs, never()).getString(anyInt());
+    }
+
+    @Test
+    public void testSetByColumnIndex() throws Exception {
+        EntityMapper mapper = mapper(compile(PLANT), "models.Plant");
+        Object plant = mapper.newInstance();
+
+        mapper.setInt(plant, 0, 9);
+        mapper.set(plant, 1, "moss");
+        mapper.set(plant, 2, 1.5);
+
+        assertEquals(9, mapper.getInt(plant, 0));
+        assertEquals("moss", mapper.get(plant, 1));
+        assertEquals(1.5, mapper.get(plant, 2));
+        assertThrows(CatnapException.class, () -> mapper.getInt(plant, 1));
+    }
+}
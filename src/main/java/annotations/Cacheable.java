@@ -0,0 +1,12 @@
+package annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Marks an @Entity whose rows are kept in the SecondLevelCache of the SessionFactory, so sessions can read
+ * them without going to the database. Meant for tables that are read much more often than they are written.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cacheable {
+}
@@ -0,0 +1,17 @@
+package exceptions;
+
+/**
+ * This exception wraps a CatnapException where a checked exception can't be thrown, such as while a
+ * Stream of entities is being consumed.
+ */
+public class UncheckedCatnapException extends RuntimeException {
+
+    public UncheckedCatnapException(CatnapException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized CatnapException getCause() {
+        return (CatnapException) super.getCause();
+    }
+}
@@ -0,0 +1,159 @@
+package persistence;
+
+import exceptions.CatnapException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs the operations of an EntityManager on an Executor and returns CompletableFutures, so the
+ * calling thread doesn't wait on the database. An EntityManager owns a single connection and isn't thread
+ * safe, so the operations of one AsyncEntityManager run one at a time, in the order they were submitted,
+ * each starting when the previous one is done whether it succeeded or not. Operations of different
+ * AsyncEntityManagers run concurrently.
+ *
+ * A failed operation completes its future exceptionally with a CompletionException wrapping the
+ * CatnapException. Use SessionFactory.createAsyncEntityManager to get one.
+ */
+public class AsyncEntityManager {
+
+    /**
+     * An operation run against the EntityManager of an AsyncEntityManager.
+     *
+     * @param <T>       the type of the operation's result
+     */
+    @FunctionalInterface
+    public interface Operation<T> {
+        T run(EntityManager em) throws CatnapException;
+    }
+
+    private final static Logger logger = LogManager.getLogger(AsyncEntityManager.class);
+
+    private final EntityManager entityManager;
+    private final Executor executor;
+    private CompletableFuture<?> last;
+
+    public AsyncEntityManager(EntityManager entityManager, Executor executor) {
+        this.entityManager = entityManager;
+        this.executor = executor;
+        this.last = CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * This method creates the executor used when none is configured: a virtual thread per task on Java 21
+     * and later, where a thread blocked on JDBC is cheap, and otherwise a fixed pool of daemon threads.
+     * Virtual threads are looked up by reflection since Catnap is compiled for Java 8.
+     *
+     * @param poolSize       the number of threads of the pool used before Java 21
+     * @return               the executor
+     */
+    public static ExecutorService createDefaultExecutor(int poolSize) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.info("Virtual threads aren't available, using a pool of " + poolSize + " threads for async entity managers.");
+        }
+
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "catnap-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        return Executors.newFixedThreadPool(poolSize, threadFactory);
+    }
+
+    /**
+     * @see EntityManager#get(Class, int)
+     */
+    public CompletableFuture<Optional<Object>> get(Class<?> clazz, int id) {
+        return submit(em -> em.get(clazz, id));
+    }
+
+    /**
+     * @see EntityManager#getAll(Class)
+     */
+    public CompletableFuture<List<Object>> getAll(Class<?> clazz) {
+        return submit(em -> em.getAll(clazz));
+    }
+
+    /**
+     * @see EntityManager#persist(Object)
+     */
+    public CompletableFuture<Void> persist(Object entity) {
+        return submit(em -> {
+            em.persist(entity);
+            return null;
+        });
+    }
+
+    /**
+     * @see EntityManager#update(Object)
+     */
+    public CompletableFuture<Void> update(Object entity) {
+        return submit(em -> {
+            em.update(entity);
+            return null;
+        });
+    }
+
+    /**
+     * @see EntityManager#delete(Object)
+     */
+    public CompletableFuture<Void> delete(Object entity) {
+        return submit(em -> {
+            em.delete(entity);
+            return null;
+        });
+    }
+
+    /**
+     * This method closes the EntityManager once the operations submitted before it are done.
+     *
+     * @return               a future that completes when the EntityManager is closed
+     */
+    public CompletableFuture<Void> close() {
+        return submit(em -> {
+            em.close();
+            return null;
+        });
+    }
+
+    /**
+     * This method runs any operation on the EntityManager after the ones submitted before it, e.g. a
+     * transaction made of several calls.
+     *
+     * @param operation      the operation to run
+     * @param <T>            the type of the operation's result
+     * @return               a future of the operation's result
+     */
+    public synchronized <T> CompletableFuture<T> submit(Operation<T> operation) {
+        CompletableFuture<T> next = last.handleAsync((result, failure) -> {
+            try {
+                return operation.run(entityManager);
+            } catch (CatnapException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+        last = next;
+
+        return next;
+    }
+
+    /**
+     * @return               the EntityManager the operations run against
+     */
+    public EntityManager getEntityManager() {
+        return entityManager;
+    }
+}
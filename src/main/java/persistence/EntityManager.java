@@ -2,9 +2,19 @@ package persistence;
 
 import exceptions.CatnapException;
 import exceptions.RollbackException;
+import util.Aggregate;
+import util.Criteria;
+import util.MultiGetResult;
+import util.Page;
+import util.Query;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * This interface represents the valid operations that can be performed on a database in Catnap.
@@ -24,6 +34,18 @@ public interface EntityManager {
      */
     public Optional<Object> get(Class<?> clazz, int id) throws CatnapException;
 
+    /**
+     * This method returns the entities with the given ids. Entities in the l1 cache are taken from it and
+     * the rest are fetched from the database in as few queries as possible.
+     *
+     * @param clazz              the type of entity to be returned
+     * @param ids                the database identities of the entities to be returned
+     * @return                   the entities found, in the order of ids, and the ids that don't exist
+     * @throws CatnapException   thrown when a database operation fails, initialization of an entity fails,
+     * or when trying to illegally access a member of an entity
+     */
+    public MultiGetResult get(Class<?> clazz, Collection<Integer> ids) throws CatnapException;
+
     /**
      * This method returns a list of all entities of the type specificed by clazz. The list will be empty
      * if no entities are found.
@@ -35,6 +57,136 @@ public interface EntityManager {
      */
     public List<Object> getAll(Class<?> clazz) throws CatnapException;
 
+    /**
+     * This method counts the rows of an entity type in the database without reading them.
+     *
+     * @param clazz              the type of entity to count
+     * @return                   the number of rows
+     * @throws CatnapException   thrown when a database operation fails
+     */
+    public long count(Class<?> clazz) throws CatnapException;
+
+    /**
+     * This method tells whether an entity exists. An entity in the cache exists without asking the database.
+     *
+     * @param clazz              the type of entity to look for
+     * @param id                 the database identity of the entity
+     * @return                   whether the entity exists
+     * @throws CatnapException   thrown when a database operation fails
+     */
+    public boolean exists(Class<?> clazz, int id) throws CatnapException;
+
+    /**
+     * This method computes an aggregate of a numeric column over every row of an entity type in the database.
+     *
+     * @param clazz              the type of entity to aggregate
+     * @param function           the aggregate function
+     * @param column             the name of the column to aggregate
+     * @return                   the aggregate, or an empty OptionalDouble when there are no rows with a value
+     * @throws CatnapException   thrown when the column isn't mapped or isn't numeric, or a database operation fails
+     */
+    public OptionalDouble aggregate(Class<?> clazz, Aggregate function, String column) throws CatnapException;
+
+    /**
+     * This method computes an aggregate of a numeric column for each value of another column of an entity type.
+     *
+     * @param clazz              the type of entity to aggregate
+     * @param function           the aggregate function
+     * @param column             the name of the column to aggregate
+     * @param groupBy            the name of the column to group the rows by
+     * @return                   the aggregate of each group by the group's value, in the order of the groups. The
+     * aggregate is null when no row of the group has a value
+     * @throws CatnapException   thrown when a column isn't mapped, the aggregated column isn't numeric, or a
+     * database operation fails
+     */
+    public Map<Object, Double> aggregate(Class<?> clazz, Aggregate function, String column, String groupBy) throws CatnapException;
+
+    /**
+     * This method returns the entities that match a Query, in the query's order. The conditions, order and
+     * limit are applied by the database.
+     *
+     * @param query              the query to run
+     * @return                   a list of the entities found in the database
+     * @throws CatnapException   thrown when the query names a column the entity doesn't map, a value has the
+     * wrong type, or a database operation fails
+     */
+    public List<Object> find(Query query) throws CatnapException;
+
+    /**
+     * This method reads only the columns in the select list of a Query, one Object[] per row with the values in
+     * the order of the select list. No entities are built and nothing is cached.
+     *
+     * @param query              the query to run
+     * @return                   the rows found in the database
+     * @throws CatnapException   thrown when the query names a column the entity doesn't map, a value has the
+     * wrong type, or a database operation fails
+     */
+    public List<Object[]> select(Query query) throws CatnapException;
+
+    /**
+     * This method reads only the columns in the select list of a Query into instances of a DTO type. The DTO
+     * needs either a constructor taking the selected columns in order, or a no argument constructor and fields
+     * named like the columns. No entities are built and nothing is cached.
+     *
+     * @param query              the query to run
+     * @param type               the type of the DTO
+     * @param <T>                the type of the DTO
+     * @return                   a DTO for each row found in the database
+     * @throws CatnapException   thrown when the query names a column the entity doesn't map, the DTO can't hold
+     * the selected columns, a value has the wrong type, or a database operation fails
+     */
+    public <T> List<T> select(Query query, Class<T> type) throws CatnapException;
+
+    /**
+     * This method returns one page of the entities of the type specified by clazz, ordered by their @OrderBy
+     * fields and then their id. Pages are found by the keyset values of the last row of the previous page
+     * instead of an offset, so reading a deep page costs the same as reading the first one.
+     *
+     * @param clazz              the type of entity to get a page of
+     * @param pageSize           the most entities in the page
+     * @param token              the next token of the previous page, or null for the first page
+     * @return                   the entities of the page and the token of the page after it
+     * @throws CatnapException   thrown when the type has no id, the token isn't valid or a database operation fails
+     */
+    public Page getPage(Class<?> clazz, int pageSize, String token) throws CatnapException;
+
+    /**
+     * This method sets columns of every row of an entity type that matches a condition with a single statement,
+     * without reading the rows. Cached entities that may have changed are removed from the cache.
+     *
+     * @param clazz              the type of entity to update
+     * @param values             the new value of each column to set, by column name
+     * @param where              the condition the updated rows meet
+     * @return                   the number of rows updated
+     * @throws CatnapException   thrown when a column isn't mapped or is the id, a value has the wrong type, or a
+     * database operation fails
+     */
+    public int updateWhere(Class<?> clazz, Map<String, ?> values, Criteria where) throws CatnapException;
+
+    /**
+     * This method deletes every row of an entity type that matches a condition with a single statement, without
+     * reading the rows. Cached entities that may have been deleted are removed from the cache.
+     *
+     * @param clazz              the type of entity to delete
+     * @param where              the condition the deleted rows meet
+     * @return                   the number of rows deleted
+     * @throws CatnapException   thrown when a column isn't mapped, a value has the wrong type, or a database
+     * operation fails
+     */
+    public int deleteWhere(Class<?> clazz, Criteria where) throws CatnapException;
+
+    /**
+     * This method returns a stream of all entities of the type specified by clazz that reads them from the
+     * database as it is consumed, so that tables bigger than the memory can be read. The stream must be closed
+     * when it is no longer needed.
+     *
+     * @param clazz              the type of entity to get all records of
+     * @param cacheResults       whether the entities should be added to the l1 cache as they are read
+     * @return                   a stream of the entities found in the database
+     * @throws CatnapException   thrown when a database operation fails
+     */
+    public Stream<Object> stream(Class<?> clazz, boolean cacheResults) throws CatnapException;
+
     /**
      * This method deletes an entity from the database.
      *
@@ -45,7 +197,8 @@ public interface EntityManager {
 
     /**
      * This method saves the entity to the database. The entity must not have existed
-     * in the database before this call. To update entities use update.
+     * in the database before this call. To update entities use update. The id generated
+     * by the database is written to the entity.
      *
      * @param entity   the entity to add to the database
      * @throws CatnapException   thrown when a database operation fails
@@ -61,9 +214,90 @@ public interface EntityManager {
      */
     public void update(Object entity) throws CatnapException;
 
+    /**
+     * This method inserts an entity with its id, or updates the row with that id if there already is one, in
+     * a single statement. The entity is then refreshed with the row as stored by the database and cached.
+     * An entity whose id is 0 has no row yet, it is inserted like persist and gets a generated id.
+     *
+     * @param entity             the entity to insert or update
+     * @throws CatnapException   thrown when the entity has no id field or a database operation fails
+     */
+    public void upsert(Object entity) throws CatnapException;
+
+    /**
+     * This method inserts or updates a collection of entities like upsert, in multi row statements. When
+     * several entities have the same type and id, the last one is written and all of them are refreshed.
+     * Entities whose id is 0 are each inserted as a new row with a generated id.
+     *
+     * @param entities           the entities to insert or update
+     * @throws CatnapException   thrown when an entity has no id field or a database operation fails
+     */
+    public void upsertAll(Collection<?> entities) throws CatnapException;
+
+    /**
+     * This method saves a collection of entities to the database. The entities are grouped by type and
+     * sent in multi row inserts, so only a few round trips are needed for many entities. The ids generated
+     * by the database are written to the entities. Batches that were
+     * sent before a failure stay in the database unless this is called inside a transaction.
+     *
+     * @param entities           the entities to add to the database
+     * @throws CatnapException   thrown when a database operation fails
+     */
+    public void persistAll(Collection<?> entities) throws CatnapException;
+
+    /**
+     * This method updates a collection of entities in the database using JDBC batches. Like update, only
+     * the changed columns of entities loaded through this EntityManager are written.
+     *
+     * @param entities           the entities to update with their new data
+     * @throws CatnapException   thrown when a database operation fails
+     */
+    public void updateAll(Collection<?> entities) throws CatnapException;
+
+    /**
+     * This method deletes a collection of entities from the database using JDBC batches.
+     *
+     * @param entities           the entities to delete
+     * @throws CatnapException   thrown when a database operation fails
+     */
+    public void deleteAll(Collection<?> entities) throws CatnapException;
+
+    /**
+     * This method loads entities into their table with the Postgres COPY command, which is much faster than
+     * inserts for large numbers of rows. The rows are encoded straight from the mapped fields and streamed to
+     * the database. The ids are generated by the database and are not written back, and the entities are not
+     * cached.
+     *
+     * @param clazz              the type of the entities
+     * @param entities           the entities to load, all of type clazz
+     * @return                   the number of rows loaded
+     * @throws CatnapException   thrown when the database isn't Postgres or the copy fails
+     */
+    public long copyIn(Class<?> clazz, Iterable<?> entities) throws CatnapException;
+
+    /**
+     * This method exports every row of an entity type's table with the Postgres COPY command and streams
+     * them to a consumer as entities, one row at a time. The entities are not cached.
+     *
+     * @param clazz              the type of entity to export
+     * @param consumer           receives each entity as soon as its row arrives
+     * @return                   the number of rows exported
+     * @throws CatnapException   thrown when the database isn't Postgres, the copy fails or an entity can't be built
+     */
+    public long copyOut(Class<?> clazz, Consumer<Object> consumer) throws CatnapException;
+
+    /**
+     * This method sends the writes queued in the current transaction to the database without committing
+     * them. It does nothing outside of a transaction.
+     *
+     * @throws CatnapException   thrown when a database operation fails
+     */
+    public void flush() throws CatnapException;
+
     /**
      * This method is used to begin a transaction. To add commands to a transaction call
-     * session methods as normal after calling this method.
+     * session methods as normal after calling this method. The writes are queued and sent to the
+     * database in batches when the transaction is flushed or committed.
      * @throws CatnapException   thrown when the transaction creation fails
      */
     public void beginTransaction() throws CatnapException;
@@ -84,6 +318,14 @@ public interface EntityManager {
      */
     public void rollback() throws CatnapException;
 
+    /**
+     * This method estimates the heap used by the entities cached by this session. Sessions tied to a web
+     * session live as long as it, so this can be used to watch or cap the memory of each user.
+     *
+     * @return                     the estimated size of the cached entities, in bytes
+     */
+    public long getCacheMemoryUsage();
+
     /**
      * This ends the session, releasing any connections to the database that this session had.
      *
@@ -2,21 +2,40 @@ package persistence;
 
 import exceptions.CatnapException;
 import exceptions.RollbackException;
+import exceptions.UncheckedCatnapException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOperation;
+import org.postgresql.copy.CopyOut;
 import util.*;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class represents the persistence and is used to persist entities. It maintains a cache of
- * entities.
+ * entities. Entities are created and filled through the EntityAccessor of their EntityMetadata.
  *
  * Entities are cached in the database operating methods (defined in EntityManager). This class' methods
  * work in the following way:
@@ -25,18 +44,47 @@ import java.util.stream.Collectors;
  * 2. The helper method returns a CatnapResult or List<CatnapResult> object depending on the method
  * 3. Method caches result.
  * 4. entity is returned
+ *
+ * Statements are prepared through the StatementCache of the Session's connection, so they are reused
+ * by every Session that borrows the same connection and must not be closed here.
  */
 public class Session implements EntityManager {
 
     private final Connection connection;
+    private final StatementCache statementCache;
     private final MappingStrategy mappingStrategy;
     private final CatnapCache cache;
     private final SessionFactory factory;
+    private SecondLevelCache sharedCache;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private Transaction transaction;
 
     private final static Logger logger = LogManager.getLogger(Session.class);
 
-    public Session(Connection connection, MappingStrategy mappingStrategy, CatnapCache cache, SessionFactory factory) {
+    /**
+     * The number of statements sent in one JDBC batch by persistAll, updateAll and deleteAll by default.
+     */
+    public final static int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * The number of rows fetched from a server side cursor at a time by stream by default.
+     */
+    public final static int DEFAULT_FETCH_SIZE = 1000;
+
+    /**
+     * The most parameters bound to one multi row insert, which stays under the limit of the Postgres driver.
+     */
+    public final static int MAX_PARAMETERS = 32767;
+
+    /**
+     * The number of characters of encoded rows collected before they are sent to a COPY FROM STDIN.
+     */
+    private final static int COPY_BUFFER_SIZE = 1 << 16;
+
+    public Session(Connection connection, StatementCache statementCache, MappingStrategy mappingStrategy, CatnapCache cache, SessionFactory factory) {
         this.connection = connection;
+        this.statementCache = statementCache;
         this.mappingStrategy = mappingStrategy;
         this.cache = cache;
         this.factory = factory;
@@ -44,7 +92,7 @@ public class Session implements EntityManager {
 
     /**
      * This method gets an instance of an entity based on the entity's id. If the entity has been cached
-     * it will return the cached version. We take the ResultSet from the query and use reflection to loop
+     * it will return the cached version. We take the ResultSet from the query and use the entity's accessor to loop
      * through the fields of the entity, using the column name-field name mapping to get the data out of the
      * ResultSet and put them into the entity object.
      *
@@ -56,26 +104,27 @@ public class Session implements EntityManager {
      */
     @Override
     public Optional<Object> get(Class<?> clazz, int id) throws CatnapException {
-
-        Optional<CatnapResult> entityOp;
+        flushPending();
 
         // get the entity
-        if(cache.contains(clazz, id)) {
-            entityOp = cache.get(clazz, id);
+        CatnapResult cached = cache.getIfPresent(clazz, id);
+        if(cached != null) {
+            return Optional.of(cached.getEntity());
+        }
+
+        Optional<CatnapResult> entityOp = getShared(clazz, id);
+        if(entityOp.isPresent()) {
+            cache.store(entityOp.get());
         } else {
-            String sql;
-            try {
-                sql = this.mappingStrategy.get(clazz, id);
-            } catch (InvocationTargetException | NoSuchMethodException | IllegalAccessException e) {
-                String s = "There was an error trying to get a model of type: " + clazz.getName() + ", got: " + e.getMessage();
-                throw new CatnapException(s);
-            }
+            long version = sharedVersion(clazz);
+            String sql = this.mappingStrategy.get(clazz);
 
             PreparedStatement query;
             ResultSet rs;
 
             try {
-                query = this.connection.prepareStatement(sql);
+                query = this.statementCache.prepare(sql);
+                query.setInt(1, id);
                 rs = query.executeQuery();
 
             } catch (SQLException e) {
@@ -94,9 +143,11 @@ public class Session implements EntityManager {
                 throw new CatnapException(s);
             }
 
-            entityOp = buildEntity(clazz, rs);
+            entityOp = buildEntity(clazz, rs, columnPlan(clazz, sql, rs));
             if(entityOp.isPresent()) {
+                entityOp.get().takeSnapshot();
                 cache.store(entityOp.get());
+                storeShared(Collections.singletonList(entityOp.get()), version);
             }
         }
 
@@ -114,18 +165,269 @@ public class Session implements EntityManager {
      */
     @Override
     public List<Object> getAll(Class<?> clazz) throws CatnapException {
-        String sql = null;
+        flushPending();
+
+        long version = sharedVersion(clazz);
+        String sql = this.mappingStrategy.getAll(clazz);
+        PreparedStatement query;
+        ResultSet rs;
+
         try {
-            sql = this.mappingStrategy.getAll(clazz);
-        } catch (InvocationTargetException | NoSuchMethodException | IllegalAccessException e) {
-            String s = "There was an error trying to get all of a model of type: " + clazz.getName() + ", got: " + e.getMessage();
+            query = this.statementCache.prepare(sql);
+            rs = query.executeQuery();
+
+        } catch (SQLException e) {
+            String s = "There was an error performing a select on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
             throw new CatnapException(s);
         }
-        PreparedStatement query;
+
+        List<CatnapResult> entities = readEntities(clazz, sql, rs);
+        cache.store(entities);
+        storeShared(entities, version);
+
+        return entities.stream()
+                .map(CatnapResult::getEntity)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * This method counts the rows of an entity type with SELECT count(*).
+     *
+     * @param clazz              the type of entity to count
+     * @return                   the number of rows
+     * @throws CatnapException   thrown when an error occurs in accessing the database or database objects
+     */
+    @Override
+    public long count(Class<?> clazz) throws CatnapException {
+        flushPending();
+
+        String sql = this.mappingStrategy.count(clazz);
+        try {
+            PreparedStatement query = this.statementCache.prepare(sql);
+            try (ResultSet rs = query.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            String s = "There was an error performing a count on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+    }
+
+    /**
+     * This method tells whether an entity exists. The cache is checked first, and only when the entity isn't
+     * in it is the database asked with SELECT EXISTS, which doesn't read the row.
+     *
+     * @param clazz              the type of entity to look for
+     * @param id                 the database identity of the entity
+     * @return                   whether the entity exists
+     * @throws CatnapException   thrown when an error occurs in accessing the database or database objects
+     */
+    @Override
+    public boolean exists(Class<?> clazz, int id) throws CatnapException {
+        flushPending();
+
+        if(cache.contains(clazz, id)) {
+            return true;
+        }
+
+        String sql = this.mappingStrategy.exists(clazz);
+        try {
+            PreparedStatement query = this.statementCache.prepare(sql);
+            query.setInt(1, id);
+            try (ResultSet rs = query.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        } catch (SQLException e) {
+            String s = "There was an error performing a select on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+    }
+
+    /**
+     * This method computes an aggregate of a numeric column in the database.
+     *
+     * @param clazz              the type of entity to aggregate
+     * @param function           the aggregate function
+     * @param column             the name of the column to aggregate
+     * @return                   the aggregate, or an empty OptionalDouble when there are no rows with a value
+     * @throws CatnapException   thrown when the column isn't mapped or isn't numeric, or when an error occurs in
+     * accessing the database or database objects
+     */
+    @Override
+    public OptionalDouble aggregate(Class<?> clazz, Aggregate function, String column) throws CatnapException {
+        flushPending();
+
+        String sql = this.mappingStrategy.aggregate(clazz, function, column, null);
+        try {
+            PreparedStatement query = this.statementCache.prepare(sql);
+            try (ResultSet rs = query.executeQuery()) {
+                if(!rs.next()) {
+                    return OptionalDouble.empty();
+                }
+                double value = rs.getDouble(1);
+                return rs.wasNull() ? OptionalDouble.empty() : OptionalDouble.of(value);
+            }
+        } catch (SQLException e) {
+            String s = "There was an error computing an aggregate on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+    }
+
+    /**
+     * This method computes an aggregate of a numeric column for each value of another column in the database.
+     *
+     * @param clazz              the type of entity to aggregate
+     * @param function           the aggregate function
+     * @param column             the name of the column to aggregate
+     * @param groupBy            the name of the column to group the rows by
+     * @return                   the aggregate of each group by the group's value, in the order of the groups
+     * @throws CatnapException   thrown when a column isn't mapped, the aggregated column isn't numeric, or when
+     * an error occurs in accessing the database or database objects
+     */
+    @Override
+    public Map<Object, Double> aggregate(Class<?> clazz, Aggregate function, String column, String groupBy) throws CatnapException {
+        flushPending();
+
+        String sql = this.mappingStrategy.aggregate(clazz, function, column, groupBy);
+        ColumnType groupType = EntityMetadata.of(clazz).getColumn(groupBy)
+                .orElseThrow(() -> new CatnapException("Entity type: " + clazz.getName() + " has no mapped column " + groupBy))
+                .getColumnType();
+        Map<Object, Double> groups = new LinkedHashMap<>();
+
+        try {
+            PreparedStatement query = this.statementCache.prepare(sql);
+            try (ResultSet rs = query.executeQuery()) {
+                while(rs.next()) {
+                    Object group = groupType.read(rs, 1);
+                    double value = rs.getDouble(2);
+                    groups.put(group, rs.wasNull() ? null : value);
+                }
+            }
+        } catch (SQLException e) {
+            String s = "There was an error computing an aggregate on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+
+        return groups;
+    }
+
+    /**
+     * This method gets the entities that match a Query. The query is compiled by the MappingStrategy to a
+     * template that is shared by every query of the same shape, so its prepared statement is reused. The
+     * entities are cached like the ones returned by getAll.
+     *
+     * @param query              the query to run
+     * @return                   a list of the entities, in the query's order
+     * @throws CatnapException   thrown when the query names a column the entity doesn't map, a value has the
+     * wrong type, a field can't be accessed, when the entity can't be instantiated, or when an error occurs in
+     * accessing the database or database objects
+     */
+    @Override
+    public List<Object> find(Query query) throws CatnapException {
+        flushPending();
+
+        Class<?> clazz = query.getEntityType();
+        String sql = this.mappingStrategy.query(query);
+        ResultSet rs;
+
+        try {
+            PreparedStatement statement = this.statementCache.prepare(sql);
+            this.mappingStrategy.bindQuery(statement, query);
+            rs = statement.executeQuery();
+
+        } catch (SQLException e) {
+            String s = "There was an error performing a select on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+
+        List<CatnapResult> entities = readEntities(clazz, sql, rs);
+        cache.store(entities);
+
+        return entities.stream()
+                .map(CatnapResult::getEntity)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * This method reads the select list of a Query into rows. The values are read by position with the typed
+     * getter of each column, without building or caching entities.
+     *
+     * @param query              the query to run
+     * @return                   the values of each row, in the order of the select list
+     * @throws CatnapException   thrown when the query names a column the entity doesn't map, a value has the
+     * wrong type, or when an error occurs in accessing the database or database objects
+     */
+    @Override
+    public List<Object[]> select(Query query) throws CatnapException {
+        return selectRows(query, query.getSelectedColumns());
+    }
+
+    /**
+     * This method reads the select list of a Query into DTOs. How a DTO is built from the columns is resolved
+     * once per DTO type and select list by Projection.
+     *
+     * @param query              the query to run
+     * @param type               the type of the DTO
+     * @param <T>                the type of the DTO
+     * @return                   a DTO for each row
+     * @throws CatnapException   thrown when the query names a column the entity doesn't map, the DTO can't hold
+     * the selected columns, a value has the wrong type, or when an error occurs in accessing the database or
+     * database objects
+     */
+    @Override
+    public <T> List<T> select(Query query, Class<T> type) throws CatnapException {
+        List<ColumnMetadata> columns = query.getSelectedColumns();
+        Projection projection = Projection.of(type, columns);
+
+        List<Object[]> rows = selectRows(query, columns);
+        List<T> dtos = new ArrayList<>(rows.size());
+        for (Object[] row: rows) {
+            dtos.add(type.cast(projection.map(row)));
+        }
+
+        return dtos;
+    }
+
+    /**
+     * This method gets one page of the entities of type Class in keyset order. One more row than pageSize is
+     * asked for to tell whether there is a next page, whose token holds the keyset values of the last entity
+     * of this page. The entities are cached like the ones returned by getAll.
+     *
+     * @param clazz              the type of entity to get a page of
+     * @param pageSize           the most entities in the page
+     * @param token              the next token of the previous page, or null for the first page
+     * @return                   the entities of the page and the token of the page after it
+     * @throws CatnapException   thrown when the type has no id, the token isn't valid, a field can't be accessed,
+     * when the entity can't be instantiated, or when an error occurs in accessing the database or database objects
+     */
+    @Override
+    public Page getPage(Class<?> clazz, int pageSize, String token) throws CatnapException {
+        if(pageSize < 1) {
+            throw new CatnapException("The page size must be at least 1, got: " + pageSize);
+        }
+
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        if(!metadata.getIdColumn().isPresent()) {
+            String s = "Entity type: " + clazz.getName() + " had no id field to page by!";
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+
+        Object after = token == null ? null : PageToken.decode(metadata, token);
+        flushPending();
+
+        String sql = after == null ? this.mappingStrategy.getPage(clazz) : this.mappingStrategy.getPageAfter(clazz);
         ResultSet rs;
 
         try {
-            query = this.connection.prepareStatement(sql);
+            PreparedStatement query = this.statementCache.prepare(sql);
+            this.mappingStrategy.bindPage(query, clazz, after, pageSize + 1);
             rs = query.executeQuery();
 
         } catch (SQLException e) {
@@ -134,24 +436,182 @@ public class Session implements EntityManager {
             throw new CatnapException(s);
         }
 
-        List<CatnapResult> entities = new ArrayList<>();
-        while(true) {
+        List<CatnapResult> entities = readEntities(clazz, sql, rs);
+        String nextToken = null;
+        if(entities.size() > pageSize) {
+            entities = entities.subList(0, pageSize);
+            nextToken = PageToken.encode(metadata, entities.get(pageSize - 1).getEntity());
+        }
+        cache.store(entities);
+
+        return new Page(entities.stream()
+                .map(CatnapResult::getEntity)
+                .collect(Collectors.toList()), nextToken);
+    }
+
+    /**
+     * This method runs an UPDATE of every row that matches a condition. When the condition restricts the id
+     * to a list of values, with = or IN, only the entities with those ids are removed from the cache,
+     * otherwise every cached entity of the type is.
+     *
+     * @param clazz              the type of entity to update
+     * @param values             the new value of each column to set, by column name
+     * @param where              the condition the updated rows meet
+     * @return                   the number of rows updated
+     * @throws CatnapException   thrown when a column isn't mapped or is the id, a value has the wrong type, or
+     * when an error occurs in accessing the database or database objects
+     */
+    @Override
+    public int updateWhere(Class<?> clazz, Map<String, ?> values, Criteria where) throws CatnapException {
+        if(where == null) {
+            throw new CatnapException("An update of entity type: " + clazz.getName() + " needs a condition");
+        }
+
+        return executeWhere(clazz, this.mappingStrategy.updateWhere(clazz, values.keySet(), where), values, where);
+    }
+
+    /**
+     * This method runs a DELETE of every row that matches a condition. The cache is cleared like for updateWhere.
+     *
+     * @param clazz              the type of entity to delete
+     * @param where              the condition the deleted rows meet
+     * @return                   the number of rows deleted
+     * @throws CatnapException   thrown when a column isn't mapped, a value has the wrong type, or when an error
+     * occurs in accessing the database or database objects
+     */
+    @Override
+    public int deleteWhere(Class<?> clazz, Criteria where) throws CatnapException {
+        if(where == null) {
+            throw new CatnapException("A delete of entity type: " + clazz.getName() + " needs a condition");
+        }
+
+        return executeWhere(clazz, this.mappingStrategy.deleteWhere(clazz, where), Collections.emptyMap(), where);
+    }
+
+    /**
+     * This method streams all the entities of type Class from the database without holding them in memory.
+     * The rows are read through a server side cursor, fetchSize rows at a time, and each entity is built when
+     * the stream reaches it. The cursor needs autocommit to be off, so outside of a transaction autocommit is
+     * turned off until the stream is closed. The stream holds the Session's connection, so it must be closed,
+     * e.g. with try-with-resources, before the Session is used again. Errors while the stream is consumed are
+     * thrown as UncheckedCatnapException.
+     *
+     * @param clazz              the type of entity to stream
+     * @param cacheResults       whether the entities are added to the cache as they are read
+     * @return                   a stream of the entities, in the order of getAll
+     * @throws CatnapException   thrown when the query can't be started
+     */
+    @Override
+    public Stream<Object> stream(Class<?> clazz, boolean cacheResults) throws CatnapException {
+        flushPending();
+
+        String sql = this.mappingStrategy.getAll(clazz);
+        boolean autoCommit = false;
+        PreparedStatement query = null;
+        ResultSet rs;
+
+        try {
+            autoCommit = this.connection.getAutoCommit();
+            if(autoCommit) {
+                this.connection.setAutoCommit(false);
+            }
+            query = this.connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            query.setFetchSize(this.fetchSize);
+            rs = query.executeQuery();
+        } catch (SQLException e) {
+            closeQuietly(query);
+            if(autoCommit) {
+                // later writes of the Session would never be committed otherwise
+                try {
+                    this.connection.rollback();
+                    this.connection.setAutoCommit(true);
+                } catch (SQLException ex) {
+                    logger.error("There was an error ending the transaction of a cursor. Got: " + ex.getMessage());
+                }
+            }
+            String s = "There was an error performing a select on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+
+        EntityCursor cursor = new EntityCursor(clazz, sql, query, rs, autoCommit, cacheResults);
+        return StreamSupport.stream(cursor, false).onClose(cursor::close);
+    }
+
+    /**
+     * This method gets several entities by id. The ids found in the cache are taken from it, the rest are
+     * fetched with SELECT ... WHERE id = ANY(?) queries of at most batchSize ids each, and cached.
+     *
+     * @param clazz              the type of entity to be returned
+     * @param ids                the database identities of the entities, duplicates are allowed
+     * @return                   the entities in the order of ids, and the ids that weren't found
+     * @throws CatnapException   thrown when a field can't be accessed, when the entity can't be instantiated,
+     * or when an error occurs in accessing the database or database objects
+     */
+    @Override
+    public MultiGetResult get(Class<?> clazz, Collection<Integer> ids) throws CatnapException {
+        flushPending();
+
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        Map<Integer, Object> found = new HashMap<>();
+        Set<Integer> notCached = new LinkedHashSet<>();
+        for (Integer id: ids) {
+            if(found.containsKey(id) || notCached.contains(id)) {
+                continue;
+            }
+            CatnapResult cached = cache.getIfPresent(metadata, id);
+            if(cached == null) {
+                cached = getShared(clazz, id).orElse(null);
+                if(cached != null) {
+                    cache.store(cached);
+                }
+            }
+
+            if(cached != null) {
+                found.put(id, cached.getEntity());
+            } else {
+                notCached.add(id);
+            }
+        }
+        List<Integer> uncached = new ArrayList<>(notCached);
+
+        long version = sharedVersion(clazz);
+        String sql = this.mappingStrategy.getByIds(clazz);
+        for (int offset = 0; offset < uncached.size(); offset += batchSize) {
+            List<Integer> chunk = uncached.subList(offset, Math.min(uncached.size(), offset + batchSize));
+
+            ResultSet rs;
             try {
-                if(!rs.next()) break;
+                PreparedStatement query = this.statementCache.prepare(sql);
+                Array array = this.connection.createArrayOf("integer", chunk.toArray(new Integer[0]));
+                query.setArray(1, array);
+                rs = query.executeQuery();
             } catch (SQLException e) {
-                String s = "There was an error when trying to move the cursor in the ResultSet for entity" + clazz.getName() + ". Got error: " + e.getMessage();
+                String s = "There was an error performing a select on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
                 logger.error(s);
                 throw new CatnapException(s);
             }
 
-            buildEntity(clazz, rs).ifPresent(entities::add);
+            List<CatnapResult> entities = readEntities(clazz, sql, rs);
+            for (CatnapResult entity: entities) {
+                found.put(entity.getId().orElse(null), entity.getEntity());
+            }
+            cache.store(entities);
+            storeShared(entities, version);
         }
 
-        cache.store(entities);
+        List<Object> entities = new ArrayList<>();
+        Set<Integer> missingIds = new LinkedHashSet<>();
+        for (Integer id: ids) {
+            Object entity = found.get(id);
+            if(entity != null) {
+                entities.add(entity);
+            } else {
+                missingIds.add(id);
+            }
+        }
 
-        return entities.stream()
-                .map(CatnapResult::getEntity)
-                .collect(Collectors.toList());
+        return new MultiGetResult(entities, new ArrayList<>(missingIds));
     }
 
     /**
@@ -162,25 +622,24 @@ public class Session implements EntityManager {
      */
     @Override
     public void delete(Object entity) throws CatnapException {
+        if(transaction != null) {
+            transaction.delete(entity);
+            return;
+        }
+
         CatnapResult wrappedEntity = new CatnapResult(entity);
-        Optional<Integer> entityId = wrappedEntity.getId();
+        int id = wrappedEntity.getId()
+                .orElseThrow(() -> new CatnapException("Entity type: " + entity.getClass() + " had no id field!"));
 
-        String sql = null;
-        try {
-            sql = this.mappingStrategy.delete(
-                    wrappedEntity.getEntityType(),
-                    entityId.orElseThrow(() -> new CatnapException("Entity type: " + entity.getClass() + " had no id field!"))
-            );
-        } catch (InvocationTargetException | NoSuchMethodException | IllegalAccessException e) {
-            String s = "There was an error trying to delete a model of type: " + wrappedEntity.getEntityType().getName() + ", got: " + e.getMessage();
-            throw new CatnapException(s);
-        }
+        String sql = this.mappingStrategy.delete(wrappedEntity.getEntityType());
         PreparedStatement query;
 
         try {
-            query = this.connection.prepareStatement(sql);
+            query = this.statementCache.prepare(sql);
+            query.setInt(1, id);
             query.executeUpdate();
             cache.remove(wrappedEntity);
+            evictShared(Collections.singletonList(wrappedEntity));
 
         } catch (SQLException e) {
             String s = "There was an error performing a delete on the database for entity type: " + wrappedEntity.getEntityType().getName() + ", error message:" + e.getMessage();
@@ -191,26 +650,33 @@ public class Session implements EntityManager {
 
     /**
      * This method inserts a record of an entity into the database. It is also adds it to the cache.
+     * The id generated by the database is read back with RETURNING and written to the entity first,
+     * so the entity is cached under its real id.
      * @param entity             the entity to persist
      * @throws CatnapException   thrown when a field can't be accessed, when the entity can't be instantiated,
      * or when an error occurs in accessing the database or database objects
      */
     @Override
     public void persist(Object entity) throws CatnapException {
+        if(transaction != null) {
+            transaction.persist(entity);
+            return;
+        }
+
         CatnapResult wrappedEntity = new CatnapResult(entity);
-        String sql = null;
-        try {
-            sql = this.mappingStrategy.insert(entity);
-        } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-            String s = "There was an error trying to persist a model of type: " + wrappedEntity.getEntityType().getName() + ", got: " + e.getMessage();
-            throw new CatnapException(s);
+        if(wrappedEntity.getMetadata().getIdColumn().isPresent()) {
+            insertReturning(wrappedEntity.getEntityType(), Collections.singletonList(wrappedEntity));
+            return;
         }
 
+        String sql = this.mappingStrategy.insert(wrappedEntity.getEntityType());
+
         PreparedStatement query;
 
         // store entity itself
         try {
-            query = this.connection.prepareStatement(sql);
+            query = this.statementCache.prepare(sql);
+            this.mappingStrategy.bindInsert(query, entity);
             query.executeUpdate();
             cache.store(wrappedEntity);
 
@@ -223,78 +689,381 @@ public class Session implements EntityManager {
 
     /**
      * This method updates a record of an entity in the database. It is also updated in the cache.
+     * When the entity was loaded through this Session, only the columns that changed since it was loaded
+     * are written, and nothing is sent to the database if none of them changed.
      * @param entity             the entity to update with the updated values
      * @throws CatnapException   thrown when a field can't be accessed, when the entity can't be instantiated,
      * or when an error occurs in accessing the database or database objects
      */
     @Override
     public void update(Object entity) throws CatnapException {
+        if(transaction != null) {
+            transaction.update(entity);
+            return;
+        }
+
         CatnapResult wrappedEntity = new CatnapResult(entity);
-        String sql = null;
-        try {
-            sql = this.mappingStrategy.update(entity);
-        } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-            String s = "There was an error trying to update a model of type: " + wrappedEntity.getEntityType().getName() + ", got: " + e.getMessage();
-            throw new CatnapException(s);
+        Class<?> clazz = wrappedEntity.getEntityType();
+
+        Optional<BitSet> dirty = getDirtyColumns(wrappedEntity);
+        if(dirty.isPresent() && dirty.get().isEmpty()) {
+            return;
         }
 
+        String sql = dirty.isPresent()
+                ? this.mappingStrategy.update(clazz, dirty.get())
+                : this.mappingStrategy.update(clazz);
+
         PreparedStatement query;
 
         // store entity itself
         try {
-            query = this.connection.prepareStatement(sql);
+            query = this.statementCache.prepare(sql);
+            if(dirty.isPresent()) {
+                this.mappingStrategy.bindUpdate(query, entity, dirty.get());
+            } else {
+                this.mappingStrategy.bindUpdate(query, entity);
+            }
             query.executeUpdate();
+            wrappedEntity.takeSnapshot();
             cache.store(wrappedEntity);
+            evictShared(Collections.singletonList(wrappedEntity));
 
         } catch (SQLException e) {
-            String s = "There was an error performing a update on the database for entity type: " + wrappedEntity.getEntityType().getName() + ", error message:" + e.getMessage();
+            String s = "There was an error performing a update on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
             logger.error(s);
             throw new CatnapException(s);
         }
     }
 
     /**
-     * Begins a transaction
-     *
-     * @throws CatnapException    thrown when something goes wrong in starting a transaction
+     * This method inserts records of a collection of entities into the database. The entities are grouped
+     * by type, and the entities of each type are sent in multi row inserts of at most batchSize rows, which
+     * return the generated ids. They are written to the entities, which are then added to the cache.
+     * @param entities           the entities to persist
+     * @throws CatnapException   thrown when a field can't be accessed, when the entity can't be instantiated,
+     * or when an error occurs in accessing the database or database objects
      */
     @Override
-    public void beginTransaction() throws CatnapException {
-        try {
-            this.connection.setAutoCommit(false);
-        } catch (SQLException e) {
-            logger.error("There was an error when trying to start a transaction. Got: " + e.getMessage());
-            throw new CatnapException();
+    public void persistAll(Collection<?> entities) throws CatnapException {
+        if(transaction != null) {
+            for (Object entity: entities) {
+                transaction.persist(entity);
+            }
+            return;
+        }
+
+        for (Map.Entry<Class<?>, List<CatnapResult>> group: groupByType(entities).entrySet()) {
+            insertBatch(group.getKey(), group.getValue());
         }
     }
 
     /**
-     * Commits a transaction
-     *
-     * @throws RollbackException    thrown when something goes wrong when committing the transaction
+     * This method inserts or updates an entity with INSERT ... ON CONFLICT (id) DO UPDATE, or inserts it like
+     * persist when its id is 0. Upserts aren't queued by transactions, they are written right away after the
+     * queue is flushed.
+     * @param entity             the entity to insert or update
+     * @throws CatnapException   thrown when the entity has no id field, a field can't be accessed, or when an
+     * error occurs in accessing the database or database objects
      */
     @Override
-    public void commit() throws RollbackException {
-        try {
-            this.connection.commit();
-        } catch (SQLException e) {
-            logger.error("There was an error when trying to commit a transaction. Got: " + e.getMessage());
+    public void upsert(Object entity) throws CatnapException {
+        upsertAll(Collections.singletonList(entity));
+    }
+
+    /**
+     * This method inserts or updates a collection of entities. The entities are grouped by type and written
+     * with multi row INSERT ... ON CONFLICT statements, whose RETURNING rows are read back into the entities
+     * before they are cached. Entities whose id is 0 are inserted and get generated ids.
+     * @param entities           the entities to insert or update
+     * @throws CatnapException   thrown when an entity has no id field, a field can't be accessed, or when an
+     * error occurs in accessing the database or database objects
+     */
+    @Override
+    public void upsertAll(Collection<?> entities) throws CatnapException {
+        flushPending();
+
+        for (Map.Entry<Class<?>, List<CatnapResult>> group: groupByType(entities).entrySet()) {
+            upsertBatch(group.getKey(), group.getValue());
+            if(transaction != null) {
+                transaction.addFlushed(group.getValue());
+            }
+        }
+    }
+
+    /**
+     * This method updates the records of a collection of entities in the database. The entities are grouped
+     * by type and by the set of columns that changed, since each set of columns has its own statement, and the
+     * updates of each group are sent in batches of at most batchSize statements. Entities that didn't change
+     * are skipped. They are also updated in the cache.
+     * @param entities           the entities to update with the updated values
+     * @throws CatnapException   thrown when a field can't be accessed, when the entity can't be instantiated,
+     * or when an error occurs in accessing the database or database objects
+     */
+    @Override
+    public void updateAll(Collection<?> entities) throws CatnapException {
+        if(transaction != null) {
+            for (Object entity: entities) {
+                transaction.update(entity);
+            }
+            return;
+        }
+
+        for (Map.Entry<Class<?>, List<CatnapResult>> group: groupByType(entities).entrySet()) {
+            updateBatch(group.getKey(), group.getValue());
+        }
+    }
+
+    /**
+     * This method removes the records of a collection of entities from the database. The entities are grouped
+     * by type, and the deletes of each type are sent in batches of at most batchSize statements. They are
+     * also removed from the cache.
+     * @param entities           the entities to delete
+     * @throws CatnapException   thrown when a field can't be accessed, when the entity can't be instantiated,
+     * or when an error occurs in accessing the database or database objects
+     */
+    @Override
+    public void deleteAll(Collection<?> entities) throws CatnapException {
+        if(transaction != null) {
+            for (Object entity: entities) {
+                transaction.delete(entity);
+            }
+            return;
+        }
+
+        for (Map.Entry<Class<?>, List<CatnapResult>> group: groupByType(entities).entrySet()) {
+            deleteBatch(group.getKey(), group.getValue());
+        }
+    }
+
+    /**
+     * This method loads entities into their table with COPY FROM STDIN. The rows are encoded in the COPY text
+     * format straight from the mapped fields and sent in chunks of about 64K characters. Queued writes are
+     * flushed first. The entities are not cached, since the ids generated by the database aren't returned.
+     * @param clazz              the type of the entities
+     * @param entities           the entities to load
+     * @return                   the number of rows loaded
+     * @throws CatnapException   thrown when the connection isn't a Postgres connection, when a field can't
+     * be accessed, or when the copy fails
+     */
+    @Override
+    public long copyIn(Class<?> clazz, Iterable<?> entities) throws CatnapException {
+        flushPending();
+
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        EntityAccessor accessor = metadata.getAccessor();
+        List<ColumnMetadata> columns = metadata.getValueColumns();
+
+        CopyIn copy = null;
+        try {
+            copy = getCopyManager().copyIn(this.mappingStrategy.copyIn(clazz));
+
+            StringBuilder rows = new StringBuilder();
+            for (Object entity: entities) {
+                CopyFormat.appendRow(rows, columns, accessor, entity);
+                if(rows.length() >= COPY_BUFFER_SIZE) {
+                    writeRows(copy, rows);
+                }
+            }
+            writeRows(copy, rows);
+
+            return copy.endCopy();
+        } catch (SQLException e) {
+            String s = "There was an error copying rows into the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        } finally {
+            cancelCopy(copy);
+        }
+    }
+
+    /**
+     * This method exports every row of an entity type's table with COPY TO STDOUT. Each row is decoded into a
+     * new entity and passed to the consumer as soon as it arrives, so the table is never held in memory.
+     * Queued writes are flushed first. The entities are not cached.
+     * @param clazz              the type of entity to export
+     * @param consumer           receives each entity
+     * @return                   the number of rows exported
+     * @throws CatnapException   thrown when the connection isn't a Postgres connection, when the entity can't
+     * be instantiated or a field can't be accessed, or when the copy fails
+     */
+    @Override
+    public long copyOut(Class<?> clazz, Consumer<Object> consumer) throws CatnapException {
+        flushPending();
+
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        EntityAccessor accessor = metadata.getAccessor();
+        List<ColumnMetadata> columns = metadata.getColumns();
+
+        CopyOut copy = null;
+        try {
+            copy = getCopyManager().copyOut(this.mappingStrategy.copyOut(clazz));
+
+            long count = 0;
+            byte[] row;
+            while((row = copy.readFromCopy()) != null) {
+                Object entity = accessor.newInstance();
+                CopyFormat.readRow(new String(row, StandardCharsets.UTF_8), columns, accessor, entity);
+                consumer.accept(entity);
+                count++;
+            }
+
+            return count;
+        } catch (SQLException e) {
+            String s = "There was an error copying rows out of the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        } finally {
+            cancelCopy(copy);
+        }
+    }
+
+    /**
+     * This method sends the actions queued since beginTransaction to the database without committing them.
+     * The queue is coalesced, ordered by table and sent as JDBC batches, see Transaction. It does nothing
+     * outside of a transaction. Reads flush the queue on their own so they see the queued changes.
+     *
+     * @throws CatnapException   thrown when a field can't be accessed, or when an error occurs in accessing
+     * the database or database objects
+     */
+    @Override
+    public void flush() throws CatnapException {
+        if(transaction == null) {
+            return;
+        }
+
+        for (Map<Transaction.ActionType, List<CatnapResult>> group: transaction.drain()) {
+            for (Map.Entry<Transaction.ActionType, List<CatnapResult>> actions: group.entrySet()) {
+                List<CatnapResult> wrappedEntities = actions.getValue();
+                Class<?> clazz = wrappedEntities.get(0).getEntityType();
+                switch (actions.getKey()) {
+                    case INSERT:
+                        insertBatch(clazz, wrappedEntities);
+                        break;
+                    case UPDATE:
+                        updateBatch(clazz, wrappedEntities);
+                        break;
+                    case DELETE:
+                        deleteBatch(clazz, wrappedEntities);
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the number of rows fetched from the server side cursor at a time by stream.
+     *
+     * @param fetchSize            the number of rows per fetch
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Sets the number of statements sent in one JDBC batch by persistAll, updateAll and deleteAll.
+     *
+     * @param batchSize            the maximum number of statements per batch
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * This method estimates the heap used by the entities in this Session's cache, see CatnapCache.
+     *
+     * @return                   the estimated size of the cached entities, in bytes
+     */
+    @Override
+    public long getCacheMemoryUsage() {
+        return cache.getEstimatedBytes();
+    }
+
+    /**
+     * This method sets the second level cache shared by the Sessions of the factory. Entities of @Cacheable
+     * types are looked up in it when they aren't in this Session's cache, and are stored in it when they are
+     * read from the database outside of a transaction. Its entries are removed when this Session writes them,
+     * and again when a transaction that wrote them commits or rolls back.
+     *
+     * @param sharedCache        the shared cache, or null to not use one
+     */
+    public void setSharedCache(SecondLevelCache sharedCache) {
+        this.sharedCache = sharedCache;
+    }
+
+    /**
+     * Begins a transaction. Until commit or rollback, persist, update and delete are queued instead of
+     * being run right away, see flush.
+     *
+     * @throws CatnapException    thrown when something goes wrong in starting a transaction
+     */
+    @Override
+    public void beginTransaction() throws CatnapException {
+        try {
+            this.connection.setAutoCommit(false);
+            this.transaction = new Transaction();
+        } catch (SQLException e) {
+            logger.error("There was an error when trying to start a transaction. Got: " + e.getMessage());
+            throw new CatnapException();
+        }
+    }
+
+    /**
+     * Flushes the queued actions and commits the transaction
+     *
+     * @throws RollbackException    thrown when something goes wrong when committing the transaction
+     */
+    @Override
+    public void commit() throws RollbackException {
+        try {
+            flush();
+            this.connection.commit();
+            // other sessions may have cached the old rows again since they were flushed
+            if(this.transaction != null) {
+                evictShared(this.transaction.getFlushed());
+                evictWritten(this.transaction, false);
+            }
+            this.transaction = null;
+            this.connection.setAutoCommit(true);
+        } catch (CatnapException e) {
+            logger.error("There was an error when trying to flush a transaction. Got: " + e.getMessage());
+            throw new RollbackException();
+        } catch (SQLException e) {
+            logger.error("There was an error when trying to commit a transaction. Got: " + e.getMessage());
             throw new RollbackException();
         }
     }
 
     /**
-     * Rolls back the transaction to return the database to its pervious state
+     * Rolls back the transaction to return the database to its pervious state. Queued actions are dropped,
+     * and entities that were already flushed are removed from the cache since they no longer match the database.
      *
      * @throws CatnapException    thrown when something goes wrong rolling back the database.
      */
     @Override
     public void rollback() throws CatnapException {
+        Transaction rolledBack = this.transaction;
+        this.transaction = null;
         try {
             this.connection.rollback();
+            this.connection.setAutoCommit(true);
         } catch (SQLException e) {
             logger.error("There was an error when trying to rollback a transaction. Got: " + e.getMessage());
             throw new CatnapException();
+        } finally {
+            if(rolledBack != null) {
+                cache.remove(rolledBack.getFlushed());
+                evictShared(rolledBack.getFlushed());
+                evictWritten(rolledBack, true);
+            }
         }
     }
 
@@ -306,42 +1075,728 @@ public class Session implements EntityManager {
         factory.releaseConnection(this.connection);
     }
 
+    /**
+     * This method gets an entity from the shared cache.
+     * @param clazz              the type of entity
+     * @param id                 the id of the entity
+     * @return                   an Optional containing a copy of the entity, or an empty one if it isn't shared
+     */
+    private Optional<CatnapResult> getShared(Class<?> clazz, int id) {
+        return sharedCache != null ? sharedCache.get(clazz, id) : Optional.empty();
+    }
+
+    /**
+     * @param clazz              the type of entity
+     * @return                   the version of the type in the shared cache, read before loading entities
+     */
+    private long sharedVersion(Class<?> clazz) {
+        return sharedCache != null ? sharedCache.getVersion(clazz) : 0;
+    }
+
+    /**
+     * This method stores entities read from the database in the shared cache. Inside a transaction the rows
+     * read may hold changes that aren't committed yet, so nothing is stored.
+     * @param entities           the entities, all of the same type
+     * @param version            the version of the type read before the entities were loaded
+     * @throws CatnapException   thrown when a field can't be read
+     */
+    private void storeShared(List<CatnapResult> entities, long version) throws CatnapException {
+        if(sharedCache != null && transaction == null) {
+            sharedCache.store(entities, version);
+        }
+    }
+
+    /**
+     * This method removes entities that were written from the shared cache.
+     * @param entities           the written entities
+     * @throws CatnapException   thrown when an entity has no id
+     */
+    private void evictShared(Collection<CatnapResult> entities) throws CatnapException {
+        if(sharedCache != null) {
+            sharedCache.remove(entities);
+        }
+    }
+
+    /**
+     * This method flushes the transaction's queue if there is anything in it, so a read sees the queued changes.
+     * @throws CatnapException   thrown when the queue can't be flushed
+     */
+    private void flushPending() throws CatnapException {
+        if(transaction != null && transaction.hasPendingActions()) {
+            flush();
+        }
+    }
+
+    /**
+     * This method inserts entities of one type in batches and adds them to the cache.
+     * @param clazz              the type of the entities
+     * @param wrappedEntities    the entities to insert
+     * @throws CatnapException   thrown when a field can't be accessed or a batch fails
+     */
+    private void insertBatch(Class<?> clazz, List<CatnapResult> wrappedEntities) throws CatnapException {
+        if(EntityMetadata.of(clazz).getIdColumn().isPresent()) {
+            insertReturning(clazz, wrappedEntities);
+            return;
+        }
+
+        try {
+            executeBatches(this.mappingStrategy.insert(clazz), wrappedEntities,
+                    (query, wrappedEntity) -> this.mappingStrategy.bindInsert(query, wrappedEntity.getEntity()));
+        } catch (SQLException e) {
+            String s = "There was an error performing a batch insert on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+
+        cache.store(wrappedEntities);
+    }
+
+    /**
+     * This method inserts entities of one type with multi row INSERT ... RETURNING statements, writes the
+     * generated ids to the entities and adds them to the cache. A statement holds at most batchSize rows and
+     * at most MAX_PARAMETERS parameters. Smaller remainders are split into powers of two rows, so only a few
+     * templates per type are ever prepared. Each returned id comes with the number of its row in the statement,
+     * which picks the entity it belongs to.
+     * @param clazz              the type of the entities, which must have an id column
+     * @param wrappedEntities    the entities to insert
+     * @throws CatnapException   thrown when a field can't be accessed or an insert fails
+     */
+    private void insertReturning(Class<?> clazz, List<CatnapResult> wrappedEntities) throws CatnapException {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        ColumnMetadata idColumn = metadata.getIdColumn().get();
+        EntityAccessor accessor = metadata.getAccessor();
+
+        int columns = metadata.getValueColumns().size();
+        int maxRows = columns == 0 ? 1 : Math.max(1, Math.min(batchSize, MAX_PARAMETERS / columns));
+
+        int offset = 0;
+        while(offset < wrappedEntities.size()) {
+            int remaining = wrappedEntities.size() - offset;
+            int rows = remaining >= maxRows ? maxRows : Integer.highestOneBit(remaining);
+
+            List<Object> entities = new ArrayList<>(rows);
+            for (CatnapResult wrappedEntity: wrappedEntities.subList(offset, offset + rows)) {
+                entities.add(wrappedEntity.getEntity());
+            }
+
+            try {
+                PreparedStatement query = this.statementCache.prepare(this.mappingStrategy.insertReturning(clazz, rows));
+                this.mappingStrategy.bindInsertReturning(query, entities);
+                try (ResultSet rs = query.executeQuery()) {
+                    for (int i = 0; i < rows; i++) {
+                        if(!rs.next()) {
+                            throw new SQLException("The insert returned fewer ids than rows.");
+                        }
+                        int ord = rs.getInt(1);
+                        if(ord < 1 || ord > rows) {
+                            throw new SQLException("The insert returned an id for an unknown row: " + ord);
+                        }
+                        idColumn.read(rs, 2, accessor, entities.get(ord - 1));
+                    }
+                }
+            } catch (SQLException e) {
+                String s = "There was an error performing an insert on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+                logger.error(s);
+                throw new CatnapException(s);
+            }
+
+            offset += rows;
+        }
+
+        for (CatnapResult wrappedEntity: wrappedEntities) {
+            wrappedEntity.takeSnapshot();
+        }
+        cache.store(wrappedEntities);
+    }
+
+    /**
+     * This method upserts entities of one type in multi row statements of at most batchSize rows, or fewer
+     * when the bind parameters would run out. Entities whose id is still 0 have no row yet, so they are
+     * inserted with insertReturning and get ids from the sequence. A statement can't write the same row twice,
+     * so only the last entity of each id is sent. The rows returned by each statement are matched to the
+     * entities by id and read into them, then the entities are cached.
+     * @param clazz              the type of the entities
+     * @param wrappedEntities    the entities to upsert
+     * @throws CatnapException   thrown when the type has no id field, a field can't be accessed or a statement fails
+     */
+    private void upsertBatch(Class<?> clazz, List<CatnapResult> wrappedEntities) throws CatnapException {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        ColumnMetadata idColumn = metadata.getIdColumn()
+                .orElseThrow(() -> new CatnapException("Entity type: " + clazz.getName() + " had no id field to upsert by!"));
+        EntityAccessor accessor = metadata.getAccessor();
+
+        List<CatnapResult> unsaved = new ArrayList<>();
+        List<CatnapResult> saved = new ArrayList<>(wrappedEntities.size());
+        Map<Integer, List<CatnapResult>> byId = new LinkedHashMap<>();
+        for (CatnapResult wrappedEntity: wrappedEntities) {
+            int id = wrappedEntity.getId().get();
+            if(id == 0) {
+                unsaved.add(wrappedEntity);
+            } else {
+                saved.add(wrappedEntity);
+                byId.computeIfAbsent(id, key -> new ArrayList<>()).add(wrappedEntity);
+            }
+        }
+
+        if(!unsaved.isEmpty()) {
+            insertReturning(clazz, unsaved);
+        }
+        if(saved.isEmpty()) {
+            return;
+        }
+
+        List<Integer> ids = new ArrayList<>(byId.keySet());
+
+        int maxRows = Math.max(1, Math.min(batchSize, MAX_PARAMETERS / metadata.getColumns().size()));
+        int offset = 0;
+        while(offset < ids.size()) {
+            int remaining = ids.size() - offset;
+            int rows = remaining >= maxRows ? maxRows : Integer.highestOneBit(remaining);
+
+            List<Object> entities = new ArrayList<>(rows);
+            for (Integer id: ids.subList(offset, offset + rows)) {
+                List<CatnapResult> sameId = byId.get(id);
+                entities.add(sameId.get(sameId.size() - 1).getEntity());
+            }
+
+            String sql = this.mappingStrategy.upsert(clazz, rows);
+            try {
+                PreparedStatement query = this.statementCache.prepare(sql);
+                this.mappingStrategy.bindUpsert(query, entities);
+                try (ResultSet rs = query.executeQuery()) {
+                    int[] columns = null;
+                    while(rs.next()) {
+                        if(columns == null) {
+                            columns = columnPlan(clazz, sql, rs);
+                        }
+
+                        Object id = idColumn.getColumnType().read(rs, columns[idColumn.getIndex()]);
+                        for (CatnapResult wrappedEntity: byId.getOrDefault(id, Collections.emptyList())) {
+                            for (ColumnMetadata column: metadata.getColumns()) {
+                                if(columns[column.getIndex()] != 0) {
+                                    column.read(rs, columns[column.getIndex()], accessor, wrappedEntity.getEntity());
+                                }
+                            }
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                String s = "There was an error performing an upsert on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+                logger.error(s);
+                throw new CatnapException(s);
+            }
+
+            offset += rows;
+        }
+
+        for (CatnapResult wrappedEntity: saved) {
+            wrappedEntity.takeSnapshot();
+        }
+        cache.store(saved);
+        evictShared(saved);
+    }
+
+    /**
+     * This method updates the changed columns of entities of one type in batches and updates them in the cache.
+     * @param clazz              the type of the entities
+     * @param wrappedEntities    the entities to update
+     * @throws CatnapException   thrown when a field can't be accessed or a batch fails
+     */
+    private void updateBatch(Class<?> clazz, List<CatnapResult> wrappedEntities) throws CatnapException {
+        // entities without a snapshot are under the null key and get a full update
+        Map<BitSet, List<CatnapResult>> byColumns = new LinkedHashMap<>();
+        for (CatnapResult wrappedEntity: wrappedEntities) {
+            Optional<BitSet> dirty = getDirtyColumns(wrappedEntity);
+            if(dirty.isPresent() && dirty.get().isEmpty()) {
+                continue;
+            }
+            byColumns.computeIfAbsent(dirty.orElse(null), k -> new ArrayList<>()).add(wrappedEntity);
+        }
+
+        for (Map.Entry<BitSet, List<CatnapResult>> columns: byColumns.entrySet()) {
+            BitSet dirty = columns.getKey();
+            List<CatnapResult> group = columns.getValue();
+
+            try {
+                if(dirty == null) {
+                    executeBatches(this.mappingStrategy.update(clazz), group,
+                            (query, wrappedEntity) -> this.mappingStrategy.bindUpdate(query, wrappedEntity.getEntity()));
+                } else {
+                    executeBatches(this.mappingStrategy.update(clazz, dirty), group,
+                            (query, wrappedEntity) -> this.mappingStrategy.bindUpdate(query, wrappedEntity.getEntity(), dirty));
+                }
+            } catch (SQLException e) {
+                String s = "There was an error performing a batch update on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+                logger.error(s);
+                throw new CatnapException(s);
+            }
+
+            for (CatnapResult wrappedEntity: group) {
+                wrappedEntity.takeSnapshot();
+            }
+            cache.store(group);
+            evictShared(group);
+        }
+    }
+
+    /**
+     * This method deletes entities of one type in batches and removes them from the cache.
+     * @param clazz              the type of the entities
+     * @param wrappedEntities    the entities to delete
+     * @throws CatnapException   thrown when an entity has no id or a batch fails
+     */
+    private void deleteBatch(Class<?> clazz, List<CatnapResult> wrappedEntities) throws CatnapException {
+        // check the ids before anything is sent
+        for (CatnapResult wrappedEntity: wrappedEntities) {
+            wrappedEntity.getId()
+                    .orElseThrow(() -> new CatnapException("Entity type: " + clazz + " had no id field!"));
+        }
+
+        try {
+            executeBatches(this.mappingStrategy.delete(clazz), wrappedEntities,
+                    (query, wrappedEntity) -> query.setInt(1, wrappedEntity.getId().get()));
+        } catch (SQLException e) {
+            String s = "There was an error performing a batch delete on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+
+        cache.remove(wrappedEntities);
+        evictShared(wrappedEntities);
+    }
+
+    /**
+     * This class reads the rows of a server side cursor into entities, one at a time, for stream. Closing it
+     * closes the ResultSet and the statement, and ends the cursor's transaction if stream started it.
+     */
+    private class EntityCursor extends Spliterators.AbstractSpliterator<Object> {
+        private final Class<?> clazz;
+        private final String sql;
+        private final PreparedStatement query;
+        private final ResultSet rs;
+        private final boolean restoreAutoCommit;
+        private final boolean cacheResults;
+        private int[] columns;
+        private boolean closed;
+
+        private EntityCursor(Class<?> clazz, String sql, PreparedStatement query, ResultSet rs, boolean restoreAutoCommit, boolean cacheResults) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.clazz = clazz;
+            this.sql = sql;
+            this.query = query;
+            this.rs = rs;
+            this.restoreAutoCommit = restoreAutoCommit;
+            this.cacheResults = cacheResults;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Object> action) {
+            if(closed) {
+                return false;
+            }
+
+            try {
+                if(!rs.next()) {
+                    close();
+                    return false;
+                }
+                if(columns == null) {
+                    columns = columnPlan(clazz, sql, rs);
+                }
+
+                Optional<CatnapResult> entity = buildEntity(clazz, rs, columns);
+                if(!entity.isPresent()) {
+                    return tryAdvance(action);
+                }
+                if(cacheResults) {
+                    entity.get().takeSnapshot();
+                    cache.store(entity.get());
+                }
+                action.accept(entity.get().getEntity());
+                return true;
+
+            } catch (SQLException e) {
+                String s = "There was an error when trying to move the cursor in the ResultSet for entity" + clazz.getName() + ". Got error: " + e.getMessage();
+                logger.error(s);
+                close();
+                throw new UncheckedCatnapException(new CatnapException(s));
+            } catch (CatnapException e) {
+                close();
+                throw new UncheckedCatnapException(e);
+            }
+        }
+
+        private void close() {
+            if(closed) {
+                return;
+            }
+            closed = true;
+
+            closeQuietly(rs);
+            closeQuietly(query);
+            if(restoreAutoCommit) {
+                try {
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                } catch (SQLException e) {
+                    logger.error("There was an error ending the transaction of a cursor. Got: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * This method closes a statement or ResultSet, logging instead of throwing if that fails.
+     * @param closeable          the statement or ResultSet, may be null
+     */
+    private void closeQuietly(AutoCloseable closeable) {
+        if(closeable != null) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                logger.error("There was an error closing a cursor. Got: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This method gets the COPY API of the Session's connection.
+     * @return                   the CopyManager of the connection
+     * @throws SQLException      thrown when the connection isn't a Postgres connection
+     */
+    private CopyManager getCopyManager() throws SQLException {
+        return this.connection.unwrap(PGConnection.class).getCopyAPI();
+    }
+
+    /**
+     * This method sends the rows collected so far to a COPY FROM STDIN and empties the buffer.
+     * @param copy               the copy in progress
+     * @param rows               the encoded rows
+     * @throws SQLException      thrown when the rows can't be sent
+     */
+    private void writeRows(CopyIn copy, StringBuilder rows) throws SQLException {
+        if(rows.length() > 0) {
+            byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+            copy.writeToCopy(bytes, 0, bytes.length);
+            rows.setLength(0);
+        }
+    }
+
+    /**
+     * This method cancels a copy that didn't finish, so the connection can be used again.
+     * @param copy               the copy, may be null
+     */
+    private void cancelCopy(CopyOperation copy) {
+        if(copy != null && copy.isActive()) {
+            try {
+                copy.cancelCopy();
+            } catch (SQLException e) {
+                logger.error("There was an error cancelling a copy. Got: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This method finds the columns of an entity that changed since it was loaded into the cache.
+     * @param wrappedEntity      the entity to check
+     * @return                   an Optional containing the indexes of the changed columns, or an empty one
+     * if the entity isn't in the cache with a snapshot, in which case every column has to be written
+     * @throws CatnapException   thrown when a field can't be accessed
+     */
+    private Optional<BitSet> getDirtyColumns(CatnapResult wrappedEntity) throws CatnapException {
+        Optional<Integer> id = wrappedEntity.getId();
+        if(id.isPresent()) {
+            Optional<CatnapResult> loaded = cache.get(wrappedEntity.getEntityType(), id.get());
+            if(loaded.isPresent()) {
+                return loaded.get().getDirtyColumns(wrappedEntity.getEntity());
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * This method groups a collection of entities by their type, keeping the order in which the types and
+     * the entities of each type first appear.
+     * @param entities           the entities to group
+     * @return                   the wrapped entities of each type
+     * @throws CatnapException   thrown when an entity is null
+     */
+    private Map<Class<?>, List<CatnapResult>> groupByType(Collection<?> entities) throws CatnapException {
+        Map<Class<?>, List<CatnapResult>> groups = new LinkedHashMap<>();
+        for (Object entity: entities) {
+            CatnapResult wrappedEntity = new CatnapResult(entity);
+            groups.computeIfAbsent(wrappedEntity.getEntityType(), k -> new ArrayList<>()).add(wrappedEntity);
+        }
+
+        return groups;
+    }
+
+    /**
+     * This method binds each entity to a statement and sends the statements in batches of at most batchSize.
+     * If something fails the statement's pending batch is cleared, since the statement is cached and reused.
+     * @param sql                the sql template of the statement
+     * @param wrappedEntities    the entities to bind, one statement each
+     * @param binder             binds the values of an entity to the statement
+     * @throws SQLException      thrown when a value can't be bound or a batch fails
+     * @throws CatnapException   thrown when a field can't be accessed
+     */
+    private void executeBatches(String sql, List<CatnapResult> wrappedEntities, BatchBinder binder) throws SQLException, CatnapException {
+        PreparedStatement query = this.statementCache.prepare(sql);
+        try {
+            int pending = 0;
+            for (CatnapResult wrappedEntity: wrappedEntities) {
+                binder.bind(query, wrappedEntity);
+                query.addBatch();
+                if(++pending == batchSize) {
+                    query.executeBatch();
+                    pending = 0;
+                }
+            }
+            if(pending > 0) {
+                query.executeBatch();
+            }
+        } catch (SQLException | CatnapException e) {
+            try {
+                query.clearBatch();
+            } catch (SQLException ignored) {
+                // the original error is the one worth reporting
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Binds the values of one entity to a statement that is being batched.
+     */
+    private interface BatchBinder {
+        void bind(PreparedStatement query, CatnapResult wrappedEntity) throws SQLException, CatnapException;
+    }
+
+    /**
+     * This method builds an entity from every row of a ResultSet and takes their snapshots, ready to be cached.
+     * @param clazz              the type of entity that is being built
+     * @param sql                the sql template the ResultSet was produced by
+     * @param rs                 a JDBC ResultSet to extract the field data from
+     * @return                   the entities, in the order of the rows
+     * @throws CatnapException   thrown when a field can't be accessed, when the entity can't be instantiated,
+     * or when an error occurs in accessing the database or database objects
+     */
+    private List<CatnapResult> readEntities(Class<?> clazz, String sql, ResultSet rs) throws CatnapException {
+        int[] columns = null;
+        List<CatnapResult> entities = new ArrayList<>();
+        while(true) {
+            try {
+                if(!rs.next()) break;
+            } catch (SQLException e) {
+                String s = "There was an error when trying to move the cursor in the ResultSet for entity" + clazz.getName() + ". Got error: " + e.getMessage();
+                logger.error(s);
+                throw new CatnapException(s);
+            }
+
+            if(columns == null) {
+                columns = columnPlan(clazz, sql, rs);
+            }
+            Optional<CatnapResult> entity = buildEntity(clazz, rs, columns);
+            if(entity.isPresent()) {
+                entity.get().takeSnapshot();
+                entities.add(entity.get());
+            }
+        }
+
+        return entities;
+    }
+
+    /**
+     * This method runs an updateWhere or deleteWhere template and removes the entities it may have changed
+     * from the cache.
+     * @param clazz              the type of entity
+     * @param sql                the template to run
+     * @param values             the new value of each column to set, empty for a delete
+     * @param where              the condition the rows meet
+     * @return                   the number of rows changed
+     * @throws CatnapException   thrown when a value has the wrong type, or when an error occurs in accessing
+     * the database or database objects
+     */
+    private int executeWhere(Class<?> clazz, String sql, Map<String, ?> values, Criteria where) throws CatnapException {
+        flushPending();
+
+        int rows;
+        try {
+            PreparedStatement statement = this.statementCache.prepare(sql);
+            this.mappingStrategy.bindWhere(statement, clazz, values, where);
+            rows = statement.executeUpdate();
+        } catch (SQLException e) {
+            String s = "There was an error performing a " + (values.isEmpty() ? "delete" : "update") + " on the database for entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+
+        Optional<Set<Object>> ids = EntityMetadata.of(clazz).getIdColumn()
+                .flatMap(idColumn -> where.getPossibleValues(idColumn.getName()));
+        if(ids.isPresent() && ids.get().stream().allMatch(id -> id instanceof Integer)) {
+            List<Integer> rowIds = new ArrayList<>();
+            for (Object id: ids.get()) {
+                rowIds.add((Integer) id);
+            }
+            evict(clazz, rowIds, true);
+            if(transaction != null) {
+                transaction.addWritten(clazz, rowIds);
+            }
+        } else {
+            evict(clazz, null, true);
+            if(transaction != null) {
+                transaction.addWrittenType(clazz);
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * This method removes entities of one type from the shared cache, and optionally from this session's cache.
+     * @param clazz              the type of entity
+     * @param ids                the ids of the entities, or null to remove every entity of the type
+     * @param local              whether to remove them from this session's cache too
+     */
+    private void evict(Class<?> clazz, Collection<Integer> ids, boolean local) {
+        if(ids == null) {
+            if(local) {
+                cache.removeAll(clazz);
+            }
+            if(sharedCache != null) {
+                sharedCache.removeAll(clazz);
+            }
+            return;
+        }
+
+        for (int id: ids) {
+            if(local) {
+                cache.remove(clazz, id);
+            }
+            if(sharedCache != null) {
+                sharedCache.remove(clazz, id);
+            }
+        }
+    }
+
+    /**
+     * This method evicts the rows changed by the updateWhere and deleteWhere calls of a transaction again.
+     * They were evicted when the statement ran, but until the transaction ends other sessions still read
+     * the old rows and may have cached them again.
+     * @param written            the transaction that changed the rows
+     * @param local              whether to remove them from this session's cache too
+     */
+    private void evictWritten(Transaction written, boolean local) {
+        for (Map.Entry<Class<?>, Set<Integer>> entry: written.getWrittenIds().entrySet()) {
+            evict(entry.getKey(), entry.getValue(), local);
+        }
+        for (Class<?> type: written.getWrittenTypes()) {
+            evict(type, null, local);
+        }
+    }
+
+    /**
+     * This method runs the projection template of a Query and reads the selected columns of every row.
+     * @param query              the query to run
+     * @param columns            the selected columns, in the order of the select list
+     * @return                   the values of each row
+     * @throws CatnapException   thrown when a value has the wrong type, or when an error occurs in accessing
+     * the database or database objects
+     */
+    private List<Object[]> selectRows(Query query, List<ColumnMetadata> columns) throws CatnapException {
+        flushPending();
+
+        String sql = this.mappingStrategy.select(query);
+        List<Object[]> rows = new ArrayList<>();
+
+        try {
+            PreparedStatement statement = this.statementCache.prepare(sql);
+            this.mappingStrategy.bindQuery(statement, query);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while(rs.next()) {
+                    Object[] row = new Object[columns.size()];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = columns.get(i).getColumnType().read(rs, i + 1);
+                    }
+                    rows.add(row);
+                }
+            }
+        } catch (SQLException e) {
+            String s = "There was an error performing a select on the database for entity type: " + query.getEntityType().getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+
+        return rows;
+    }
+
+    /**
+     * This method gets the column plan of a query, which maps each column of the entity to its index in the
+     * ResultSet. It is resolved once per sql template, so rows are read by index instead of by label.
+     * @param clazz              the type of entity that is being built
+     * @param sql                the sql template the ResultSet was produced by
+     * @param rs                 a JDBC ResultSet to extract the field data from
+     * @return                   the ResultSet index of each column of the entity
+     * @throws CatnapException   thrown when the ResultSet's metadata can't be read
+     */
+    private int[] columnPlan(Class<?> clazz, String sql, ResultSet rs) throws CatnapException {
+        try {
+            return EntityMetadata.of(clazz).getColumnPlan(sql, rs);
+        } catch (SQLException e) {
+            String s = "There was an error reading the columns of the ResultSet for entity " + clazz.getName() + ". Got error: " + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+    }
+
     /**
      * This method builds a CatnapResult object and returns an Optional with it in it, or an empty one if the
      * build failed.
      * @param clazz              the type of entity that is being built
      * @param rs                 a JDBC ResultSet to extract the field data from
+     * @param columns            the ResultSet index of each column of the entity, 0 if it wasn't selected
      * @return                   an Optional CatnapResult encapsulating the entity
      * @throws CatnapException   thrown when a field can't be accessed, when the entity can't be instantiated,
      * or when an error occurs in accessing the database or database objects
      */
-    private Optional<CatnapResult> buildEntity(Class<?> clazz, ResultSet rs) throws CatnapException {
+    private Optional<CatnapResult> buildEntity(Class<?> clazz, ResultSet rs, int[] columns) throws CatnapException {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        Optional<EntityMapper> mapper = metadata.getMapper();
+        if(mapper.isPresent()) {
+            try {
+                return Optional.of(new CatnapResult(mapper.get().hydrate(rs, columns)));
+            } catch (SQLException e) {
+                String s = "There was an error trying to get a non-associative field from the database. Got: " + e.getMessage();
+                logger.error(s);
+                throw new CatnapException(s);
+            }
+        }
+
+        EntityAccessor accessor = metadata.getAccessor();
         Object entity;
         try {
-            entity = clazz.newInstance();
-        } catch (InstantiationException e) {
-            String s = "Tried initializing an entity of type " + clazz.getName() + " and failed. It may be missing a no arg constructor!";
-            logger.error(s);
-            throw new CatnapException(s + ", error message: " + e.getMessage());
-        } catch (IllegalAccessException e) {
-            String s = "Unable to access constructor of type: " + clazz.getName() + " when trying to instantiate it.";
-            logger.error(s);
-            throw new CatnapException(s + ", error message: " + e.getMessage());
+            entity = accessor.newInstance();
+        } catch (CatnapException e) {
+            logger.error(e.getMessage());
+            throw e;
         }
 
         CatnapResult entityResult = new CatnapResult(entity);
 
         // get non associative field data into entity
-        List<Field> fields = entityResult.getFields();
-        for (Field field: fields) {
-            field.setAccessible(true);
+        for (ColumnMetadata column: metadata.getColumns()) {
+            int columnIndex = columns[column.getIndex()];
+            if(columnIndex == 0) {
+                continue;
+            }
+
             try {
-                field.set(entity, rs.getObject(field.getName()));
-            } catch (IllegalAccessException e) {
-                String s = "Was unable to access field: " + field.getName() + "of entity: " + entity.getClass().getName() +
-                        " when trying to set it. Got: " + e.getMessage();
-                logger.error(s);
-                throw new CatnapException(s);
+                column.read(rs, columnIndex, accessor, entity);
+            } catch (CatnapException e) {
+                logger.error(e.getMessage());
+                throw e;
             } catch (SQLException e) {
                 String s = "There was an error trying to get a non-associative field from the database. Got: " + e.getMessage();
                 logger.error(s);
@@ -2,15 +2,31 @@ package persistence;
 
 import exceptions.CatnapException;
 import exceptions.ConnectionFailedException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.CacheSnapshot;
 import util.ConnectionPool;
 import util.CatnapCache;
 import util.MappingStrategy;
+import util.SecondLevelCache;
+import util.SharedEntityCache;
+import util.SimpleConnectionPool;
+import util.SnapshotBackedCache;
+import util.StatementCache;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 /**
  * This class is used to obtain Session objects during a persistence context. Typical usage involves
@@ -20,18 +36,39 @@ import java.util.Map;
  */
 public class SessionFactory implements EntityManagerFactory {
 
+    private final static Logger logger = LogManager.getLogger(SessionFactory.class);
+
     private final ConnectionPool connectionPool;
     private final MappingStrategy mappingStrategy;
     private final Map<String, EntityManager> entityManagerMap;
+    private final Map<Connection, StatementCache> statementCaches;
+    private int statementCacheSize;
+    private int batchSize;
+    private int fetchSize;
+    private Executor asyncExecutor;
+    private SecondLevelCache sharedCache;
+    private int cacheMaxEntries;
+    private long cacheMaxBytes;
+    private CatnapCache.EvictionPolicy cacheEvictionPolicy;
+    private Path cacheSnapshot;
 
     public SessionFactory(ConnectionPool connectionPool, MappingStrategy mappingStrategy) {
         this.connectionPool = connectionPool;
         this.mappingStrategy = mappingStrategy;
         this.entityManagerMap = new HashMap<>();
+        this.statementCaches = new IdentityHashMap<>();
+        this.statementCacheSize = StatementCache.DEFAULT_CAPACITY;
+        this.batchSize = Session.DEFAULT_BATCH_SIZE;
+        this.fetchSize = Session.DEFAULT_FETCH_SIZE;
+        this.sharedCache = new SharedEntityCache();
+        this.cacheMaxEntries = CatnapCache.DEFAULT_MAX_ENTRIES;
+        this.cacheMaxBytes = Long.MAX_VALUE;
+        this.cacheEvictionPolicy = CatnapCache.EvictionPolicy.LRU;
     }
 
     /**
-     * This method is used to initialize the factory and create the tables in the database.
+     * This method is used to initialize the factory and create the tables in the database. When a cache
+     * snapshot was set and its file exists, the shared cache is then warmed from it, see setCacheSnapshot.
      *
      * @param schema                      the sql of the schema
      * @throws ConnectionFailedException  thrown when the ConnectionPool fails to connect to the database
@@ -48,6 +85,45 @@ public class SessionFactory implements EntityManagerFactory {
         } catch (SQLException e) {
             String s = "Tried to create tables in database but failed! Got: " + e.getMessage();
             throw new CatnapException(s);
+        } finally {
+            connectionPool.releaseConnection(conn);
+        }
+
+        loadCacheSnapshot();
+    }
+
+    /**
+     * This method writes the shared cache to the cache snapshot, if one was set, then closes the connections
+     * of the pool.
+     *
+     * @throws ConnectionFailedException  thrown when the ConnectionPool fails to give a Connection
+     * @throws CatnapException            thrown when the snapshot can't be written
+     */
+    public void shutdown() throws ConnectionFailedException, CatnapException {
+        try {
+            saveCacheSnapshot();
+        } finally {
+            connectionPool.shutdown();
+        }
+    }
+
+    /**
+     * This method writes the entities of the shared cache to the cache snapshot, with the current version of
+     * their rows. It does nothing when no snapshot or no shared cache was set.
+     *
+     * @throws ConnectionFailedException  thrown when the ConnectionPool fails to give a Connection
+     * @throws CatnapException            thrown when the snapshot can't be written
+     */
+    public void saveCacheSnapshot() throws ConnectionFailedException, CatnapException {
+        if(this.cacheSnapshot == null || this.sharedCache == null) {
+            return;
+        }
+
+        Connection conn = this.connectionPool.getConnection();
+        try {
+            CacheSnapshot.write(this.cacheSnapshot, this.sharedCache, (clazz, ids) -> getRowVersions(conn, clazz, ids));
+        } finally {
+            this.connectionPool.releaseConnection(conn);
         }
     }
 
@@ -60,7 +136,27 @@ public class SessionFactory implements EntityManagerFactory {
      */
     @Override
     public EntityManager createEntityManager() throws ConnectionFailedException {
-        return new Session(this.connectionPool.getConnection(), this.mappingStrategy, new CatnapCache(), this);
+        Connection connection = this.connectionPool.getConnection();
+        Session session = new Session(connection, getStatementCache(connection), this.mappingStrategy,
+                new CatnapCache(this.cacheMaxEntries, this.cacheMaxBytes, this.cacheEvictionPolicy), this);
+        session.setBatchSize(this.batchSize);
+        session.setFetchSize(this.fetchSize);
+        session.setSharedCache(this.sharedCache);
+
+        return session;
+    }
+
+    /**
+     * This method is used to get a Session whose operations run on the async executor and return
+     * CompletableFutures. The executor is shared by every AsyncEntityManager of this factory. When none was
+     * set, one is created the first time: virtual threads on Java 21 and later, otherwise a pool with a
+     * thread per connection the pool was configured with.
+     *
+     * @return                             an AsyncEntityManager wrapping a new Session
+     * @throws ConnectionFailedException   thrown when the ConnectionPool fails to give the session a Connection
+     */
+    public AsyncEntityManager createAsyncEntityManager() throws ConnectionFailedException {
+        return new AsyncEntityManager(createEntityManager(), getAsyncExecutor());
     }
 
     /**
@@ -105,4 +201,236 @@ public class SessionFactory implements EntityManagerFactory {
     public void releaseConnection(Connection connection) {
         this.connectionPool.releaseConnection(connection);
     }
+
+    /**
+     * This method loads entities into their table with the Postgres COPY command, using a Session of its own.
+     * See EntityManager.copyIn.
+     *
+     * @param clazz                          the type of the entities
+     * @param entities                       the entities to load
+     * @return                               the number of rows loaded
+     * @throws ConnectionFailedException     thrown when the ConnectionPool fails to give the session a Connection
+     * @throws CatnapException               thrown when the copy fails
+     */
+    public long copyIn(Class<?> clazz, Iterable<?> entities) throws ConnectionFailedException, CatnapException {
+        EntityManager em = createEntityManager();
+        try {
+            return em.copyIn(clazz, entities);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * This method exports every row of an entity type's table with the Postgres COPY command, using a Session
+     * of its own. See EntityManager.copyOut.
+     *
+     * @param clazz                          the type of entity to export
+     * @param consumer                       receives each entity
+     * @return                               the number of rows exported
+     * @throws ConnectionFailedException     thrown when the ConnectionPool fails to give the session a Connection
+     * @throws CatnapException               thrown when the copy fails
+     */
+    public long copyOut(Class<?> clazz, Consumer<Object> consumer) throws ConnectionFailedException, CatnapException {
+        EntityManager em = createEntityManager();
+        try {
+            return em.copyOut(clazz, consumer);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * This method returns the StatementCache of a pooled connection, creating it the first time the
+     * connection is handed out. The cache lives as long as the connection, so statements prepared by one
+     * Session are reused by the next Session that borrows the connection.
+     *
+     * @param connection                     the pooled connection
+     * @return                               the statement cache of the connection
+     */
+    public synchronized StatementCache getStatementCache(Connection connection) {
+        return this.statementCaches.computeIfAbsent(connection, c -> new StatementCache(c, this.statementCacheSize));
+    }
+
+    /**
+     * This method sets how many prepared statements are kept open per connection. It only affects
+     * connections that haven't been handed out yet.
+     *
+     * @param statementCacheSize             the maximum number of cached statements per connection
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * This method sets how many statements the Sessions created from now on send in one JDBC batch
+     * in persistAll, updateAll and deleteAll.
+     *
+     * @param batchSize                      the maximum number of statements per batch
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * This method sets how many rows the Sessions created from now on fetch from a server side cursor at a
+     * time when streaming entities.
+     *
+     * @param fetchSize                      the number of rows per fetch
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * This method sets the most entities the cache of each Session created from now on keeps. The default is
+     * CatnapCache.DEFAULT_MAX_ENTRIES.
+     *
+     * @param cacheMaxEntries                the most entities cached per Session
+     */
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    /**
+     * This method sets the most heap, as estimated by CatnapCache, the cache of each Session created from
+     * now on uses. There is no limit by default.
+     *
+     * @param cacheMaxBytes                  the most bytes cached per Session
+     */
+    public void setCacheMaxBytes(long cacheMaxBytes) {
+        this.cacheMaxBytes = cacheMaxBytes;
+    }
+
+    /**
+     * This method sets how the cache of each Session created from now on holds its entities. The default is
+     * LRU, SOFT also lets the garbage collector evict them when memory runs low.
+     *
+     * @param cacheEvictionPolicy            the eviction policy
+     */
+    public void setCacheEvictionPolicy(CatnapCache.EvictionPolicy cacheEvictionPolicy) {
+        this.cacheEvictionPolicy = cacheEvictionPolicy;
+    }
+
+    /**
+     * This method sets the second level cache given to the Sessions created from now on. Only entities
+     * annotated with @Cacheable are kept in it. By default it is a SharedEntityCache with the default
+     * capacity. An OffHeapEntityCache keeps large tables out of the heap.
+     *
+     * @param sharedCache                    the shared cache, or null to turn the second level cache off
+     */
+    public void setSharedCache(SecondLevelCache sharedCache) {
+        this.sharedCache = sharedCache;
+    }
+
+    public SecondLevelCache getSharedCache() {
+        return sharedCache;
+    }
+
+    /**
+     * This method sets the file the shared cache is saved to by shutdown and warmed from by build, so the
+     * entities cached before a restart are served without loading them again. The file is memory mapped and
+     * read lazily, and its entries are only trusted once the version of their rows is checked against the
+     * database, see CacheSnapshot. A missing or unreadable file leaves the cache cold.
+     *
+     * @param cacheSnapshot                  the snapshot file, or null to not keep one
+     */
+    public void setCacheSnapshot(Path cacheSnapshot) {
+        this.cacheSnapshot = cacheSnapshot;
+    }
+
+    /**
+     * This method sets the executor the operations of the AsyncEntityManagers created from now on run on.
+     *
+     * @param asyncExecutor                  the executor
+     */
+    public synchronized void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * @return      the executor of the AsyncEntityManagers, created the first time it is needed
+     */
+    public synchronized Executor getAsyncExecutor() {
+        if(this.asyncExecutor == null) {
+            int poolSize = this.connectionPool instanceof SimpleConnectionPool
+                    ? ((SimpleConnectionPool) this.connectionPool).getBaseConnections()
+                    : Runtime.getRuntime().availableProcessors();
+            this.asyncExecutor = AsyncEntityManager.createDefaultExecutor(Math.max(1, poolSize));
+        }
+
+        return this.asyncExecutor;
+    }
+
+    /**
+     * This method wraps the shared cache with the entities of the cache snapshot. Their freshness is checked as
+     * they are asked for, on a connection of the pool. Failing to read the snapshot isn't an error, the cache
+     * just starts cold.
+     */
+    private void loadCacheSnapshot() {
+        if(this.cacheSnapshot == null || this.sharedCache == null || !Files.exists(this.cacheSnapshot)) {
+            return;
+        }
+
+        try {
+            CacheSnapshot.open(this.cacheSnapshot, this::getRowVersions)
+                    .ifPresent(snapshot -> this.sharedCache = new SnapshotBackedCache(this.sharedCache, snapshot));
+        } catch (CatnapException e) {
+            logger.error("The cache snapshot " + this.cacheSnapshot + " will not be used, got: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method reads the current version of rows on a connection taken from the pool for the query. The
+     * snapshot checks one chunk at a time, so its checks hold at most one connection besides the sessions' own.
+     */
+    private long[] getRowVersions(Class<?> clazz, int[] ids) throws CatnapException {
+        Connection conn;
+        try {
+            conn = this.connectionPool.getConnection();
+        } catch (ConnectionFailedException e) {
+            String s = "Unable to get a connection to read the row versions of entity type: " + clazz.getName() + ", got: " + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+
+        try {
+            return getRowVersions(conn, clazz, ids);
+        } finally {
+            this.connectionPool.releaseConnection(conn);
+        }
+    }
+
+    /**
+     * This method reads the current version of rows, see MappingStrategy.getRowVersions.
+     */
+    private long[] getRowVersions(Connection conn, Class<?> clazz, int[] ids) throws CatnapException {
+        Map<Integer, Integer> positions = new HashMap<>();
+        Integer[] boxedIds = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            positions.put(ids[i], i);
+            boxedIds[i] = ids[i];
+        }
+
+        long[] versions = new long[ids.length];
+        Arrays.fill(versions, CacheSnapshot.MISSING_VERSION);
+        try (PreparedStatement query = conn.prepareStatement(this.mappingStrategy.getRowVersions(clazz))) {
+            Array array = conn.createArrayOf("integer", boxedIds);
+            query.setArray(1, array);
+            try (ResultSet rs = query.executeQuery()) {
+                while(rs.next()) {
+                    Integer position = positions.get(rs.getInt(1));
+                    if(position != null) {
+                        versions[position] = rs.getLong(2);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            String s = "There was an error reading the row versions of entity type: " + clazz.getName() + ", error message:" + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+
+        return versions;
+    }
 }
@@ -0,0 +1,260 @@
+package persistence;
+
+import exceptions.CatnapException;
+import util.CatnapResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This class is the unit of work of a Session between beginTransaction and commit or rollback. Instead of
+ * being run right away, persist, update and delete are recorded in an action queue which is coalesced as
+ * actions are added:
+ * 1. Updating an entity that is already queued for insert or update doesn't add an action, the queued
+ * statement writes the entity's values as they are when the queue is flushed.
+ * 2. Deleting an entity that is queued for insert cancels the insert.
+ * 3. Deleting an entity that is queued for update replaces the update, and an update of an entity that is
+ * queued for delete is dropped.
+ *
+ * Inserts are tracked by entity instance since new entities don't have their id yet, updates and deletes
+ * are tracked by entity type and id. When the Session flushes, the remaining actions are ordered by table,
+ * then inserts, updates and deletes, so each group can be sent as a JDBC batch.
+ */
+final class Transaction {
+
+    enum ActionType {
+        INSERT, UPDATE, DELETE
+    }
+
+    /**
+     * A queued write of one entity.
+     */
+    private static final class Action {
+        private final CatnapResult entity;
+        private final String table;
+        private ActionType type;
+        private boolean cancelled;
+
+        private Action(ActionType type, CatnapResult entity) throws CatnapException {
+            this.type = type;
+            this.entity = entity;
+            this.table = entity.getMetadata().getTableName();
+        }
+    }
+
+    /**
+     * The entity type and id of a row, used to match updates and deletes of the same row.
+     */
+    private static final class RowKey {
+        private final Class<?> type;
+        private final int id;
+
+        private RowKey(Class<?> type, int id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof RowKey)) return false;
+            RowKey other = (RowKey) o;
+            return id == other.id && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, id);
+        }
+    }
+
+    private final List<Action> actions = new ArrayList<>();
+    private final Map<Object, Action> inserts = new IdentityHashMap<>();
+    private final Map<RowKey, Action> writes = new HashMap<>();
+    private final List<CatnapResult> flushed = new ArrayList<>();
+    private final Map<Class<?>, Set<Integer>> writtenIds = new HashMap<>();
+    private final Set<Class<?>> writtenTypes = new HashSet<>();
+
+    /**
+     * This method queues the insert of an entity.
+     *
+     * @param entity             the entity to insert
+     * @throws CatnapException   thrown when the entity is null
+     */
+    void persist(Object entity) throws CatnapException {
+        if(!inserts.containsKey(entity)) {
+            Action action = new Action(ActionType.INSERT, new CatnapResult(entity));
+            inserts.put(entity, action);
+            actions.add(action);
+        }
+    }
+
+    /**
+     * This method queues the update of an entity, unless it is already queued for insert, update or delete.
+     *
+     * @param entity             the entity to update
+     * @throws CatnapException   thrown when the entity has no id
+     */
+    void update(Object entity) throws CatnapException {
+        if(inserts.containsKey(entity)) {
+            return;
+        }
+
+        CatnapResult wrappedEntity = new CatnapResult(entity);
+        RowKey key = key(wrappedEntity);
+        Action queued = writes.get(key);
+        if(queued == null) {
+            Action action = new Action(ActionType.UPDATE, wrappedEntity);
+            writes.put(key, action);
+            actions.add(action);
+        } else if(queued.type == ActionType.UPDATE && queued.entity.getEntity() != entity) {
+            // a different instance of the same row, its values are the latest
+            queued.cancelled = true;
+            Action action = new Action(ActionType.UPDATE, wrappedEntity);
+            writes.put(key, action);
+            actions.add(action);
+        }
+    }
+
+    /**
+     * This method queues the delete of an entity. If the entity is queued for insert, the insert is
+     * cancelled instead.
+     *
+     * @param entity             the entity to delete
+     * @throws CatnapException   thrown when the entity has no id
+     */
+    void delete(Object entity) throws CatnapException {
+        Action insert = inserts.remove(entity);
+        if(insert != null) {
+            insert.cancelled = true;
+            return;
+        }
+
+        CatnapResult wrappedEntity = new CatnapResult(entity);
+        RowKey key = key(wrappedEntity);
+        Action queued = writes.get(key);
+        if(queued == null) {
+            Action action = new Action(ActionType.DELETE, wrappedEntity);
+            writes.put(key, action);
+            actions.add(action);
+        } else if(queued.type == ActionType.UPDATE) {
+            queued.type = ActionType.DELETE;
+        }
+    }
+
+    /**
+     * @return      whether there are queued actions that haven't been flushed
+     */
+    boolean hasPendingActions() {
+        for (Action action: actions) {
+            if(!action.cancelled) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * This method empties the queue and returns the remaining actions ordered by table name, then by
+     * entity type, then inserts, updates and deletes. The entities are remembered so they can be evicted
+     * from the cache if the transaction is rolled back.
+     *
+     * @return      the actions grouped by table and entity type, then by type of action
+     */
+    List<Map<ActionType, List<CatnapResult>>> drain() {
+        Map<String, Map<Class<?>, Map<ActionType, List<CatnapResult>>>> byTable = new TreeMap<>();
+        for (Action action: actions) {
+            if(action.cancelled) {
+                continue;
+            }
+
+            Class<?> type = action.entity.getEntity().getClass();
+            byTable.computeIfAbsent(action.table, t -> new LinkedHashMap<>())
+                    .computeIfAbsent(type, t -> new EnumMap<>(ActionType.class))
+                    .computeIfAbsent(action.type, t -> new ArrayList<>())
+                    .add(action.entity);
+            flushed.add(action.entity);
+        }
+
+        actions.clear();
+        inserts.clear();
+        writes.clear();
+
+        List<Map<ActionType, List<CatnapResult>>> groups = new ArrayList<>();
+        for (Map<Class<?>, Map<ActionType, List<CatnapResult>>> table: byTable.values()) {
+            groups.addAll(table.values());
+        }
+
+        return groups;
+    }
+
+    /**
+     * This method records entities that were written to the database right away instead of being queued, so
+     * they are evicted from the cache like the flushed ones if the transaction is rolled back.
+     *
+     * @param entities      the written entities
+     */
+    void addFlushed(Collection<CatnapResult> entities) {
+        flushed.addAll(entities);
+    }
+
+    /**
+     * @return      the entities written by the flushes of this transaction so far
+     */
+    List<CatnapResult> getFlushed() {
+        return flushed;
+    }
+
+    /**
+     * This method records the ids of rows changed by an updateWhere or deleteWhere, so they are evicted
+     * from the cache again when the transaction ends.
+     *
+     * @param type          the entity type of the rows
+     * @param ids           the ids of the changed rows
+     */
+    void addWritten(Class<?> type, Collection<Integer> ids) {
+        writtenIds.computeIfAbsent(type, t -> new HashSet<>()).addAll(ids);
+    }
+
+    /**
+     * This method records that an updateWhere or deleteWhere changed rows of a type whose ids aren't known,
+     * so every entity of the type is evicted from the cache again when the transaction ends.
+     *
+     * @param type          the entity type of the rows
+     */
+    void addWrittenType(Class<?> type) {
+        writtenTypes.add(type);
+    }
+
+    /**
+     * @return      the ids of the rows changed by updateWhere and deleteWhere, by entity type
+     */
+    Map<Class<?>, Set<Integer>> getWrittenIds() {
+        return writtenIds;
+    }
+
+    /**
+     * @return      the entity types changed by updateWhere and deleteWhere without known ids
+     */
+    Set<Class<?>> getWrittenTypes() {
+        return writtenTypes;
+    }
+
+    private static RowKey key(CatnapResult wrappedEntity) throws CatnapException {
+        int id = wrappedEntity.getId()
+                .orElseThrow(() -> new CatnapException("Entity type: " + wrappedEntity.getEntity().getClass() + " had no id field!"));
+
+        return new RowKey(wrappedEntity.getEntity().getClass(), id);
+    }
+}
@@ -0,0 +1,16 @@
+package util;
+
+/**
+ * Classes implementing this interface decide how Catnap creates entities and reads and writes their
+ * fields. EntityMetadata asks the configured strategy for an EntityAccessor once per entity type.
+ */
+public interface AccessorStrategy {
+
+    /**
+     * This method builds the accessor for an entity type. It is called at most once per type.
+     *
+     * @param metadata       the metadata of the entity type
+     * @return               an accessor for the entity type
+     */
+    public EntityAccessor create(EntityMetadata metadata);
+}
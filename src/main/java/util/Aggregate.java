@@ -0,0 +1,25 @@
+package util;
+
+/**
+ * This enum lists the aggregate functions that can be computed on a numeric column by the database with
+ * EntityManager.aggregate.
+ */
+public enum Aggregate {
+    SUM("sum"),
+    MIN("min"),
+    MAX("max"),
+    AVG("avg");
+
+    private final String function;
+
+    Aggregate(String function) {
+        this.function = function;
+    }
+
+    /**
+     * @return      the name of the postgresql function
+     */
+    public String getFunction() {
+        return function;
+    }
+}
@@ -1,29 +1,31 @@
 package util;
 
-import annotations.Entity;
-import annotations.Id;
-import annotations.Length;
-import annotations.OrderBy;
+import exceptions.CatnapException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.IOException;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
  * This class is used to map each Java datatype to its appropriate postgresql data type.
+ * All of the annotation lookups are done once per entity type by EntityMetadata, this class only
+ * reads from it.
  * The methods addModel and buildSchema are intended to be called by the user of the ORM.
  * The rest of the non-helper methods are intended to be utilized by Session Class to
- * generate queries that will be added to prepared statements.
+ * generate parameterized queries that will be added to prepared statements. Each query
+ * template is built once per entity type and cached, so the sql text of an operation is the
+ * same on every call and the database can reuse its plan.
  * For more detailed method descriptions see MappingStrategy Interface.
  */
 public class AnnotationStrategy implements MappingStrategy{
     private final static Logger logger = LogManager.getLogger(AnnotationStrategy.class);
     private static List<Object> models = new ArrayList<>();
+    private final Map<Class<?>, Map<String, String>> templates = new ConcurrentHashMap<>();
 
     @Override
     public Object addModel(Object model){
@@ -51,191 +53,488 @@ public class AnnotationStrategy implements MappingStrategy{
     }
 
     @Override
-    public String insert(Object instanceObject) throws IllegalArgumentException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
-        StringBuilder query = new StringBuilder("INSERT INTO ");
-        Class clazz = instanceObject.getClass();
-        query.append(getTableName(clazz)).append(" VALUES (");
+    public String insert(Class clazz) {
+        return template(clazz, "insert", EntityMapper::getInsertSql, metadata -> {
+            StringBuilder query = new StringBuilder("INSERT INTO ");
+            query.append(metadata.getTableName()).append(" (");
 
-        Field[] fields = clazz.getFields();
-        int count = 1;
-        for(Field f : fields){
-            if(f.isAnnotationPresent(Id.class)){
-                if(count == fields.length){
-                    query.append("default");
-                }else{
-                    query.append("default, ");
+            StringBuilder values = new StringBuilder(" VALUES (");
+            int count = 1;
+            List<ColumnMetadata> columns = metadata.getValueColumns();
+            for(ColumnMetadata c : columns){
+                query.append(c.getName());
+                values.append("?");
+                if(count != columns.size()){
+                    query.append(", ");
+                    values.append(", ");
                 }
-            }else{
-                if(count == fields.length){
-                    if(hasSingleQuotes(f.getType().getName())){
-                        query.append("'" + f.get(instanceObject) + "'");
-                    }else{
-                        query.append(f.get(instanceObject) + "");
-                    }
-                }else{
-                    if(hasSingleQuotes(f.getType().getName())){
-                        query.append("'" + f.get(instanceObject) + "', ");
-                    }else{
-                        query.append(f.get(instanceObject) + ", ");
-                    }
+                count++;
+            }
+            query.append(")").append(values).append(");");
+
+            return String.valueOf(query);
+        });
+    }
+
+    @Override
+    public String insertReturning(Class clazz, int rows) {
+        return template(clazz, "insertReturning" + rows, metadata -> {
+            // RETURNING can only return columns of the table, so the ids are drawn from the serial sequence
+            // next to the row numbers first and the row numbers are returned along with them
+            String table = metadata.getTableName();
+            String id = getIdName(metadata);
+            List<ColumnMetadata> columns = metadata.getValueColumns();
+
+            StringBuilder query = new StringBuilder("WITH batch (ord");
+            for(ColumnMetadata c : columns){
+                query.append(", ").append(c.getName());
+            }
+            query.append(") AS (VALUES ");
+            for(int i = 0; i < rows; i++){
+                query.append(i == 0 ? "(" : ", (").append(i + 1);
+                for(ColumnMetadata c : columns){
+                    query.append(", CAST(? AS ").append(c.getArrayType()).append(")");
                 }
+                query.append(")");
             }
-            count++;
-        }
-        query.append(");");
+            query.append("), keyed AS (SELECT nextval(pg_get_serial_sequence('").append(table).append("', '")
+                    .append(id.toLowerCase()).append("')) AS ").append(id).append(", * FROM batch)");
 
-        return String.valueOf(query);
+            query.append(", inserted AS (INSERT INTO ").append(table).append(" (").append(id);
+            StringBuilder select = new StringBuilder(id);
+            for(ColumnMetadata c : columns){
+                query.append(", ").append(c.getName());
+                select.append(", ").append(c.getName());
+            }
+            query.append(") SELECT ").append(select).append(" FROM keyed RETURNING ").append(id).append(")");
+            query.append(" SELECT keyed.ord, keyed.").append(id).append(" FROM keyed JOIN inserted USING (")
+                    .append(id).append(");");
+
+            return String.valueOf(query);
+        });
     }
 
     @Override
-    public String get(Class clazz, int id) throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
-        StringBuilder query = new StringBuilder("SELECT * FROM ");
-        query.append(getTableName(clazz) + " WHERE ");
-
-        Field[] fields = clazz.getFields();
-        String pkFieldName = null;
-        for(Field f : fields) {
-            f.setAccessible(true);
-            if (f.isAnnotationPresent(Id.class)) {
-                pkFieldName = f.getName();
+    public String upsert(Class clazz, int rows) {
+        return template(clazz, "upsert" + rows, metadata -> {
+            List<ColumnMetadata> columns = metadata.getColumns();
+            StringBuilder query = new StringBuilder("INSERT INTO ");
+            query.append(metadata.getTableName()).append(" (").append(getColumnList(columns)).append(") VALUES ");
+
+            StringBuilder row = new StringBuilder("(");
+            for(int i = 0; i < columns.size(); i++){
+                row.append(i == 0 ? "?" : ", ?");
+            }
+            row.append(")");
+            for(int i = 0; i < rows; i++){
+                query.append(i == 0 ? "" : ", ").append(row);
             }
-        }
-        query.append(pkFieldName + " = " + id + ";");
 
-        return String.valueOf(query);
+            String id = getIdName(metadata);
+            query.append(" ON CONFLICT (").append(id).append(") DO UPDATE SET ");
+            List<ColumnMetadata> valueColumns = metadata.getValueColumns();
+            if(valueColumns.isEmpty()){
+                // DO NOTHING wouldn't return the existing row
+                query.append(id).append(" = EXCLUDED.").append(id);
+            }
+            for(int i = 0; i < valueColumns.size(); i++){
+                String name = valueColumns.get(i).getName();
+                query.append(i == 0 ? "" : ", ").append(name).append(" = EXCLUDED.").append(name);
+            }
+            query.append(" RETURNING *;");
+
+            return String.valueOf(query);
+        });
+    }
+
+    @Override
+    public String get(Class clazz) {
+        return template(clazz, "get", EntityMapper::getGetSql, metadata ->
+                "SELECT * FROM " + metadata.getTableName() + " WHERE " + getIdName(metadata) + " = ?;");
     }
 
     @Override
-    public String getAll(Class clazz) throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
-        StringBuilder query = new StringBuilder("SELECT * FROM ");
-        query.append(getTableName(clazz));
-
-        int count = 0;
-        Field[] fields = clazz.getFields();
-        for(Field f : fields) {
-            if (f.isAnnotationPresent(OrderBy.class)) {
-                Object direction = null;
-                Annotation annotation = f.getAnnotation(OrderBy.class);
-                Method m = annotation.annotationType().getMethod("direction");
-                direction = m.invoke(annotation);
+    public String getByIds(Class clazz) {
+        return template(clazz, "getByIds", metadata ->
+                "SELECT * FROM " + metadata.getTableName() + " WHERE " + getIdName(metadata) + " = ANY(?);");
+    }
+
+    @Override
+    public String getRowVersions(Class clazz) {
+        return template(clazz, "getRowVersions", metadata -> {
+            String id = getIdName(metadata);
+            return "SELECT " + id + ", xmin::text::bigint FROM " + metadata.getTableName() + " WHERE " + id + " = ANY(?);";
+        });
+    }
+
+    @Override
+    public String getAll(Class clazz) {
+        return template(clazz, "getAll", EntityMapper::getGetAllSql, metadata -> {
+            StringBuilder query = new StringBuilder("SELECT * FROM ");
+            query.append(metadata.getTableName());
+
+            int count = 0;
+            for(ColumnMetadata c : metadata.getOrderByColumns()) {
                 if(count == 0){
-                    query.append(" ORDER BY " + f.getName() + " " + direction);
-                }else if(count > 0){
-                    query.append(", " + f.getName() + " " + direction);
+                    query.append(" ORDER BY " + c.getName() + " " + c.getOrderDirection());
+                }else{
+                    query.append(", " + c.getName() + " " + c.getOrderDirection());
                 }
                 count++;
             }
+            query.append(";");
+
+            return String.valueOf(query);
+        });
+    }
+
+    @Override
+    public String update(Class clazz) {
+        return template(clazz, "update", EntityMapper::getUpdateSql, metadata -> buildUpdate(metadata, metadata.getValueColumns()));
+    }
+
+    @Override
+    public String update(Class clazz, BitSet columns) {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        List<ColumnMetadata> setColumns = getColumns(metadata, columns);
+        if(setColumns.size() == metadata.getValueColumns().size()){
+            return update(clazz);
         }
-        query.append(";");
 
-        return String.valueOf(query);
+        return template(clazz, "update" + columns, m -> buildUpdate(m, setColumns));
     }
 
     @Override
-    public String update(Object instanceObject) throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
-        StringBuilder query = new StringBuilder("UPDATE ");
-        Class clazz = instanceObject.getClass();
-        query.append(getTableName(clazz) + " SET ");
+    public String delete(Class clazz) {
+        return template(clazz, "delete", EntityMapper::getDeleteSql, metadata ->
+                "DELETE FROM " + metadata.getTableName() + " WHERE " + getIdName(metadata) + " = ?;");
+    }
 
-        int count = 1;
-        String pkFieldName = null;
-        Object pkValue = null;
-        Field[] fields = clazz.getFields();
-        for(Field f : fields){
-            String fieldName = f.getName();
-            if(!f.isAnnotationPresent(Id.class)) {
-                if(count != fields.length){
-                    if(hasSingleQuotes(f.getType().getName())){
-                        query.append(fieldName + " = '" + f.get(instanceObject) + "', ");
-                    }else{
-                        query.append(fieldName + " = " + f.get(instanceObject) + ", ");
-                    }
+    @Override
+    public String copyIn(Class clazz) {
+        return template(clazz, "copyIn", metadata ->
+                "COPY " + metadata.getTableName() + " (" + getColumnList(metadata.getValueColumns()) + ") FROM STDIN;");
+    }
+
+    @Override
+    public String copyOut(Class clazz) {
+        return template(clazz, "copyOut", metadata ->
+                "COPY " + metadata.getTableName() + " (" + getColumnList(metadata.getColumns()) + ") TO STDOUT;");
+    }
+
+    @Override
+    public String count(Class clazz) {
+        return template(clazz, "count", metadata -> "SELECT count(*) FROM " + metadata.getTableName() + ";");
+    }
+
+    @Override
+    public String exists(Class clazz) {
+        return template(clazz, "exists", metadata ->
+                "SELECT EXISTS (SELECT 1 FROM " + metadata.getTableName() + " WHERE " + getIdName(metadata) + " = ?);");
+    }
+
+    @Override
+    public String aggregate(Class clazz, Aggregate function, String column, String groupBy) throws CatnapException {
+        return compiledTemplate(clazz, function + ":" + column + ":" + groupBy, metadata -> {
+            ColumnMetadata c = getColumn(metadata, column);
+            if(!c.getColumnType().isNumeric()){
+                throw new CatnapException("The column " + column + " of entity type: " + metadata.getEntityType().getName() + " isn't numeric and can't be aggregated");
+            }
+
+            String aggregate = function.getFunction() + "(" + c.getName() + ")";
+            if(groupBy == null){
+                return "SELECT " + aggregate + " FROM " + metadata.getTableName() + ";";
+            }
+
+            ColumnMetadata g = getColumn(metadata, groupBy);
+            return "SELECT " + g.getName() + ", " + aggregate + " FROM " + metadata.getTableName()
+                    + " GROUP BY " + g.getName() + " ORDER BY " + g.getName() + ";";
+        });
+    }
+
+    @Override
+    public String getPage(Class clazz) {
+        return template(clazz, "getPage", metadata ->
+                "SELECT * FROM " + metadata.getTableName() + getKeysetOrder(metadata) + " LIMIT ?;");
+    }
+
+    @Override
+    public String getPageAfter(Class clazz) {
+        return template(clazz, "getPageAfter", metadata -> {
+            List<ColumnMetadata> keyset = metadata.getKeysetColumns();
+            StringBuilder query = new StringBuilder("SELECT * FROM ");
+            query.append(metadata.getTableName()).append(" WHERE ");
+
+            if(isKeysetRowComparable(metadata)){
+                String comparison = metadata.isKeysetDescending(0) ? " < " : " > ";
+                if(keyset.size() == 1){
+                    query.append(keyset.get(0).getName()).append(comparison).append("?");
                 }else{
-                    if(hasSingleQuotes(f.getType().getName())){
-                        query.append(fieldName + " = '" + f.get(instanceObject) + "' WHERE ");
-                    }else{
-                        query.append(fieldName + " = " + f.get(instanceObject) + " WHERE ");
+                    query.append("(").append(getColumnList(keyset)).append(")").append(comparison).append("(");
+                    for(int i = 0; i < keyset.size(); i++){
+                        query.append(i == 0 ? "?" : ", ?");
                     }
+                    query.append(")");
                 }
             }else{
-                pkFieldName = fieldName;
-                pkValue = f.get(instanceObject);
+                for(int i = 0; i < keyset.size(); i++){
+                    query.append(i == 0 ? "(" : " OR (");
+                    for(int j = 0; j < i; j++){
+                        ColumnMetadata c = keyset.get(j);
+                        query.append(c.getName()).append(c.isNullable() ? " IS NOT DISTINCT FROM ? AND " : " = ? AND ");
+                    }
+                    appendKeysetAfter(query, keyset.get(i), metadata.isKeysetDescending(i));
+                    query.append(")");
+                }
             }
-            count++;
+
+            query.append(getKeysetOrder(metadata)).append(" LIMIT ?;");
+            return String.valueOf(query);
+        });
+    }
+
+    @Override
+    public String query(Query query) throws CatnapException {
+        return compiledTemplate(query.getEntityType(), "query" + query.getShape(), metadata -> {
+            StringBuilder select = new StringBuilder("SELECT * FROM ");
+            select.append(metadata.getTableName());
+            appendQuery(select, metadata, query);
+
+            return String.valueOf(select);
+        });
+    }
+
+    @Override
+    public String select(Query query) throws CatnapException {
+        String selectList = getColumnList(query.getSelectedColumns());
+        return compiledTemplate(query.getEntityType(), "select" + selectList + query.getShape(), metadata -> {
+            StringBuilder select = new StringBuilder("SELECT ");
+            select.append(selectList).append(" FROM ").append(metadata.getTableName());
+            appendQuery(select, metadata, query);
+
+            return String.valueOf(select);
+        });
+    }
+
+    @Override
+    public String updateWhere(Class clazz, Collection<String> columns, Criteria where) throws CatnapException {
+        StringBuilder shape = new StringBuilder("updateWhere");
+        for(String column : columns){
+            shape.append(column).append(',');
         }
-        query.append(pkFieldName + " = " + pkValue + ";");
+        where.appendShape(shape.append('|'));
 
-        return String.valueOf(query);
+        return compiledTemplate(clazz, String.valueOf(shape), metadata -> {
+            if(columns.isEmpty()){
+                throw new CatnapException("An update of entity type: " + metadata.getEntityType().getName() + " needs at least one column to set");
+            }
+
+            StringBuilder query = new StringBuilder("UPDATE ");
+            query.append(metadata.getTableName()).append(" SET ");
+            int count = 0;
+            for(String column : columns){
+                ColumnMetadata c = getColumn(metadata, column);
+                if(c.isId()){
+                    throw new CatnapException("The id column of entity type: " + metadata.getEntityType().getName() + " can't be updated");
+                }
+                query.append(count++ == 0 ? "" : ", ").append(c.getName()).append(" = ?");
+            }
+            query.append(" WHERE ");
+            where.appendSql(query, metadata);
+
+            return String.valueOf(query.append(";"));
+        });
     }
 
     @Override
-    public String delete(Class clazz, int id) throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
-        StringBuilder query = new StringBuilder("DELETE FROM ");
-        query.append(getTableName(clazz) + " WHERE ");
-
-        Field[] fields = clazz.getFields();
-        String pkFieldName = null;
-        for(Field f : fields) {
-            if (f.isAnnotationPresent(Id.class)) {
-                pkFieldName = f.getName();
+    public String deleteWhere(Class clazz, Criteria where) throws CatnapException {
+        StringBuilder shape = new StringBuilder("deleteWhere");
+        where.appendShape(shape);
+
+        return compiledTemplate(clazz, String.valueOf(shape), metadata -> {
+            StringBuilder query = new StringBuilder("DELETE FROM ");
+            query.append(metadata.getTableName()).append(" WHERE ");
+            where.appendSql(query, metadata);
+
+            return String.valueOf(query.append(";"));
+        });
+    }
+
+    @Override
+    public void bindInsert(PreparedStatement statement, Object instanceObject) throws SQLException, CatnapException {
+        EntityMetadata metadata = EntityMetadata.of(instanceObject.getClass());
+        Optional<EntityMapper> mapper = metadata.getMapper();
+        if(mapper.isPresent()){
+            mapper.get().bindInsert(statement, instanceObject);
+            return;
+        }
+
+        EntityAccessor accessor = metadata.getAccessor();
+        int index = 1;
+        for(ColumnMetadata c : metadata.getValueColumns()){
+            c.bind(statement, index++, accessor, instanceObject);
+        }
+    }
+
+    @Override
+    public void bindInsertReturning(PreparedStatement statement, List<?> instanceObjects) throws SQLException, CatnapException {
+        if(instanceObjects.isEmpty()){
+            return;
+        }
+
+        EntityMetadata metadata = EntityMetadata.of(instanceObjects.get(0).getClass());
+        EntityAccessor accessor = metadata.getAccessor();
+        int index = 1;
+        for(Object instanceObject : instanceObjects){
+            for(ColumnMetadata c : metadata.getValueColumns()){
+                c.bind(statement, index++, accessor, instanceObject);
             }
         }
-        query.append(pkFieldName + " = " + id + ";");
+    }
 
-        return String.valueOf(query);
+    @Override
+    public void bindUpsert(PreparedStatement statement, List<?> instanceObjects) throws SQLException, CatnapException {
+        if(instanceObjects.isEmpty()){
+            return;
+        }
+
+        EntityMetadata metadata = EntityMetadata.of(instanceObjects.get(0).getClass());
+        EntityAccessor accessor = metadata.getAccessor();
+        int index = 1;
+        for(Object instanceObject : instanceObjects){
+            for(ColumnMetadata c : metadata.getColumns()){
+                c.bind(statement, index++, accessor, instanceObject);
+            }
+        }
+    }
+
+    @Override
+    public void bindUpdate(PreparedStatement statement, Object instanceObject) throws SQLException, CatnapException {
+        EntityMetadata metadata = EntityMetadata.of(instanceObject.getClass());
+        Optional<EntityMapper> mapper = metadata.getMapper();
+        if(mapper.isPresent()){
+            mapper.get().bindUpdate(statement, instanceObject);
+            return;
+        }
+
+        EntityAccessor accessor = metadata.getAccessor();
+        int index = 1;
+        for(ColumnMetadata c : metadata.getValueColumns()){
+            c.bind(statement, index++, accessor, instanceObject);
+        }
+
+        Optional<ColumnMetadata> idColumn = metadata.getIdColumn();
+        if(idColumn.isPresent()){
+            idColumn.get().bind(statement, index, accessor, instanceObject);
+        }
+    }
+
+    @Override
+    public void bindUpdate(PreparedStatement statement, Object instanceObject, BitSet columns) throws SQLException, CatnapException {
+        EntityMetadata metadata = EntityMetadata.of(instanceObject.getClass());
+        List<ColumnMetadata> setColumns = getColumns(metadata, columns);
+        if(setColumns.size() == metadata.getValueColumns().size()){
+            bindUpdate(statement, instanceObject);
+            return;
+        }
+
+        EntityAccessor accessor = metadata.getAccessor();
+        int index = 1;
+        for(ColumnMetadata c : setColumns){
+            c.bind(statement, index++, accessor, instanceObject);
+        }
+
+        Optional<ColumnMetadata> idColumn = metadata.getIdColumn();
+        if(idColumn.isPresent()){
+            idColumn.get().bind(statement, index, accessor, instanceObject);
+        }
+    }
+
+    @Override
+    public void bindPage(PreparedStatement statement, Class clazz, Object after, int limit) throws SQLException, CatnapException {
+        int index = 1;
+        if(after != null){
+            EntityMetadata metadata = EntityMetadata.of(clazz);
+            EntityAccessor accessor = metadata.getAccessor();
+            List<ColumnMetadata> keyset = metadata.getKeysetColumns();
+            if(isKeysetRowComparable(metadata)){
+                for(ColumnMetadata c : keyset){
+                    c.bind(statement, index++, accessor, after);
+                }
+            }else{
+                for(int i = 0; i < keyset.size(); i++){
+                    for(int j = 0; j <= i; j++){
+                        keyset.get(j).bind(statement, index++, accessor, after);
+                    }
+                    if(keyset.get(i).isNullable()){
+                        // the comparison of a nullable column also checks whether the value is null
+                        keyset.get(i).bind(statement, index++, accessor, after);
+                    }
+                }
+            }
+        }
+
+        statement.setInt(index, limit);
+    }
+
+    @Override
+    public void bindQuery(PreparedStatement statement, Query query) throws SQLException, CatnapException {
+        int index = 1;
+        if(query.getWhere() != null){
+            index = query.getWhere().bind(statement, index, EntityMetadata.of(query.getEntityType()));
+        }
+        if(query.getLimit() != null){
+            statement.setInt(index, query.getLimit());
+        }
+    }
+
+    @Override
+    public void bindWhere(PreparedStatement statement, Class clazz, Map<String, ?> values, Criteria where) throws SQLException, CatnapException {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        int index = 1;
+        for(Map.Entry<String, ?> value : values.entrySet()){
+            ColumnMetadata c = getColumn(metadata, value.getKey());
+            try {
+                c.getColumnType().bind(statement, index++, value.getValue());
+            } catch (ClassCastException e) {
+                throw new CatnapException("The value " + value.getValue() + " can't be written to the column " + c.getName() + " of type " + c.getType().getName());
+            }
+        }
+
+        where.bind(statement, index, metadata);
     }
 
     //HELPER METHODS
     /**
-     * This is a helper method used to generate a create table sql statement for a class. This method utilizes
-     * reflection to check the data types of the properties inside a class and then maps them to the corresponding
-     * postgresql data types. The file resources.mapping.properties is used to look up the correct data type mappings.
-     * The variable names for each property are used as the data column names in postgresql. Variable names are
-     * also retrieved through reflection.
-     * Makes use of the getTableName() helper method.
+     * This is a helper method used to generate a create table sql statement for a class. The data types
+     * of the properties inside a class are mapped to the corresponding postgresql data types when the
+     * class' EntityMetadata is built, using the file resources.mapping.properties to look up the correct
+     * data type mappings. The variable names for each property are used as the data column names in postgresql.
      *
      * @return a String containing the generated sql create table statement.
-     * @throws InvocationTargetException Helper method getTableName() throws this exception.
-     * @throws NoSuchMethodException Helper method getTableName() throws this exception.
-     * @throws IllegalAccessException Helper method getTableName() throws this exception.
+     * @throws InvocationTargetException kept for compatibility with the MappingStrategy interface.
+     * @throws NoSuchMethodException kept for compatibility with the MappingStrategy interface.
+     * @throws IllegalAccessException kept for compatibility with the MappingStrategy interface.
      * @param clazz the class to be translated into a create table statement.
      */
     public String createTable(Class clazz) throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
         StringBuilder query = new StringBuilder("CREATE TABLE ");
-        query.append(getTableName(clazz)).append(" (\n");
-
-        Properties props = new Properties();
-        try{
-            props.load(AnnotationStrategy.class.getClassLoader().getResourceAsStream("mapping.properties"));
-        } catch(IOException e){
-            logger.error(e.getMessage());
-        }
+        query.append(metadata.getTableName()).append(" (\n");
 
-        boolean hasPk = false;
-        String pkName = "";
         int count = 1;
-        Field[] fields = clazz.getFields();
-        for(Field f : fields){
-            String fieldName = f.getName();
-            query.append("  ").append(fieldName).append(" ");
-            if(f.isAnnotationPresent(Id.class)){
-                query.append("serial");
-                hasPk = true;
-                pkName = fieldName;
-            }else if(f.getType().getSimpleName().equals("String")){
-                query.append(handleString(props, f));
-            }
-            else{
-                query.append(props.getProperty(f.getType().getSimpleName()));
-            }
-            if(!(count == fields.length)){
+        List<ColumnMetadata> columns = metadata.getColumns();
+        for(ColumnMetadata c : columns){
+            query.append("  ").append(c.getName()).append(" ").append(c.getSqlType());
+            if(!(count == columns.size())){
                 query.append(",\n");
             }
             count++;
         }
 
-        if(hasPk){
-            query.append(",\n  primary key (").append(pkName).append(")");
+        Optional<ColumnMetadata> idColumn = metadata.getIdColumn();
+        if(idColumn.isPresent()){
+            query.append(",\n  primary key (").append(idColumn.get().getName()).append(")");
         }
         query.append("\n);");
 
@@ -243,64 +542,258 @@ public class AnnotationStrategy implements MappingStrategy{
     }
 
     /**
-     * This is a helper method that retrieves the table name from the class provided.
-     * Reflection is used to get the @Entity annotation and execute its property
-     * method to retrieve the value. The table name is set to the values retrieved.
-     * If the value is equal to the default, "none", then the class name is used as the
-     * table name instead.
+     * This is a helper method used to generate an update sql statement that sets the given columns.
+     *
+     * @return a String containing the generated sql update template.
+     * @param metadata the metadata of the entity.
+     * @param columns the columns to set, the primary key is set in the WHERE clause.
+     */
+    private String buildUpdate(EntityMetadata metadata, List<ColumnMetadata> columns) {
+        StringBuilder query = new StringBuilder("UPDATE ");
+        query.append(metadata.getTableName() + " SET ");
+
+        int count = 1;
+        for(ColumnMetadata c : columns){
+            query.append(c.getName() + " = ?");
+            query.append(count != columns.size() ? ", " : "");
+            count++;
+        }
+        query.append(" WHERE " + getIdName(metadata) + " = ?;");
+
+        return String.valueOf(query);
+    }
+
+    /**
+     * This is a helper method that joins the names of columns with commas.
      *
-     * @return a String with the table's name.
-     * @throws IllegalAccessException occurs if the method being executed through reflection is inaccessible.
-     * @throws InvocationTargetException occurs if the method being executed through reflection cannot be found.
-     * @throws NoSuchMethodException occurs if the @Entity property method is not found through reflection.
-     * @param clazz the class to retrieve the table name from.
+     * @return the comma separated column names.
+     * @param columns the columns to list.
      */
-    private String getTableName(Class clazz) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-        Object tableName = null;
-        Annotation annotation = clazz.getAnnotation(Entity.class);
-        Method m = annotation.annotationType().getMethod("name");
-        tableName = m.invoke(annotation);
+    private String getColumnList(List<ColumnMetadata> columns) {
+        StringBuilder list = new StringBuilder();
+        for(ColumnMetadata c : columns){
+            list.append(list.length() == 0 ? "" : ", ").append(c.getName());
+        }
 
-        return !tableName.equals("none") ? tableName + "" : clazz.getSimpleName();
+        return String.valueOf(list);
     }
 
     /**
-     * This is a helper method that handles the mapping of a String to its appropriate
-     * postgresql datatype. The method uses reflection to check if the @Length annotation
-     * is present. If a @Length annotation is found, then the size is retrieved from the
-     * property method belonging to the annotation and inserted into the sql String.
-     * If no @Length annotation is present, then the size is set to '(50)';
+     * This is a helper method that selects the value columns of an entity whose indexes are set.
      *
-     * @return a String with the mapping to VARCHAR with specified size.
-     * @throws IllegalAccessException occurs if the method being executed through reflection is inaccessible.
-     * @throws InvocationTargetException occurs if the method being executed through reflection cannot be found.
-     * @throws NoSuchMethodException occurs if the @Entity property method is not found through reflection.
-     * @param props Properties Object referencing mapping.properties.
-     * @param f the field to map.
+     * @return the selected columns, in declaration order.
+     * @param metadata the metadata of the entity.
+     * @param columns the indexes of the columns, as in EntityMetadata.getColumns().
      */
-    private String handleString(Properties props, Field f) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        if(f.isAnnotationPresent(Length.class)) {
-            Object size = null;
-            Annotation annotation = f.getAnnotation(Length.class);
-            Method m = annotation.annotationType().getMethod("size");
-            size = m.invoke(annotation);
-            return props.getProperty(f.getType().getSimpleName()) + "(" + size + ")";
-        }else{
-            return props.getProperty(f.getType().getSimpleName()) + "(50)";
+    private List<ColumnMetadata> getColumns(EntityMetadata metadata, BitSet columns) {
+        List<ColumnMetadata> result = new ArrayList<>();
+        for(ColumnMetadata c : metadata.getValueColumns()){
+            if(columns.get(c.getIndex())){
+                result.add(c);
+            }
         }
+
+        return result;
     }
 
     /**
-     * This is a helper method that checks to see if a sql value should be wrapped in single quotes.
-     * If the datatype matches either a String, Character, or char, then the method returns true.
+     * This is a helper method that appends the WHERE, ORDER BY and LIMIT clauses of a Query to a statement.
+     * A query without an order is sorted by the entity's @OrderBy columns, like getAll.
      *
-     * @return a boolean indicating if the datatype should be wrapped in single quotes.
-     * @param dataType the name of the variable's datatype.
+     * @throws CatnapException thrown if the query names a column that isn't mapped by the entity type.
+     * @param sql the statement to append to.
+     * @param metadata the metadata of the query's entity type.
+     * @param query the query to compile.
      */
-    private boolean hasSingleQuotes(String dataType){
-        if("java.lang.String".equals(dataType) || "java.lang.Character".equals(dataType) || "char".equals(dataType)) {
-            return true;
+    private void appendQuery(StringBuilder sql, EntityMetadata metadata, Query query) throws CatnapException {
+        if(query.getWhere() != null){
+            sql.append(" WHERE ");
+            query.getWhere().appendSql(sql, metadata);
         }
-        return false;
+
+        List<String> orderColumns = query.getOrderColumns();
+        if(orderColumns.isEmpty()){
+            for(int i = 0; i < metadata.getOrderByColumns().size(); i++){
+                ColumnMetadata c = metadata.getOrderByColumns().get(i);
+                sql.append(i == 0 ? " ORDER BY " : ", ").append(c.getName()).append(" ").append(c.getOrderDirection());
+            }
+        }
+        for(int i = 0; i < orderColumns.size(); i++){
+            String name = orderColumns.get(i);
+            getColumn(metadata, name);
+            sql.append(i == 0 ? " ORDER BY " : ", ").append(name).append(query.isDescending(i) ? " DESC" : " ASC");
+        }
+
+        if(query.getLimit() != null){
+            sql.append(" LIMIT ?");
+        }
+        sql.append(";");
+    }
+
+    /**
+     * This is a helper method that builds the ORDER BY clause of the keyset of an entity type.
+     *
+     * @return the ORDER BY clause, starting with a space.
+     * @param metadata the metadata of the entity type.
+     */
+    private String getKeysetOrder(EntityMetadata metadata) {
+        List<ColumnMetadata> keyset = metadata.getKeysetColumns();
+        StringBuilder order = new StringBuilder(" ORDER BY ");
+        for(int i = 0; i < keyset.size(); i++){
+            if(i > 0){
+                order.append(", ");
+            }
+            ColumnMetadata c = keyset.get(i);
+            order.append(c.getName());
+            if(c.isNullable()){
+                order.append(metadata.isKeysetDescending(i) ? " DESC NULLS FIRST" : " ASC NULLS LAST");
+            }else{
+                order.append(metadata.isKeysetDescending(i) ? " DESC" : " ASC");
+            }
+        }
+
+        return String.valueOf(order);
+    }
+
+    /**
+     * This is a helper method that appends the condition of a row coming after the bound value of a keyset
+     * column. NULL sorts after every value in ascending order and before them in descending order, as in
+     * getKeysetOrder, so for a nullable column the value is bound a second time to check whether it is NULL.
+     *
+     * @param query the query to append to.
+     * @param column the keyset column.
+     * @param descending whether the column is sorted in descending order.
+     */
+    private void appendKeysetAfter(StringBuilder query, ColumnMetadata column, boolean descending) {
+        String name = column.getName();
+        String comparison = name + (descending ? " < ?" : " > ?");
+        if(!column.isNullable()){
+            query.append(comparison);
+            return;
+        }
+
+        query.append("(").append(comparison).append(" OR ").append(name)
+                .append(descending ? " IS NOT NULL AND CAST(? AS " : " IS NULL AND CAST(? AS ")
+                .append(column.getArrayType()).append(descending ? ") IS NULL)" : ") IS NOT NULL)");
+    }
+
+    /**
+     * This is a helper method that tells whether the keyset of an entity type can be compared as a single row
+     * value, which is when every keyset column is sorted in the same direction and none of them can be NULL.
+     * A row comparison with a NULL in it is never true, so it would skip the rows with NULLs.
+     *
+     * @return whether the keyset can be compared as a row value.
+     * @param metadata the metadata of the entity type.
+     */
+    private boolean isKeysetRowComparable(EntityMetadata metadata) {
+        List<ColumnMetadata> keyset = metadata.getKeysetColumns();
+        for(int i = 0; i < keyset.size(); i++){
+            if(keyset.get(i).isNullable() || metadata.isKeysetDescending(i) != metadata.isKeysetDescending(0)){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * This is a helper method that retrieves the name of the primary key column from the entity's metadata.
+     *
+     * @return a String with the name of the column annotated with @Id, or null if there is none.
+     * @param metadata the metadata of the entity.
+     */
+    private String getIdName(EntityMetadata metadata) {
+        return metadata.getIdColumn().map(ColumnMetadata::getName).orElse(null);
+    }
+
+    /**
+     * This is a helper method that returns the cached sql template of an operation on an entity type.
+     * The first time it is asked for, the template is taken from the entity's generated mapper if it has
+     * one, otherwise it is built from the entity's metadata.
+     *
+     * @return the sql template.
+     * @param clazz the entity type the template is for.
+     * @param operation the name of the operation, used as the cache key within the entity type.
+     * @param generated the function that reads the template from a generated mapper.
+     * @param builder the function that builds the template from the entity's metadata.
+     */
+    private String template(Class<?> clazz, String operation, Function<EntityMapper, String> generated, Function<EntityMetadata, String> builder) {
+        return template(clazz, operation, metadata -> metadata.getMapper().map(generated).orElseGet(() -> builder.apply(metadata)));
+    }
+
+    /**
+     * This is a helper method that returns the cached sql template of an operation on an entity type,
+     * building it with the given function the first time it is asked for.
+     *
+     * @return the sql template.
+     * @param clazz the entity type the template is for.
+     * @param operation the name of the operation, used as the cache key within the entity type.
+     * @param builder the function that builds the template from the entity's metadata.
+     */
+    private String template(Class<?> clazz, String operation, Function<EntityMetadata, String> builder) {
+        Map<String, String> entityTemplates = getTemplates(clazz);
+        String sql = entityTemplates.get(operation);
+        if(sql == null){
+            sql = entityTemplates.computeIfAbsent(operation, o -> builder.apply(EntityMetadata.of(clazz)));
+        }
+
+        return sql;
+    }
+
+    /**
+     * This is a helper method that returns the cached sql template of an operation whose template depends on
+     * arguments that have to be checked against the entity's metadata, like the columns of a Query. The
+     * arguments are only checked the first time, when the template is built.
+     *
+     * @return the sql template.
+     * @throws CatnapException thrown by the builder when the arguments don't match the entity type.
+     * @param clazz the entity type the template is for.
+     * @param operation the cache key of the template within the entity type, which must identify its arguments.
+     * @param builder the function that builds the template from the entity's metadata.
+     */
+    private String compiledTemplate(Class<?> clazz, String operation, TemplateCompiler builder) throws CatnapException {
+        Map<String, String> entityTemplates = getTemplates(clazz);
+        String sql = entityTemplates.get(operation);
+        if(sql == null){
+            sql = builder.compile(EntityMetadata.of(clazz));
+            entityTemplates.putIfAbsent(operation, sql);
+        }
+
+        return sql;
+    }
+
+    /**
+     * This is a helper method that looks up a mapped column by name.
+     *
+     * @return the column.
+     * @throws CatnapException thrown if the entity type doesn't map the column.
+     * @param metadata the metadata of the entity type.
+     * @param name the name of the column.
+     */
+    private ColumnMetadata getColumn(EntityMetadata metadata, String name) throws CatnapException {
+        return metadata.getColumn(name)
+                .orElseThrow(() -> new CatnapException("Entity type: " + metadata.getEntityType().getName() + " has no mapped column " + name));
+    }
+
+    /**
+     * This is a helper method that returns the cached sql templates of an entity type, keyed by operation.
+     *
+     * @return the templates of the entity type.
+     * @param clazz the entity type.
+     */
+    private Map<String, String> getTemplates(Class<?> clazz) {
+        Map<String, String> entityTemplates = templates.get(clazz);
+        if(entityTemplates == null){
+            entityTemplates = templates.computeIfAbsent(clazz, c -> new ConcurrentHashMap<>());
+        }
+
+        return entityTemplates;
+    }
+
+    /**
+     * Builds a sql template from an entity's metadata, failing when the template's arguments don't match it.
+     */
+    private interface TemplateCompiler {
+        String compile(EntityMetadata metadata) throws CatnapException;
     }
 }
@@ -25,6 +25,16 @@ public interface Cache<T> {
      */
     public Optional<T> get(Class<?> clazz, int id);
 
+    /**
+     * This method is used to get an entity from the cache with a single lookup, instead of calling contains
+     * and then get.
+     *
+     * @param clazz           the type of entity to get
+     * @param id              the primary key of the entity
+     * @return                the entity, or null if it isn't cached
+     */
+    public T getIfPresent(Class<?> clazz, int id);
+
     /**
      * This method caches the object for later retrieval.
      *
@@ -46,4 +56,26 @@ public interface Cache<T> {
      */
     public void remove(CatnapResult entity) throws CatnapException;
 
+    /**
+     * This method removes a collection of entities from the cache.
+     *
+     * @param entities        a collection of entities to remove
+     */
+    public void remove(Collection<CatnapResult> entities) throws CatnapException;
+
+    /**
+     * This method removes an entity from the cache by its type and id.
+     *
+     * @param clazz           the type of entity
+     * @param id              the id of the entity
+     */
+    public void remove(Class<?> clazz, int id);
+
+    /**
+     * This method removes every entity of a type from the cache.
+     *
+     * @param clazz           the type of entity
+     */
+    public void removeAll(Class<?> clazz);
+
 }
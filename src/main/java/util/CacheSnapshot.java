@@ -0,0 +1,719 @@
+package util;
+
+import exceptions.CatnapException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A file holding the entities of a SecondLevelCache, so an application that restarts can serve them again
+ * without loading each one from the database. The SessionFactory writes it when it shuts down and opens it
+ * when it is built, see SessionFactory.setCacheSnapshot.
+ *
+ * Opening a snapshot maps the file into memory and only indexes it, an entity is decoded from the mapped file
+ * when it is asked for. Every entry carries the version its row had in the database when the snapshot was
+ * written, the Postgres xmin, and the versions are checked against the database before an entry is used. The
+ * entries of a type are checked in chunks of CHUNK_SIZE, in file order, the first time an entry of the chunk is
+ * asked for: the entries of rows that were written or deleted since are dropped. Opening a large snapshot
+ * therefore costs no round trips, and the chunks that are never asked for are never checked. Like the second
+ * level cache itself, an entry is only as fresh as the changes Catnap saw while it ran.
+ *
+ * The file is written in big-endian order:
+ * 1. A header: the magic number, the format version, the segment size, the number of entity types and the
+ * offset of the type table.
+ * 2. The entries: the index of the entity's type in the type table, the id, the row version, the length of
+ * the row, then the row as encoded by RowCodec.
+ * 3. The type table: for each type the UTF-8 length and bytes of its class name, then its schema hash, see
+ * EntityMetadata.getSchemaHash.
+ * A file with another magic number or format version isn't read. The entries of a type whose class can't be
+ * found, isn't cacheable anymore or whose schema hash changed are ignored.
+ *
+ * The file is mapped in segments, since a single mapping can't be larger than 2GB, and an entry never crosses
+ * the end of a segment: the rest of the segment is skipped instead, marked with a type index of -1 when there
+ * is room for it.
+ *
+ * Reads share a read lock and run concurrently, removals and dropping the entries of a checked chunk take the
+ * write lock. Chunks are checked one at a time under a lock of their own, which reads of checked chunks don't
+ * take, so the checks never use more than one connection at once and a thread waiting for a chunk another
+ * thread is checking finds it checked.
+ */
+public final class CacheSnapshot {
+
+    /**
+     * Looks up the current version of rows in the database. A snapshot keeps it to check its entries as they are
+     * asked for, so it may be called by any thread reading the snapshot, though never by two at once.
+     */
+    @FunctionalInterface
+    public interface RowVersions {
+        /**
+         * @param clazz             the type of entity
+         * @param ids               the ids of the rows, at most CHUNK_SIZE of them
+         * @return                  the version of each row in the order of ids, or MISSING_VERSION for a row
+         *                          that doesn't exist
+         * @throws CatnapException  thrown when the versions can't be read
+         */
+        public long[] fetch(Class<?> clazz, int[] ids) throws CatnapException;
+    }
+
+    /**
+     * The version of a row that doesn't exist.
+     */
+    public final static long MISSING_VERSION = -1;
+
+    /**
+     * The version of the file format, changed whenever the format or the row encoding changes.
+     */
+    public final static int FORMAT_VERSION = 1;
+
+    /**
+     * The most ids whose versions are looked up at once.
+     */
+    public final static int CHUNK_SIZE = 1000;
+
+    final static int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private final static Logger logger = LogManager.getLogger(CacheSnapshot.class);
+    // "CNAPSHOT"
+    private final static long MAGIC = 0x434E415053484F54L;
+    // the magic number, the format version, the segment size, the type count and the type table offset
+    private final static int HEADER = 28;
+    // the type index, the id, the row version and the row length
+    private final static int ENTRY_HEADER = 20;
+    private final static int PADDING = -1;
+
+    /**
+     * The entries of one entity type. The n-th chunk of the type is made of its entries n * CHUNK_SIZE to
+     * (n + 1) * CHUNK_SIZE - 1 in file order.
+     */
+    private static final class TypeEntries {
+        private final EntityMetadata metadata;
+        // the file offset of each id's entry
+        private final IntLongMap offsets = new IntLongMap();
+        // the chunk of each id's entry
+        private final IntLongMap chunks = new IntLongMap();
+        // the ids in file order
+        private int[] ids = new int[16];
+        private int count;
+        private final BitSet validated = new BitSet();
+
+        private TypeEntries(EntityMetadata metadata) {
+            this.metadata = metadata;
+        }
+
+        private void add(int id, long offset) {
+            if(count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count] = id;
+            offsets.put(id, offset);
+            chunks.put(id, count / CHUNK_SIZE);
+            count++;
+        }
+
+        /**
+         * @return      the ids of the chunk that still have an entry
+         */
+        private int[] chunk(int chunk) {
+            int[] chunkIds = new int[Math.min(CHUNK_SIZE, count - chunk * CHUNK_SIZE)];
+            int size = 0;
+            for (int i = chunk * CHUNK_SIZE; i < chunk * CHUNK_SIZE + chunkIds.length; i++) {
+                if(offsets.get(ids[i]) != IntLongMap.MISSING) {
+                    chunkIds[size++] = ids[i];
+                }
+            }
+            return Arrays.copyOf(chunkIds, size);
+        }
+
+        private int chunkCount() {
+            return (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        }
+
+        private void clear() {
+            offsets.clear();
+            chunks.clear();
+            count = 0;
+            validated.clear();
+        }
+    }
+
+    private final ByteBuffer[] segments;
+    private final int segmentSize;
+    private final RowVersions versions;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object checkLock = new Object();
+    // indexed by the slot of the type
+    private TypeEntries[] types = new TypeEntries[8];
+
+    private CacheSnapshot(ByteBuffer[] segments, int segmentSize, RowVersions versions) {
+        this.segments = segments;
+        this.segmentSize = segmentSize;
+        this.versions = versions;
+    }
+
+    /**
+     * This method writes the entities of a cache to a snapshot file, with the current version of their rows.
+     * Entities whose row doesn't exist anymore, and entities RowCodec can't encode, are left out. The file is
+     * written next to its destination then moved over it, so an existing snapshot is only replaced by a
+     * complete one.
+     *
+     * @param file                  the snapshot file
+     * @param cache                 the cache to write
+     * @param versions              looks up the version of the rows
+     * @throws CatnapException      thrown when the file can't be written or the versions can't be read
+     */
+    public static void write(Path file, SecondLevelCache cache, RowVersions versions) throws CatnapException {
+        write(file, cache, versions, DEFAULT_SEGMENT_SIZE);
+    }
+
+    static void write(Path file, SecondLevelCache cache, RowVersions versions, int segmentSize) throws CatnapException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                Writer writer = new Writer(channel, versions, segmentSize);
+                cache.forEach(writer::add);
+                writer.finish();
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            String s = "Unable to write the cache snapshot: " + file + ", got: " + e.getMessage();
+            logger.error(s);
+            throw new CatnapException(s);
+        } finally {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                logger.error("Unable to delete the temporary cache snapshot: " + temporary + ", got: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This method maps a snapshot file and indexes its entries. The row versions are only looked up as the
+     * entries are asked for.
+     *
+     * @param file                  the snapshot file
+     * @param versions              looks up the current version of the rows, kept by the snapshot
+     * @return                      the snapshot, or an empty optional when the file isn't a snapshot in the
+     *                              current format
+     * @throws CatnapException      thrown when the file can't be read
+     */
+    public static Optional<CacheSnapshot> open(Path file, RowVersions versions) throws CatnapException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = read(channel, 0, (int) Math.min(HEADER, size));
+            if(header.remaining() < HEADER || header.getLong() != MAGIC) {
+                logger.warn("The file " + file + " isn't a cache snapshot and will not be used.");
+                return Optional.empty();
+            }
+            int format = header.getInt();
+            if(format != FORMAT_VERSION) {
+                logger.warn("The cache snapshot " + file + " has format version " + format + " instead of " + FORMAT_VERSION + " and will not be used.");
+                return Optional.empty();
+            }
+
+            int segmentSize = header.getInt();
+            int typeCount = header.getInt();
+            long tableOffset = header.getLong();
+            if(segmentSize <= ENTRY_HEADER || tableOffset < HEADER || tableOffset > size) {
+                String s = "The cache snapshot " + file + " is corrupt.";
+                logger.error(s);
+                throw new CatnapException(s);
+            }
+
+            ByteBuffer table = read(channel, tableOffset, (int) (size - tableOffset));
+            EntityMetadata[] typesByIndex = new EntityMetadata[typeCount];
+            for (int i = 0; i < typeCount; i++) {
+                byte[] name = new byte[table.getInt()];
+                table.get(name);
+                typesByIndex[i] = resolve(new String(name, StandardCharsets.UTF_8), table.getLong());
+            }
+
+            ByteBuffer[] segments = new ByteBuffer[(int) ((tableOffset + segmentSize - 1) / segmentSize)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, tableOffset - start));
+            }
+
+            CacheSnapshot snapshot = new CacheSnapshot(segments, segmentSize, versions);
+            snapshot.index(typesByIndex, tableOffset);
+            return Optional.of(snapshot);
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            String s = "Unable to read the cache snapshot: " + file + ", got: " + e;
+            logger.error(s);
+            throw new CatnapException(s);
+        }
+    }
+
+    /**
+     * This method checks whether the snapshot has an entity whose row didn't change, checking the version of
+     * its chunk first if that wasn't done yet.
+     *
+     * @param clazz             the type of entity
+     * @param id                the id of the entity
+     * @return                  whether the entity is in the snapshot
+     */
+    public boolean contains(Class<?> clazz, int id) {
+        return validate(EntityMetadata.of(clazz).getSlot(), id);
+    }
+
+    /**
+     * This method decodes an entity of the snapshot into a new instance. Its snapshot is taken, so the Session
+     * it is given to can tell which columns change.
+     *
+     * @param clazz             the type of entity to get
+     * @param id                the primary key of the entity
+     * @return                  an optional which is empty when the entity is not found in the snapshot
+     */
+    public Optional<CatnapResult> get(Class<?> clazz, int id) {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        if(!validate(metadata.getSlot(), id)) {
+            return Optional.empty();
+        }
+
+        lock.readLock().lock();
+        try {
+            long offset = offset(metadata.getSlot(), id);
+            if(offset == IntLongMap.MISSING) {
+                return Optional.empty();
+            }
+
+            CatnapResult result = new CatnapResult(decode(metadata, offset));
+            result.takeSnapshot();
+            return Optional.of(result);
+        } catch (CatnapException e) {
+            // an entry that can't be turned back into an entity is of no use, it is removed below
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        remove(clazz, id);
+        return Optional.empty();
+    }
+
+    /**
+     * This method decodes every entity of the snapshot and gives it to a visitor. The chunks that weren't
+     * checked yet are checked first, so only entities whose row didn't change are visited.
+     *
+     * @param visitor           receives each entity
+     * @throws CatnapException  thrown when an entry can't be decoded or the versions can't be read, or by the
+     *                          visitor
+     */
+    public void forEach(SecondLevelCache.EntityVisitor visitor) throws CatnapException {
+        TypeEntries[] snapshotTypes;
+        lock.readLock().lock();
+        try {
+            snapshotTypes = types.clone();
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (TypeEntries type: snapshotTypes) {
+            for (int chunk = 0; type != null && chunk < type.chunkCount(); chunk++) {
+                validate(type, chunk);
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            for (TypeEntries type: types) {
+                if(type == null || type.offsets.size() == 0) {
+                    continue;
+                }
+
+                long[] offsets = new long[type.offsets.size()];
+                int[] count = new int[1];
+                type.offsets.forEach((id, offset) -> offsets[count[0]++] = offset);
+                for (long offset: offsets) {
+                    visitor.visit(new CatnapResult(decode(type.metadata, offset)));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method drops an entity from the snapshot, so it is never served again.
+     *
+     * @param clazz                the type of entity
+     * @param id                   the id of the entity
+     */
+    public void remove(Class<?> clazz, int id) {
+        int slot = EntityMetadata.of(clazz).getSlot();
+        lock.writeLock().lock();
+        try {
+            if(slot < types.length && types[slot] != null) {
+                types[slot].offsets.remove(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * This method drops every entity of a type from the snapshot.
+     *
+     * @param clazz                the type of entity
+     */
+    public void removeAll(Class<?> clazz) {
+        int slot = EntityMetadata.of(clazz).getSlot();
+        lock.writeLock().lock();
+        try {
+            if(slot < types.length && types[slot] != null) {
+                types[slot].clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return      the number of entries left in the snapshot, including the ones whose chunk wasn't checked yet
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            int size = 0;
+            for (TypeEntries type: types) {
+                if(type != null) {
+                    size += type.offsets.size();
+                }
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method finds the metadata of a type of the type table, if its entries can be used.
+     *
+     * @return      the metadata, or null when the type is ignored
+     */
+    private static EntityMetadata resolve(String className, long schemaHash) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(className, false, loader != null ? loader : CacheSnapshot.class.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            logger.warn("The entity type " + className + " of the cache snapshot wasn't found, its entities will not be used.");
+            return null;
+        }
+
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        if(!RowCodec.isEncodable(metadata) || metadata.getSchemaHash() != schemaHash) {
+            logger.warn("The entity type " + className + " changed since the cache snapshot was written, its entities will not be used.");
+            return null;
+        }
+        return metadata;
+    }
+
+    /**
+     * This method reads the entry headers of the file and indexes the entries of the types that can be used.
+     */
+    private void index(EntityMetadata[] typesByIndex, long end) throws CatnapException {
+        long offset = HEADER;
+        while(offset < end) {
+            ByteBuffer segment = segments[(int) (offset / segmentSize)];
+            int position = (int) (offset % segmentSize);
+            int room = segmentSize - position;
+            if(room < ENTRY_HEADER || segment.getInt(position) == PADDING) {
+                offset += room;
+                continue;
+            }
+
+            int type = segment.getInt(position);
+            int length = segment.getInt(position + 16);
+            if(type < 0 || type >= typesByIndex.length || length < 0 || length > room - ENTRY_HEADER) {
+                String s = "The cache snapshot is corrupt, found an invalid entry at offset " + offset;
+                logger.error(s);
+                throw new CatnapException(s);
+            }
+
+            EntityMetadata metadata = typesByIndex[type];
+            if(metadata != null) {
+                entries(metadata).add(segment.getInt(position + 4), offset);
+            }
+            offset += ENTRY_HEADER + length;
+        }
+    }
+
+    /**
+     * This method makes sure the chunk of an id was checked. A failure to read the versions is logged and the
+     * entry isn't used, its chunk is checked again the next time it is asked for.
+     *
+     * @return      whether the id has an entry whose row didn't change
+     */
+    private boolean validate(int slot, int id) {
+        TypeEntries type;
+        int chunk;
+        lock.readLock().lock();
+        try {
+            type = slot < types.length ? types[slot] : null;
+            if(type == null || type.offsets.get(id) == IntLongMap.MISSING) {
+                return false;
+            }
+            chunk = (int) type.chunks.get(id);
+            if(type.validated.get(chunk)) {
+                return true;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        try {
+            validate(type, chunk);
+        } catch (CatnapException e) {
+            logger.error("Unable to check the cache snapshot entries of entity type: " + type.metadata.getEntityType().getName() + ", got: " + e.getMessage());
+            return false;
+        }
+
+        lock.readLock().lock();
+        try {
+            return type.offsets.get(id) != IntLongMap.MISSING;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method looks up the current version of the rows of a chunk, unless it was checked already, and drops
+     * the entries whose version is different. Only the check lock is held while the versions are read.
+     */
+    private void validate(TypeEntries type, int chunk) throws CatnapException {
+        synchronized (checkLock) {
+            int[] ids;
+            lock.readLock().lock();
+            try {
+                if(type.validated.get(chunk) || chunk >= type.chunkCount()) {
+                    return;
+                }
+                ids = type.chunk(chunk);
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            long[] current = ids.length > 0 ? versions.fetch(type.metadata.getEntityType(), ids) : new long[0];
+
+            lock.writeLock().lock();
+            try {
+                // removeAll may have emptied the type while the versions were read
+                if(chunk >= type.chunkCount()) {
+                    return;
+                }
+                for (int i = 0; i < ids.length; i++) {
+                    long offset = type.offsets.get(ids[i]);
+                    if(offset != IntLongMap.MISSING && (current[i] == MISSING_VERSION || current[i] != segment(offset).getLong(position(offset) + 8))) {
+                        type.offsets.remove(ids[i]);
+                    }
+                }
+                type.validated.set(chunk);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private Object decode(EntityMetadata metadata, long offset) throws CatnapException {
+        int position = position(offset);
+        ByteBuffer row = segment(offset).duplicate();
+        ((Buffer) row).limit(position + ENTRY_HEADER + row.getInt(position + 16)).position(position + ENTRY_HEADER);
+        return RowCodec.decode(metadata, row);
+    }
+
+    private ByteBuffer segment(long offset) {
+        return segments[(int) (offset / segmentSize)];
+    }
+
+    private int position(long offset) {
+        return (int) (offset % segmentSize);
+    }
+
+    private long offset(int slot, int id) {
+        return slot < types.length && types[slot] != null ? types[slot].offsets.get(id) : IntLongMap.MISSING;
+    }
+
+    private TypeEntries entries(EntityMetadata metadata) {
+        int slot = metadata.getSlot();
+        if(slot >= types.length) {
+            types = Arrays.copyOf(types, Math.max(slot + 1, types.length * 2));
+        }
+
+        TypeEntries type = types[slot];
+        if(type == null) {
+            type = new TypeEntries(metadata);
+            types[slot] = type;
+        }
+        return type;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+            // read until the buffer is full or the file ends
+        }
+
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    /**
+     * Writes the entries of a snapshot. The entities of each type are held until a chunk of them is ready, so
+     * their row versions are looked up a chunk at a time.
+     */
+    private static final class Writer {
+        private final FileChannel channel;
+        private final RowVersions versions;
+        private final int segmentSize;
+        private final RowCodec codec = new RowCodec();
+        private final ByteBuffer out = ByteBuffer.allocate(1 << 16);
+        private final Map<Class<?>, Integer> typeIndexes = new LinkedHashMap<>();
+        private final Map<Class<?>, List<CatnapResult>> pending = new HashMap<>();
+        private long position = HEADER;
+
+        private Writer(FileChannel channel, RowVersions versions, int segmentSize) throws IOException {
+            this.channel = channel;
+            this.versions = versions;
+            this.segmentSize = segmentSize;
+            channel.position(HEADER);
+        }
+
+        private void add(CatnapResult entity) throws CatnapException {
+            EntityMetadata metadata = entity.getMetadata();
+            if(!RowCodec.isEncodable(metadata)) {
+                return;
+            }
+
+            List<CatnapResult> chunk = pending.computeIfAbsent(metadata.getEntityType(), c -> new ArrayList<>());
+            chunk.add(entity);
+            if(chunk.size() == CHUNK_SIZE) {
+                writeChunk(metadata, chunk);
+                chunk.clear();
+            }
+        }
+
+        private void finish() throws CatnapException, IOException {
+            for (List<CatnapResult> chunk: pending.values()) {
+                if(!chunk.isEmpty()) {
+                    writeChunk(chunk.get(0).getMetadata(), chunk);
+                }
+            }
+
+            long tableOffset = position;
+            for (Class<?> clazz: typeIndexes.keySet()) {
+                byte[] name = clazz.getName().getBytes(StandardCharsets.UTF_8);
+                ensure(12 + name.length);
+                out.putInt(name.length);
+                out.put(name);
+                out.putLong(EntityMetadata.of(clazz).getSchemaHash());
+            }
+            drain();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putLong(MAGIC);
+            header.putInt(FORMAT_VERSION);
+            header.putInt(segmentSize);
+            header.putInt(typeIndexes.size());
+            header.putLong(tableOffset);
+            ((Buffer) header).flip();
+            while(header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+        }
+
+        private void writeChunk(EntityMetadata metadata, List<CatnapResult> chunk) throws CatnapException {
+            Class<?> clazz = metadata.getEntityType();
+            int[] ids = new int[chunk.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = chunk.get(i).getId().orElseThrow(() -> new CatnapException("The id field of entity type: " + clazz.getName() + " was empty!"));
+            }
+
+            long[] rowVersions = versions.fetch(clazz, ids);
+            int type = typeIndexes.computeIfAbsent(clazz, c -> typeIndexes.size());
+            try {
+                for (int i = 0; i < ids.length; i++) {
+                    if(rowVersions[i] == MISSING_VERSION) {
+                        continue;
+                    }
+
+                    ByteBuffer row = codec.encode(metadata, chunk.get(i).getEntity());
+                    int length = ENTRY_HEADER + row.remaining();
+                    if(length > segmentSize) {
+                        continue;
+                    }
+                    int room = (int) (segmentSize - position % segmentSize);
+                    if(length > room) {
+                        skip(room);
+                    }
+
+                    ensure(ENTRY_HEADER);
+                    out.putInt(type);
+                    out.putInt(ids[i]);
+                    out.putLong(rowVersions[i]);
+                    out.putInt(row.remaining());
+                    if(out.remaining() < row.remaining()) {
+                        drain();
+                        while(row.hasRemaining()) {
+                            channel.write(row);
+                        }
+                    } else {
+                        out.put(row);
+                    }
+                    position += length;
+                }
+            } catch (IOException e) {
+                String s = "Unable to write the cache snapshot, got: " + e.getMessage();
+                logger.error(s);
+                throw new CatnapException(s);
+            }
+        }
+
+        /**
+         * This method moves to the start of the next segment, leaving a hole in the file.
+         */
+        private void skip(int room) throws IOException {
+            if(room >= 4) {
+                ensure(4);
+                out.putInt(PADDING);
+            }
+            drain();
+            position += room;
+            channel.position(position);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if(out.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            ((Buffer) out).flip();
+            while(out.hasRemaining()) {
+                channel.write(out);
+            }
+            ((Buffer) out).clear();
+        }
+    }
+}
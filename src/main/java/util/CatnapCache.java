@@ -2,21 +2,126 @@ package util;
 
 import exceptions.CatnapException;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
 
 /**
- * An implementation of the Cache interface that uses CatnapResult as the elements.
- * It uses a two level HashMap for splitting up entities by their type and id (so by their table and id).
+ * An implementation of the Cache interface that uses CatnapResult as the elements. It is the first level
+ * cache of a Session, and like the Session it isn't safe to use from several threads at once.
+ *
+ * The cache can be bounded by a number of entities and by an estimate of the heap they use. When storing an
+ * entity goes over a bound, the least recently used entities are evicted until it doesn't. With the SOFT
+ * eviction policy the entities are also held through soft references, so the garbage collector can evict
+ * them when it runs low on memory. An evicted entity is simply read from the database again, but it is no
+ * longer the same instance and an update of it writes every column since its snapshot is lost.
+ *
+ * The size of an entity is estimated from its column values when it is stored, see estimateSize. It is an
+ * approximation meant to compare sessions and cap them, not an exact measure of the heap.
+ *
+ * The entities of each type are kept in an IntObjectMap keyed by id, found through the type's slot in
+ * EntityMetadata, and every entry is linked into one list from least to most recently used. Looking an
+ * entity up with getIfPresent takes a single probe and doesn't allocate. The lookups taking a Class resolve
+ * its EntityMetadata first, callers that already have it, such as a loop over many ids, pass it instead.
  */
 public class CatnapCache implements Cache<CatnapResult> {
 
-    private final Map<Class<?>, Map<Integer, CatnapResult>> entityMap;
+    /**
+     * How entities are held by the cache.
+     */
+    public enum EvictionPolicy {
+        /**
+         * Entities are held strongly and only evicted, least recently used first, to stay within the bounds.
+         */
+        LRU,
+        /**
+         * Like LRU, but the entities are held through soft references the garbage collector may clear.
+         */
+        SOFT
+    }
+
+    /**
+     * The number of entities kept by a bounded cache by default.
+     */
+    public final static int DEFAULT_MAX_ENTRIES = 10_000;
+
+    // the Entry, its two table slots and the CatnapResult
+    private final static long ENTRY_OVERHEAD = 80;
+    private final static long OBJECT_HEADER = 16;
+    private final static long REFERENCE = 8;
+
+    /**
+     * A cached entity, held strongly or through a soft reference, with its estimated size. Entries are
+     * linked from the least to the most recently used.
+     */
+    private static final class Entry {
+        private final int slot;
+        private final int id;
+        private CatnapResult result;
+        private SoftResult softResult;
+        private long bytes;
+        private Entry before;
+        private Entry after;
+
+        private Entry(int slot, int id) {
+            this.slot = slot;
+            this.id = id;
+        }
 
+        private CatnapResult get() {
+            return softResult != null ? softResult.get() : result;
+        }
+    }
+
+    /**
+     * A soft reference that remembers its entry, so the entry can be removed once it is cleared.
+     */
+    private static final class SoftResult extends SoftReference<CatnapResult> {
+        private final Entry entry;
+
+        private SoftResult(CatnapResult result, Entry entry, ReferenceQueue<CatnapResult> queue) {
+            super(result, queue);
+            this.entry = entry;
+        }
+    }
+
+    // the entries of each type by id, indexed by the slot of the type
+    @SuppressWarnings("unchecked")
+    private IntObjectMap<Entry>[] tables = new IntObjectMap[8];
+    // the head of the recency list, its after is the least recently used entry
+    private final Entry head = new Entry(-1, 0);
+    private final int maxEntries;
+    private final long maxBytes;
+    private final EvictionPolicy evictionPolicy;
+    private final ReferenceQueue<CatnapResult> clearedResults = new ReferenceQueue<>();
+    private int size;
+    private long bytes;
+
+    /**
+     * Creates a cache without bounds that holds its entities until they are removed.
+     */
     public CatnapCache() {
-        this.entityMap = new HashMap<>();
+        this(Integer.MAX_VALUE, Long.MAX_VALUE, EvictionPolicy.LRU);
+    }
+
+    /**
+     * @param maxEntries        the most entities kept
+     * @param maxBytes          the most heap the entities are estimated to use, in bytes
+     * @param evictionPolicy    how the entities are held
+     */
+    public CatnapCache(int maxEntries, long maxBytes, EvictionPolicy evictionPolicy) {
+        if(maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("The bounds of the cache must be at least 1, got: " + maxEntries + " entries and " + maxBytes + " bytes");
+        }
+
+        this.head.before = this.head;
+        this.head.after = this.head;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.evictionPolicy = evictionPolicy;
     }
 
     /**
@@ -28,11 +133,25 @@ public class CatnapCache implements Cache<CatnapResult> {
      */
     @Override
     public boolean contains(Class<?> clazz, int id) {
-        return this.entityMap.containsKey(clazz) && this.entityMap.get(clazz).containsKey(id);
+        return contains(EntityMetadata.of(clazz), id);
+    }
+
+    /**
+     * This method checks whether an entity has been cached, for a caller that already has the metadata of
+     * its type.
+     *
+     * @param metadata          the metadata of the type of entity
+     * @param id                the id of the entity
+     * @return                  whether the entity is in the cache
+     */
+    public boolean contains(EntityMetadata metadata, int id) {
+        expungeCleared();
+        Entry entry = find(metadata.getSlot(), id);
+        return entry != null && entry.get() != null;
     }
 
     /**
-     * This method is used to get a specific entity from the cache.
+     * This method is used to get a specific entity from the cache. It makes the entity the most recently used.
      *
      * @param clazz             the type of entity to get
      * @param id                the primary key of the entity
@@ -40,18 +159,48 @@ public class CatnapCache implements Cache<CatnapResult> {
      */
     @Override
     public Optional<CatnapResult> get(Class<?> clazz, int id) {
-        if(this.entityMap.containsKey(clazz)) {
-            Map<Integer, CatnapResult> entityMapLevel2 = this.entityMap.get(clazz);
-            if(entityMapLevel2.containsKey(id)) {
-                return Optional.of(entityMapLevel2.get(id));
-            }
+        return Optional.ofNullable(getIfPresent(clazz, id));
+    }
+
+    /**
+     * This method gets a specific entity from the cache in a single lookup, without allocating. It makes the
+     * entity the most recently used.
+     *
+     * @param clazz             the type of entity to get
+     * @param id                the primary key of the entity
+     * @return                  the entity, or null when it is not found in the cache
+     */
+    @Override
+    public CatnapResult getIfPresent(Class<?> clazz, int id) {
+        return getIfPresent(EntityMetadata.of(clazz), id);
+    }
+
+    /**
+     * This method gets a specific entity from the cache like getIfPresent(Class, int), for a caller that
+     * already has the metadata of its type, so the type isn't looked up again.
+     *
+     * @param metadata          the metadata of the type of entity to get
+     * @param id                the primary key of the entity
+     * @return                  the entity, or null when it is not found in the cache
+     */
+    public CatnapResult getIfPresent(EntityMetadata metadata, int id) {
+        expungeCleared();
+        Entry entry = find(metadata.getSlot(), id);
+        if(entry == null) {
+            return null;
         }
 
-        return Optional.empty();
+        CatnapResult result = entry.get();
+        if(result != null) {
+            unlink(entry);
+            linkLast(entry);
+        }
+        return result;
     }
 
     /**
-     * This method is used to store an entity in the cache.
+     * This method is used to store an entity in the cache, then evicts the least recently used entities
+     * while the cache is over its bounds. The entity just stored is kept even if it is over them on its own.
      *
      * @param entity            the entity to store
      * @throws CatnapException  thrown when the entity is missing an id
@@ -61,11 +210,32 @@ public class CatnapCache implements Cache<CatnapResult> {
         Class<?> clazz = entity.getEntityType();
         int id = entity.getId().orElseThrow(() -> new CatnapException("The id field of entity type: " + clazz.getName() +  "was empty!"));
 
-        if(!this.entityMap.containsKey(clazz)) {
-            this.entityMap.put(clazz, new HashMap<>());
+        expungeCleared();
+        long estimate = estimateSize(entity);
+        int slot = EntityMetadata.of(clazz).getSlot();
+        IntObjectMap<Entry> table = table(slot);
+        Entry entry = table.get(id);
+        if(entry == null) {
+            entry = new Entry(slot, id);
+            table.put(id, entry);
+            this.size++;
+        } else {
+            unlink(entry);
+            this.bytes -= entry.bytes;
+        }
+
+        if(evictionPolicy == EvictionPolicy.SOFT) {
+            entry.softResult = new SoftResult(entity, entry, clearedResults);
+        } else {
+            entry.result = entity;
         }
+        entry.bytes = estimate;
+        this.bytes += estimate;
+        linkLast(entry);
 
-        this.entityMap.get(clazz).put(id, entity);
+        while((this.size > maxEntries || this.bytes > maxBytes) && this.size > 1) {
+            evict(this.head.after);
+        }
     }
 
     /**
@@ -90,15 +260,173 @@ public class CatnapCache implements Cache<CatnapResult> {
      */
     @Override
     public void remove(CatnapResult entity) throws CatnapException {
-        if(this.entityMap.containsKey(entity.getEntityType())) {
-            int id = entity.getId().orElseThrow(() -> {
-                try {
-                    return new CatnapException("The id field of entity type: " + entity.getEntityType().getName() +  "was empty!");
-                } catch (CatnapException e) {
-                    return e;
-                }
-            });
-            this.entityMap.get(entity.getEntityType()).remove(id);
+        Class<?> clazz = entity.getEntityType();
+        int id = entity.getId().orElseThrow(() -> new CatnapException("The id field of entity type: " + clazz.getName() +  "was empty!"));
+        remove(clazz, id);
+    }
+
+    /**
+     * This method is used to remove a collection of entities from the cache. It iterates through the
+     * collection and calls remove on each element.
+     *
+     * @param entities             a collection of entities to remove
+     * @throws CatnapException     thrown when the entity is missing an id
+     */
+    @Override
+    public void remove(Collection<CatnapResult> entities) throws CatnapException {
+        for (CatnapResult entity: entities) {
+            remove(entity);
+        }
+    }
+
+    /**
+     * This method is used to remove an entity from the cache by its type and id.
+     *
+     * @param clazz                the type of entity
+     * @param id                   the id of the entity
+     */
+    @Override
+    public void remove(Class<?> clazz, int id) {
+        Entry entry = find(EntityMetadata.of(clazz).getSlot(), id);
+        if(entry != null) {
+            evict(entry);
+        }
+    }
+
+    /**
+     * This method is used to remove every entity of a type from the cache.
+     *
+     * @param clazz                the type of entity
+     */
+    @Override
+    public void removeAll(Class<?> clazz) {
+        int slot = EntityMetadata.of(clazz).getSlot();
+        IntObjectMap<Entry> table = slot < tables.length ? tables[slot] : null;
+        if(table == null) {
+            return;
+        }
+
+        table.forEachValue(entry -> {
+            unlink(entry);
+            this.bytes -= entry.bytes;
+        });
+        this.size -= table.size();
+        table.clear();
+    }
+
+    /**
+     * @return      the number of cached entities, including ones whose soft reference was just cleared
+     */
+    public int size() {
+        expungeCleared();
+        return this.size;
+    }
+
+    /**
+     * @return      the estimated heap used by the cached entities, in bytes
+     */
+    public long getEstimatedBytes() {
+        expungeCleared();
+        return this.bytes;
+    }
+
+    /**
+     * This method estimates the heap used by a cached entity: the cache's own objects, the entity, the
+     * values of its reference columns and its snapshot. Strings count two bytes per character, arrays count
+     * their elements, and other objects count their header only.
+     *
+     * @param entity               the entity
+     * @return                     the estimated size, in bytes
+     * @throws CatnapException     thrown when a field can't be read
+     */
+    static long estimateSize(CatnapResult entity) throws CatnapException {
+        EntityMetadata metadata = entity.getMetadata();
+        EntityAccessor accessor = metadata.getAccessor();
+        int columns = metadata.getColumns().size();
+
+        long size = ENTRY_OVERHEAD + OBJECT_HEADER + REFERENCE * columns;
+        for (ColumnMetadata column: metadata.getColumns()) {
+            if(!column.getColumnType().isPrimitive()) {
+                size += estimateValueSize(accessor.get(entity.getEntity(), column.getIndex()));
+            }
+        }
+        if(entity.hasSnapshot()) {
+            // the snapshot array, its values are mostly the entity's own
+            size += OBJECT_HEADER + REFERENCE * columns;
+        }
+
+        return size;
+    }
+
+    private static long estimateValueSize(Object value) {
+        if(value == null) {
+            return 0;
+        }
+        if(value instanceof String) {
+            return OBJECT_HEADER * 2 + 2L * ((String) value).length();
         }
+        if(value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            Class<?> component = value.getClass().getComponentType();
+            long element = component == byte.class || component == boolean.class ? 1
+                    : component == char.class || component == short.class ? 2
+                    : component == int.class || component == float.class ? 4 : 8;
+            return OBJECT_HEADER + element * length;
+        }
+
+        return OBJECT_HEADER;
+    }
+
+    /**
+     * This method removes the entries whose soft reference was cleared by the garbage collector.
+     */
+    private void expungeCleared() {
+        SoftResult cleared;
+        while((cleared = (SoftResult) clearedResults.poll()) != null) {
+            Entry entry = cleared.entry;
+            // the entry may have been removed, or stored again with a new reference, since
+            if(entry.softResult == cleared && entry.before != null) {
+                evict(entry);
+            }
+        }
+    }
+
+    private Entry find(int slot, int id) {
+        IntObjectMap<Entry> table = slot < tables.length ? tables[slot] : null;
+        return table != null ? table.get(id) : null;
+    }
+
+    private IntObjectMap<Entry> table(int slot) {
+        if(slot >= tables.length) {
+            tables = Arrays.copyOf(tables, Math.max(slot + 1, tables.length * 2));
+        }
+
+        IntObjectMap<Entry> table = tables[slot];
+        if(table == null) {
+            table = new IntObjectMap<>();
+            tables[slot] = table;
+        }
+        return table;
+    }
+
+    private void evict(Entry entry) {
+        tables[entry.slot].remove(entry.id);
+        unlink(entry);
+        this.size--;
+        this.bytes -= entry.bytes;
+    }
+
+    private void linkLast(Entry entry) {
+        entry.before = this.head.before;
+        entry.after = this.head;
+        this.head.before.after = entry;
+        this.head.before = entry;
+    }
+
+    private void unlink(Entry entry) {
+        entry.before.after = entry.after;
+        entry.after.before = entry.before;
+        entry.before = null;
+        entry.after = null;
     }
 }
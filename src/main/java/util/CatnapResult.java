@@ -1,21 +1,25 @@
 package util;
 
-import annotations.Id;
 import exceptions.CatnapException;
 
 import java.lang.reflect.Field;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * This class is a container for entity results from the database. It contains the entity
  * that was retrieved from the database, any foreign keys associated with the object, and
  * common methods that are used to retrieve data about the entity. These objects are what
  * are stored in the cache.
+ *
+ * A result can also hold a snapshot of the entity's column values as they were last read from or
+ * written to the database. Session uses it to find the columns that changed since, so an update only
+ * writes those columns, or nothing at all. Values are compared with Objects.deepEquals, so mutable
+ * values such as arrays or dates must be replaced instead of changed in place to be seen as dirty.
  */
 public class CatnapResult {
 
     private final Object entity;
+    private Object[] snapshot;
 
     public CatnapResult(Object entity) {
         this.entity = entity;
@@ -33,21 +37,26 @@ public class CatnapResult {
         }
     }
 
+    /**
+     * This method returns the shared metadata of the entity's type.
+     *
+     * @return                    the metadata of the entity's type
+     * @throws CatnapException    thrown when the entity is null
+     */
+    public EntityMetadata getMetadata() throws CatnapException {
+        return EntityMetadata.of(getEntityType());
+    }
+
     /**
      * This method returns an Optional containing the id of the entity if it finds the id field.
      * @return                    optional containing the id of the entity
      * @throws CatnapException    thrown when the field was inaccessible
      */
     public Optional<Integer> getId() throws CatnapException {
-        Optional<Field> idField = getIdField();
-        if(idField.isPresent()) {
-            idField.get().setAccessible(true);
-            try {
-                return Optional.of(idField.get().getInt(this.entity));
-            } catch (IllegalAccessException e) {
-                String s = "Unable to access the id field of type: " + this.entity.getClass().getName() + "!";
-                throw new CatnapException(s + ", error message: " + e.getMessage());
-            }
+        EntityMetadata metadata = getMetadata();
+        Optional<ColumnMetadata> idColumn = metadata.getIdColumn();
+        if(idColumn.isPresent()) {
+            return Optional.of(metadata.getAccessor().getInt(this.entity, idColumn.get().getIndex()));
         } else {
             return Optional.empty();
         }
@@ -59,25 +68,67 @@ public class CatnapResult {
      * @return                a field object containing the entity's id field
      */
     public Optional<Field> getIdField() throws CatnapException {
-        try {
-            return Arrays.stream(this.entity.getClass().getDeclaredFields())
-                    .filter(field -> field.isAnnotationPresent(Id.class))
-                    .findFirst();
-        } catch (NullPointerException e) {
-            throw new CatnapException("Entity was null! Got: " + e.getMessage());
-        }
+        return getMetadata().getIdColumn().map(ColumnMetadata::getField);
     }
 
     /**
-     * returns a list of declared fields
+     * returns a list of the mapped fields
      *
-     * @return               a list of the declared fields
+     * @return               a list of the mapped fields
      */
     public List<Field> getFields() throws CatnapException {
-        try {
-            return Arrays.stream(this.entity.getClass().getDeclaredFields()).collect(Collectors.toList());
-        } catch (NullPointerException e) {
-            throw new CatnapException("Entity was null! Got: " + e.getMessage());
+        return getMetadata().getFields();
+    }
+
+    /**
+     * This method records the current values of the entity's columns as its clean state. It should be
+     * called whenever the entity is known to match its row in the database.
+     *
+     * @throws CatnapException    thrown when a field can't be read
+     */
+    public void takeSnapshot() throws CatnapException {
+        EntityMetadata metadata = getMetadata();
+        EntityAccessor accessor = metadata.getAccessor();
+        List<ColumnMetadata> columns = metadata.getColumns();
+
+        Object[] values = new Object[columns.size()];
+        for (ColumnMetadata column: columns) {
+            values[column.getIndex()] = accessor.get(this.entity, column.getIndex());
         }
+        this.snapshot = values;
+    }
+
+    /**
+     * @return      whether a snapshot of the entity has been taken
+     */
+    public boolean hasSnapshot() {
+        return snapshot != null;
+    }
+
+    /**
+     * This method compares the values of an entity of the same type and id to this result's snapshot. It is
+     * usually called with the cached entity itself, but can be called with another instance for the same row.
+     * The id column is never reported as dirty.
+     *
+     * @param other               the entity to compare to the snapshot
+     * @return                    an Optional containing the indexes (as in EntityMetadata.getColumns) of the
+     *                            columns whose values changed, or an empty one if no snapshot was taken
+     * @throws CatnapException    thrown when a field can't be read
+     */
+    public Optional<BitSet> getDirtyColumns(Object other) throws CatnapException {
+        if(snapshot == null) {
+            return Optional.empty();
+        }
+
+        EntityMetadata metadata = getMetadata();
+        EntityAccessor accessor = metadata.getAccessor();
+        BitSet dirty = new BitSet(snapshot.length);
+        for (ColumnMetadata column: metadata.getValueColumns()) {
+            if(!Objects.deepEquals(snapshot[column.getIndex()], accessor.get(other, column.getIndex()))) {
+                dirty.set(column.getIndex());
+            }
+        }
+
+        return Optional.of(dirty);
     }
 }
@@ -0,0 +1,203 @@
+package util;
+
+import annotations.Id;
+import annotations.Length;
+import annotations.OrderBy;
+import exceptions.CatnapException;
+
+import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * This class holds everything Catnap needs to know about a single mapped field of an entity.
+ * It is built once by EntityMetadata when an entity type is first seen, so the annotations on
+ * the field are only ever read a single time.
+ */
+public final class ColumnMetadata {
+
+    private final Field field;
+    private final String name;
+    private final Class<?> type;
+    private final ColumnType columnType;
+    private final int index;
+    private final boolean id;
+    private final String orderDirection;
+    private final String length;
+    private final String sqlType;
+
+    /**
+     * Builds the column information for a field. The field is made accessible here so that
+     * callers never need to call setAccessible again.
+     *
+     * @param field          the field being mapped
+     * @param index          the position of the column within the entity's column list
+     * @param typeMappings   the java to postgresql type mappings from mapping.properties
+     */
+    ColumnMetadata(Field field, int index, Properties typeMappings) {
+        field.setAccessible(true);
+
+        this.field = field;
+        this.name = field.getName();
+        this.type = field.getType();
+        this.columnType = ColumnType.of(this.type);
+        this.index = index;
+        this.id = field.isAnnotationPresent(Id.class);
+
+        OrderBy orderBy = field.getAnnotation(OrderBy.class);
+        this.orderDirection = orderBy != null ? orderBy.direction() : null;
+
+        Length lengthAnnotation = field.getAnnotation(Length.class);
+        this.length = lengthAnnotation != null ? lengthAnnotation.size() : "50";
+
+        String mappedType = typeMappings.getProperty(this.type.getSimpleName());
+        if(this.id) {
+            this.sqlType = "serial";
+        } else if(this.type == String.class) {
+            this.sqlType = mappedType + "(" + this.length + ")";
+        } else {
+            this.sqlType = mappedType;
+        }
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * @return      the name of the column, which is the name of the field
+     */
+    public String getName() {
+        return name;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public ColumnType getColumnType() {
+        return columnType;
+    }
+
+    /**
+     * @return      the zero based position of this column in EntityMetadata.getColumns()
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isId() {
+        return id;
+    }
+
+    public boolean isOrderBy() {
+        return orderDirection != null;
+    }
+
+    /**
+     * @return      whether the column can hold NULL, which is when it isn't the id and its field isn't a primitive
+     */
+    public boolean isNullable() {
+        return !id && !columnType.isPrimitive();
+    }
+
+    /**
+     * @return      the direction from the @OrderBy annotation, or null if the field isn't annotated
+     */
+    public String getOrderDirection() {
+        return orderDirection;
+    }
+
+    /**
+     * @return      the size from the @Length annotation, or the default size of 50
+     */
+    public String getLength() {
+        return length;
+    }
+
+    /**
+     * @return      the postgresql data type used for this column in a create table statement
+     */
+    public String getSqlType() {
+        return sqlType;
+    }
+
+    /**
+     * @return      the postgresql type of this column without a length, used to cast bound values, e.g. the
+     *              elements of an array compared to this column with = ANY(?)
+     */
+    public String getArrayType() {
+        if(id) {
+            return "integer";
+        }
+        if(sqlType == null) {
+            return "text";
+        }
+
+        int length = sqlType.indexOf('(');
+        return length < 0 ? sqlType : sqlType.substring(0, length);
+    }
+
+    /**
+     * This method binds the value of this column in an entity to a statement parameter. Primitive
+     * fields are read and bound with their typed getter and setter so the value is never boxed.
+     *
+     * @param statement                 the statement to bind to
+     * @param parameterIndex            the one based index of the parameter
+     * @param accessor                  the accessor of the entity's type
+     * @param entity                    the entity to read the value from
+     * @throws SQLException             thrown when the statement rejects the value
+     * @throws CatnapException          thrown when the field can't be read
+     */
+    public void bind(PreparedStatement statement, int parameterIndex, EntityAccessor accessor, Object entity) throws SQLException, CatnapException {
+        switch (columnType) {
+            case INT:
+                statement.setInt(parameterIndex, accessor.getInt(entity, index));
+                break;
+            case LONG:
+                statement.setLong(parameterIndex, accessor.getLong(entity, index));
+                break;
+            case DOUBLE:
+                statement.setDouble(parameterIndex, accessor.getDouble(entity, index));
+                break;
+            case BOOLEAN:
+                statement.setBoolean(parameterIndex, accessor.getBoolean(entity, index));
+                break;
+            default:
+                columnType.bind(statement, parameterIndex, accessor.get(entity, index));
+        }
+    }
+
+    /**
+     * This method reads this column from the current row of a ResultSet into an entity. The column is
+     * read by index, and primitive fields are read and written with their typed getter and setter so the
+     * value is never boxed.
+     *
+     * @param rs                        the ResultSet positioned on the row to read
+     * @param columnIndex               the one based index of the column in the ResultSet
+     * @param accessor                  the accessor of the entity's type
+     * @param entity                    the entity to write the value to
+     * @throws SQLException             thrown when the column can't be read
+     * @throws CatnapException          thrown when the field can't be written
+     */
+    public void read(ResultSet rs, int columnIndex, EntityAccessor accessor, Object entity) throws SQLException, CatnapException {
+        switch (columnType) {
+            case INT:
+                accessor.setInt(entity, index, rs.getInt(columnIndex));
+                break;
+            case LONG:
+                accessor.setLong(entity, index, rs.getLong(columnIndex));
+                break;
+            case DOUBLE:
+                accessor.setDouble(entity, index, rs.getDouble(columnIndex));
+                break;
+            case BOOLEAN:
+                accessor.setBoolean(entity, index, rs.getBoolean(columnIndex));
+                break;
+            default:
+                accessor.set(entity, index, columnType.read(rs, columnIndex));
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package util;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * This enum groups the java types of mapped fields by the JDBC getter and setter that should be used
+ * for them. It lets Catnap call setInt, getInt, setString and so on instead of setObject and getObject,
+ * avoiding boxing for primitive fields and getting values back with the field's own type.
+ */
+public enum ColumnType {
+    INT(true, Types.INTEGER),
+    LONG(true, Types.BIGINT),
+    DOUBLE(true, Types.DOUBLE),
+    FLOAT(true, Types.REAL),
+    SHORT(true, Types.SMALLINT),
+    BYTE(true, Types.SMALLINT),
+    BOOLEAN(true, Types.BOOLEAN),
+    CHAR(true, Types.CHAR),
+    INTEGER_OBJECT(false, Types.INTEGER),
+    LONG_OBJECT(false, Types.BIGINT),
+    DOUBLE_OBJECT(false, Types.DOUBLE),
+    FLOAT_OBJECT(false, Types.REAL),
+    SHORT_OBJECT(false, Types.SMALLINT),
+    BYTE_OBJECT(false, Types.SMALLINT),
+    BOOLEAN_OBJECT(false, Types.BOOLEAN),
+    CHARACTER_OBJECT(false, Types.CHAR),
+    STRING(false, Types.VARCHAR),
+    OBJECT(false, Types.OTHER);
+
+    private final boolean primitive;
+    private final int sqlType;
+
+    ColumnType(boolean primitive, int sqlType) {
+        this.primitive = primitive;
+        this.sqlType = sqlType;
+    }
+
+    /**
+     * @return      whether the field is a java primitive and can never be null
+     */
+    public boolean isPrimitive() {
+        return primitive;
+    }
+
+    /**
+     * @return      whether the field holds a number, primitive or boxed
+     */
+    public boolean isNumeric() {
+        switch (this) {
+            case BOOLEAN:
+            case BOOLEAN_OBJECT:
+            case CHAR:
+            case CHARACTER_OBJECT:
+            case STRING:
+            case OBJECT:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return      the java.sql.Types constant used when binding a null value
+     */
+    public int getSqlType() {
+        return sqlType;
+    }
+
+    /**
+     * This method finds the ColumnType for a java type.
+     *
+     * @param type      the type of the field
+     * @return          the matching ColumnType, or OBJECT if the type has no specific handling
+     */
+    public static ColumnType of(Class<?> type) {
+        if(type == int.class) return INT;
+        if(type == long.class) return LONG;
+        if(type == double.class) return DOUBLE;
+        if(type == float.class) return FLOAT;
+        if(type == short.class) return SHORT;
+        if(type == byte.class) return BYTE;
+        if(type == boolean.class) return BOOLEAN;
+        if(type == char.class) return CHAR;
+        if(type == Integer.class) return INTEGER_OBJECT;
+        if(type == Long.class) return LONG_OBJECT;
+        if(type == Double.class) return DOUBLE_OBJECT;
+        if(type == Float.class) return FLOAT_OBJECT;
+        if(type == Short.class) return SHORT_OBJECT;
+        if(type == Byte.class) return BYTE_OBJECT;
+        if(type == Boolean.class) return BOOLEAN_OBJECT;
+        if(type == Character.class) return CHARACTER_OBJECT;
+        if(type == String.class) return STRING;
+        return OBJECT;
+    }
+
+    /**
+     * This method binds a value to a statement parameter using the setter that matches this type.
+     *
+     * @param statement         the statement to bind to
+     * @param index             the one based index of the parameter
+     * @param value             the value to bind, may be null for non primitive types
+     * @throws SQLException     thrown when the statement rejects the value
+     */
+    public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+        if(value == null) {
+            statement.setNull(index, sqlType);
+            return;
+        }
+
+        switch (this) {
+            case INT:
+            case INTEGER_OBJECT:
+                statement.setInt(index, (Integer) value);
+                break;
+            case LONG:
+            case LONG_OBJECT:
+                statement.setLong(index, (Long) value);
+                break;
+            case DOUBLE:
+            case DOUBLE_OBJECT:
+                statement.setDouble(index, (Double) value);
+                break;
+            case FLOAT:
+            case FLOAT_OBJECT:
+                statement.setFloat(index, (Float) value);
+                break;
+            case SHORT:
+            case SHORT_OBJECT:
+                statement.setShort(index, (Short) value);
+                break;
+            case BYTE:
+            case BYTE_OBJECT:
+                statement.setShort(index, (Byte) value);
+                break;
+            case BOOLEAN:
+            case BOOLEAN_OBJECT:
+                statement.setBoolean(index, (Boolean) value);
+                break;
+            case CHAR:
+            case CHARACTER_OBJECT:
+                statement.setString(index, String.valueOf(value));
+                break;
+            case STRING:
+                statement.setString(index, (String) value);
+                break;
+            default:
+                statement.setObject(index, value);
+        }
+    }
+
+    /**
+     * This method reads a column of the current row of a ResultSet using the getter that matches this
+     * type. Null columns are returned as null, or as the default value for primitive types.
+     *
+     * @param rs                the ResultSet positioned on the row to read
+     * @param columnIndex       the one based index of the column
+     * @return                  the value of the column, boxed
+     * @throws SQLException     thrown when the column can't be read
+     */
+    public Object read(ResultSet rs, int columnIndex) throws SQLException {
+        Object value;
+        switch (this) {
+            case INT:
+            case INTEGER_OBJECT:
+                value = rs.getInt(columnIndex);
+                break;
+            case LONG:
+            case LONG_OBJECT:
+                value = rs.getLong(columnIndex);
+                break;
+            case DOUBLE:
+            case DOUBLE_OBJECT:
+                value = rs.getDouble(columnIndex);
+                break;
+            case FLOAT:
+            case FLOAT_OBJECT:
+                value = rs.getFloat(columnIndex);
+                break;
+            case SHORT:
+            case SHORT_OBJECT:
+                value = rs.getShort(columnIndex);
+                break;
+            case BYTE:
+            case BYTE_OBJECT:
+                value = rs.getByte(columnIndex);
+                break;
+            case BOOLEAN:
+            case BOOLEAN_OBJECT:
+                value = rs.getBoolean(columnIndex);
+                break;
+            case CHAR:
+            case CHARACTER_OBJECT:
+                String s = rs.getString(columnIndex);
+                if(s == null || s.isEmpty()) {
+                    return this == CHAR ? '\0' : null;
+                }
+                return s.charAt(0);
+            case STRING:
+                return rs.getString(columnIndex);
+            default:
+                return rs.getObject(columnIndex);
+        }
+
+        return !primitive && rs.wasNull() ? null : value;
+    }
+}
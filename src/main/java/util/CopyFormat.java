@@ -0,0 +1,224 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.util.List;
+
+/**
+ * This class encodes entities to and decodes entities from the text format of the Postgres COPY command.
+ * A row is one line, its columns are separated by tabs, null is written as \N and backslashes, tabs and
+ * line breaks inside values are escaped with a backslash. Values are read from and written to the mapped
+ * fields through the entity's accessor, primitive fields without boxing.
+ *
+ * Columns whose type has no specific handling (ColumnType.OBJECT) are written with toString and read back
+ * as a String.
+ */
+public final class CopyFormat {
+
+    private CopyFormat() {
+    }
+
+    /**
+     * This method appends one row, ending with a line break, to a COPY text stream.
+     *
+     * @param out                the buffer to append to
+     * @param columns            the columns to write, in the order of the COPY column list
+     * @param accessor           the accessor of the entity's type
+     * @param entity             the entity to read the values from
+     * @throws CatnapException   thrown when a field can't be read
+     */
+    public static void appendRow(StringBuilder out, List<ColumnMetadata> columns, EntityAccessor accessor, Object entity) throws CatnapException {
+        for (int i = 0; i < columns.size(); i++) {
+            if(i > 0) {
+                out.append('\t');
+            }
+
+            ColumnMetadata column = columns.get(i);
+            switch (column.getColumnType()) {
+                case INT:
+                    out.append(accessor.getInt(entity, column.getIndex()));
+                    break;
+                case LONG:
+                    out.append(accessor.getLong(entity, column.getIndex()));
+                    break;
+                case DOUBLE:
+                    out.append(accessor.getDouble(entity, column.getIndex()));
+                    break;
+                case BOOLEAN:
+                    out.append(accessor.getBoolean(entity, column.getIndex()) ? 't' : 'f');
+                    break;
+                default:
+                    appendValue(out, accessor.get(entity, column.getIndex()));
+            }
+        }
+        out.append('\n');
+    }
+
+    /**
+     * This method reads one row of a COPY text stream into an entity.
+     *
+     * @param line               the row, with or without its line break
+     * @param columns            the columns of the row, in the order of the COPY column list
+     * @param accessor           the accessor of the entity's type
+     * @param entity             the entity to write the values to
+     * @throws CatnapException   thrown when the row doesn't match the columns or a field can't be written
+     */
+    public static void readRow(String line, List<ColumnMetadata> columns, EntityAccessor accessor, Object entity) throws CatnapException {
+        int end = line.length();
+        if(end > 0 && line.charAt(end - 1) == '\n') {
+            end--;
+        }
+
+        int start = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            if(start > end) {
+                throw new CatnapException("The COPY row has fewer than " + columns.size() + " columns: " + line);
+            }
+
+            int tab = line.indexOf('\t', start);
+            int fieldEnd = tab < 0 || tab > end ? end : tab;
+            readValue(columns.get(i), unescape(line, start, fieldEnd), accessor, entity);
+            start = fieldEnd + 1;
+        }
+    }
+
+    private static void appendValue(StringBuilder out, Object value) {
+        if(value == null) {
+            out.append("\\N");
+            return;
+        }
+        if(value instanceof Boolean) {
+            out.append((Boolean) value ? 't' : 'f');
+            return;
+        }
+
+        String s = value.toString();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    private static void readValue(ColumnMetadata column, String value, EntityAccessor accessor, Object entity) throws CatnapException {
+        ColumnType type = column.getColumnType();
+        int index = column.getIndex();
+        if(value == null) {
+            if(type.isPrimitive()) {
+                throw new CatnapException("The COPY row has a null value for the primitive column " + column.getName());
+            }
+            accessor.set(entity, index, null);
+            return;
+        }
+
+        try {
+            switch (type) {
+                case INT:
+                    accessor.setInt(entity, index, Integer.parseInt(value));
+                    break;
+                case LONG:
+                    accessor.setLong(entity, index, Long.parseLong(value));
+                    break;
+                case DOUBLE:
+                    accessor.setDouble(entity, index, Double.parseDouble(value));
+                    break;
+                case BOOLEAN:
+                    accessor.setBoolean(entity, index, value.equals("t"));
+                    break;
+                case INTEGER_OBJECT:
+                    accessor.set(entity, index, Integer.valueOf(value));
+                    break;
+                case LONG_OBJECT:
+                    accessor.set(entity, index, Long.valueOf(value));
+                    break;
+                case DOUBLE_OBJECT:
+                    accessor.set(entity, index, Double.valueOf(value));
+                    break;
+                case FLOAT:
+                case FLOAT_OBJECT:
+                    accessor.set(entity, index, Float.valueOf(value));
+                    break;
+                case SHORT:
+                case SHORT_OBJECT:
+                    accessor.set(entity, index, Short.valueOf(value));
+                    break;
+                case BYTE:
+                case BYTE_OBJECT:
+                    accessor.set(entity, index, Byte.valueOf(value));
+                    break;
+                case BOOLEAN_OBJECT:
+                    accessor.set(entity, index, value.equals("t"));
+                    break;
+                case CHAR:
+                case CHARACTER_OBJECT:
+                    accessor.set(entity, index, value.isEmpty() ? (type == ColumnType.CHAR ? '\0' : null) : value.charAt(0));
+                    break;
+                default:
+                    accessor.set(entity, index, value);
+            }
+        } catch (NumberFormatException e) {
+            throw new CatnapException("The COPY value " + value + " of column " + column.getName() + " isn't a number!");
+        }
+    }
+
+    /**
+     * This method removes the escapes of a field, returning null for \N.
+     */
+    private static String unescape(String line, int start, int end) {
+        if(end - start == 2 && line.charAt(start) == '\\' && line.charAt(start + 1) == 'N') {
+            return null;
+        }
+        if(line.indexOf('\\', start) < 0 || line.indexOf('\\', start) >= end) {
+            return line.substring(start, end);
+        }
+
+        StringBuilder value = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if(c != '\\' || i + 1 == end) {
+                value.append(c);
+                continue;
+            }
+
+            char escaped = line.charAt(++i);
+            switch (escaped) {
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'v':
+                    value.append('\u000B');
+                    break;
+                default:
+                    value.append(escaped);
+            }
+        }
+
+        return value.toString();
+    }
+}
@@ -0,0 +1,264 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * This class is a condition on the rows of an entity type's table, used as the WHERE clause of a Query.
+ * Conditions are built with the static methods of this class and combined with and and or, e.g.
+ * Criteria.and(Criteria.eq("name", "Tom"), Criteria.or(Criteria.gt("age", 9), Criteria.in("id", ids))).
+ *
+ * Columns are named by their field name and checked against the entity's mapped columns when the query is
+ * compiled. Values are always bound as statement parameters, and IN is compiled to = ANY(?) with a single
+ * array parameter, so a condition compiles to the same sql whatever its values are.
+ */
+public final class Criteria {
+
+    enum Operator {
+        EQ(" = "), NE(" <> "), LT(" < "), LE(" <= "), GT(" > "), GE(" >= "), LIKE(" LIKE "),
+        IN(" = ANY(?)"), BETWEEN(" BETWEEN ? AND ?"), IS_NULL(" IS NULL"), IS_NOT_NULL(" IS NOT NULL"),
+        AND(" AND "), OR(" OR ");
+
+        private final String sql;
+
+        Operator(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    private final Operator operator;
+    private final String column;
+    private final Object[] values;
+    private final List<Criteria> children;
+
+    private Criteria(Operator operator, String column, Object... values) {
+        this.operator = operator;
+        this.column = column;
+        this.values = values;
+        this.children = Collections.emptyList();
+    }
+
+    private Criteria(Operator operator, Criteria... children) {
+        this.operator = operator;
+        this.column = null;
+        this.values = new Object[0];
+        this.children = Collections.unmodifiableList(Arrays.asList(children.clone()));
+    }
+
+    /**
+     * @return      column = value, or column IS NULL when value is null
+     */
+    public static Criteria eq(String column, Object value) {
+        return value == null ? isNull(column) : new Criteria(Operator.EQ, column, value);
+    }
+
+    /**
+     * @return      column &lt;&gt; value, or column IS NOT NULL when value is null
+     */
+    public static Criteria ne(String column, Object value) {
+        return value == null ? isNotNull(column) : new Criteria(Operator.NE, column, value);
+    }
+
+    public static Criteria lt(String column, Object value) {
+        return new Criteria(Operator.LT, column, value);
+    }
+
+    public static Criteria le(String column, Object value) {
+        return new Criteria(Operator.LE, column, value);
+    }
+
+    public static Criteria gt(String column, Object value) {
+        return new Criteria(Operator.GT, column, value);
+    }
+
+    public static Criteria ge(String column, Object value) {
+        return new Criteria(Operator.GE, column, value);
+    }
+
+    /**
+     * @return      column BETWEEN low AND high, both ends included
+     */
+    public static Criteria between(String column, Object low, Object high) {
+        return new Criteria(Operator.BETWEEN, column, low, high);
+    }
+
+    /**
+     * @return      column = ANY(values), which is false for every row when values is empty
+     */
+    public static Criteria in(String column, Collection<?> values) {
+        return new Criteria(Operator.IN, column, values.toArray());
+    }
+
+    /**
+     * @return      column LIKE pattern, where % matches any characters and _ matches one character
+     */
+    public static Criteria like(String column, String pattern) {
+        return new Criteria(Operator.LIKE, column, pattern);
+    }
+
+    public static Criteria isNull(String column) {
+        return new Criteria(Operator.IS_NULL, column);
+    }
+
+    public static Criteria isNotNull(String column) {
+        return new Criteria(Operator.IS_NOT_NULL, column);
+    }
+
+    /**
+     * @return      a condition that holds when every one of criteria holds, or for every row when there are none
+     */
+    public static Criteria and(Criteria... criteria) {
+        return criteria.length == 1 ? criteria[0] : new Criteria(Operator.AND, criteria);
+    }
+
+    /**
+     * @return      a condition that holds when any of criteria holds, or for no row when there are none
+     */
+    public static Criteria or(Criteria... criteria) {
+        return criteria.length == 1 ? criteria[0] : new Criteria(Operator.OR, criteria);
+    }
+
+    /**
+     * This method finds the values a column can have in the rows that match this condition, which is known
+     * when the condition compares the column with = or IN, possibly combined with other conditions by AND,
+     * or when every branch of an OR does.
+     *
+     * @param column         the name of the column
+     * @return               an Optional containing the possible values, or an empty one if any value is possible
+     */
+    public Optional<Set<Object>> getPossibleValues(String column) {
+        if(operator == Operator.AND) {
+            for (Criteria child: children) {
+                Optional<Set<Object>> values = child.getPossibleValues(column);
+                if(values.isPresent()) {
+                    return values;
+                }
+            }
+            return Optional.empty();
+        }
+        if(operator == Operator.OR) {
+            Set<Object> union = new HashSet<>();
+            for (Criteria child: children) {
+                Optional<Set<Object>> values = child.getPossibleValues(column);
+                if(!values.isPresent()) {
+                    return Optional.empty();
+                }
+                union.addAll(values.get());
+            }
+            return Optional.of(union);
+        }
+        if((operator == Operator.EQ || operator == Operator.IN) && column.equals(this.column)) {
+            return Optional.of(new HashSet<>(Arrays.asList(values)));
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * This method appends the shape of this condition, its operators and columns without its values, to
+     * the cache key of a query. Conditions with the same shape compile to the same sql.
+     *
+     * @param shape          the key to append to
+     */
+    void appendShape(StringBuilder shape) {
+        shape.append(operator.ordinal());
+        if(column != null) {
+            shape.append(':').append(column);
+        }
+        if(!children.isEmpty()) {
+            shape.append('(');
+            for (Criteria child: children) {
+                child.appendShape(shape);
+                shape.append(',');
+            }
+            shape.append(')');
+        }
+    }
+
+    /**
+     * This method compiles this condition to sql with ? for each value, checking its columns against the
+     * columns of the entity type.
+     *
+     * @param sql                the sql to append to
+     * @param metadata           the metadata of the entity type being queried
+     * @throws CatnapException   thrown when a column isn't mapped by the entity type, or LIKE is used on a
+     * column that isn't a String
+     */
+    void appendSql(StringBuilder sql, EntityMetadata metadata) throws CatnapException {
+        if(operator == Operator.AND || operator == Operator.OR) {
+            if(children.isEmpty()) {
+                sql.append(operator == Operator.AND ? "TRUE" : "FALSE");
+                return;
+            }
+
+            sql.append('(');
+            for (int i = 0; i < children.size(); i++) {
+                if(i > 0) {
+                    sql.append(operator.sql);
+                }
+                children.get(i).appendSql(sql, metadata);
+            }
+            sql.append(')');
+            return;
+        }
+
+        ColumnMetadata c = getColumn(metadata);
+        if(operator == Operator.LIKE && c.getColumnType() != ColumnType.STRING) {
+            throw new CatnapException("LIKE can't be used on the column " + column + " of entity type: " + metadata.getEntityType().getName() + " since it isn't a String");
+        }
+
+        sql.append(c.getName()).append(operator.sql);
+        if(operator.ordinal() <= Operator.LIKE.ordinal()) {
+            sql.append('?');
+        }
+    }
+
+    /**
+     * This method binds the values of this condition to a statement compiled from it.
+     *
+     * @param statement          the statement to bind to
+     * @param index              the one based index of the first parameter of this condition
+     * @param metadata           the metadata of the entity type being queried
+     * @return                   the index of the parameter after the ones of this condition
+     * @throws SQLException      thrown when the statement rejects a value
+     * @throws CatnapException   thrown when a value doesn't have the type of its column
+     */
+    int bind(PreparedStatement statement, int index, EntityMetadata metadata) throws SQLException, CatnapException {
+        for (Criteria child: children) {
+            index = child.bind(statement, index, metadata);
+        }
+        if(column == null) {
+            return index;
+        }
+
+        ColumnMetadata c = getColumn(metadata);
+        if(operator == Operator.IN) {
+            statement.setArray(index, statement.getConnection().createArrayOf(c.getArrayType(), values));
+            return index + 1;
+        }
+
+        for (Object value: values) {
+            try {
+                c.getColumnType().bind(statement, index++, value);
+            } catch (ClassCastException e) {
+                throw new CatnapException("The value " + value + " can't be compared to the column " + column + " of type " + c.getType().getName());
+            }
+        }
+
+        return index;
+    }
+
+    private ColumnMetadata getColumn(EntityMetadata metadata) throws CatnapException {
+        return metadata.getColumn(column)
+                .orElseThrow(() -> new CatnapException("Entity type: " + metadata.getEntityType().getName() + " has no mapped column " + column));
+    }
+}
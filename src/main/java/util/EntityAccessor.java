@@ -0,0 +1,58 @@
+package util;
+
+import exceptions.CatnapException;
+
+/**
+ * This interface is used to create entities and to read and write their mapped fields. An accessor is
+ * built once per entity type by an AccessorStrategy and then shared, so implementations must be thread
+ * safe. Columns are referred to by their index in EntityMetadata.getColumns().
+ *
+ * The typed getters and setters let primitive fields be read and written without boxing. They may only
+ * be used on columns whose field has exactly that type.
+ */
+public interface EntityAccessor {
+
+    /**
+     * This method creates a new, empty instance of the entity using its no arg constructor.
+     *
+     * @return                   the new entity
+     * @throws CatnapException   thrown when the entity can't be instantiated
+     */
+    public Object newInstance() throws CatnapException;
+
+    /**
+     * This method reads the value of a column, boxing it if the field is a primitive.
+     *
+     * @param entity             the entity to read from
+     * @param column             the index of the column
+     * @return                   the value of the field
+     * @throws CatnapException   thrown when the field can't be read
+     */
+    public Object get(Object entity, int column) throws CatnapException;
+
+    /**
+     * This method writes the value of a column, unboxing it if the field is a primitive.
+     *
+     * @param entity             the entity to write to
+     * @param column             the index of the column
+     * @param value              the new value of the field
+     * @throws CatnapException   thrown when the field can't be written
+     */
+    public void set(Object entity, int column, Object value) throws CatnapException;
+
+    public int getInt(Object entity, int column) throws CatnapException;
+
+    public long getLong(Object entity, int column) throws CatnapException;
+
+    public double getDouble(Object entity, int column) throws CatnapException;
+
+    public boolean getBoolean(Object entity, int column) throws CatnapException;
+
+    public void setInt(Object entity, int column, int value) throws CatnapException;
+
+    public void setLong(Object entity, int column, long value) throws CatnapException;
+
+    public void setDouble(Object entity, int column, double value) throws CatnapException;
+
+    public void setBoolean(Object entity, int column, boolean value) throws CatnapException;
+}
@@ -0,0 +1,38 @@
+package util;
+
+import java.util.Objects;
+
+/**
+ * The entity type and id of a cached row.
+ */
+final class EntityKey {
+
+    private final Class<?> type;
+    private final int id;
+
+    EntityKey(Class<?> type, int id) {
+        this.type = type;
+        this.id = id;
+    }
+
+    Class<?> getType() {
+        return type;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(!(o instanceof EntityKey)) return false;
+        EntityKey other = (EntityKey) o;
+        return id == other.id && type == other.type;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, id);
+    }
+}
@@ -0,0 +1,79 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This interface is implemented by the mapper classes that the catnap-processor annotation processor
+ * generates for each @Entity at compile time. A mapper holds the sql templates of an entity type and
+ * reads and writes its fields with plain field access, so no reflection is needed once it is loaded.
+ *
+ * The mapper of an entity type pkg.Outer.Model is the class pkg.Outer_Model_CatnapMapper. EntityMetadata
+ * looks it up when the entity type is first seen and uses it in place of the AccessorStrategy when it is
+ * present. AnnotationStrategy and Session use its templates, binders and hydrate method.
+ */
+public interface EntityMapper extends EntityAccessor {
+
+    /**
+     * The suffix appended to the entity's class name to get the name of its generated mapper.
+     */
+    public final static String SUFFIX = "_CatnapMapper";
+
+    /**
+     * @return      the names of the mapped columns, in the same order as EntityMetadata.getColumns()
+     */
+    public String[] getColumnNames();
+
+    public String getInsertSql();
+
+    public String getGetSql();
+
+    public String getGetAllSql();
+
+    public String getUpdateSql();
+
+    public String getDeleteSql();
+
+    /**
+     * This method binds the values of an entity to a statement prepared from getInsertSql.
+     *
+     * @param statement         the statement to bind to
+     * @param entity            the entity to read the values from
+     * @throws SQLException     thrown when the statement rejects a value
+     */
+    public void bindInsert(PreparedStatement statement, Object entity) throws SQLException;
+
+    /**
+     * This method binds the values of an entity to a statement prepared from getUpdateSql.
+     *
+     * @param statement         the statement to bind to
+     * @param entity            the entity to read the values from
+     * @throws SQLException     thrown when the statement rejects a value
+     */
+    public void bindUpdate(PreparedStatement statement, Object entity) throws SQLException;
+
+    /**
+     * This method creates an entity from the current row of a ResultSet. Columns are read by index using
+     * the column plan of the query, see EntityMetadata.getColumnPlan.
+     *
+     * @param rs                 the ResultSet positioned on the row to read
+     * @param columns            the ResultSet index of each mapped column, or 0 for columns not selected
+     * @return                   the new entity
+     * @throws SQLException      thrown when a column can't be read
+     * @throws CatnapException   thrown when the entity can't be instantiated
+     */
+    public Object hydrate(ResultSet rs, int[] columns) throws SQLException, CatnapException;
+
+    /**
+     * This method returns the name of the generated mapper class of an entity type.
+     *
+     * @param entityType     the entity type
+     * @return               the binary name of the mapper class
+     */
+    public static String mapperName(Class<?> entityType) {
+        return entityType.getName().replace('$', '_') + SUFFIX;
+    }
+}
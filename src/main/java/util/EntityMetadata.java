@@ -0,0 +1,398 @@
+package util;
+
+import annotations.Cacheable;
+import annotations.Entity;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is an immutable description of how an entity type maps to the database: its table name,
+ * its ordered list of columns, its id column and its @OrderBy columns. Reading annotations through
+ * reflection is slow, so the metadata for each entity type is built once and shared by every thread
+ * through the registry in this class. Use EntityMetadata.of to look it up.
+ *
+ * The mapped columns are the declared, non-static, non-synthetic fields of the entity in declaration order.
+ * Entities are created and their fields are read and written through the EntityAccessor of the metadata.
+ * When the entity was compiled with catnap-processor, its generated EntityMapper is picked up here too.
+ */
+public final class EntityMetadata {
+
+    private final static Logger logger = LogManager.getLogger(EntityMetadata.class);
+    private final static Map<Class<?>, EntityMetadata> registry = new ConcurrentHashMap<>();
+    private final static Properties typeMappings = loadTypeMappings();
+    private final static AtomicInteger slots = new AtomicInteger();
+    private static volatile AccessorStrategy accessorStrategy = new MethodHandleAccessorStrategy();
+
+    private final Class<?> entityType;
+    private final String tableName;
+    private final List<ColumnMetadata> columns;
+    private final List<ColumnMetadata> valueColumns;
+    private final List<ColumnMetadata> orderByColumns;
+    private final List<ColumnMetadata> keysetColumns;
+    private final boolean[] keysetDescending;
+    private final List<Field> fields;
+    private final ColumnMetadata idColumn;
+    private final EntityMapper mapper;
+    private final boolean cacheable;
+    private final int slot;
+    private final long schemaHash;
+    private final Map<String, int[]> columnPlans = new ConcurrentHashMap<>();
+    private volatile EntityAccessor accessor;
+
+    private EntityMetadata(Class<?> entityType) {
+        this.entityType = entityType;
+
+        Entity entity = entityType.getAnnotation(Entity.class);
+        this.tableName = entity != null && !entity.name().equals("none") ? entity.name() : entityType.getSimpleName();
+
+        List<ColumnMetadata> columns = new ArrayList<>();
+        List<ColumnMetadata> valueColumns = new ArrayList<>();
+        List<ColumnMetadata> orderByColumns = new ArrayList<>();
+        List<Field> fields = new ArrayList<>();
+        ColumnMetadata idColumn = null;
+
+        for (Field field: entityType.getDeclaredFields()) {
+            if(field.isSynthetic() || Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+
+            ColumnMetadata column = new ColumnMetadata(field, columns.size(), typeMappings);
+            columns.add(column);
+            fields.add(field);
+
+            if(column.isId()) {
+                if(idColumn == null) {
+                    idColumn = column;
+                }
+            } else {
+                valueColumns.add(column);
+            }
+            if(column.isOrderBy()) {
+                orderByColumns.add(column);
+            }
+        }
+
+        this.columns = Collections.unmodifiableList(columns);
+        this.valueColumns = Collections.unmodifiableList(valueColumns);
+        this.orderByColumns = Collections.unmodifiableList(orderByColumns);
+        this.fields = Collections.unmodifiableList(fields);
+        this.idColumn = idColumn;
+
+        List<ColumnMetadata> keysetColumns = new ArrayList<>();
+        if(idColumn != null) {
+            keysetColumns.addAll(orderByColumns);
+            if(!keysetColumns.contains(idColumn)) {
+                keysetColumns.add(idColumn);
+            }
+        }
+        this.keysetColumns = Collections.unmodifiableList(keysetColumns);
+        this.keysetDescending = new boolean[keysetColumns.size()];
+        String direction = "ASC";
+        for (int i = 0; i < keysetColumns.size(); i++) {
+            if(keysetColumns.get(i).isOrderBy()) {
+                direction = keysetColumns.get(i).getOrderDirection();
+            }
+            this.keysetDescending[i] = direction.equalsIgnoreCase("DESC");
+        }
+
+        this.mapper = findMapper(entityType, columns);
+        this.cacheable = entityType.isAnnotationPresent(Cacheable.class) && idColumn != null;
+        this.slot = slots.getAndIncrement();
+        this.schemaHash = hashSchema(this.tableName, columns);
+    }
+
+    /**
+     * This method returns the metadata of an entity type, building it the first time the type is seen.
+     * It is safe to call from multiple threads.
+     *
+     * @param clazz          the entity type
+     * @return               the shared metadata of the entity type
+     */
+    public static EntityMetadata of(Class<?> clazz) {
+        EntityMetadata metadata = registry.get(clazz);
+        if(metadata == null) {
+            metadata = registry.computeIfAbsent(clazz, EntityMetadata::new);
+        }
+
+        return metadata;
+    }
+
+    /**
+     * This method sets the strategy used to build the EntityAccessor of each entity type. Accessors are
+     * built once and kept, so this should be called at startup before any entity is used.
+     *
+     * @param strategy       the strategy to build accessors with
+     */
+    public static void setAccessorStrategy(AccessorStrategy strategy) {
+        accessorStrategy = strategy;
+    }
+
+    /**
+     * This method returns the accessor used to create entities of this type and to read and write
+     * their mapped fields. The generated mapper is used when there is one, otherwise the accessor is
+     * built with the configured AccessorStrategy the first time.
+     *
+     * @return               the accessor of the entity type
+     */
+    public EntityAccessor getAccessor() {
+        if(mapper != null) {
+            return mapper;
+        }
+
+        EntityAccessor accessor = this.accessor;
+        if(accessor == null) {
+            synchronized (this) {
+                accessor = this.accessor;
+                if(accessor == null) {
+                    accessor = accessorStrategy.create(this);
+                    this.accessor = accessor;
+                }
+            }
+        }
+
+        return accessor;
+    }
+
+    /**
+     * @return      an Optional containing the mapper generated for this type by catnap-processor, or an
+     *              empty one if the type wasn't compiled with the processor
+     */
+    public Optional<EntityMapper> getMapper() {
+        return Optional.ofNullable(mapper);
+    }
+
+    /**
+     * @return      a small number that is unique to the entity type, starting at 0. Caches use it to index an
+     *              array by type instead of hashing the class.
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return      a hash of the table name and of the name, java type and position of every column. Data kept
+     *              for the type outside of the process, such as a CacheSnapshot, is only read back while the
+     *              hash still matches.
+     */
+    public long getSchemaHash() {
+        return schemaHash;
+    }
+
+    public Class<?> getEntityType() {
+        return entityType;
+    }
+
+    /**
+     * @return      the value of @Entity's name, or the simple name of the class when it isn't set
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return      every mapped column, including the id column, in declaration order
+     */
+    public List<ColumnMetadata> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return      every mapped column except the id column, in declaration order
+     */
+    public List<ColumnMetadata> getValueColumns() {
+        return valueColumns;
+    }
+
+    /**
+     * @return      the columns annotated with @OrderBy, in declaration order
+     */
+    public List<ColumnMetadata> getOrderByColumns() {
+        return orderByColumns;
+    }
+
+    /**
+     * @return      the columns that order the rows of a keyset page: the @OrderBy columns followed by the id
+     *              column, which makes the order unique. Empty if the type has no id column.
+     */
+    public List<ColumnMetadata> getKeysetColumns() {
+        return keysetColumns;
+    }
+
+    /**
+     * This method tells the direction of a keyset column. The id column has the direction of the @OrderBy
+     * column before it, or ascending when there is none.
+     *
+     * @param position       the position of the column in getKeysetColumns
+     * @return               whether the column is sorted in descending order
+     */
+    public boolean isKeysetDescending(int position) {
+        return keysetDescending[position];
+    }
+
+    /**
+     * @return      whether the type is annotated with @Cacheable and has an id column, so its entities can be
+     *              kept in the SecondLevelCache
+     */
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * @return      the mapped fields, in the same order as getColumns
+     */
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return      an Optional containing the column annotated with @Id, or an empty one if there is none
+     */
+    public Optional<ColumnMetadata> getIdColumn() {
+        return Optional.ofNullable(idColumn);
+    }
+
+    /**
+     * This method looks up a mapped column by its name.
+     *
+     * @param name           the name of the column
+     * @return               an Optional containing the column, or an empty one if it isn't mapped
+     */
+    public Optional<ColumnMetadata> getColumn(String name) {
+        for (ColumnMetadata column: columns) {
+            if(column.getName().equals(name)) {
+                return Optional.of(column);
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * This method returns the column plan of a query: for each mapped column, in the order of getColumns,
+     * the one based index of the matching column in the query's ResultSet, or 0 when the query doesn't
+     * select it. Looking columns up by label for every cell is slow, so the plan is resolved from the
+     * ResultSetMetaData the first time a query is run and then cached by its sql template.
+     *
+     * @param sql                the sql template the ResultSet was produced by
+     * @param rs                 the ResultSet of the query
+     * @return                   the column indexes of the mapped columns
+     * @throws SQLException      thrown when the ResultSetMetaData can't be read
+     */
+    public int[] getColumnPlan(String sql, ResultSet rs) throws SQLException {
+        int[] plan = columnPlans.get(sql);
+        if(plan == null) {
+            plan = resolveColumnPlan(rs.getMetaData());
+            columnPlans.put(sql, plan);
+        }
+
+        return plan;
+    }
+
+    /**
+     * This method matches the columns of a ResultSet to the mapped columns. Postgres folds unquoted names
+     * to lower case, so the names are compared ignoring case.
+     *
+     * @param rsmd               the metadata of the ResultSet
+     * @return                   the column indexes of the mapped columns
+     * @throws SQLException      thrown when the ResultSetMetaData can't be read
+     */
+    private int[] resolveColumnPlan(ResultSetMetaData rsmd) throws SQLException {
+        int[] plan = new int[columns.size()];
+        int count = rsmd.getColumnCount();
+        for (int i = 1; i <= count; i++) {
+            String label = rsmd.getColumnLabel(i);
+            for (ColumnMetadata column: columns) {
+                if(plan[column.getIndex()] == 0 && column.getName().equalsIgnoreCase(label)) {
+                    plan[column.getIndex()] = i;
+                    break;
+                }
+            }
+        }
+
+        return plan;
+    }
+
+    /**
+     * This method loads the mapper generated for an entity type. A mapper whose columns don't match the
+     * columns found through reflection was generated from a different version of the class, so it is ignored.
+     *
+     * @param entityType     the entity type
+     * @param columns        the columns of the entity type
+     * @return               the mapper, or null if there is no usable one
+     */
+    private static EntityMapper findMapper(Class<?> entityType, List<ColumnMetadata> columns) {
+        Class<?> mapperType;
+        try {
+            mapperType = Class.forName(EntityMapper.mapperName(entityType), true, entityType.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+
+        try {
+            EntityMapper mapper = (EntityMapper) mapperType.getDeclaredConstructor().newInstance();
+            String[] names = mapper.getColumnNames();
+            boolean matches = names.length == columns.size();
+            for (int i = 0; matches && i < names.length; i++) {
+                matches = names[i].equals(columns.get(i).getName());
+            }
+
+            if(!matches) {
+                logger.warn("The generated mapper " + mapperType.getName() + " doesn't match the fields of " + entityType.getName() + " and will not be used.");
+                return null;
+            }
+            return mapper;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            logger.warn("Unable to create the generated mapper " + mapperType.getName() + ", got: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * This method hashes the schema of an entity type with 64 bit FNV-1a, so the hash is the same in every
+     * run of the same classes.
+     */
+    private static long hashSchema(String tableName, List<ColumnMetadata> columns) {
+        StringBuilder schema = new StringBuilder(tableName);
+        for (ColumnMetadata column: columns) {
+            schema.append('\0').append(column.getName())
+                    .append(':').append(column.getType().getName())
+                    .append(column.isId() ? ":id" : "");
+        }
+
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < schema.length(); i++) {
+            hash ^= schema.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static Properties loadTypeMappings() {
+        Properties props = new Properties();
+        try (InputStream in = EntityMetadata.class.getClassLoader().getResourceAsStream("mapping.properties")) {
+            if(in != null) {
+                props.load(in);
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+
+        return props;
+    }
+}
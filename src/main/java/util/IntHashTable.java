@@ -0,0 +1,114 @@
+package util;
+
+/**
+ * The open addressing shared by IntObjectMap and IntLongMap. The int keys are kept in an array and collisions
+ * are resolved by linear probing, so there is no boxed key and no node object per entry, and a lookup doesn't
+ * allocate. Removing an entry shifts the entries after it back instead of leaving a tombstone, so lookups never
+ * get slower as entries come and go.
+ *
+ * Subclasses keep the values in an array parallel to the keys, where a reserved value marks a free slot.
+ */
+abstract class IntHashTable {
+
+    private final static int MIN_CAPACITY = 8;
+
+    int[] keys;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    /**
+     * @param expectedSize       the number of entries the table should hold without growing
+     */
+    IntHashTable(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while(capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @return      whether a slot holds no entry
+     */
+    abstract boolean isFree(int slot);
+
+    /**
+     * This method replaces the values with an array of free slots.
+     */
+    abstract void allocateValues(int capacity);
+
+    abstract void moveValue(int from, int to);
+
+    abstract void freeValue(int slot);
+
+    abstract void freeValues();
+
+    /**
+     * This method moves the entries to new arrays of the given capacity, see allocate and slot.
+     */
+    abstract void rehash(int capacity);
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        freeValues();
+        size = 0;
+    }
+
+    /**
+     * @param key        the key
+     * @return           the slot of the key, or the free slot it would be inserted in
+     */
+    final int slot(int key) {
+        int i = hash(key) & mask;
+        while(!isFree(i) && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+
+        return i;
+    }
+
+    /**
+     * This method records the key of an entry whose value was just put in a free slot, and grows the table
+     * when it is too full.
+     */
+    final void inserted(int slot, int key) {
+        keys[slot] = key;
+        if(++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    final void removeAt(int slot) {
+        // move back the entries whose probe sequence went through the freed slot
+        int gap = slot;
+        for (int j = (gap + 1) & mask; !isFree(j); j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if(((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                moveValue(j, gap);
+                gap = j;
+            }
+        }
+        freeValue(gap);
+        size--;
+    }
+
+    final void allocate(int capacity) {
+        keys = new int[capacity];
+        allocateValues(capacity);
+        mask = capacity - 1;
+        resizeAt = capacity * 3 / 4;
+    }
+
+    /**
+     * Ids are often sequential, so the key is scrambled to spread neighbouring ids over the table.
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
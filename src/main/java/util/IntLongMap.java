@@ -0,0 +1,136 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive int keys to non-negative long values, laid out like IntObjectMap, see IntHashTable,
+ * but without any object per entry or per value. A value of -1 marks a free slot and is returned for missing keys.
+ * This class isn't thread safe.
+ */
+final class IntLongMap extends IntHashTable {
+
+    final static long MISSING = -1;
+
+    interface Visitor {
+        void visit(int key, long value);
+    }
+
+    private long[] values;
+
+    IntLongMap() {
+        super(0);
+    }
+
+    /**
+     * @param key        the key
+     * @return           the value of the key, or MISSING if there is none
+     */
+    long get(int key) {
+        return values[slot(key)];
+    }
+
+    /**
+     * @param key        the key
+     * @param value      the value, not negative
+     * @return           the previous value of the key, or MISSING if there was none
+     */
+    long put(int key, long value) {
+        if(value < 0) {
+            throw new IllegalArgumentException("IntLongMap only holds values that aren't negative, got: " + value);
+        }
+
+        int i = slot(key);
+        long previous = values[i];
+        values[i] = value;
+        if(previous == MISSING) {
+            inserted(i, key);
+        }
+
+        return previous;
+    }
+
+    /**
+     * This method removes a key only while it still has the given value.
+     *
+     * @param key        the key
+     * @param value      the value the key must have
+     * @return           whether the key was removed
+     */
+    boolean remove(int key, long value) {
+        int i = slot(key);
+        if(values[i] == MISSING || values[i] != value) {
+            return false;
+        }
+
+        removeAt(i);
+        return true;
+    }
+
+    /**
+     * @param key        the key
+     * @return           the removed value, or MISSING if the key had none
+     */
+    long remove(int key) {
+        int i = slot(key);
+        long value = values[i];
+        if(value != MISSING) {
+            removeAt(i);
+        }
+
+        return value;
+    }
+
+    /**
+     * This method gives every key and its value to a visitor. The map must not be changed meanwhile.
+     *
+     * @param visitor    receives each key and value
+     */
+    void forEach(Visitor visitor) {
+        for (int i = 0; i < values.length; i++) {
+            if(values[i] != MISSING) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    @Override
+    boolean isFree(int slot) {
+        return values[slot] == MISSING;
+    }
+
+    @Override
+    void allocateValues(int capacity) {
+        values = new long[capacity];
+        Arrays.fill(values, MISSING);
+    }
+
+    @Override
+    void moveValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    void freeValue(int slot) {
+        values[slot] = MISSING;
+    }
+
+    @Override
+    void freeValues() {
+        Arrays.fill(values, MISSING);
+    }
+
+    @Override
+    void rehash(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if(oldValues[i] != MISSING) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
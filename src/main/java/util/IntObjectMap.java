@@ -0,0 +1,128 @@
+package util;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A hash map from primitive int keys to objects, see IntHashTable for how the entries are laid out.
+ *
+ * Null values can't be stored, a null value marks a free slot. This class isn't thread safe.
+ *
+ * @param <V>       the type of the values
+ */
+public final class IntObjectMap<V> extends IntHashTable {
+
+    private Object[] values;
+
+    public IntObjectMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize       the number of entries the map should hold without growing
+     */
+    public IntObjectMap(int expectedSize) {
+        super(expectedSize);
+    }
+
+    /**
+     * @param key        the key
+     * @return           the value of the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        return (V) values[slot(key)];
+    }
+
+    /**
+     * @param key        the key
+     * @param value      the value, not null
+     * @return           the previous value of the key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if(value == null) {
+            throw new NullPointerException("IntObjectMap doesn't hold null values");
+        }
+
+        int i = slot(key);
+        Object previous = values[i];
+        values[i] = value;
+        if(previous == null) {
+            inserted(i, key);
+        }
+
+        return (V) previous;
+    }
+
+    /**
+     * @param key        the key
+     * @return           the removed value, or null if the key had none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int i = slot(key);
+        Object removed = values[i];
+        if(removed != null) {
+            removeAt(i);
+        }
+
+        return (V) removed;
+    }
+
+    /**
+     * @param action     the action to run on every value, which must not change the map
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        for (Object value: values) {
+            if(value != null) {
+                action.accept((V) value);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    boolean isFree(int slot) {
+        return values[slot] == null;
+    }
+
+    @Override
+    void allocateValues(int capacity) {
+        values = new Object[capacity];
+    }
+
+    @Override
+    void moveValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    void freeValue(int slot) {
+        values[slot] = null;
+    }
+
+    @Override
+    void freeValues() {
+        Arrays.fill(values, null);
+    }
+
+    @Override
+    void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if(oldValues[i] != null) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package util;
 
-import exceptions.ConnectionFailedException;
+import exceptions.CatnapException;
 
 import java.lang.reflect.InvocationTargetException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface MappingStrategy {
     /**
@@ -29,76 +34,317 @@ public interface MappingStrategy {
     public String buildSchema(List<Object> models) throws InvocationTargetException, NoSuchMethodException, IllegalAccessException;
 
     /**
-     * This method is used to generate a sql insert statement for a new instance of an entity that is to be added to a
-     * database table. Reflection is used to get the values of the properties inside a class and generate the
-     * sql statement accordingly. This method also uses reflection to check if the @Id annotation is present. If the @Id
-     * annotation is found, then the value will be set to default.
-     * Makes use of the getTableName() helper method.
+     * This method is used to generate a parameterized sql insert statement for an entity type. Every
+     * mapped column except the one annotated with @Id is listed, and each value is a "?" placeholder
+     * so that the database can reuse its plan. The values of an instance are bound with bindInsert.
+     * Templates are built once per entity type and cached.
      *
-     * @return a String with the generated sql insert statement.
-     * @throws IllegalArgumentException thrown if an invalid argument is passed to the field.get() reflection method.
-     * @throws IllegalAccessException thrown if field.get() reflection method does not have access to the class or field.
-     *                                Helper method getTableName() throws this exception.
-     * @throws InvocationTargetException Helper method getTableName() throws this exception.
-     * @throws NoSuchMethodException Helper method getTableName() throws this exception.
-     * @param instanceObject the instance of the model to be inserted into the database.
+     * @return a String with the generated sql insert template.
+     * @param clazz the class associated to the table we want to insert into.
      */
-    public String insert(Object instanceObject) throws IllegalArgumentException, IllegalAccessException, InvocationTargetException, NoSuchMethodException;
+    public String insert(Class clazz);
 
     /**
-     * This method generates a get sql statement that retrieves a single row matching the primary key provided.
-     * Reflection is used to find the @Id annotation and associated retrieve the variable name (name mapped to the primary kay column name).
-     * Makes use of the getTableName() helper method.
+     * This method generates a parameterized sql statement that inserts several rows of an entity type and returns
+     * the generated primary key of each row along with the row's position in the statement, counted from 1, as
+     * the columns (ord, id). Postgres doesn't promise that INSERT ... RETURNING returns the rows in the order they
+     * were given, so the ids are matched to the rows by that number. The values of the instances are bound with
+     * bindInsertReturning. A template is cached for each number of rows.
      *
-     * @return a String with the generated sql select statement.
-     * @throws InvocationTargetException Helper method getTableName() throws this exception.
-     * @throws NoSuchMethodException Helper method getTableName() throws this exception.
-     * @throws IllegalAccessException Helper method getTableName() throws this exception.
+     * @return a String with the generated sql insert template.
+     * @param clazz the class associated to the table we want to insert into. It must have an @Id field, whose
+     *              column is a serial as in createTable.
+     * @param rows the number of rows inserted by the statement.
+     */
+    public String insertReturning(Class clazz, int rows);
+
+    /**
+     * This method generates a parameterized sql statement that inserts several rows of an entity type with their
+     * primary keys, or updates the rows that already exist, and returns the final state of every row, e.g.
+     * INSERT INTO T (id, a, b) VALUES (?, ?, ?), (?, ?, ?) ON CONFLICT (id) DO UPDATE SET a = EXCLUDED.a, b = EXCLUDED.b RETURNING *;
+     * The values of the instances are bound with bindUpsert. A template is cached for each number of rows.
+     *
+     * @return a String with the generated sql insert template.
+     * @param clazz the class associated to the table we want to write to. It must have an @Id field.
+     * @param rows the number of rows written by the statement, whose primary keys must all be set and different.
+     */
+    public String upsert(Class clazz, int rows);
+
+    /**
+     * This method generates a parameterized get sql statement that retrieves a single row by primary key.
+     * The primary key is the only parameter of the statement.
+     *
+     * @return a String with the generated sql select template.
      * @param clazz the class associated to the table we want to retrieve data from.
-     * @param id the primary key of the row we want to retrieve.
      */
-    public String get(Class clazz, int id) throws InvocationTargetException, NoSuchMethodException, IllegalAccessException;
+    public String get(Class clazz);
+
+    /**
+     * This method generates a parameterized get sql statement that retrieves the rows whose primary key is in
+     * an array, e.g. SELECT * FROM T WHERE id = ANY(?); The array of ids is the only parameter of the statement.
+     *
+     * @return a String with the generated sql select template.
+     * @param clazz the class associated to the table we want to retrieve data from.
+     */
+    public String getByIds(Class clazz);
+
+    /**
+     * This method generates a parameterized sql statement that retrieves the primary key and the row version of
+     * the rows whose primary key is in an array, e.g. SELECT id, xmin::text::bigint FROM T WHERE id = ANY(?);
+     * The version is the Postgres xmin system column, which changes every time the row is written. The array
+     * of ids is the only parameter of the statement.
+     *
+     * @return a String with the generated sql select template.
+     * @param clazz the class associated to the table we want to retrieve the row versions from.
+     */
+    public String getRowVersions(Class clazz);
 
     /**
      * This method generates a sql select statement to retrieve all rows from a given table in the database.
-     * Makes use of the getTableName() helper method.
      *
      * @return a String with the generated sql select statement.
-     * @throws InvocationTargetException Helper method getTableName() throws this exception.
-     * @throws NoSuchMethodException Helper method getTableName() throws this exception.
-     * @throws IllegalAccessException Helper method getTableName() throws this exception.
      * @param clazz the class associated to the table we want to retrieve data from.
      */
-    public String getAll(Class clazz) throws InvocationTargetException, NoSuchMethodException, IllegalAccessException;
+    public String getAll(Class clazz);
 
     /**
-     * This method generates a sql update statement for an existing row in the database.
-     * Reflection is used to get the values of the properties inside a class. This method also
-     * uses reflection to check if the @Id annotation is present. If the @Id
-     * annotation is found, then that value will be inserted into the WHERE clause.
-     * Makes use of the getTableName() helper method.
+     * This method generates a parameterized sql update statement for an entity type. Every column other than
+     * the primary key is set from a parameter, and the primary key is the last parameter, used in the WHERE
+     * clause. The values of an instance are bound with bindUpdate.
      *
-     * @return a String with the generated sql update statement.
-     * @throws IllegalAccessException Helper method getTableName() throws this exception.
-     * @throws InvocationTargetException Helper method getTableName() throws this exception.
-     * @throws NoSuchMethodException Helper method getTableName() throws this exception.
-     * @param instanceObject the instance of the model containing the new values to be updated in the database.
+     * @return a String with the generated sql update template.
+     * @param clazz the class associated to the table we want to update.
      */
-    public String update(Object instanceObject) throws IllegalAccessException, InvocationTargetException, NoSuchMethodException;
+    public String update(Class clazz);
 
     /**
-     * This method generates a sql delete statement for an existing row in the database.
-     * Reflection is used to check if the @Id annotation is present. If the @Id
-     * annotation is found, then the name of the variable is retrieved for the
-     * corresponding column name.
-     * Makes use of the getTableName() helper method.
+     * This method generates a parameterized sql update statement that only sets some of the columns of an
+     * entity type, in the order of EntityMetadata.getColumns(), followed by the primary key in the WHERE clause.
+     * It is used to write only the columns that changed since an entity was loaded. The values of an instance
+     * are bound with bindUpdate(statement, instanceObject, columns). A template is cached for each set of columns.
      *
-     * @return a String with the generated sql delete statement.
-     * @throws IllegalAccessException Helper method getTableName() throws this exception.
-     * @throws InvocationTargetException Helper method getTableName() throws this exception.
-     * @throws NoSuchMethodException Helper method getTableName() throws this exception.
+     * @return a String with the generated sql update template.
+     * @param clazz the class associated to the table we want to update.
+     * @param columns the indexes of the columns to set, as in EntityMetadata.getColumns(). The id column is ignored.
+     */
+    public String update(Class clazz, BitSet columns);
+
+    /**
+     * This method generates a parameterized sql delete statement that deletes a single row by primary key.
+     * The primary key is the only parameter of the statement.
+     *
+     * @return a String with the generated sql delete template.
      * @param clazz the class associated to the table we want to delete data from.
-     * @param id the primary key of the row we want to delete.
      */
-    public String delete(Class clazz, int id) throws InvocationTargetException, NoSuchMethodException, IllegalAccessException;
+    public String delete(Class clazz);
+
+    /**
+     * This method generates a Postgres COPY statement that loads rows of an entity type from the client,
+     * e.g. COPY T (a, b) FROM STDIN; Every mapped column except the primary key is listed, in the order of
+     * EntityMetadata.getValueColumns(), so the database generates the ids.
+     *
+     * @return a String with the generated sql copy statement.
+     * @param clazz the class associated to the table we want to load into.
+     */
+    public String copyIn(Class clazz);
+
+    /**
+     * This method generates a Postgres COPY statement that sends every row of an entity type's table to the
+     * client, e.g. COPY T (id, a, b) TO STDOUT; Every mapped column is listed, in the order of EntityMetadata.getColumns().
+     *
+     * @return a String with the generated sql copy statement.
+     * @param clazz the class associated to the table we want to export.
+     */
+    public String copyOut(Class clazz);
+
+    /**
+     * This method generates a sql statement that counts the rows of an entity type's table, e.g. SELECT count(*) FROM T;
+     *
+     * @return a String with the generated sql select template.
+     * @param clazz the class associated to the table we want to count.
+     */
+    public String count(Class clazz);
+
+    /**
+     * This method generates a parameterized sql statement that tells whether a row with a primary key exists,
+     * e.g. SELECT EXISTS (SELECT 1 FROM T WHERE id = ?); The primary key is the only parameter of the statement.
+     *
+     * @return a String with the generated sql select template.
+     * @param clazz the class associated to the table we want to look in.
+     */
+    public String exists(Class clazz);
+
+    /**
+     * This method generates a sql statement that computes an aggregate of a numeric column of an entity type's table,
+     * e.g. SELECT sum(a) FROM T; With a group by column each group is a row of the group's value and its aggregate,
+     * in the order of the groups, e.g. SELECT b, sum(a) FROM T GROUP BY b ORDER BY b;
+     *
+     * @return a String with the generated sql select template.
+     * @throws CatnapException thrown if a column isn't mapped by the entity type, or the aggregated column isn't numeric.
+     * @param clazz the class associated to the table we want to aggregate.
+     * @param function the aggregate function.
+     * @param column the name of the column to aggregate.
+     * @param groupBy the name of the column to group by, or null to aggregate the whole table.
+     */
+    public String aggregate(Class clazz, Aggregate function, String column, String groupBy) throws CatnapException;
+
+    /**
+     * This method generates a parameterized get sql statement that retrieves the first page of an entity type's
+     * rows in keyset order, e.g. SELECT * FROM T ORDER BY a ASC, id ASC LIMIT ?; The keyset is given by
+     * EntityMetadata.getKeysetColumns(), and the row limit is the only parameter of the statement.
+     *
+     * @return a String with the generated sql select template.
+     * @param clazz the class associated to the table we want to retrieve data from.
+     */
+    public String getPage(Class clazz);
+
+    /**
+     * This method generates a parameterized get sql statement that retrieves the page of an entity type's rows
+     * that comes after a given row in keyset order, e.g. SELECT * FROM T WHERE (a, id) > (?, ?) ORDER BY a ASC, id ASC LIMIT ?;
+     * When the keyset columns aren't all sorted in the same direction, or one of them can be NULL, the comparison
+     * is expanded into a &gt; ? OR (a = ? AND id &lt; ?), where a nullable column is compared with IS NOT DISTINCT FROM
+     * and sorts NULLs last in ascending order and first in descending order. Bind its parameters with bindPage.
+     *
+     * @return a String with the generated sql select template.
+     * @param clazz the class associated to the table we want to retrieve data from.
+     */
+    public String getPageAfter(Class clazz);
+
+    /**
+     * This method compiles a Query to a parameterized get sql statement, e.g.
+     * SELECT * FROM T WHERE (a = ? AND b = ANY(?)) ORDER BY c DESC LIMIT ?; The sql only depends on the shape of
+     * the query, not on its values, and is cached by shape. Bind its parameters with bindQuery.
+     *
+     * @return a String with the generated sql select template.
+     * @throws CatnapException thrown if the query names a column that isn't mapped by its entity type.
+     * @param query the query to compile.
+     */
+    public String query(Query query) throws CatnapException;
+
+    /**
+     * This method compiles a Query to a parameterized projection sql statement that only reads the query's
+     * select list, e.g. SELECT a, b FROM T WHERE c = ? LIMIT ?; It is cached by shape and select list like the
+     * templates of query, and its parameters are bound the same way, with bindQuery.
+     *
+     * @return a String with the generated sql select template.
+     * @throws CatnapException thrown if the query names a column that isn't mapped by its entity type.
+     * @param query the query to compile.
+     */
+    public String select(Query query) throws CatnapException;
+
+    /**
+     * This method compiles a parameterized sql statement that sets some columns of every row that matches a
+     * condition, e.g. UPDATE T SET a = ?, b = ? WHERE c &gt; ?; It is cached by the columns and the shape of the
+     * condition. Bind its parameters with bindWhere.
+     *
+     * @return a String with the generated sql update template.
+     * @throws CatnapException thrown if a column isn't mapped by the entity type, is the id column, or no column is set.
+     * @param clazz the class associated to the table we want to update.
+     * @param columns the names of the columns to set, in the order their values are bound.
+     * @param where the condition the updated rows meet.
+     */
+    public String updateWhere(Class clazz, Collection<String> columns, Criteria where) throws CatnapException;
+
+    /**
+     * This method compiles a parameterized sql statement that deletes every row that matches a condition,
+     * e.g. DELETE FROM T WHERE c = ANY(?); It is cached by the shape of the condition. Bind its parameters with
+     * bindWhere.
+     *
+     * @return a String with the generated sql delete template.
+     * @throws CatnapException thrown if the condition names a column that isn't mapped by the entity type.
+     * @param clazz the class associated to the table we want to delete from.
+     * @param where the condition the deleted rows meet.
+     */
+    public String deleteWhere(Class clazz, Criteria where) throws CatnapException;
+
+    /**
+     * This method binds the values of an instance to a statement prepared from the insert template.
+     *
+     * @throws SQLException thrown when the statement rejects a value.
+     * @throws CatnapException thrown if a field of the instance can't be read.
+     * @param statement the statement prepared from insert(instanceObject.getClass()).
+     * @param instanceObject the instance of the model to be inserted into the database.
+     */
+    public void bindInsert(PreparedStatement statement, Object instanceObject) throws SQLException, CatnapException;
+
+    /**
+     * This method binds the values of an instance to a statement prepared from the update template.
+     *
+     * @throws SQLException thrown when the statement rejects a value.
+     * @throws CatnapException thrown if a field of the instance can't be read.
+     * @param statement the statement prepared from update(instanceObject.getClass()).
+     * @param instanceObject the instance of the model containing the new values to be updated in the database.
+     */
+    public void bindUpdate(PreparedStatement statement, Object instanceObject) throws SQLException, CatnapException;
+
+    /**
+     * This method binds the values of some of the columns of an instance to a statement prepared from the
+     * update template for the same columns.
+     *
+     * @throws SQLException thrown when the statement rejects a value.
+     * @throws CatnapException thrown if a field of the instance can't be read.
+     * @param statement the statement prepared from update(instanceObject.getClass(), columns).
+     * @param instanceObject the instance of the model containing the new values to be updated in the database.
+     * @param columns the indexes of the columns to set, as in EntityMetadata.getColumns(). The id column is ignored.
+     */
+    public void bindUpdate(PreparedStatement statement, Object instanceObject, BitSet columns) throws SQLException, CatnapException;
+
+    /**
+     * This method binds the values of several instances to a statement prepared from the insertReturning
+     * template for the same number of rows.
+     *
+     * @throws SQLException thrown when the statement rejects a value.
+     * @throws CatnapException thrown if a field of an instance can't be read.
+     * @param statement the statement prepared from insertReturning(clazz, instanceObjects.size()).
+     * @param instanceObjects the instances of the model to be inserted into the database, all of the same type.
+     */
+    public void bindInsertReturning(PreparedStatement statement, List<?> instanceObjects) throws SQLException, CatnapException;
+
+    /**
+     * This method binds every column of several instances, their primary keys included, to a statement prepared
+     * from the upsert template for the same number of rows.
+     *
+     * @throws SQLException thrown when the statement rejects a value.
+     * @throws CatnapException thrown if a field of an instance can't be read.
+     * @param statement the statement prepared from upsert(clazz, instanceObjects.size()).
+     * @param instanceObjects the instances of the model to be written to the database, all of the same type.
+     */
+    public void bindUpsert(PreparedStatement statement, List<?> instanceObjects) throws SQLException, CatnapException;
+
+    /**
+     * This method binds the keyset values of the last row of the previous page and the row limit to a statement
+     * prepared from the getPage or getPageAfter template.
+     *
+     * @throws SQLException thrown when the statement rejects a value.
+     * @throws CatnapException thrown if a field of the instance can't be read.
+     * @param statement the statement prepared from getPageAfter(clazz), or from getPage(clazz) when after is null.
+     * @param clazz the class associated to the table we want to retrieve data from.
+     * @param after an instance holding the keyset values of the last row of the previous page, or null for the first page.
+     * @param limit the most rows the statement returns.
+     */
+    public void bindPage(PreparedStatement statement, Class clazz, Object after, int limit) throws SQLException, CatnapException;
+
+    /**
+     * This method binds the values of a Query's conditions and its row limit to a statement prepared from the
+     * template the query compiled to.
+     *
+     * @throws SQLException thrown when the statement rejects a value.
+     * @throws CatnapException thrown if a value doesn't have the type of the column it is compared to.
+     * @param statement the statement prepared from query(query).
+     * @param query the query whose values are bound.
+     */
+    public void bindQuery(PreparedStatement statement, Query query) throws SQLException, CatnapException;
+
+    /**
+     * This method binds the new column values and the values of the condition to a statement prepared from the
+     * updateWhere or deleteWhere template.
+     *
+     * @throws SQLException thrown when the statement rejects a value.
+     * @throws CatnapException thrown if a value doesn't have the type of its column.
+     * @param statement the statement prepared from updateWhere(clazz, values.keySet(), where) or deleteWhere(clazz, where).
+     * @param clazz the class associated to the table.
+     * @param values the new value of each column to set, in the order of the template, empty for a delete.
+     * @param where the condition the rows meet.
+     */
+    public void bindWhere(PreparedStatement statement, Class clazz, Map<String, ?> values, Criteria where) throws SQLException, CatnapException;
 }
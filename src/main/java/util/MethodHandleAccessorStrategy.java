@@ -0,0 +1,197 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ * This AccessorStrategy builds java.lang.invoke.MethodHandle objects for the constructor and for every
+ * mapped field of an entity type, once. Unlike Field.set, the typed handles read and write primitive
+ * fields without boxing, and the access checks are only done when the handles are built. This is the
+ * default strategy.
+ */
+public class MethodHandleAccessorStrategy implements AccessorStrategy {
+
+    @Override
+    public EntityAccessor create(EntityMetadata metadata) {
+        return new MethodHandleAccessor(metadata);
+    }
+
+    private static class MethodHandleAccessor implements EntityAccessor {
+
+        private final static MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+        private final static MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+        private final static MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+        private final Class<?> entityType;
+        private final String[] names;
+        private final MethodHandle constructor;
+        private final MethodHandle[] getters;
+        private final MethodHandle[] setters;
+        private final MethodHandle[] exactGetters;
+        private final MethodHandle[] exactSetters;
+
+        MethodHandleAccessor(EntityMetadata metadata) {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            this.entityType = metadata.getEntityType();
+
+            MethodHandle constructor;
+            try {
+                Constructor<?> c = this.entityType.getDeclaredConstructor();
+                c.setAccessible(true);
+                constructor = lookup.unreflectConstructor(c).asType(CONSTRUCTOR_TYPE);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                constructor = null;
+            }
+            this.constructor = constructor;
+
+            List<Field> fields = metadata.getFields();
+            this.names = new String[fields.size()];
+            this.getters = new MethodHandle[fields.size()];
+            this.setters = new MethodHandle[fields.size()];
+            this.exactGetters = new MethodHandle[fields.size()];
+            this.exactSetters = new MethodHandle[fields.size()];
+
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                this.names[i] = field.getName();
+
+                // fields are made accessible by ColumnMetadata
+                try {
+                    MethodHandle getter = lookup.unreflectGetter(field);
+                    this.getters[i] = getter.asType(GETTER_TYPE);
+                    this.exactGetters[i] = getter.asType(MethodType.methodType(field.getType(), Object.class));
+                } catch (IllegalAccessException e) {
+                    this.getters[i] = null;
+                }
+
+                // final fields can't be written, they are left without a setter
+                try {
+                    MethodHandle setter = lookup.unreflectSetter(field);
+                    this.setters[i] = setter.asType(SETTER_TYPE);
+                    this.exactSetters[i] = setter.asType(MethodType.methodType(void.class, Object.class, field.getType()));
+                } catch (IllegalAccessException e) {
+                    this.setters[i] = null;
+                }
+            }
+        }
+
+        @Override
+        public Object newInstance() throws CatnapException {
+            if(constructor == null) {
+                throw new CatnapException("Tried initializing an entity of type " + entityType.getName() + " and failed. It may be missing a no arg constructor!");
+            }
+
+            try {
+                return (Object) constructor.invokeExact();
+            } catch (Throwable e) {
+                throw new CatnapException("Tried initializing an entity of type " + entityType.getName() + " and failed, error message: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public Object get(Object entity, int column) throws CatnapException {
+            try {
+                return (Object) getters[column].invokeExact(entity);
+            } catch (Throwable e) {
+                throw readFailed(column, e);
+            }
+        }
+
+        @Override
+        public void set(Object entity, int column, Object value) throws CatnapException {
+            try {
+                setters[column].invokeExact(entity, value);
+            } catch (Throwable e) {
+                throw writeFailed(column, e);
+            }
+        }
+
+        @Override
+        public int getInt(Object entity, int column) throws CatnapException {
+            try {
+                return (int) exactGetters[column].invokeExact(entity);
+            } catch (Throwable e) {
+                throw readFailed(column, e);
+            }
+        }
+
+        @Override
+        public long getLong(Object entity, int column) throws CatnapException {
+            try {
+                return (long) exactGetters[column].invokeExact(entity);
+            } catch (Throwable e) {
+                throw readFailed(column, e);
+            }
+        }
+
+        @Override
+        public double getDouble(Object entity, int column) throws CatnapException {
+            try {
+                return (double) exactGetters[column].invokeExact(entity);
+            } catch (Throwable e) {
+                throw readFailed(column, e);
+            }
+        }
+
+        @Override
+        public boolean getBoolean(Object entity, int column) throws CatnapException {
+            try {
+                return (boolean) exactGetters[column].invokeExact(entity);
+            } catch (Throwable e) {
+                throw readFailed(column, e);
+            }
+        }
+
+        @Override
+        public void setInt(Object entity, int column, int value) throws CatnapException {
+            try {
+                exactSetters[column].invokeExact(entity, value);
+            } catch (Throwable e) {
+                throw writeFailed(column, e);
+            }
+        }
+
+        @Override
+        public void setLong(Object entity, int column, long value) throws CatnapException {
+            try {
+                exactSetters[column].invokeExact(entity, value);
+            } catch (Throwable e) {
+                throw writeFailed(column, e);
+            }
+        }
+
+        @Override
+        public void setDouble(Object entity, int column, double value) throws CatnapException {
+            try {
+                exactSetters[column].invokeExact(entity, value);
+            } catch (Throwable e) {
+                throw writeFailed(column, e);
+            }
+        }
+
+        @Override
+        public void setBoolean(Object entity, int column, boolean value) throws CatnapException {
+            try {
+                exactSetters[column].invokeExact(entity, value);
+            } catch (Throwable e) {
+                throw writeFailed(column, e);
+            }
+        }
+
+        private CatnapException readFailed(int column, Throwable e) {
+            return new CatnapException("Was unable to access field: " + names[column] + " of entity: " + entityType.getName() +
+                    " when trying to get it. Got: " + e);
+        }
+
+        private CatnapException writeFailed(int column, Throwable e) {
+            return new CatnapException("Was unable to access field: " + names[column] + " of entity: " + entityType.getName() +
+                    " when trying to set it. Got: " + e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class holds the result of looking up several entities by id at once. The entities are in the order
+ * their ids were asked for, and the ids that have no entity in the database are reported separately.
+ */
+public class MultiGetResult {
+
+    private final List<Object> entities;
+    private final List<Integer> missingIds;
+
+    public MultiGetResult(List<Object> entities, List<Integer> missingIds) {
+        this.entities = Collections.unmodifiableList(entities);
+        this.missingIds = Collections.unmodifiableList(missingIds);
+    }
+
+    /**
+     * @return      the entities that were found, in the order their ids were asked for
+     */
+    public List<Object> getEntities() {
+        return entities;
+    }
+
+    /**
+     * @return      the ids that were asked for but don't exist, in the order they were asked for
+     */
+    public List<Integer> getMissingIds() {
+        return missingIds;
+    }
+
+    /**
+     * @return      whether every id that was asked for was found
+     */
+    public boolean isComplete() {
+        return missingIds.isEmpty();
+    }
+}
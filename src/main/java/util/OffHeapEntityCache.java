@@ -0,0 +1,449 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A SecondLevelCache that keeps its entities outside of the Java heap, for reference tables too big to be
+ * kept as entity objects without hurting garbage collection. Each entity is encoded to a compact binary row
+ * and written to a slab of direct memory, and every get decodes the row into a new entity.
+ *
+ * The slabs are written one after the other and each row is appended to the current slab. When the last
+ * slab is full the oldest one is reclaimed: its rows are dropped from the index and it is written over, so
+ * the cache evicts first in, first out, a slab at a time, and never allocates memory once every slab is in
+ * use. Storing an entity again or removing it only drops the old row from the index, its bytes are reclaimed
+ * with its slab.
+ *
+ * The index maps the id of each entity to the slab and offset of its row with an IntLongMap per entity type,
+ * so there is no heap object per cached entity. A row is the row length, the type's slot and the id, then
+ * the columns as encoded by RowCodec. Entity types with a column RowCodec can't encode (ColumnType.OBJECT)
+ * aren't cached.
+ *
+ * Reads share a read lock and run concurrently, writes and removals take the write lock. Every removal
+ * increments the version of the entity type, see SecondLevelCache.
+ *
+ * Buffers are used through java.nio.Buffer for flip, clear, position and limit, since the ByteBuffer
+ * overrides of those methods added in Java 9 don't exist on the Java 8 runtime Catnap targets.
+ */
+public class OffHeapEntityCache implements SecondLevelCache {
+
+    /**
+     * The size of a slab by default, in bytes.
+     */
+    public final static int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    // the row length, the slot of the type and the id
+    private final static int HEADER = 12;
+
+    private final ByteBuffer[] slabs;
+    private final int[] ends;
+    private final int slabSize;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Class<?>, AtomicLong> versions = new ConcurrentHashMap<>();
+    // the row address of each id, indexed by the slot of the type
+    private IntLongMap[] tables = new IntLongMap[8];
+    private EntityMetadata[] types = new EntityMetadata[8];
+    private final RowCodec codec = new RowCodec();
+    private int current;
+
+    /**
+     * @param capacity       the most direct memory used, in bytes
+     */
+    public OffHeapEntityCache(long capacity) {
+        this(capacity, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param capacity       the most direct memory used, in bytes. At least two slabs are used.
+     * @param slabSize       the size of a slab, which is also the largest row that can be cached
+     */
+    public OffHeapEntityCache(long capacity, int slabSize) {
+        if(slabSize <= HEADER) {
+            throw new IllegalArgumentException("The slabs of the off heap cache must be larger than " + HEADER + " bytes, got: " + slabSize);
+        }
+
+        int count = (int) Math.max(2, Math.min(Integer.MAX_VALUE, capacity / slabSize));
+        this.slabs = new ByteBuffer[count];
+        this.ends = new int[count];
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * This method checks whether an entity is cached.
+     *
+     * @param clazz             the type of entity
+     * @param id                the id of the entity
+     * @return                  whether the entity is in the cache
+     */
+    @Override
+    public boolean contains(Class<?> clazz, int id) {
+        int slot = EntityMetadata.of(clazz).getSlot();
+        lock.readLock().lock();
+        try {
+            return address(slot, id) != IntLongMap.MISSING;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method decodes a cached entity into a new instance. Its snapshot is taken, so the Session it is
+     * given to can tell which columns change.
+     *
+     * @param clazz             the type of entity to get
+     * @param id                the primary key of the entity
+     * @return                  an optional which is empty when the entity is not found in the cache
+     */
+    @Override
+    public Optional<CatnapResult> get(Class<?> clazz, int id) {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        if(!metadata.isCacheable()) {
+            return Optional.empty();
+        }
+
+        lock.readLock().lock();
+        try {
+            long address = address(metadata.getSlot(), id);
+            if(address == IntLongMap.MISSING) {
+                return Optional.empty();
+            }
+
+            int offset = (int) address;
+            ByteBuffer row = slabs[(int) (address >>> 32)].duplicate();
+            ((Buffer) row).limit(offset + row.getInt(offset)).position(offset + HEADER);
+
+            CatnapResult result = new CatnapResult(RowCodec.decode(metadata, row));
+            result.takeSnapshot();
+            return Optional.of(result);
+        } catch (CatnapException e) {
+            // a row that can't be turned back into an entity is of no use, it is removed below
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        remove(clazz, id);
+        return Optional.empty();
+    }
+
+    /**
+     * This method decodes a cached entity into a new instance, see get.
+     *
+     * @param clazz             the type of entity to get
+     * @param id                the primary key of the entity
+     * @return                  the entity, or null when it is not found in the cache
+     */
+    @Override
+    public CatnapResult getIfPresent(Class<?> clazz, int id) {
+        return get(clazz, id).orElse(null);
+    }
+
+    @Override
+    public long getVersion(Class<?> clazz) {
+        return version(clazz).get();
+    }
+
+    @Override
+    public void store(Collection<CatnapResult> entities, long version) throws CatnapException {
+        for (CatnapResult entity: entities) {
+            store(entity, version);
+        }
+    }
+
+    /**
+     * This method encodes an entity and writes it to the current slab. Entities whose type isn't cacheable or
+     * can't be encoded, and entities whose row is larger than a slab, are ignored.
+     *
+     * @param entity            the entity to store
+     * @throws CatnapException  thrown when the entity is missing an id or a field can't be read
+     */
+    @Override
+    public void store(CatnapResult entity) throws CatnapException {
+        store(entity, getVersion(entity.getEntityType()));
+    }
+
+    /**
+     * This method stores a collection of entities.
+     *
+     * @param entities          a collection of entities to store
+     * @throws CatnapException  thrown when an entity is missing an id or a field can't be read
+     */
+    @Override
+    public void store(Collection<CatnapResult> entities) throws CatnapException {
+        for (CatnapResult entity: entities) {
+            store(entity);
+        }
+    }
+
+    /**
+     * This method removes an entity from the cache.
+     *
+     * @param entity               the entity to remove
+     * @throws CatnapException     thrown when the entity is missing an id
+     */
+    @Override
+    public void remove(CatnapResult entity) throws CatnapException {
+        Class<?> clazz = entity.getEntityType();
+        if(EntityMetadata.of(clazz).isCacheable()) {
+            int id = entity.getId().orElseThrow(() -> new CatnapException("The id field of entity type: " + clazz.getName() + " was empty!"));
+            remove(clazz, id);
+        }
+    }
+
+    /**
+     * This method removes a collection of entities from the cache.
+     *
+     * @param entities             a collection of entities to remove
+     * @throws CatnapException     thrown when an entity is missing an id
+     */
+    @Override
+    public void remove(Collection<CatnapResult> entities) throws CatnapException {
+        for (CatnapResult entity: entities) {
+            remove(entity);
+        }
+    }
+
+    /**
+     * This method removes an entity from the cache by its type and id.
+     *
+     * @param clazz                the type of entity
+     * @param id                   the id of the entity
+     */
+    @Override
+    public void remove(Class<?> clazz, int id) {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        if(!metadata.isCacheable()) {
+            return;
+        }
+
+        version(clazz).incrementAndGet();
+        lock.writeLock().lock();
+        try {
+            int slot = metadata.getSlot();
+            if(slot < tables.length && tables[slot] != null) {
+                tables[slot].remove(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * This method removes every entity of a type from the cache.
+     *
+     * @param clazz                the type of entity
+     */
+    @Override
+    public void removeAll(Class<?> clazz) {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        if(!metadata.isCacheable()) {
+            return;
+        }
+
+        version(clazz).incrementAndGet();
+        lock.writeLock().lock();
+        try {
+            int slot = metadata.getSlot();
+            if(slot < tables.length && tables[slot] != null) {
+                tables[slot].clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * This method decodes every cached entity and gives it to a visitor. It holds the read lock meanwhile, so
+     * entities can't be stored until it returns.
+     *
+     * @param visitor           receives each entity
+     * @throws CatnapException  thrown when a row can't be decoded, or by the visitor
+     */
+    @Override
+    public void forEach(EntityVisitor visitor) throws CatnapException {
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < tables.length; slot++) {
+                IntLongMap table = tables[slot];
+                if(table == null || table.size() == 0) {
+                    continue;
+                }
+
+                long[] addresses = new long[table.size()];
+                int[] count = new int[1];
+                table.forEach((id, address) -> addresses[count[0]++] = address);
+                for (long address: addresses) {
+                    int offset = (int) address;
+                    ByteBuffer row = slabs[(int) (address >>> 32)].duplicate();
+                    ((Buffer) row).limit(offset + row.getInt(offset)).position(offset + HEADER);
+                    visitor.visit(new CatnapResult(RowCodec.decode(types[slot], row)));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method removes every entity from the cache. The slabs are kept and written over.
+     */
+    public void clear() {
+        for (AtomicLong version: versions.values()) {
+            version.incrementAndGet();
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (IntLongMap table: tables) {
+                if(table != null) {
+                    table.clear();
+                }
+            }
+            Arrays.fill(ends, 0);
+            current = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return      the number of cached entities
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            int size = 0;
+            for (IntLongMap table: tables) {
+                if(table != null) {
+                    size += table.size();
+                }
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return      the bytes written to the slabs, including rows that were removed or stored again since
+     */
+    public long getUsedBytes() {
+        lock.readLock().lock();
+        try {
+            long used = 0;
+            for (int end: ends) {
+                used += end;
+            }
+            return used;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return      the most direct memory the slabs use, in bytes
+     */
+    public long getCapacity() {
+        return (long) slabs.length * slabSize;
+    }
+
+    private void store(CatnapResult entity, long version) throws CatnapException {
+        Class<?> clazz = entity.getEntityType();
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        if(!RowCodec.isEncodable(metadata)) {
+            return;
+        }
+
+        int id = entity.getId().orElseThrow(() -> new CatnapException("The id field of entity type: " + clazz.getName() + " was empty!"));
+        AtomicLong currentVersion = version(clazz);
+        lock.writeLock().lock();
+        try {
+            // checked under the lock, a removal increments the version before it takes the lock
+            if(currentVersion.get() != version) {
+                return;
+            }
+
+            ByteBuffer row = codec.encode(metadata, entity.getEntity());
+            int length = HEADER + row.remaining();
+            if(length > slabSize) {
+                return;
+            }
+            if(ends[current] + length > slabSize) {
+                current = (current + 1) % slabs.length;
+                reclaim(current);
+            }
+
+            if(slabs[current] == null) {
+                slabs[current] = ByteBuffer.allocateDirect(slabSize);
+            }
+            ByteBuffer slab = slabs[current];
+            int offset = ends[current];
+            slab.putInt(offset, length);
+            slab.putInt(offset + 4, metadata.getSlot());
+            slab.putInt(offset + 8, id);
+            ((Buffer) slab).position(offset + HEADER);
+            slab.put(row);
+            ends[current] = offset + length;
+
+            table(metadata).put(id, ((long) current << 32) | offset);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * This method drops the rows of a slab from the index, unless they were stored again elsewhere, so the
+     * slab can be written over.
+     */
+    private void reclaim(int slab) {
+        ByteBuffer buffer = slabs[slab];
+        int offset = 0;
+        while(offset < ends[slab]) {
+            int length = buffer.getInt(offset);
+            IntLongMap table = tables[buffer.getInt(offset + 4)];
+            if(table != null) {
+                table.remove(buffer.getInt(offset + 8), ((long) slab << 32) | offset);
+            }
+            offset += length;
+        }
+        ends[slab] = 0;
+    }
+
+    private long address(int slot, int id) {
+        return slot < tables.length && tables[slot] != null ? tables[slot].get(id) : IntLongMap.MISSING;
+    }
+
+    private IntLongMap table(EntityMetadata metadata) {
+        int slot = metadata.getSlot();
+        if(slot >= tables.length) {
+            tables = Arrays.copyOf(tables, Math.max(slot + 1, tables.length * 2));
+            types = Arrays.copyOf(types, tables.length);
+        }
+
+        IntLongMap table = tables[slot];
+        if(table == null) {
+            table = new IntLongMap();
+            tables[slot] = table;
+            types[slot] = metadata;
+        }
+        return table;
+    }
+
+    private AtomicLong version(Class<?> clazz) {
+        AtomicLong version = versions.get(clazz);
+        if(version == null) {
+            version = versions.computeIfAbsent(clazz, c -> new AtomicLong());
+        }
+
+        return version;
+    }
+}
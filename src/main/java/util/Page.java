@@ -0,0 +1,40 @@
+package util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * This class holds one page of entities read in keyset order, and the token to read the page after it with.
+ */
+public class Page {
+
+    private final List<Object> entities;
+    private final String nextToken;
+
+    public Page(List<Object> entities, String nextToken) {
+        this.entities = Collections.unmodifiableList(entities);
+        this.nextToken = nextToken;
+    }
+
+    /**
+     * @return      the entities of the page, in keyset order
+     */
+    public List<Object> getEntities() {
+        return entities;
+    }
+
+    /**
+     * @return      an Optional containing the token of the next page, or an empty one if this is the last page
+     */
+    public Optional<String> getNextToken() {
+        return Optional.ofNullable(nextToken);
+    }
+
+    /**
+     * @return      whether there are rows after this page
+     */
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+}
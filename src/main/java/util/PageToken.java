@@ -0,0 +1,61 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * This class encodes the position of a keyset page into an opaque continuation token and back. The token
+ * holds the table name and the keyset values of the last row of a page, written as a row of the COPY text
+ * format and encoded as url safe Base64, so it can be handed to clients as is.
+ */
+public final class PageToken {
+
+    private PageToken() {
+    }
+
+    /**
+     * This method builds the token of the page that comes after an entity.
+     *
+     * @param metadata           the metadata of the entity's type
+     * @param entity             the last entity of a page
+     * @return                   the continuation token
+     * @throws CatnapException   thrown when a keyset field can't be read
+     */
+    public static String encode(EntityMetadata metadata, Object entity) throws CatnapException {
+        StringBuilder token = new StringBuilder(metadata.getTableName()).append('\t');
+        CopyFormat.appendRow(token, metadata.getKeysetColumns(), metadata.getAccessor(), entity);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * This method reads a token back into an entity whose keyset fields hold the values of the row it was
+     * built from. The other fields of the entity are left unset.
+     *
+     * @param metadata           the metadata of the entity type the token is for
+     * @param token              a token built by encode
+     * @return                   an entity holding the keyset values
+     * @throws CatnapException   thrown when the token is malformed or belongs to another entity type
+     */
+    public static Object decode(EntityMetadata metadata, String token) throws CatnapException {
+        String row;
+        try {
+            row = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new CatnapException("The page token " + token + " isn't valid!");
+        }
+
+        String prefix = metadata.getTableName() + '\t';
+        if(!row.startsWith(prefix)) {
+            throw new CatnapException("The page token " + token + " isn't for entity type: " + metadata.getEntityType().getName());
+        }
+
+        EntityAccessor accessor = metadata.getAccessor();
+        Object entity = accessor.newInstance();
+        CopyFormat.readRow(row.substring(prefix.length()), metadata.getKeysetColumns(), accessor, entity);
+
+        return entity;
+    }
+}
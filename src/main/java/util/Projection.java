@@ -0,0 +1,166 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * This class maps the rows of a projection query into instances of a DTO type. The DTO is built with a
+ * constructor that takes the selected columns in order when it has one whose parameter types match the
+ * columns, otherwise it is created with its no argument constructor and the columns are written to the
+ * fields with the same names.
+ *
+ * Finding the constructor or the fields is done with reflection, so a Projection is resolved once for
+ * each DTO type and list of columns and kept in the registry of this class. Use Projection.of to look it up.
+ */
+public final class Projection {
+
+    private final static Map<Class<?>, Map<String, Projection>> registry = new ConcurrentHashMap<>();
+    private final static MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private final static MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Class<?> dtoType;
+    private final MethodHandle constructor;
+    private final MethodHandle newInstance;
+    private final MethodHandle[] setters;
+
+    private Projection(Class<?> dtoType, MethodHandle constructor, MethodHandle newInstance, MethodHandle[] setters) {
+        this.dtoType = dtoType;
+        this.constructor = constructor;
+        this.newInstance = newInstance;
+        this.setters = setters;
+    }
+
+    /**
+     * This method returns the projection of a list of columns into a DTO type, resolving it the first time
+     * it is asked for. It is safe to call from multiple threads.
+     *
+     * @param dtoType            the type of the DTO
+     * @param columns            the selected columns, in the order of the query's select list
+     * @return                   the shared projection
+     * @throws CatnapException   thrown when the DTO has neither a matching constructor nor a no argument
+     * constructor and a writable field of a matching type for every column
+     */
+    public static Projection of(Class<?> dtoType, List<ColumnMetadata> columns) throws CatnapException {
+        Map<String, Projection> projections = registry.computeIfAbsent(dtoType, t -> new ConcurrentHashMap<>());
+        String key = columns.stream().map(ColumnMetadata::getName).collect(Collectors.joining(","));
+        Projection projection = projections.get(key);
+        if(projection == null) {
+            projection = resolve(dtoType, columns);
+            projections.putIfAbsent(key, projection);
+        }
+
+        return projection;
+    }
+
+    /**
+     * This method builds a DTO from the values of one row.
+     *
+     * @param row                the values of the selected columns, in order
+     * @return                   the DTO
+     * @throws CatnapException   thrown when the DTO can't be created or a value can't be written, e.g. a null
+     * value for a primitive field
+     */
+    public Object map(Object[] row) throws CatnapException {
+        try {
+            if(constructor != null) {
+                return constructor.invokeExact(row);
+            }
+
+            Object dto = newInstance.invokeExact();
+            for (int i = 0; i < setters.length; i++) {
+                setters[i].invokeExact(dto, row[i]);
+            }
+            return dto;
+        } catch (Throwable e) {
+            throw new CatnapException("Tried building a projection of type " + dtoType.getName() + " and failed, error message: " + e.getMessage());
+        }
+    }
+
+    private static Projection resolve(Class<?> dtoType, List<ColumnMetadata> columns) throws CatnapException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        for (Constructor<?> c: dtoType.getDeclaredConstructors()) {
+            Class<?>[] parameters = c.getParameterTypes();
+            boolean matches = parameters.length == columns.size();
+            for (int i = 0; matches && i < parameters.length; i++) {
+                matches = box(parameters[i]).isAssignableFrom(box(columns.get(i).getType()));
+            }
+
+            if(matches) {
+                try {
+                    c.setAccessible(true);
+                    MethodHandle handle = lookup.unreflectConstructor(c).asSpreader(Object[].class, parameters.length);
+                    return new Projection(dtoType, handle.asType(CONSTRUCTOR_TYPE), null, null);
+                } catch (IllegalAccessException | RuntimeException e) {
+                    throw new CatnapException("Unable to use the constructor of projection type " + dtoType.getName() + ", got: " + e.getMessage());
+                }
+            }
+        }
+
+        MethodHandle newInstance = constructor(dtoType);
+        MethodHandle[] setters = new MethodHandle[columns.size()];
+        for (int i = 0; i < setters.length; i++) {
+            ColumnMetadata column = columns.get(i);
+            Field field = findField(dtoType, column.getName());
+            if(field == null || Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())
+                    || !box(field.getType()).isAssignableFrom(box(column.getType()))) {
+                throw new CatnapException("Projection type " + dtoType.getName() + " has no constructor for the selected columns and no writable field "
+                        + column.getName() + " of type " + column.getType().getName());
+            }
+
+            try {
+                field.setAccessible(true);
+                setters[i] = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new CatnapException("Unable to write the field " + field.getName() + " of projection type " + dtoType.getName() + ", got: " + e.getMessage());
+            }
+        }
+
+        return new Projection(dtoType, null, newInstance, setters);
+    }
+
+    private static MethodHandle constructor(Class<?> dtoType) throws CatnapException {
+        try {
+            Constructor<?> c = dtoType.getDeclaredConstructor();
+            c.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+            throw new CatnapException("Projection type " + dtoType.getName() + " has no constructor for the selected columns and no usable no argument constructor");
+        }
+    }
+
+    private static Field findField(Class<?> type, String name) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredField(name);
+            } catch (NoSuchFieldException e) {
+                // look in the superclass
+            }
+        }
+
+        return null;
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if(!type.isPrimitive()) return type;
+        if(type == int.class) return Integer.class;
+        if(type == long.class) return Long.class;
+        if(type == double.class) return Double.class;
+        if(type == float.class) return Float.class;
+        if(type == short.class) return Short.class;
+        if(type == byte.class) return Byte.class;
+        if(type == boolean.class) return Boolean.class;
+        if(type == char.class) return Character.class;
+        return Void.class;
+    }
+}
@@ -0,0 +1,164 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class describes a select of the entities of one type: a WHERE condition, an order and a row limit.
+ * It is built with chained calls, e.g.
+ * new Query(Cat.class).where(Criteria.gt("age", 3)).orderBy("name").limit(20)
+ * and run with EntityManager.find. A query with a select list can also be run with EntityManager.select to
+ * read only those columns, as rows or DTOs, without building the entities.
+ *
+ * The MappingStrategy compiles a query to a parameterized sql template once per shape, that is per
+ * combination of conditions, columns, order and whether there is a limit, so running the same query with
+ * different values reuses the same template and prepared statement.
+ */
+public class Query {
+
+    private final Class<?> entityType;
+    private final List<String> selectColumns = new ArrayList<>();
+    private Criteria where;
+    private final List<String> orderColumns = new ArrayList<>();
+    private final List<Boolean> orderDescending = new ArrayList<>();
+    private Integer limit;
+
+    public Query(Class<?> entityType) {
+        this.entityType = entityType;
+    }
+
+    /**
+     * This method sets the columns read by EntityManager.select, in the order they are returned. Without a
+     * select list every mapped column is read. EntityManager.find always reads whole entities and ignores it.
+     *
+     * @param columns        the names of the columns
+     * @return               this query
+     */
+    public Query select(String... columns) {
+        selectColumns.clear();
+        selectColumns.addAll(Arrays.asList(columns));
+        return this;
+    }
+
+    /**
+     * This method adds a condition the rows must meet. Calling it more than once requires all the conditions.
+     *
+     * @param criteria       the condition
+     * @return               this query
+     */
+    public Query where(Criteria criteria) {
+        this.where = this.where == null ? criteria : Criteria.and(this.where, criteria);
+        return this;
+    }
+
+    /**
+     * This method sorts the rows by a column in ascending order, after the columns it is already sorted by.
+     * A query without an order is sorted like getAll, by the entity's @OrderBy fields.
+     *
+     * @param column         the name of the column
+     * @return               this query
+     */
+    public Query orderBy(String column) {
+        return orderBy(column, false);
+    }
+
+    /**
+     * This method sorts the rows by a column in descending order, after the columns it is already sorted by.
+     *
+     * @param column         the name of the column
+     * @return               this query
+     */
+    public Query orderByDescending(String column) {
+        return orderBy(column, true);
+    }
+
+    /**
+     * @param limit          the most rows the query returns
+     * @return               this query
+     */
+    public Query limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public Class<?> getEntityType() {
+        return entityType;
+    }
+
+    /**
+     * This method looks up the columns of the select list in the entity's metadata.
+     *
+     * @return                   the selected columns in order, or every mapped column if there is no select list
+     * @throws CatnapException   thrown when a selected column isn't mapped by the entity type
+     */
+    public List<ColumnMetadata> getSelectedColumns() throws CatnapException {
+        EntityMetadata metadata = EntityMetadata.of(entityType);
+        if(selectColumns.isEmpty()) {
+            return metadata.getColumns();
+        }
+
+        List<ColumnMetadata> columns = new ArrayList<>(selectColumns.size());
+        for (String name: selectColumns) {
+            columns.add(metadata.getColumn(name)
+                    .orElseThrow(() -> new CatnapException("Entity type: " + entityType.getName() + " has no mapped column " + name)));
+        }
+
+        return columns;
+    }
+
+    public Criteria getWhere() {
+        return where;
+    }
+
+    /**
+     * @return      the names of the columns the query is sorted by
+     */
+    public List<String> getOrderColumns() {
+        return Collections.unmodifiableList(orderColumns);
+    }
+
+    /**
+     * @param position       the position of a column in getOrderColumns
+     * @return               whether the column is sorted in descending order
+     */
+    public boolean isDescending(int position) {
+        return orderDescending.get(position);
+    }
+
+    /**
+     * @return      the row limit, or null if there is none
+     */
+    public Integer getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return      a key that is the same for every query that compiles to the same sql, the select list
+     *              isn't part of it
+     */
+    String getShape() {
+        StringBuilder shape = new StringBuilder();
+        if(where != null) {
+            where.appendShape(shape);
+        }
+        shape.append('|');
+        for (int i = 0; i < orderColumns.size(); i++) {
+            shape.append(orderColumns.get(i)).append(orderDescending.get(i) ? '-' : '+');
+        }
+        if(limit != null) {
+            shape.append("|L");
+        }
+
+        return shape.toString();
+    }
+
+    private Query orderBy(String column, boolean descending) {
+        orderColumns.add(column);
+        orderDescending.add(descending);
+        return this;
+    }
+}
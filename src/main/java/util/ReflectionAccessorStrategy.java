@@ -0,0 +1,156 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+
+/**
+ * This AccessorStrategy uses plain java.lang.reflect calls. It is the slowest strategy, but it works
+ * anywhere reflection does, so it is kept as a fallback.
+ */
+public class ReflectionAccessorStrategy implements AccessorStrategy {
+
+    @Override
+    public EntityAccessor create(EntityMetadata metadata) {
+        return new ReflectionAccessor(metadata);
+    }
+
+    private static class ReflectionAccessor implements EntityAccessor {
+
+        private final Class<?> entityType;
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+
+        ReflectionAccessor(EntityMetadata metadata) {
+            this.entityType = metadata.getEntityType();
+
+            Constructor<?> constructor;
+            try {
+                constructor = this.entityType.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                constructor = null;
+            }
+            this.constructor = constructor;
+
+            List<Field> fields = metadata.getFields();
+            this.fields = fields.toArray(new Field[0]);
+        }
+
+        @Override
+        public Object newInstance() throws CatnapException {
+            if(constructor == null) {
+                throw new CatnapException("Tried initializing an entity of type " + entityType.getName() + " and failed. It may be missing a no arg constructor!");
+            }
+
+            try {
+                return constructor.newInstance();
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                throw new CatnapException("Tried initializing an entity of type " + entityType.getName() + " and failed, error message: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public Object get(Object entity, int column) throws CatnapException {
+            try {
+                return fields[column].get(entity);
+            } catch (IllegalAccessException | IllegalArgumentException e) {
+                throw readFailed(column, e);
+            }
+        }
+
+        @Override
+        public void set(Object entity, int column, Object value) throws CatnapException {
+            try {
+                fields[column].set(entity, value);
+            } catch (IllegalAccessException | IllegalArgumentException e) {
+                throw writeFailed(column, e);
+            }
+        }
+
+        @Override
+        public int getInt(Object entity, int column) throws CatnapException {
+            try {
+                return fields[column].getInt(entity);
+            } catch (IllegalAccessException | IllegalArgumentException e) {
+                throw readFailed(column, e);
+            }
+        }
+
+        @Override
+        public long getLong(Object entity, int column) throws CatnapException {
+            try {
+                return fields[column].getLong(entity);
+            } catch (IllegalAccessException | IllegalArgumentException e) {
+                throw readFailed(column, e);
+            }
+        }
+
+        @Override
+        public double getDouble(Object entity, int column) throws CatnapException {
+            try {
+                return fields[column].getDouble(entity);
+            } catch (IllegalAccessException | IllegalArgumentException e) {
+                throw readFailed(column, e);
+            }
+        }
+
+        @Override
+        public boolean getBoolean(Object entity, int column) throws CatnapException {
+            try {
+                return fields[column].getBoolean(entity);
+            } catch (IllegalAccessException | IllegalArgumentException e) {
+                throw readFailed(column, e);
+            }
+        }
+
+        @Override
+        public void setInt(Object entity, int column, int value) throws CatnapException {
+            try {
+                fields[column].setInt(entity, value);
+            } catch (IllegalAccessException | IllegalArgumentException e) {
+                throw writeFailed(column, e);
+            }
+        }
+
+        @Override
+        public void setLong(Object entity, int column, long value) throws CatnapException {
+            try {
+                fields[column].setLong(entity, value);
+            } catch (IllegalAccessException | IllegalArgumentException e) {
+                throw writeFailed(column, e);
+            }
+        }
+
+        @Override
+        public void setDouble(Object entity, int column, double value) throws CatnapException {
+            try {
+                fields[column].setDouble(entity, value);
+            } catch (IllegalAccessException | IllegalArgumentException e) {
+                throw writeFailed(column, e);
+            }
+        }
+
+        @Override
+        public void setBoolean(Object entity, int column, boolean value) throws CatnapException {
+            try {
+                fields[column].setBoolean(entity, value);
+            } catch (IllegalAccessException | IllegalArgumentException e) {
+                throw writeFailed(column, e);
+            }
+        }
+
+        private CatnapException readFailed(int column, Exception e) {
+            return new CatnapException("Was unable to access field: " + fields[column].getName() + " of entity: " + entityType.getName() +
+                    " when trying to get it. Got: " + e.getMessage());
+        }
+
+        private CatnapException writeFailed(int column, Exception e) {
+            return new CatnapException("Was unable to access field: " + fields[column].getName() + " of entity: " + entityType.getName() +
+                    " when trying to set it. Got: " + e.getMessage());
+        }
+    }
+}
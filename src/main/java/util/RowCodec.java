@@ -0,0 +1,233 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * This class encodes the columns of an entity to a compact binary row and decodes them back into a new
+ * entity. It is used by the caches that keep entities outside of the heap, OffHeapEntityCache and
+ * CacheSnapshot.
+ *
+ * A row is a bitmap of the null columns, then the value of each column that isn't null in the order of
+ * EntityMetadata.getColumns: numbers in their binary form, booleans as a byte, chars as two bytes, and
+ * strings as their UTF-8 length, written as a varint, followed by their UTF-8 bytes. Entity types with a
+ * column that isn't one of these (ColumnType.OBJECT) can't be encoded.
+ *
+ * An encoder reuses its buffer for every row, so it isn't thread safe.
+ */
+final class RowCodec {
+
+    private ByteBuffer scratch = ByteBuffer.allocate(256);
+
+    /**
+     * This method encodes the columns of an entity into the encoder's buffer. The buffer is only valid until
+     * the next call.
+     *
+     * @param metadata              the metadata of the entity's type
+     * @param entity                the entity
+     * @return                      the buffer, flipped to be read
+     * @throws CatnapException      thrown when a field can't be read
+     */
+    ByteBuffer encode(EntityMetadata metadata, Object entity) throws CatnapException {
+        EntityAccessor accessor = metadata.getAccessor();
+        List<ColumnMetadata> columns = metadata.getColumns();
+        int bitmap = (columns.size() + 7) / 8;
+
+        ((Buffer) scratch).clear();
+        ensure(bitmap);
+        for (int i = 0; i < bitmap; i++) {
+            scratch.put((byte) 0);
+        }
+
+        for (ColumnMetadata column: columns) {
+            int index = column.getIndex();
+            switch (column.getColumnType()) {
+                case INT:
+                    ensure(4);
+                    scratch.putInt(accessor.getInt(entity, index));
+                    continue;
+                case LONG:
+                    ensure(8);
+                    scratch.putLong(accessor.getLong(entity, index));
+                    continue;
+                case DOUBLE:
+                    ensure(8);
+                    scratch.putDouble(accessor.getDouble(entity, index));
+                    continue;
+                case BOOLEAN:
+                    ensure(1);
+                    scratch.put((byte) (accessor.getBoolean(entity, index) ? 1 : 0));
+                    continue;
+                default:
+            }
+
+            Object value = accessor.get(entity, index);
+            if(value == null) {
+                scratch.put(index / 8, (byte) (scratch.get(index / 8) | (1 << (index % 8))));
+                continue;
+            }
+
+            switch (column.getColumnType()) {
+                case INTEGER_OBJECT:
+                    ensure(4);
+                    scratch.putInt((Integer) value);
+                    break;
+                case LONG_OBJECT:
+                    ensure(8);
+                    scratch.putLong((Long) value);
+                    break;
+                case DOUBLE_OBJECT:
+                    ensure(8);
+                    scratch.putDouble((Double) value);
+                    break;
+                case FLOAT:
+                case FLOAT_OBJECT:
+                    ensure(4);
+                    scratch.putFloat((Float) value);
+                    break;
+                case SHORT:
+                case SHORT_OBJECT:
+                    ensure(2);
+                    scratch.putShort((Short) value);
+                    break;
+                case BYTE:
+                case BYTE_OBJECT:
+                    ensure(1);
+                    scratch.put((Byte) value);
+                    break;
+                case BOOLEAN_OBJECT:
+                    ensure(1);
+                    scratch.put((byte) ((Boolean) value ? 1 : 0));
+                    break;
+                case CHAR:
+                case CHARACTER_OBJECT:
+                    ensure(2);
+                    scratch.putChar((Character) value);
+                    break;
+                default:
+                    byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                    ensure(5 + bytes.length);
+                    for (int length = bytes.length; ; length >>>= 7) {
+                        if(length < 0x80) {
+                            scratch.put((byte) length);
+                            break;
+                        }
+                        scratch.put((byte) (length & 0x7F | 0x80));
+                    }
+                    scratch.put(bytes);
+            }
+        }
+
+        ((Buffer) scratch).flip();
+        return scratch;
+    }
+
+    /**
+     * This method decodes a row into a new entity.
+     *
+     * @param metadata              the metadata of the entity's type
+     * @param row                   the row, positioned at its null bitmap
+     * @return                      the new entity
+     * @throws CatnapException      thrown when the entity can't be instantiated or a field can't be set
+     */
+    static Object decode(EntityMetadata metadata, ByteBuffer row) throws CatnapException {
+        EntityAccessor accessor = metadata.getAccessor();
+        Object entity = accessor.newInstance();
+        int nulls = row.position();
+        ((Buffer) row).position(nulls + (metadata.getColumns().size() + 7) / 8);
+
+        for (ColumnMetadata column: metadata.getColumns()) {
+            int index = column.getIndex();
+            if((row.get(nulls + index / 8) & (1 << (index % 8))) != 0) {
+                accessor.set(entity, index, null);
+                continue;
+            }
+
+            switch (column.getColumnType()) {
+                case INT:
+                    accessor.setInt(entity, index, row.getInt());
+                    break;
+                case LONG:
+                    accessor.setLong(entity, index, row.getLong());
+                    break;
+                case DOUBLE:
+                    accessor.setDouble(entity, index, row.getDouble());
+                    break;
+                case BOOLEAN:
+                    accessor.setBoolean(entity, index, row.get() != 0);
+                    break;
+                case INTEGER_OBJECT:
+                    accessor.set(entity, index, row.getInt());
+                    break;
+                case LONG_OBJECT:
+                    accessor.set(entity, index, row.getLong());
+                    break;
+                case DOUBLE_OBJECT:
+                    accessor.set(entity, index, row.getDouble());
+                    break;
+                case FLOAT:
+                case FLOAT_OBJECT:
+                    accessor.set(entity, index, row.getFloat());
+                    break;
+                case SHORT:
+                case SHORT_OBJECT:
+                    accessor.set(entity, index, row.getShort());
+                    break;
+                case BYTE:
+                case BYTE_OBJECT:
+                    accessor.set(entity, index, row.get());
+                    break;
+                case BOOLEAN_OBJECT:
+                    accessor.set(entity, index, row.get() != 0);
+                    break;
+                case CHAR:
+                case CHARACTER_OBJECT:
+                    accessor.set(entity, index, row.getChar());
+                    break;
+                default:
+                    int length = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        byte b = row.get();
+                        length |= (b & 0x7F) << shift;
+                        if(b >= 0) {
+                            break;
+                        }
+                    }
+                    byte[] bytes = new byte[length];
+                    row.get(bytes);
+                    accessor.set(entity, index, new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+
+        return entity;
+    }
+
+    /**
+     * @return      whether the type is cacheable and every column has a binary encoding
+     */
+    static boolean isEncodable(EntityMetadata metadata) {
+        if(!metadata.isCacheable()) {
+            return false;
+        }
+        for (ColumnMetadata column: metadata.getColumns()) {
+            if(column.getColumnType() == ColumnType.OBJECT) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void ensure(int bytes) {
+        if(scratch.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, scratch.position() + bytes));
+            ((Buffer) scratch).flip();
+            larger.put(scratch);
+            scratch = larger;
+        }
+    }
+}
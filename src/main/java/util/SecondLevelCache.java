@@ -0,0 +1,52 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.util.Collection;
+
+/**
+ * A Cache shared by every Session of a SessionFactory, behind each Session's own cache. Only entities whose
+ * type is annotated with @Cacheable are kept, and get always returns a new copy of the entity.
+ *
+ * A Session that loads entities from the database can race with another one that changes them. To keep the
+ * old values from being cached after the change, removing an entity changes the version of its type, and
+ * entities loaded by a query that started at an older version must not be stored.
+ */
+public interface SecondLevelCache extends Cache<CatnapResult> {
+
+    /**
+     * Receives the entities of a cache, see forEach.
+     */
+    @FunctionalInterface
+    public interface EntityVisitor {
+        public void visit(CatnapResult entity) throws CatnapException;
+    }
+
+    /**
+     * This method returns the version of an entity type, which changes every time entities of the type are
+     * removed. It should be read before the query whose entities are stored with store(entities, version).
+     *
+     * @param clazz             the type of entity
+     * @return                  the current version of the type
+     */
+    public long getVersion(Class<?> clazz);
+
+    /**
+     * This method stores copies of entities, unless entities of their type were removed since the version was
+     * read. Entities whose type isn't cacheable are ignored.
+     *
+     * @param entities          the entities to store, all of the same type
+     * @param version           the version of the type read before the entities were loaded
+     * @throws CatnapException  thrown when an entity is missing an id or a field can't be read
+     */
+    public void store(Collection<CatnapResult> entities, long version) throws CatnapException;
+
+    /**
+     * This method gives a new copy of every cached entity to a visitor, in no particular order. It is meant for
+     * exporting the cache, such as writing a CacheSnapshot, and may hold back other threads while it runs.
+     *
+     * @param visitor           receives each entity
+     * @throws CatnapException  thrown when an entity can't be copied, or by the visitor
+     */
+    public void forEach(EntityVisitor visitor) throws CatnapException;
+}
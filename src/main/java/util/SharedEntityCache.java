@@ -0,0 +1,364 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The default SecondLevelCache, kept on the heap. Only entities whose type is annotated with @Cacheable
+ * are kept.
+ *
+ * The cache never hands out the instances it was given: it keeps a copy of the entity's column values and
+ * builds a new entity from them on every get, so a Session can change its entities without affecting the
+ * others. Like the snapshots of CatnapResult, the values themselves aren't copied, so mutable values such as
+ * arrays or dates must be replaced instead of changed in place.
+ *
+ * The entries are split in segments by type and id, each an LRU map behind its own lock, so threads reading
+ * different entities rarely wait on each other. When a segment is full its least recently used entry is
+ * evicted.
+ *
+ * Every removal increments the version of the entity type, see SecondLevelCache.
+ */
+public class SharedEntityCache implements SecondLevelCache {
+
+    /**
+     * The number of entities kept by default.
+     */
+    public final static int DEFAULT_CAPACITY = 10_000;
+
+    private final static int SEGMENTS = 16;
+
+    /**
+     * An access ordered map that evicts its eldest entry once it holds more than capacity entries. It is
+     * only used while holding its lock.
+     */
+    private static final class Segment extends LinkedHashMap<EntityKey, Object[]> {
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<EntityKey, Object[]> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private final Segment[] segments;
+    private final Map<Class<?>, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    public SharedEntityCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity       the most entities kept, across all types
+     */
+    public SharedEntityCache(int capacity) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("The capacity of the shared cache must be at least 1, got: " + capacity);
+        }
+
+        this.segments = new Segment[SEGMENTS];
+        int segmentCapacity = (capacity + SEGMENTS - 1) / SEGMENTS;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    /**
+     * This method checks whether an entity is cached.
+     *
+     * @param clazz             the type of entity
+     * @param id                the id of the entity
+     * @return                  whether the entity is in the cache
+     */
+    @Override
+    public boolean contains(Class<?> clazz, int id) {
+        if(!EntityMetadata.of(clazz).isCacheable()) {
+            return false;
+        }
+
+        EntityKey key = new EntityKey(clazz, id);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            return segment.containsKey(key);
+        }
+    }
+
+    /**
+     * This method gets a new copy of a cached entity. Its snapshot is taken, so the Session it is given to
+     * can tell which columns change.
+     *
+     * @param clazz             the type of entity to get
+     * @param id                the primary key of the entity
+     * @return                  an optional which is empty when the entity is not found in the cache
+     */
+    @Override
+    public Optional<CatnapResult> get(Class<?> clazz, int id) {
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        if(!metadata.isCacheable()) {
+            return Optional.empty();
+        }
+
+        EntityKey key = new EntityKey(clazz, id);
+        Segment segment = segment(key);
+        Object[] values;
+        synchronized (segment) {
+            values = segment.get(key);
+        }
+        if(values == null) {
+            return Optional.empty();
+        }
+
+        try {
+            CatnapResult result = new CatnapResult(copy(metadata, values));
+            result.takeSnapshot();
+            return Optional.of(result);
+        } catch (CatnapException e) {
+            // an entry that can't be turned back into an entity is of no use
+            remove(clazz, id);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * This method gets a new copy of a cached entity, see get.
+     *
+     * @param clazz             the type of entity to get
+     * @param id                the primary key of the entity
+     * @return                  the copy, or null when the entity is not found in the cache
+     */
+    @Override
+    public CatnapResult getIfPresent(Class<?> clazz, int id) {
+        return get(clazz, id).orElse(null);
+    }
+
+    /**
+     * This method returns the version of an entity type, which changes every time entities of the type are
+     * removed. It should be read before the query whose entities are stored with store(entities, version).
+     *
+     * @param clazz             the type of entity
+     * @return                  the current version of the type
+     */
+    @Override
+    public long getVersion(Class<?> clazz) {
+        return version(clazz).get();
+    }
+
+    /**
+     * This method stores copies of entities, unless entities of their type were removed since the version was
+     * read. Entities whose type isn't cacheable are ignored.
+     *
+     * @param entities          the entities to store, all of the same type
+     * @param version           the version of the type read before the entities were loaded
+     * @throws CatnapException  thrown when an entity is missing an id or a field can't be read
+     */
+    @Override
+    public void store(Collection<CatnapResult> entities, long version) throws CatnapException {
+        for (CatnapResult entity: entities) {
+            store(entity, version);
+        }
+    }
+
+    /**
+     * This method stores a copy of an entity. Entities whose type isn't cacheable are ignored.
+     *
+     * @param entity            the entity to store
+     * @throws CatnapException  thrown when the entity is missing an id or a field can't be read
+     */
+    @Override
+    public void store(CatnapResult entity) throws CatnapException {
+        store(entity, getVersion(entity.getEntityType()));
+    }
+
+    /**
+     * This method stores copies of a collection of entities.
+     *
+     * @param entities          a collection of entities to store
+     * @throws CatnapException  thrown when an entity is missing an id or a field can't be read
+     */
+    @Override
+    public void store(Collection<CatnapResult> entities) throws CatnapException {
+        for (CatnapResult entity: entities) {
+            store(entity);
+        }
+    }
+
+    /**
+     * This method removes an entity from the cache.
+     *
+     * @param entity               the entity to remove
+     * @throws CatnapException     thrown when the entity is missing an id
+     */
+    @Override
+    public void remove(CatnapResult entity) throws CatnapException {
+        Class<?> clazz = entity.getEntityType();
+        if(EntityMetadata.of(clazz).isCacheable()) {
+            int id = entity.getId().orElseThrow(() -> new CatnapException("The id field of entity type: " + clazz.getName() + " was empty!"));
+            remove(clazz, id);
+        }
+    }
+
+    /**
+     * This method removes a collection of entities from the cache.
+     *
+     * @param entities             a collection of entities to remove
+     * @throws CatnapException     thrown when an entity is missing an id
+     */
+    @Override
+    public void remove(Collection<CatnapResult> entities) throws CatnapException {
+        for (CatnapResult entity: entities) {
+            remove(entity);
+        }
+    }
+
+    /**
+     * This method removes an entity from the cache by its type and id.
+     *
+     * @param clazz                the type of entity
+     * @param id                   the id of the entity
+     */
+    @Override
+    public void remove(Class<?> clazz, int id) {
+        if(!EntityMetadata.of(clazz).isCacheable()) {
+            return;
+        }
+
+        version(clazz).incrementAndGet();
+        EntityKey key = new EntityKey(clazz, id);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * This method removes every entity of a type from the cache.
+     *
+     * @param clazz                the type of entity
+     */
+    @Override
+    public void removeAll(Class<?> clazz) {
+        if(!EntityMetadata.of(clazz).isCacheable()) {
+            return;
+        }
+
+        version(clazz).incrementAndGet();
+        for (Segment segment: segments) {
+            synchronized (segment) {
+                segment.keySet().removeIf(key -> key.getType() == clazz);
+            }
+        }
+    }
+
+    /**
+     * This method gives a new copy of every cached entity to a visitor. The entries of a segment are copied
+     * while holding its lock, the visitor is called without holding any.
+     *
+     * @param visitor           receives each entity
+     * @throws CatnapException  thrown when an entity can't be instantiated, or by the visitor
+     */
+    @Override
+    public void forEach(EntityVisitor visitor) throws CatnapException {
+        for (Segment segment: segments) {
+            List<EntityKey> keys;
+            List<Object[]> values;
+            synchronized (segment) {
+                keys = new ArrayList<>(segment.keySet());
+                values = new ArrayList<>(segment.values());
+            }
+
+            for (int i = 0; i < keys.size(); i++) {
+                EntityMetadata metadata = EntityMetadata.of(keys.get(i).getType());
+                visitor.visit(new CatnapResult(copy(metadata, values.get(i))));
+            }
+        }
+    }
+
+    /**
+     * This method removes every entity from the cache.
+     */
+    public void clear() {
+        for (AtomicLong version: versions.values()) {
+            version.incrementAndGet();
+        }
+        for (Segment segment: segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return      the number of cached entities
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment: segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    private void store(CatnapResult entity, long version) throws CatnapException {
+        Class<?> clazz = entity.getEntityType();
+        EntityMetadata metadata = EntityMetadata.of(clazz);
+        if(!metadata.isCacheable()) {
+            return;
+        }
+
+        int id = entity.getId().orElseThrow(() -> new CatnapException("The id field of entity type: " + clazz.getName() + " was empty!"));
+        EntityAccessor accessor = metadata.getAccessor();
+        Object[] values = new Object[metadata.getColumns().size()];
+        for (ColumnMetadata column: metadata.getColumns()) {
+            values[column.getIndex()] = accessor.get(entity.getEntity(), column.getIndex());
+        }
+
+        EntityKey key = new EntityKey(clazz, id);
+        Segment segment = segment(key);
+        AtomicLong current = version(clazz);
+        synchronized (segment) {
+            // checked under the lock, a removal increments the version before it takes the lock
+            if(current.get() == version) {
+                segment.put(key, values);
+            }
+        }
+    }
+
+    private static Object copy(EntityMetadata metadata, Object[] values) throws CatnapException {
+        EntityAccessor accessor = metadata.getAccessor();
+        Object entity = accessor.newInstance();
+        for (ColumnMetadata column: metadata.getColumns()) {
+            accessor.set(entity, column.getIndex(), values[column.getIndex()]);
+        }
+
+        return entity;
+    }
+
+    private AtomicLong version(Class<?> clazz) {
+        AtomicLong version = versions.get(clazz);
+        if(version == null) {
+            version = versions.computeIfAbsent(clazz, c -> new AtomicLong());
+        }
+
+        return version;
+    }
+
+    private Segment segment(EntityKey key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+}
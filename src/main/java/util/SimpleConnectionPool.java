@@ -8,12 +8,14 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.LinkedList;
+import java.util.Properties;
 
 /**
  * This class is used to obtain free connections to the database in order to
  * perform CRUD operations. The pool employs a simple strategy of using a linked list
  * of connection objects to manage the pool. If the pool is empty when a user requests
- * a connection, it expands by the baseConnections parameter.
+ * a connection, it expands by the baseConnections parameter. The pool is thread safe, connections can be
+ * taken and released from any thread.
  */
 public class SimpleConnectionPool implements ConnectionPool {
 
@@ -21,6 +23,7 @@ public class SimpleConnectionPool implements ConnectionPool {
     private final String username;
     private final String password;
     private final int baseConnections;
+    private boolean reWriteBatchedInserts;
 
     private final static Logger logger = LogManager.getLogger(SimpleConnectionPool.class);
 
@@ -49,10 +52,18 @@ public class SimpleConnectionPool implements ConnectionPool {
      *
      * @throws ConnectionFailedException occurs when connecting to the database fails
      */
-    public void connect() throws ConnectionFailedException {
+    public synchronized void connect() throws ConnectionFailedException {
         try {
             for (int i = 0; i < this.baseConnections; i++) {
-                freeConnections.add(DriverManager.getConnection(this.databaseUrl, this.username, this.password));
+                if(this.reWriteBatchedInserts) {
+                    Properties props = new Properties();
+                    props.setProperty("user", this.username);
+                    props.setProperty("password", this.password);
+                    props.setProperty("reWriteBatchedInserts", "true");
+                    freeConnections.add(DriverManager.getConnection(this.databaseUrl, props));
+                } else {
+                    freeConnections.add(DriverManager.getConnection(this.databaseUrl, this.username, this.password));
+                }
             }
         } catch (SQLException e) {
             logger.error("SQL Exception when trying to connect to database, got the following message: " + e.getMessage());
@@ -69,14 +80,12 @@ public class SimpleConnectionPool implements ConnectionPool {
      * @return an object with the connection information and methods
      * @throws ConnectionFailedException occurs when connecting to the database fails
      */
-    public Connection getConnection() throws ConnectionFailedException {
+    public synchronized Connection getConnection() throws ConnectionFailedException {
         if(freeConnections.size() == 0) {
             connect();
         }
 
-        Connection connection = freeConnections.getFirst();
-        freeConnections.remove(connection);
-        return connection;
+        return freeConnections.removeFirst();
     }
 
     /**
@@ -84,14 +93,14 @@ public class SimpleConnectionPool implements ConnectionPool {
      *
      * @param connection the connection to add back to the pool
      */
-    public void releaseConnection(Connection connection) {
+    public synchronized void releaseConnection(Connection connection) {
         freeConnections.add(connection);
     }
 
     /**
      * This method is used to close all Connection objects when the pool is no longer needed.
      */
-    public void shutdown() {
+    public synchronized void shutdown() {
         for (Connection conn: freeConnections) {
             try {
                 conn.close();
@@ -101,7 +110,29 @@ public class SimpleConnectionPool implements ConnectionPool {
         }
     }
 
-    public int getConnectionCount() {
+    /**
+     * This method turns on pgjdbc's reWriteBatchedInserts option for the connections opened from now on.
+     * The driver then rewrites batches of single row inserts into multi row inserts, which makes
+     * EntityManager.persistAll a lot faster. It is off by default.
+     *
+     * @param reWriteBatchedInserts     whether the driver should rewrite batched inserts
+     */
+    public void setReWriteBatchedInserts(boolean reWriteBatchedInserts) {
+        this.reWriteBatchedInserts = reWriteBatchedInserts;
+    }
+
+    /**
+     * @return      the number of connections the pool opens at a time, which is how many it holds before it ever
+     *              has to grow
+     */
+    public int getBaseConnections() {
+        return this.baseConnections;
+    }
+
+    /**
+     * @return      the number of connections that are free right now
+     */
+    public synchronized int getConnectionCount() {
         return this.freeConnections.size();
     }
 }
@@ -0,0 +1,175 @@
+package util;
+
+import exceptions.CatnapException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+
+/**
+ * A SecondLevelCache that serves the entities of a CacheSnapshot until they are loaded into the cache it wraps.
+ * An entity found in the snapshot is moved to the wrapped cache the first time it is asked for, so the
+ * snapshot is only read once per entity and empties as the application warms up. Everything else, including
+ * the versions of the entity types, is the wrapped cache's.
+ *
+ * Removing an entity drops it from the snapshot before the wrapped cache, whose removal changes the version
+ * of the type. A get that moves the entity read the version before reading the snapshot, so if the entity was
+ * removed meanwhile it isn't stored.
+ */
+public class SnapshotBackedCache implements SecondLevelCache {
+
+    private final SecondLevelCache cache;
+    private final CacheSnapshot snapshot;
+
+    /**
+     * @param cache          the cache the entities are moved to
+     * @param snapshot       the snapshot the entities are served from until then
+     */
+    public SnapshotBackedCache(SecondLevelCache cache, CacheSnapshot snapshot) {
+        this.cache = cache;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * This method checks whether an entity is in the cache or in the snapshot.
+     *
+     * @param clazz             the type of entity
+     * @param id                the id of the entity
+     * @return                  whether the entity is cached
+     */
+    @Override
+    public boolean contains(Class<?> clazz, int id) {
+        return cache.contains(clazz, id) || snapshot.contains(clazz, id);
+    }
+
+    /**
+     * This method gets a new copy of a cached entity. When only the snapshot has it, it is moved to the cache.
+     *
+     * @param clazz             the type of entity to get
+     * @param id                the primary key of the entity
+     * @return                  an optional which is empty when the entity is not cached
+     */
+    @Override
+    public Optional<CatnapResult> get(Class<?> clazz, int id) {
+        Optional<CatnapResult> entity = cache.get(clazz, id);
+        if(entity.isPresent() || !EntityMetadata.of(clazz).isCacheable()) {
+            return entity;
+        }
+
+        long version = cache.getVersion(clazz);
+        entity = snapshot.get(clazz, id);
+        if(entity.isPresent()) {
+            try {
+                cache.store(Collections.singletonList(entity.get()), version);
+                snapshot.remove(clazz, id);
+            } catch (CatnapException e) {
+                // the entity is still served, it just isn't moved
+            }
+        }
+
+        return entity;
+    }
+
+    /**
+     * This method gets a new copy of a cached entity, see get.
+     *
+     * @param clazz             the type of entity to get
+     * @param id                the primary key of the entity
+     * @return                  the copy, or null when the entity is not cached
+     */
+    @Override
+    public CatnapResult getIfPresent(Class<?> clazz, int id) {
+        return get(clazz, id).orElse(null);
+    }
+
+    @Override
+    public long getVersion(Class<?> clazz) {
+        return cache.getVersion(clazz);
+    }
+
+    @Override
+    public void store(Collection<CatnapResult> entities, long version) throws CatnapException {
+        cache.store(entities, version);
+    }
+
+    @Override
+    public void store(CatnapResult entity) throws CatnapException {
+        cache.store(entity);
+    }
+
+    @Override
+    public void store(Collection<CatnapResult> entities) throws CatnapException {
+        cache.store(entities);
+    }
+
+    /**
+     * This method removes an entity from the snapshot and the cache.
+     *
+     * @param entity               the entity to remove
+     * @throws CatnapException     thrown when the entity is missing an id
+     */
+    @Override
+    public void remove(CatnapResult entity) throws CatnapException {
+        Class<?> clazz = entity.getEntityType();
+        if(EntityMetadata.of(clazz).isCacheable()) {
+            int id = entity.getId().orElseThrow(() -> new CatnapException("The id field of entity type: " + clazz.getName() + " was empty!"));
+            remove(clazz, id);
+        }
+    }
+
+    /**
+     * This method removes a collection of entities from the snapshot and the cache.
+     *
+     * @param entities             a collection of entities to remove
+     * @throws CatnapException     thrown when an entity is missing an id
+     */
+    @Override
+    public void remove(Collection<CatnapResult> entities) throws CatnapException {
+        for (CatnapResult entity: entities) {
+            remove(entity);
+        }
+    }
+
+    /**
+     * This method removes an entity from the snapshot and the cache by its type and id.
+     *
+     * @param clazz                the type of entity
+     * @param id                   the id of the entity
+     */
+    @Override
+    public void remove(Class<?> clazz, int id) {
+        snapshot.remove(clazz, id);
+        cache.remove(clazz, id);
+    }
+
+    /**
+     * This method removes every entity of a type from the snapshot and the cache.
+     *
+     * @param clazz                the type of entity
+     */
+    @Override
+    public void removeAll(Class<?> clazz) {
+        snapshot.removeAll(clazz);
+        cache.removeAll(clazz);
+    }
+
+    /**
+     * This method gives a new copy of every entity of the cache, then of the snapshot, to a visitor.
+     *
+     * @param visitor           receives each entity
+     * @throws CatnapException  thrown when an entity can't be copied, or by the visitor
+     */
+    @Override
+    public void forEach(EntityVisitor visitor) throws CatnapException {
+        cache.forEach(visitor);
+        snapshot.forEach(visitor);
+    }
+
+    public SecondLevelCache getCache() {
+        return cache;
+    }
+
+    public CacheSnapshot getSnapshot() {
+        return snapshot;
+    }
+}
@@ -0,0 +1,110 @@
+package util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class caches the PreparedStatement objects of a single pooled connection, keyed by their sql
+ * template. Because it belongs to the connection rather than to a Session, every Session that borrows
+ * the connection reuses the statements prepared by the ones before it. The cache is bounded: when it
+ * is full the least recently used statement is closed and evicted.
+ */
+public class StatementCache {
+
+    public final static int DEFAULT_CAPACITY = 100;
+
+    private final static Logger logger = LogManager.getLogger(StatementCache.class);
+
+    private final Connection connection;
+    private final int capacity;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructor for StatementCache.
+     *
+     * @param connection     the connection the statements are prepared on
+     * @param capacity       the maximum number of statements to keep open
+     */
+    public StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.capacity = capacity;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if(size() > StatementCache.this.capacity) {
+                    close(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * This method returns the cached statement for a sql template, preparing and caching it on the
+     * connection if it hasn't been prepared yet.
+     *
+     * @param sql               the sql template
+     * @return                  a statement prepared from the template
+     * @throws SQLException     thrown when the statement can't be prepared
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = this.statements.get(sql);
+        if(statement != null && !statement.isClosed()) {
+            hits++;
+            return statement;
+        }
+
+        misses++;
+        statement = this.connection.prepareStatement(sql);
+        this.statements.put(sql, statement);
+
+        return statement;
+    }
+
+    /**
+     * This method closes every cached statement and empties the cache.
+     */
+    public synchronized void clear() {
+        for (PreparedStatement statement: this.statements.values()) {
+            close(statement);
+        }
+        this.statements.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return this.statements.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    private void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.error("SQL Exception trying to close an evicted statement, got message: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package models;
+
+import annotations.Cacheable;
+import annotations.Id;
+
+@Cacheable
+public class CachedModel {
+
+    @Id
+    private int id;
+    private String name;
+
+    public CachedModel() {
+    }
+
+    public CachedModel(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
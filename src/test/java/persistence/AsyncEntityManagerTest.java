@@ -0,0 +1,104 @@
+package persistence;
+
+import exceptions.CatnapException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class AsyncEntityManagerTest {
+
+    @Mock
+    private EntityManager entityManager;
+
+    private ExecutorService executor;
+    private AsyncEntityManager async;
+
+    @BeforeEach
+    public void setUp() {
+        executor = AsyncEntityManager.createDefaultExecutor(4);
+        async = new AsyncEntityManager(entityManager, executor);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testGet() throws CatnapException {
+
+        Object entity = new Object();
+        when(entityManager.get(Object.class, 1)).thenReturn(Optional.of(entity));
+
+        assertSame(entity, async.get(Object.class, 1).join().get());
+    }
+
+    @Test
+    public void testOperationsRunInOrder() {
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int n = i;
+            futures.add(async.submit(em -> {
+                try {
+                    Thread.sleep(n % 3);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                order.add(n);
+                return n;
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, order.get(i));
+        }
+    }
+
+    @Test
+    public void testFailureCompletesExceptionallyAndNextOperationRuns() throws CatnapException {
+
+        Object entity = new Object();
+        doThrow(new CatnapException("failed")).when(entityManager).persist(entity);
+
+        CompletableFuture<Void> persist = async.persist(entity);
+        CompletableFuture<Void> delete = async.delete(entity);
+
+        CompletionException e = assertThrows(CompletionException.class, persist::join);
+        assertTrue(e.getCause() instanceof CatnapException);
+        delete.join();
+        verify(entityManager).delete(entity);
+    }
+
+    @Test
+    public void testCloseRunsAfterPendingOperations() throws CatnapException {
+
+        Object entity = new Object();
+        async.update(entity);
+        async.close().join();
+
+        InOrder inOrder = inOrder(entityManager);
+        inOrder.verify(entityManager).update(entity);
+        inOrder.verify(entityManager).close();
+    }
+}
@@ -4,16 +4,19 @@ import exceptions.CatnapException;
 import exceptions.ConnectionFailedException;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import util.ConnectionPool;
 import util.MappingStrategy;
 
-
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.concurrent.Executor;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -83,6 +86,40 @@ public class SessionFactoryTest {
         verify(statement, times(1)).executeUpdate();
     }
 
+    @Test
+    public void testSetBatchSize() throws ConnectionFailedException {
+
+        factory.setBatchSize(7);
+        Session session = (Session) factory.createEntityManager();
+
+        assertEquals(7, session.getBatchSize());
+    }
+
+    @Test
+    public void testCreateAsyncEntityManager() throws ConnectionFailedException {
+
+        Executor executor = Runnable::run;
+        factory.setAsyncExecutor(executor);
+        AsyncEntityManager async = factory.createAsyncEntityManager();
+
+        assertTrue(async.getEntityManager() instanceof Session);
+        assertSame(executor, factory.getAsyncExecutor());
+    }
+
+    @Test
+    public void testShutdownSavesCacheSnapshot(@TempDir Path directory) throws ConnectionFailedException, CatnapException {
+
+        Path file = directory.resolve("cache.snapshot");
+        when(mockConnectionPool.getConnection()).thenReturn(connection);
+        factory.setCacheSnapshot(file);
+
+        factory.shutdown();
+
+        assertTrue(Files.exists(file));
+        verify(mockConnectionPool).releaseConnection(connection);
+        verify(mockConnectionPool).shutdown();
+    }
+
     @Test
     public void testBuildSQLException() throws SQLException, ConnectionFailedException {
 
@@ -2,6 +2,8 @@ package persistence;
 
 import exceptions.CatnapException;
 import exceptions.RollbackException;
+import exceptions.UncheckedCatnapException;
+import models.CachedModel;
 import models.MockModel;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,14 +12,34 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOut;
+import util.Aggregate;
 import util.CatnapCache;
 import util.CatnapResult;
+import util.EntityMetadata;
+import util.MultiGetResult;
+import util.Criteria;
+import util.Page;
+import util.Query;
+import util.SharedEntityCache;
 import util.MappingStrategy;
+import util.StatementCache;
 
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -32,6 +54,9 @@ public class SessionTest {
     @Mock
     private Connection connection;
 
+    @Mock
+    private StatementCache statementCache;
+
     @Mock
     private MappingStrategy mappingStrategy;
 
@@ -44,9 +69,28 @@ public class SessionTest {
     @Mock
     private ResultSet resultSet;
 
+    @Mock
+    private ResultSetMetaData resultSetMetaData;
+
+    @Mock
+    private Array sqlArray;
+
+    @Mock
+    private PGConnection pgConnection;
+
+    @Mock
+    private CopyManager copyManager;
+
+    @Mock
+    private CopyIn copyIn;
+
+    @Mock
+    private CopyOut copyOut;
+
     @BeforeEach
     public void checkDependencies() {
         assertNotNull(connection);
+        assertNotNull(statementCache);
         assertNotNull(mappingStrategy);
         assertNotNull(cache);
     }
@@ -55,16 +99,18 @@ public class SessionTest {
     public void testGet() throws SQLException, CatnapException, InvocationTargetException, NoSuchMethodException, IllegalAccessException {
         MockModel model = new MockModel(1, "mock");
 
-        when(mappingStrategy.get(model.getClass(), model.getId())).thenReturn("");
-        when(connection.prepareStatement("")).thenReturn(statement);
+        when(mappingStrategy.get(model.getClass())).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
         when(statement.executeQuery()).thenReturn(resultSet);
         when(resultSet.next()).thenReturn(true, false);
-        when(resultSet.getObject("id")).thenReturn(model.getId());
-        when(resultSet.getObject("name")).thenReturn(model.getName());
+        stubColumns();
+        when(resultSet.getInt(1)).thenReturn(model.getId());
+        when(resultSet.getString(2)).thenReturn(model.getName());
 
         Optional<Object> op = session.get(model.getClass(), model.getId());
 
-        verify(cache, times(1)).contains(model.getClass(), model.getId());
+        verify(cache, times(1)).getIfPresent(model.getClass(), model.getId());
+        verify(statement, times(1)).setInt(1, model.getId());
         verify(cache, times(1)).store(Mockito.any(CatnapResult.class));
 
         assertTrue(op.isPresent());
@@ -78,8 +124,7 @@ public class SessionTest {
     public void testGetFromCache() throws CatnapException {
         MockModel model = new MockModel(1, "mock");
 
-        when(cache.contains(model.getClass(), model.getId())).thenReturn(true);
-        when(cache.get(model.getClass(), model.getId())).thenReturn(Optional.of(new CatnapResult(model)));
+        when(cache.getIfPresent(model.getClass(), model.getId())).thenReturn(new CatnapResult(model));
 
         Optional<Object> gotModelOp = session.get(model.getClass(), model.getId());
         MockModel gotModel = (MockModel) gotModelOp.orElse(new MockModel(2, "mock2"));
@@ -92,8 +137,8 @@ public class SessionTest {
     public void testGetNone() throws CatnapException, SQLException, InvocationTargetException, NoSuchMethodException, IllegalAccessException {
         MockModel model = new MockModel(1, "mock");
 
-        when(mappingStrategy.get(model.getClass(), model.getId())).thenReturn("");
-        when(connection.prepareStatement("")).thenReturn(statement);
+        when(mappingStrategy.get(model.getClass())).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
         when(statement.executeQuery()).thenReturn(resultSet);
         when(resultSet.next()).thenReturn(false);
 
@@ -107,8 +152,8 @@ public class SessionTest {
     public void testGetSQLException() throws SQLException, InvocationTargetException, NoSuchMethodException, IllegalAccessException {
         MockModel model = new MockModel(1, "mock");
 
-        when(mappingStrategy.get(model.getClass(), model.getId())).thenReturn("");
-        when(connection.prepareStatement("")).thenReturn(statement);
+        when(mappingStrategy.get(model.getClass())).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
         when(statement.executeQuery()).thenThrow(SQLException.class);
 
         assertThrows(CatnapException.class, () -> session.get(model.getClass(), model.getId()));
@@ -118,14 +163,56 @@ public class SessionTest {
     public void testGetResultSetSQLException() throws SQLException, InvocationTargetException, NoSuchMethodException, IllegalAccessException {
         MockModel model = new MockModel(1, "mock");
 
-        when(mappingStrategy.get(model.getClass(), model.getId())).thenReturn("");
-        when(connection.prepareStatement("")).thenReturn(statement);
+        when(mappingStrategy.get(model.getClass())).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
         when(statement.executeQuery()).thenReturn(resultSet);
         when(resultSet.next()).thenThrow(SQLException.class);
 
         assertThrows(CatnapException.class, () -> session.get(model.getClass(), model.getId()));
     }
 
+    @Test
+    public void testGetByIds() throws SQLException, CatnapException {
+        MockModel cached = new MockModel(1, "cached");
+
+        CatnapResult cachedResult = new CatnapResult(cached);
+        when(cache.getIfPresent(Mockito.eq(EntityMetadata.of(MockModel.class)), Mockito.anyInt())).thenAnswer(invocation -> invocation.getArgument(1).equals(1) ? cachedResult : null);
+        when(mappingStrategy.getByIds(MockModel.class)).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
+        when(connection.createArrayOf("integer", new Integer[]{3, 2, 4})).thenReturn(sqlArray);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, true, false);
+        stubColumns();
+        when(resultSet.getInt(1)).thenReturn(2, 3);
+        when(resultSet.getString(2)).thenReturn("mock2", "mock3");
+
+        MultiGetResult result = session.get(MockModel.class, Arrays.asList(3, 1, 2, 4, 3));
+
+        verify(statement, times(1)).setArray(1, sqlArray);
+        verify(cache, times(1)).store(Mockito.anyList());
+        assertEquals(Arrays.asList(3, 1, 2, 3), result.getEntities().stream()
+                .map(entity -> ((MockModel) entity).getId())
+                .collect(Collectors.toList()));
+        assertSame(cached, result.getEntities().get(1));
+        assertEquals(Collections.singletonList(4), result.getMissingIds());
+        assertFalse(result.isComplete());
+    }
+
+    @Test
+    public void testGetByIdsChunks() throws SQLException, CatnapException {
+        when(mappingStrategy.getByIds(MockModel.class)).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
+        when(connection.createArrayOf(Mockito.eq("integer"), Mockito.any())).thenReturn(sqlArray);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(false);
+
+        this.session.setBatchSize(2);
+        MultiGetResult result = session.get(MockModel.class, Arrays.asList(1, 2, 3, 4, 5));
+
+        verify(statement, times(3)).executeQuery();
+        assertEquals(5, result.getMissingIds().size());
+    }
+
     @Test
     public void testGetAll() throws SQLException, CatnapException, InvocationTargetException, NoSuchMethodException, IllegalAccessException {
         MockModel model1 = new MockModel(1, "mock1");
@@ -133,11 +220,12 @@ public class SessionTest {
         MockModel model3 = new MockModel(3, "mock3");
 
         when(this.mappingStrategy.getAll(model1.getClass())).thenReturn("");
-        when(connection.prepareStatement("")).thenReturn(statement);
+        when(statementCache.prepare("")).thenReturn(statement);
         when(statement.executeQuery()).thenReturn(resultSet);
         when(resultSet.next()).thenReturn(true, true, true, false);
-        when(resultSet.getObject("id")).thenReturn(model1.getId(), model2.getId(), model3.getId());
-        when(resultSet.getObject("name")).thenReturn(model1.getName(), model2.getName(), model3.getName());
+        stubColumns();
+        when(resultSet.getInt(1)).thenReturn(model1.getId(), model2.getId(), model3.getId());
+        when(resultSet.getString(2)).thenReturn(model1.getName(), model2.getName(), model3.getName());
 
         List<Object> entities = session.getAll(model1.getClass());
         verify(cache, times(1)).store(Mockito.any(List.class));
@@ -158,7 +246,7 @@ public class SessionTest {
         MockModel model = new MockModel(1, "mock");
 
         when(this.mappingStrategy.getAll(model.getClass())).thenReturn("");
-        when(connection.prepareStatement("")).thenReturn(statement);
+        when(statementCache.prepare("")).thenReturn(statement);
         when(statement.executeQuery()).thenReturn(resultSet);
         when(resultSet.next()).thenReturn(false);
 
@@ -172,7 +260,7 @@ public class SessionTest {
         MockModel model = new MockModel(1, "mock");
 
         when(this.mappingStrategy.getAll(model.getClass())).thenReturn("");
-        when(connection.prepareStatement("")).thenReturn(statement);
+        when(statementCache.prepare("")).thenReturn(statement);
         when(statement.executeQuery()).thenReturn(resultSet);
         when(resultSet.next()).thenThrow(SQLException.class);
 
@@ -186,7 +274,7 @@ public class SessionTest {
         MockModel model = new MockModel(1, "mock");
 
         when(mappingStrategy.getAll(model.getClass())).thenReturn("");
-        when(connection.prepareStatement("")).thenReturn(statement);
+        when(statementCache.prepare("")).thenReturn(statement);
         when(statement.executeQuery()).thenThrow(SQLException.class);
 
         assertThrows(CatnapException.class, () -> session.getAll(model.getClass()));
@@ -196,12 +284,14 @@ public class SessionTest {
     public void testDelete() throws SQLException, CatnapException, InvocationTargetException, NoSuchMethodException, IllegalAccessException {
         MockModel model = new MockModel(1, "mock");
 
-        when(this.mappingStrategy.delete(model.getClass(), model.getId())).thenReturn("");
-        when(this.connection.prepareStatement("")).thenReturn(statement);
+        when(this.mappingStrategy.delete(model.getClass())).thenReturn("");
+        when(this.statementCache.prepare("")).thenReturn(statement);
         when(this.statement.executeUpdate()).thenReturn(1);
 
         this.session.delete(model);
 
+        verify(this.statement, times(1)).setInt(1, model.getId());
+
         verify(this.cache, times(1)).remove(Mockito.any(CatnapResult.class));
     }
 
@@ -209,8 +299,8 @@ public class SessionTest {
     public void testDeleteSQLException() throws SQLException, InvocationTargetException, NoSuchMethodException, IllegalAccessException {
         MockModel model = new MockModel(1, "mock");
 
-        when(this.mappingStrategy.delete(model.getClass(), model.getId())).thenReturn("");
-        when(this.connection.prepareStatement("")).thenReturn(statement);
+        when(this.mappingStrategy.delete(model.getClass())).thenReturn("");
+        when(this.statementCache.prepare("")).thenReturn(statement);
         when(this.statement.executeUpdate()).thenThrow(new SQLException());
 
         assertThrows(CatnapException.class, () -> this.session.delete(model));
@@ -218,46 +308,88 @@ public class SessionTest {
 
     @Test
     public void testPersist() throws SQLException, CatnapException, InvocationTargetException, IllegalAccessException, NoSuchMethodException {
-        MockModel model = new MockModel(1, "mock");
+        MockModel model = new MockModel(0, "mock");
 
-        when(mappingStrategy.insert(model)).thenReturn("");
-        when(connection.prepareStatement("")).thenReturn(statement);
-        when(statement.executeUpdate()).thenReturn(1);
+        when(mappingStrategy.insertReturning(model.getClass(), 1)).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getInt(1)).thenReturn(1);
+        when(resultSet.getInt(2)).thenReturn(7);
 
         assertDoesNotThrow(() -> {
             this.session.persist(model);
         });
 
-        verify(cache, times(1)).store(Mockito.any(CatnapResult.class));
+        verify(mappingStrategy, times(1)).bindInsertReturning(statement, Collections.singletonList(model));
+        verify(cache, times(1)).store(Mockito.anyList());
+        assertEquals(7, model.getId());
     }
 
     @Test
     public void testPersistSQLException() throws SQLException, CatnapException, InvocationTargetException, IllegalAccessException, NoSuchMethodException {
         MockModel model = new MockModel(1, "mock");
 
-        when(mappingStrategy.insert(model)).thenReturn("");
-        when(connection.prepareStatement("")).thenReturn(statement);
-        when(statement.executeUpdate()).thenThrow(SQLException.class);
+        when(mappingStrategy.insertReturning(model.getClass(), 1)).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
+        when(statement.executeQuery()).thenThrow(SQLException.class);
 
         assertThrows(CatnapException.class, () -> {
             this.session.persist(model);
         });
 
-        verify(cache, times(0)).store(Mockito.any(CatnapResult.class));
+        verify(cache, times(0)).store(Mockito.anyList());
     }
 
     @Test
     public void testUpdate() throws SQLException, CatnapException, InvocationTargetException, IllegalAccessException, NoSuchMethodException {
         MockModel model = new MockModel(1, "mock");
 
-        when(mappingStrategy.update(model)).thenReturn("");
-        when(connection.prepareStatement("")).thenReturn(statement);
+        when(mappingStrategy.update(model.getClass())).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
         when(statement.executeUpdate()).thenReturn(1);
 
         assertDoesNotThrow(() -> {
             this.session.update(model);
         });
 
+        verify(mappingStrategy, times(1)).bindUpdate(statement, model);
+        verify(cache, times(1)).store(Mockito.any(CatnapResult.class));
+    }
+
+    @Test
+    public void testUpdateSkipsCleanEntity() throws SQLException, CatnapException {
+        MockModel model = new MockModel(1, "mock");
+        CatnapResult loaded = new CatnapResult(model);
+        loaded.takeSnapshot();
+
+        when(cache.get(model.getClass(), model.getId())).thenReturn(Optional.of(loaded));
+
+        this.session.update(model);
+
+        verify(statementCache, never()).prepare(Mockito.anyString());
+        verify(cache, never()).store(Mockito.any(CatnapResult.class));
+    }
+
+    @Test
+    public void testUpdateWritesDirtyColumns() throws SQLException, CatnapException {
+        MockModel model = new MockModel(1, "mock");
+        CatnapResult loaded = new CatnapResult(model);
+        loaded.takeSnapshot();
+        model.setName("changed");
+
+        BitSet dirty = new BitSet();
+        dirty.set(1);
+
+        when(cache.get(model.getClass(), model.getId())).thenReturn(Optional.of(loaded));
+        when(mappingStrategy.update(model.getClass(), dirty)).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
+        when(statement.executeUpdate()).thenReturn(1);
+
+        this.session.update(model);
+
+        verify(mappingStrategy, times(1)).bindUpdate(statement, model, dirty);
+        verify(mappingStrategy, never()).update(model.getClass());
         verify(cache, times(1)).store(Mockito.any(CatnapResult.class));
     }
 
@@ -265,8 +397,8 @@ public class SessionTest {
     public void testUpdateSQLEXception() throws SQLException, CatnapException, InvocationTargetException, IllegalAccessException, NoSuchMethodException {
         MockModel model = new MockModel(1, "mock");
 
-        when(mappingStrategy.update(model)).thenReturn("");
-        when(connection.prepareStatement("")).thenReturn(statement);
+        when(mappingStrategy.update(model.getClass())).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
         when(statement.executeUpdate()).thenThrow(SQLException.class);
 
         assertThrows(CatnapException.class, () -> {
@@ -276,6 +408,91 @@ public class SessionTest {
         verify(cache, times(0)).store(Mockito.any(CatnapResult.class));
     }
 
+    @Test
+    public void testPersistAll() throws SQLException, CatnapException {
+        List<MockModel> models = Arrays.asList(new MockModel(0, "mock1"), new MockModel(0, "mock2"),
+                new MockModel(0, "mock3"), new MockModel(0, "mock4"), new MockModel(0, "mock5"));
+
+        when(mappingStrategy.insertReturning(MockModel.class, 2)).thenReturn("two");
+        when(mappingStrategy.insertReturning(MockModel.class, 1)).thenReturn("one");
+        when(statementCache.prepare("two")).thenReturn(statement);
+        when(statementCache.prepare("one")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getInt(1)).thenReturn(2, 1, 1, 2, 1);
+        when(resultSet.getInt(2)).thenReturn(12, 11, 13, 14, 15);
+
+        this.session.setBatchSize(2);
+        this.session.persistAll(models);
+
+        verify(mappingStrategy, times(1)).bindInsertReturning(statement, models.subList(0, 2));
+        verify(mappingStrategy, times(1)).bindInsertReturning(statement, models.subList(2, 4));
+        verify(mappingStrategy, times(1)).bindInsertReturning(statement, models.subList(4, 5));
+        verify(statement, times(3)).executeQuery();
+        verify(cache, times(1)).store(Mockito.anyList());
+        for (int i = 0; i < models.size(); i++) {
+            assertEquals(11 + i, models.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testPersistAllSQLException() throws SQLException, CatnapException {
+        List<MockModel> models = Arrays.asList(new MockModel(0, "mock1"), new MockModel(0, "mock2"));
+
+        when(mappingStrategy.insertReturning(MockModel.class, 2)).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
+        when(statement.executeQuery()).thenThrow(SQLException.class);
+
+        assertThrows(CatnapException.class, () -> this.session.persistAll(models));
+
+        verify(cache, never()).store(Mockito.anyList());
+    }
+
+    @Test
+    public void testUpdateAll() throws SQLException, CatnapException {
+        MockModel clean = new MockModel(1, "mock1");
+        MockModel dirty = new MockModel(2, "mock2");
+        MockModel unloaded = new MockModel(3, "mock3");
+        CatnapResult loadedClean = new CatnapResult(clean);
+        loadedClean.takeSnapshot();
+        CatnapResult loadedDirty = new CatnapResult(dirty);
+        loadedDirty.takeSnapshot();
+        dirty.setName("changed");
+
+        BitSet columns = new BitSet();
+        columns.set(1);
+
+        when(cache.get(MockModel.class, 1)).thenReturn(Optional.of(loadedClean));
+        when(cache.get(MockModel.class, 2)).thenReturn(Optional.of(loadedDirty));
+        when(mappingStrategy.update(MockModel.class, columns)).thenReturn("partial");
+        when(mappingStrategy.update(MockModel.class)).thenReturn("full");
+        when(statementCache.prepare("partial")).thenReturn(statement);
+        when(statementCache.prepare("full")).thenReturn(statement);
+
+        this.session.updateAll(Arrays.asList(clean, dirty, unloaded));
+
+        verify(mappingStrategy, times(1)).bindUpdate(statement, dirty, columns);
+        verify(mappingStrategy, times(1)).bindUpdate(statement, unloaded);
+        verify(mappingStrategy, never()).bindUpdate(statement, clean);
+        verify(statement, times(2)).executeBatch();
+        verify(cache, times(2)).store(Mockito.anyList());
+    }
+
+    @Test
+    public void testDeleteAll() throws SQLException, CatnapException {
+        List<MockModel> models = Arrays.asList(new MockModel(1, "mock1"), new MockModel(2, "mock2"));
+
+        when(mappingStrategy.delete(MockModel.class)).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
+
+        this.session.deleteAll(models);
+
+        verify(statement, times(1)).setInt(1, 1);
+        verify(statement, times(1)).setInt(1, 2);
+        verify(statement, times(1)).executeBatch();
+        verify(cache, times(1)).remove(Mockito.anyList());
+    }
+
     @Test
     public void testBeginTransaction() throws CatnapException, SQLException {
         this.session.beginTransaction();
@@ -311,4 +528,582 @@ public class SessionTest {
         doThrow(SQLException.class).when(this.connection).rollback();
         assertThrows(CatnapException.class, () -> this.session.rollback());
     }
+
+    @Test
+    public void testTransactionQueuesWrites() throws SQLException, CatnapException {
+        this.session.beginTransaction();
+        this.session.persist(new MockModel(1, "mock"));
+        this.session.update(new MockModel(2, "mock"));
+        this.session.delete(new MockModel(3, "mock"));
+
+        verify(statementCache, never()).prepare(Mockito.anyString());
+    }
+
+    @Test
+    public void testCommitFlushesCoalescedQueue() throws SQLException, CatnapException, RollbackException {
+        MockModel inserted = new MockModel(0, "inserted");
+        MockModel cancelled = new MockModel(0, "cancelled");
+        MockModel updated = new MockModel(2, "updated");
+
+        when(mappingStrategy.insertReturning(MockModel.class, 1)).thenReturn("insert");
+        when(mappingStrategy.update(MockModel.class)).thenReturn("update");
+        when(statementCache.prepare("insert")).thenReturn(statement);
+        when(statementCache.prepare("update")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getInt(1)).thenReturn(1);
+        when(resultSet.getInt(2)).thenReturn(5);
+
+        this.session.beginTransaction();
+        this.session.persist(inserted);
+        this.session.persist(cancelled);
+        this.session.update(updated);
+        updated.setName("updated again");
+        this.session.update(updated);
+        this.session.delete(cancelled);
+        this.session.commit();
+
+        verify(mappingStrategy, times(1)).bindInsertReturning(statement, Collections.singletonList(inserted));
+        verify(mappingStrategy, never()).bindInsertReturning(statement, Collections.singletonList(cancelled));
+        verify(mappingStrategy, times(1)).bindUpdate(statement, updated);
+        verify(statement, times(1)).executeQuery();
+        verify(statement, times(1)).executeBatch();
+        assertEquals(5, inserted.getId());
+        verify(connection, times(1)).commit();
+        verify(connection, times(1)).setAutoCommit(true);
+    }
+
+    @Test
+    public void testCommitFlushFailure() throws SQLException, CatnapException {
+        when(mappingStrategy.insertReturning(MockModel.class, 1)).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
+        when(statement.executeQuery()).thenThrow(SQLException.class);
+
+        this.session.beginTransaction();
+        this.session.persist(new MockModel(0, "mock"));
+
+        assertThrows(RollbackException.class, () -> this.session.commit());
+        verify(connection, never()).commit();
+    }
+
+    @Test
+    public void testRollbackDropsQueue() throws SQLException, CatnapException, RollbackException {
+        this.session.beginTransaction();
+        this.session.persist(new MockModel(0, "mock"));
+        this.session.rollback();
+        this.session.flush();
+
+        verify(statementCache, never()).prepare(Mockito.anyString());
+        verify(connection, times(1)).rollback();
+    }
+
+    @Test
+    public void testGetFlushesQueue() throws SQLException, CatnapException {
+        MockModel model = new MockModel(1, "mock");
+
+        when(mappingStrategy.insertReturning(MockModel.class, 1)).thenReturn("insert");
+        when(statementCache.prepare("insert")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getInt(1)).thenReturn(1);
+        when(resultSet.getInt(2)).thenReturn(1);
+        when(cache.getIfPresent(MockModel.class, 1)).thenReturn(new CatnapResult(model));
+
+        this.session.beginTransaction();
+        this.session.persist(model);
+        this.session.get(MockModel.class, 1);
+
+        verify(statement, times(1)).executeQuery();
+    }
+
+    @Test
+    public void testCopyIn() throws SQLException, CatnapException {
+        List<MockModel> models = Arrays.asList(new MockModel(0, "mock1"), new MockModel(0, "mock2"));
+
+        when(mappingStrategy.copyIn(MockModel.class)).thenReturn("copy");
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        when(copyManager.copyIn("copy")).thenReturn(copyIn);
+        when(copyIn.endCopy()).thenReturn(2L);
+
+        assertEquals(2L, this.session.copyIn(MockModel.class, models));
+
+        byte[] rows = "mock1\nmock2\n".getBytes(StandardCharsets.UTF_8);
+        verify(copyIn, times(1)).writeToCopy(rows, 0, rows.length);
+    }
+
+    @Test
+    public void testCopyOut() throws SQLException, CatnapException {
+        when(mappingStrategy.copyOut(MockModel.class)).thenReturn("copy");
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        when(copyManager.copyOut("copy")).thenReturn(copyOut);
+        when(copyOut.readFromCopy()).thenReturn("1\tmock1\n".getBytes(StandardCharsets.UTF_8),
+                "2\tmock2\n".getBytes(StandardCharsets.UTF_8), null);
+
+        List<Object> entities = new ArrayList<>();
+        assertEquals(2L, this.session.copyOut(MockModel.class, entities::add));
+
+        assertEquals(2, ((MockModel) entities.get(1)).getId());
+        assertEquals("mock1", ((MockModel) entities.get(0)).getName());
+        verify(cache, never()).store(Mockito.anyList());
+    }
+
+    @Test
+    public void testCopyInCancelsOnFailure() throws SQLException {
+        when(mappingStrategy.copyIn(MockModel.class)).thenReturn("copy");
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        when(copyManager.copyIn("copy")).thenReturn(copyIn);
+        doThrow(SQLException.class).when(copyIn).writeToCopy(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+        when(copyIn.isActive()).thenReturn(true);
+
+        assertThrows(CatnapException.class, () -> this.session.copyIn(MockModel.class, Arrays.asList(new MockModel(0, "mock"))));
+        verify(copyIn, times(1)).cancelCopy();
+    }
+
+    @Test
+    public void testUpsertAll() throws SQLException, CatnapException {
+        MockModel first = new MockModel(1, "first");
+        MockModel stale = new MockModel(2, "stale");
+        MockModel latest = new MockModel(2, "latest");
+
+        when(mappingStrategy.upsert(MockModel.class, 2)).thenReturn("upsert");
+        when(statementCache.prepare("upsert")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, true, false);
+        stubColumns();
+        when(resultSet.getInt(1)).thenReturn(1, 1, 2, 2);
+        when(resultSet.getString(2)).thenReturn("first!", "latest!");
+
+        this.session.upsertAll(Arrays.asList(first, stale, latest));
+
+        verify(mappingStrategy, times(1)).bindUpsert(statement, Arrays.asList(first, latest));
+        verify(cache, times(1)).store(Mockito.argThat((List<CatnapResult> list) -> list.size() == 3));
+        verify(resultSet, times(1)).close();
+        assertEquals("first!", first.getName());
+        assertEquals("latest!", stale.getName());
+        assertEquals("latest!", latest.getName());
+    }
+
+    @Test
+    public void testUpsertAllInsertsEntitiesWithoutIds() throws SQLException, CatnapException {
+        MockModel first = new MockModel(0, "first");
+        MockModel second = new MockModel(0, "second");
+
+        when(mappingStrategy.insertReturning(MockModel.class, 2)).thenReturn("insert");
+        when(statementCache.prepare("insert")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getInt(1)).thenReturn(1, 2);
+        when(resultSet.getInt(2)).thenReturn(8, 9);
+
+        this.session.upsertAll(Arrays.asList(first, second));
+
+        verify(mappingStrategy, times(1)).bindInsertReturning(statement, Arrays.asList(first, second));
+        verify(mappingStrategy, never()).upsert(Mockito.eq(MockModel.class), Mockito.anyInt());
+        verify(cache, times(1)).store(Mockito.argThat((List<CatnapResult> list) -> list.size() == 2));
+        assertEquals(8, first.getId());
+        assertEquals(9, second.getId());
+    }
+
+    @Test
+    public void testUpsertSQLException() throws SQLException, CatnapException {
+        when(mappingStrategy.upsert(MockModel.class, 1)).thenReturn("upsert");
+        when(statementCache.prepare("upsert")).thenReturn(statement);
+        when(statement.executeQuery()).thenThrow(SQLException.class);
+
+        assertThrows(CatnapException.class, () -> this.session.upsert(new MockModel(1, "mock")));
+        verify(cache, never()).store(Mockito.anyList());
+    }
+
+    @Test
+    public void testCount() throws SQLException, CatnapException {
+        when(mappingStrategy.count(MockModel.class)).thenReturn("count");
+        when(statementCache.prepare("count")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getLong(1)).thenReturn(42L);
+
+        assertEquals(42L, this.session.count(MockModel.class));
+        verify(resultSet, times(1)).close();
+    }
+
+    @Test
+    public void testExistsInCache() throws CatnapException {
+        when(cache.contains(MockModel.class, 3)).thenReturn(true);
+
+        assertTrue(this.session.exists(MockModel.class, 3));
+        verifyNoInteractions(statementCache);
+    }
+
+    @Test
+    public void testExists() throws SQLException, CatnapException {
+        when(cache.contains(MockModel.class, 3)).thenReturn(false);
+        when(mappingStrategy.exists(MockModel.class)).thenReturn("exists");
+        when(statementCache.prepare("exists")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getBoolean(1)).thenReturn(false);
+
+        assertFalse(this.session.exists(MockModel.class, 3));
+        verify(statement, times(1)).setInt(1, 3);
+    }
+
+    @Test
+    public void testAggregate() throws SQLException, CatnapException {
+        when(mappingStrategy.aggregate(MockModel.class, Aggregate.MAX, "id", null)).thenReturn("max");
+        when(statementCache.prepare("max")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getDouble(1)).thenReturn(0.0);
+        when(resultSet.wasNull()).thenReturn(true);
+
+        assertFalse(this.session.aggregate(MockModel.class, Aggregate.MAX, "id").isPresent());
+    }
+
+    @Test
+    public void testAggregateGroupBy() throws SQLException, CatnapException {
+        when(mappingStrategy.aggregate(MockModel.class, Aggregate.SUM, "id", "name")).thenReturn("sum");
+        when(statementCache.prepare("sum")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, true, false);
+        when(resultSet.getString(1)).thenReturn("a", "b");
+        when(resultSet.getDouble(2)).thenReturn(3.0, 7.0);
+        when(resultSet.wasNull()).thenReturn(false);
+
+        Map<Object, Double> sums = this.session.aggregate(MockModel.class, Aggregate.SUM, "id", "name");
+
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(sums.keySet()));
+        assertEquals(7.0, sums.get("b"));
+    }
+
+    @Test
+    public void testFind() throws SQLException, CatnapException {
+        Query query = new Query(MockModel.class).where(Criteria.like("name", "mock%")).limit(5);
+
+        when(mappingStrategy.query(query)).thenReturn("find");
+        when(statementCache.prepare("find")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, false);
+        stubColumns();
+        when(resultSet.getInt(1)).thenReturn(4);
+        when(resultSet.getString(2)).thenReturn("mock4");
+
+        List<Object> entities = this.session.find(query);
+
+        verify(mappingStrategy, times(1)).bindQuery(statement, query);
+        verify(cache, times(1)).store(Mockito.anyList());
+        assertEquals(1, entities.size());
+        assertEquals("mock4", ((MockModel) entities.get(0)).getName());
+    }
+
+    @Test
+    public void testFindSQLException() throws SQLException, CatnapException {
+        Query query = new Query(MockModel.class);
+
+        when(mappingStrategy.query(query)).thenReturn("find");
+        when(statementCache.prepare("find")).thenReturn(statement);
+        when(statement.executeQuery()).thenThrow(SQLException.class);
+
+        assertThrows(CatnapException.class, () -> this.session.find(query));
+    }
+
+    @Test
+    public void testSelect() throws SQLException, CatnapException {
+        Query query = new Query(MockModel.class).select("name", "id");
+
+        when(mappingStrategy.select(query)).thenReturn("select");
+        when(statementCache.prepare("select")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, true, false);
+        when(resultSet.getString(1)).thenReturn("mock1", "mock2");
+        when(resultSet.getInt(2)).thenReturn(1, 2);
+
+        List<Object[]> rows = this.session.select(query);
+
+        assertEquals(2, rows.size());
+        assertArrayEquals(new Object[]{"mock2", 2}, rows.get(1));
+        verify(mappingStrategy, times(1)).bindQuery(statement, query);
+        verify(resultSet, times(1)).close();
+        verifyNoInteractions(cache);
+    }
+
+    @Test
+    public void testSelectIntoDto() throws SQLException, CatnapException {
+        Query query = new Query(MockModel.class).select("id", "name");
+
+        when(mappingStrategy.select(query)).thenReturn("select");
+        when(statementCache.prepare("select")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getInt(1)).thenReturn(7);
+        when(resultSet.getString(2)).thenReturn("mock7");
+
+        List<MockModel> dtos = this.session.select(query, MockModel.class);
+
+        assertEquals(7, dtos.get(0).getId());
+        assertEquals("mock7", dtos.get(0).getName());
+        verifyNoInteractions(cache);
+    }
+
+    @Test
+    public void testGetPage() throws SQLException, CatnapException {
+        when(mappingStrategy.getPage(MockModel.class)).thenReturn("page");
+        when(statementCache.prepare("page")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, true, true, false);
+        stubColumns();
+        when(resultSet.getInt(1)).thenReturn(1, 2, 3);
+        when(resultSet.getString(2)).thenReturn("mock1", "mock2", "mock3");
+
+        Page page = this.session.getPage(MockModel.class, 2, null);
+
+        verify(mappingStrategy, times(1)).bindPage(statement, MockModel.class, null, 3);
+        verify(cache, times(1)).store(Mockito.argThat((List<CatnapResult> list) -> list.size() == 2));
+        assertEquals(2, page.getEntities().size());
+        assertEquals(2, ((MockModel) page.getEntities().get(1)).getId());
+        assertTrue(page.hasNext());
+
+        when(mappingStrategy.getPageAfter(MockModel.class)).thenReturn("pageAfter");
+        when(statementCache.prepare("pageAfter")).thenReturn(statement);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getInt(1)).thenReturn(3);
+        when(resultSet.getString(2)).thenReturn("mock3");
+
+        Page last = this.session.getPage(MockModel.class, 2, page.getNextToken().get());
+
+        verify(mappingStrategy, times(1)).bindPage(Mockito.eq(statement), Mockito.eq(MockModel.class),
+                Mockito.argThat(after -> after instanceof MockModel && ((MockModel) after).getId() == 2), Mockito.eq(3));
+        assertEquals(1, last.getEntities().size());
+        assertFalse(last.hasNext());
+    }
+
+    @Test
+    public void testGetPageInvalidToken() {
+        assertThrows(CatnapException.class, () -> this.session.getPage(MockModel.class, 2, "bad token"));
+        assertThrows(CatnapException.class, () -> this.session.getPage(MockModel.class, 0, null));
+    }
+
+    @Test
+    public void testDeleteWhereById() throws SQLException, CatnapException {
+        Criteria where = Criteria.or(Criteria.eq("id", 1), Criteria.and(Criteria.in("id", Arrays.asList(2, 3)), Criteria.eq("name", "x")));
+
+        when(mappingStrategy.deleteWhere(MockModel.class, where)).thenReturn("delete");
+        when(statementCache.prepare("delete")).thenReturn(statement);
+        when(statement.executeUpdate()).thenReturn(2);
+
+        assertEquals(2, this.session.deleteWhere(MockModel.class, where));
+        verify(mappingStrategy, times(1)).bindWhere(statement, MockModel.class, Collections.emptyMap(), where);
+        verify(cache, times(1)).remove(MockModel.class, 1);
+        verify(cache, times(1)).remove(MockModel.class, 2);
+        verify(cache, times(1)).remove(MockModel.class, 3);
+        verify(cache, never()).removeAll(MockModel.class);
+    }
+
+    @Test
+    public void testUpdateWhere() throws SQLException, CatnapException {
+        Map<String, Object> values = Collections.singletonMap("name", "renamed");
+        Criteria where = Criteria.or(Criteria.eq("id", 1), Criteria.like("name", "mock%"));
+
+        when(mappingStrategy.updateWhere(MockModel.class, values.keySet(), where)).thenReturn("update");
+        when(statementCache.prepare("update")).thenReturn(statement);
+        when(statement.executeUpdate()).thenReturn(5);
+
+        assertEquals(5, this.session.updateWhere(MockModel.class, values, where));
+        verify(mappingStrategy, times(1)).bindWhere(statement, MockModel.class, values, where);
+        verify(cache, times(1)).removeAll(MockModel.class);
+    }
+
+    @Test
+    public void testDeleteWhereSQLException() throws SQLException, CatnapException {
+        Criteria where = Criteria.eq("name", "x");
+
+        when(mappingStrategy.deleteWhere(MockModel.class, where)).thenReturn("delete");
+        when(statementCache.prepare("delete")).thenReturn(statement);
+        when(statement.executeUpdate()).thenThrow(SQLException.class);
+
+        assertThrows(CatnapException.class, () -> this.session.deleteWhere(MockModel.class, where));
+        assertThrows(CatnapException.class, () -> this.session.deleteWhere(MockModel.class, null));
+        verify(cache, never()).removeAll(MockModel.class);
+    }
+
+    @Test
+    public void testStream() throws SQLException, CatnapException {
+        when(mappingStrategy.getAll(MockModel.class)).thenReturn("stream");
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.prepareStatement("stream", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, true, false);
+        stubColumns();
+        when(resultSet.getInt(1)).thenReturn(1, 2);
+        when(resultSet.getString(2)).thenReturn("mock1", "mock2");
+
+        this.session.setFetchSize(50);
+        List<Object> entities;
+        try (Stream<Object> stream = this.session.stream(MockModel.class, false)) {
+            entities = stream.collect(Collectors.toList());
+        }
+
+        assertEquals(2, entities.size());
+        assertEquals("mock2", ((MockModel) entities.get(1)).getName());
+        verify(statement, times(1)).setFetchSize(50);
+        verify(connection, times(1)).setAutoCommit(false);
+        verify(connection, times(1)).setAutoCommit(true);
+        verify(resultSet, times(1)).close();
+        verify(statement, times(1)).close();
+        verify(cache, never()).store(Mockito.any(CatnapResult.class));
+    }
+
+    @Test
+    public void testStreamCachesAndClosesEarly() throws SQLException, CatnapException {
+        when(mappingStrategy.getAll(MockModel.class)).thenReturn("stream");
+        when(connection.getAutoCommit()).thenReturn(false);
+        when(connection.prepareStatement("stream", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        stubColumns();
+        when(resultSet.getInt(1)).thenReturn(1);
+        when(resultSet.getString(2)).thenReturn("mock1");
+
+        try (Stream<Object> stream = this.session.stream(MockModel.class, true)) {
+            assertEquals(1, ((MockModel) stream.findFirst().get()).getId());
+        }
+
+        verify(cache, times(1)).store(Mockito.any(CatnapResult.class));
+        verify(connection, never()).setAutoCommit(Mockito.anyBoolean());
+        verify(resultSet, times(1)).close();
+        verify(statement, times(1)).close();
+    }
+
+    @Test
+    public void testStreamSQLException() throws SQLException, CatnapException {
+        when(mappingStrategy.getAll(MockModel.class)).thenReturn("stream");
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.prepareStatement("stream", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenThrow(SQLException.class);
+
+        Stream<Object> stream = this.session.stream(MockModel.class, false);
+        assertThrows(UncheckedCatnapException.class, () -> stream.collect(Collectors.toList()));
+        verify(statement, times(1)).close();
+        verify(connection, times(1)).setAutoCommit(true);
+    }
+
+    @Test
+    public void testStreamExecuteQueryFailureRestoresAutoCommit() throws SQLException, CatnapException {
+        when(mappingStrategy.getAll(MockModel.class)).thenReturn("stream");
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.prepareStatement("stream", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(statement);
+        when(statement.executeQuery()).thenThrow(SQLException.class);
+
+        assertThrows(CatnapException.class, () -> this.session.stream(MockModel.class, false));
+        verify(statement, times(1)).close();
+        verify(connection, times(1)).setAutoCommit(false);
+        verify(connection, times(1)).setAutoCommit(true);
+    }
+
+    /**
+     * The column plan of a query is cached in the shared EntityMetadata after the first time it is read,
+     * so the ResultSetMetaData may not be read by every test.
+     */
+    @Test
+    public void testGetFromSharedCache() throws CatnapException {
+        SharedEntityCache sharedCache = new SharedEntityCache();
+        CachedModel model = new CachedModel(1, "shared");
+        sharedCache.store(new CatnapResult(model));
+        session.setSharedCache(sharedCache);
+
+        CachedModel got = (CachedModel) session.get(CachedModel.class, 1).get();
+
+        assertNotSame(model, got);
+        assertEquals("shared", got.getName());
+        verify(cache).store(Mockito.any(CatnapResult.class));
+        verifyNoInteractions(statementCache);
+    }
+
+    @Test
+    public void testUpdateEvictsSharedCache() throws SQLException, CatnapException {
+        SharedEntityCache sharedCache = new SharedEntityCache();
+        CachedModel model = new CachedModel(1, "shared");
+        sharedCache.store(new CatnapResult(model));
+        session.setSharedCache(sharedCache);
+
+        when(mappingStrategy.update(CachedModel.class)).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
+
+        model.setName("changed");
+        session.update(model);
+
+        assertFalse(sharedCache.contains(CachedModel.class, 1));
+    }
+
+    @Test
+    public void testRollbackEvictsSharedCache() throws SQLException, CatnapException {
+        SharedEntityCache sharedCache = new SharedEntityCache();
+        CachedModel model = new CachedModel(1, "shared");
+        session.setSharedCache(sharedCache);
+
+        when(mappingStrategy.update(CachedModel.class)).thenReturn("");
+        when(statementCache.prepare("")).thenReturn(statement);
+        when(statement.executeBatch()).thenReturn(new int[]{1});
+
+        session.beginTransaction();
+        session.update(model);
+        session.flush();
+        // another session caches the row before the rollback
+        sharedCache.store(new CatnapResult(new CachedModel(1, "shared")));
+        session.rollback();
+
+        assertFalse(sharedCache.contains(CachedModel.class, 1));
+    }
+
+    @Test
+    public void testUpdateWhereInTransactionEvictsSharedCacheOnCommit() throws SQLException, CatnapException, RollbackException {
+        SharedEntityCache sharedCache = new SharedEntityCache();
+        session.setSharedCache(sharedCache);
+        Map<String, Object> values = Collections.singletonMap("name", "renamed");
+        Criteria where = Criteria.eq("id", 1);
+
+        when(mappingStrategy.updateWhere(CachedModel.class, values.keySet(), where)).thenReturn("update");
+        when(statementCache.prepare("update")).thenReturn(statement);
+        when(statement.executeUpdate()).thenReturn(1);
+
+        session.beginTransaction();
+        session.updateWhere(CachedModel.class, values, where);
+        // another session caches the old committed rows before the commit
+        sharedCache.store(new CatnapResult(new CachedModel(1, "shared")));
+        sharedCache.store(new CatnapResult(new CachedModel(2, "shared")));
+        session.commit();
+
+        assertFalse(sharedCache.contains(CachedModel.class, 1));
+        assertTrue(sharedCache.contains(CachedModel.class, 2));
+        verify(connection, times(1)).commit();
+    }
+
+    @Test
+    public void testDeleteWhereInTransactionEvictsTypeOnRollback() throws SQLException, CatnapException {
+        SharedEntityCache sharedCache = new SharedEntityCache();
+        session.setSharedCache(sharedCache);
+        Criteria where = Criteria.like("name", "mock%");
+
+        when(mappingStrategy.deleteWhere(CachedModel.class, where)).thenReturn("delete");
+        when(statementCache.prepare("delete")).thenReturn(statement);
+        when(statement.executeUpdate()).thenReturn(3);
+
+        session.beginTransaction();
+        session.deleteWhere(CachedModel.class, where);
+        sharedCache.store(new CatnapResult(new CachedModel(2, "shared")));
+        session.rollback();
+
+        assertFalse(sharedCache.contains(CachedModel.class, 2));
+        verify(cache, times(2)).removeAll(CachedModel.class);
+    }
+
+    private void stubColumns() throws SQLException {
+        lenient().when(resultSet.getMetaData()).thenReturn(resultSetMetaData);
+        lenient().when(resultSetMetaData.getColumnCount()).thenReturn(2);
+        lenient().when(resultSetMetaData.getColumnLabel(1)).thenReturn("id");
+        lenient().when(resultSetMetaData.getColumnLabel(2)).thenReturn("name");
+    }
 }
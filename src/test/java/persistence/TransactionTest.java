@@ -0,0 +1,78 @@
+package persistence;
+
+import exceptions.CatnapException;
+import models.MockModel;
+import org.junit.jupiter.api.Test;
+import util.CatnapResult;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionTest {
+
+    @Test
+    public void testInsertThenDeleteCancels() throws CatnapException {
+        Transaction transaction = new Transaction();
+        MockModel model = new MockModel(0, "mock");
+        transaction.persist(model);
+        transaction.delete(model);
+
+        assertFalse(transaction.hasPendingActions());
+        assertTrue(transaction.drain().isEmpty());
+    }
+
+    @Test
+    public void testRepeatedUpdatesMerge() throws CatnapException {
+        Transaction transaction = new Transaction();
+        MockModel first = new MockModel(1, "first");
+        MockModel second = new MockModel(1, "second");
+        transaction.update(first);
+        transaction.update(first);
+        transaction.update(second);
+
+        List<Map<Transaction.ActionType, List<CatnapResult>>> groups = transaction.drain();
+        List<CatnapResult> updates = groups.get(0).get(Transaction.ActionType.UPDATE);
+
+        assertEquals(1, updates.size());
+        assertSame(second, updates.get(0).getEntity());
+    }
+
+    @Test
+    public void testDeleteReplacesUpdate() throws CatnapException {
+        Transaction transaction = new Transaction();
+        MockModel model = new MockModel(1, "mock");
+        transaction.update(model);
+        transaction.delete(model);
+        transaction.update(model);
+
+        Map<Transaction.ActionType, List<CatnapResult>> group = transaction.drain().get(0);
+
+        assertNull(group.get(Transaction.ActionType.UPDATE));
+        assertEquals(1, group.get(Transaction.ActionType.DELETE).size());
+    }
+
+    @Test
+    public void testUpdateOfQueuedInsertIsDropped() throws CatnapException {
+        Transaction transaction = new Transaction();
+        MockModel model = new MockModel(0, "mock");
+        transaction.persist(model);
+        transaction.update(model);
+
+        Map<Transaction.ActionType, List<CatnapResult>> group = transaction.drain().get(0);
+
+        assertEquals(1, group.get(Transaction.ActionType.INSERT).size());
+        assertNull(group.get(Transaction.ActionType.UPDATE));
+    }
+
+    @Test
+    public void testDrainEmptiesQueue() throws CatnapException {
+        Transaction transaction = new Transaction();
+        transaction.persist(new MockModel(0, "mock"));
+
+        assertEquals(1, transaction.drain().size());
+        assertFalse(transaction.hasPendingActions());
+        assertEquals(1, transaction.getFlushed().size());
+    }
+}
@@ -0,0 +1,78 @@
+package util;
+
+import exceptions.CatnapException;
+import models.MockModel;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccessorStrategyTest {
+
+    static class Reading {
+        private long timestamp;
+        private double value;
+        private boolean valid;
+        private Integer sensor;
+
+        Reading(long timestamp) {
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final AccessorStrategy[] strategies = {
+            new MethodHandleAccessorStrategy(),
+            new ReflectionAccessorStrategy()
+    };
+
+    @Test
+    public void testNewInstanceAndSet() throws CatnapException {
+        for (AccessorStrategy strategy: strategies) {
+            EntityAccessor accessor = strategy.create(EntityMetadata.of(MockModel.class));
+
+            MockModel model = (MockModel) accessor.newInstance();
+            accessor.setInt(model, 0, 7);
+            accessor.set(model, 1, "mock");
+
+            assertEquals(7, model.getId());
+            assertEquals("mock", model.getName());
+            assertEquals(7, accessor.getInt(model, 0));
+            assertEquals("mock", accessor.get(model, 1));
+        }
+    }
+
+    @Test
+    public void testTypedAccess() throws CatnapException {
+        for (AccessorStrategy strategy: strategies) {
+            EntityAccessor accessor = strategy.create(EntityMetadata.of(Reading.class));
+            Reading reading = new Reading(10L);
+
+            accessor.setDouble(reading, 1, 2.5);
+            accessor.setBoolean(reading, 2, true);
+            accessor.set(reading, 3, null);
+
+            assertEquals(10L, accessor.getLong(reading, 0));
+            assertEquals(2.5, accessor.getDouble(reading, 1));
+            assertTrue(accessor.getBoolean(reading, 2));
+            assertNull(accessor.get(reading, 3));
+            assertEquals(10L, accessor.get(reading, 0));
+        }
+    }
+
+    @Test
+    public void testNewInstanceWithoutNoArgConstructor() {
+        for (AccessorStrategy strategy: strategies) {
+            EntityAccessor accessor = strategy.create(EntityMetadata.of(Reading.class));
+
+            assertThrows(CatnapException.class, accessor::newInstance);
+        }
+    }
+
+    @Test
+    public void testWrongTypedAccess() {
+        for (AccessorStrategy strategy: strategies) {
+            EntityAccessor accessor = strategy.create(EntityMetadata.of(MockModel.class));
+
+            assertThrows(CatnapException.class, () -> accessor.getInt(new MockModel(1, "mock"), 1));
+        }
+    }
+}
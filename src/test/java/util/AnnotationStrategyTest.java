@@ -4,16 +4,29 @@ import annotations.Entity;
 import annotations.Id;
 import annotations.Length;
 import annotations.OrderBy;
+import exceptions.CatnapException;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 
 import java.lang.reflect.InvocationTargetException;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class AnnotationStrategyTest {
@@ -44,6 +57,15 @@ public class AnnotationStrategyTest {
         public Double weight = 4128.13;
         public int horsePower = 357;
     }
+    @Entity
+    class Post {
+        @Id
+        public int postId = 7;
+        @OrderBy(direction = "DESC")
+        public int score = 90;
+        @OrderBy
+        public String title = "hello";
+    }
 
     @BeforeAll
     public void init() {
@@ -74,19 +96,298 @@ public class AnnotationStrategyTest {
     @Test
     public void testInsert() throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
         AnnotationStrategy aS = new AnnotationStrategy();
-        Animal animal = new Animal();
+        Class animal = Animal.class;
         String result = aS.insert(animal);
 
-        assertEquals("INSERT INTO Animals VALUES (default, true, false, 'blue', 26, 4, 212.07, 160.12);", result);
+        assertEquals("INSERT INTO Animals (fur, scales, eyeColor, numOfTeeth, numOfLegs, weight, weight2)" +
+                " VALUES (?, ?, ?, ?, ?, ?, ?);", result);
+    }
+    @Test
+    public void testInsertReturning() {
+        AnnotationStrategy aS = new AnnotationStrategy();
+
+        assertEquals("WITH batch (ord, paintColor, weight, horsePower) AS (VALUES" +
+                " (1, CAST(? AS VARCHAR), CAST(? AS float8), CAST(? AS INTEGER))," +
+                " (2, CAST(? AS VARCHAR), CAST(? AS float8), CAST(? AS INTEGER)))," +
+                " keyed AS (SELECT nextval(pg_get_serial_sequence('Car', 'carid')) AS carId, * FROM batch)," +
+                " inserted AS (INSERT INTO Car (carId, paintColor, weight, horsePower)" +
+                " SELECT carId, paintColor, weight, horsePower FROM keyed RETURNING carId)" +
+                " SELECT keyed.ord, keyed.carId FROM keyed JOIN inserted USING (carId);", aS.insertReturning(Car.class, 2));
+    }
+    @Test
+    public void testBindInsertReturning() throws SQLException, CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+        PreparedStatement statement = mock(PreparedStatement.class);
+        Car car = new Car();
+        Car other = new Car();
+        other.paintColor = "red";
+        aS.bindInsertReturning(statement, Arrays.asList(car, other));
+
+        verify(statement).setString(1, "silver");
+        verify(statement).setDouble(2, 4128.13);
+        verify(statement).setInt(3, 357);
+        verify(statement).setString(4, "red");
+        verify(statement).setDouble(5, 4128.13);
+        verify(statement).setInt(6, 357);
+        verifyNoMoreInteractions(statement);
+    }
+    @Test
+    public void testCopy() {
+        AnnotationStrategy aS = new AnnotationStrategy();
+
+        assertEquals("COPY Car (paintColor, weight, horsePower) FROM STDIN;", aS.copyIn(Car.class));
+        assertEquals("COPY Car (carId, paintColor, weight, horsePower) TO STDOUT;", aS.copyOut(Car.class));
     }
     @Test
     public void testUpdate() throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
         AnnotationStrategy aS = new AnnotationStrategy();
-        Animal animal = new Animal();
+        Class animal = Animal.class;
         String result = aS.update(animal);
 
-        assertEquals("UPDATE Animals SET fur = true, scales = false, eyeColor = 'blue', numOfTeeth = 26," +
-                " numOfLegs = 4, weight = 212.07, weight2 = 160.12 WHERE animalId = 12345;", result );
+        assertEquals("UPDATE Animals SET fur = ?, scales = ?, eyeColor = ?, numOfTeeth = ?," +
+                " numOfLegs = ?, weight = ?, weight2 = ? WHERE animalId = ?;", result );
+    }
+    @Test
+    public void testPartialUpdate() throws SQLException, CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+        BitSet columns = new BitSet();
+        columns.set(0);
+        columns.set(2);
+
+        assertEquals("UPDATE Car SET weight = ? WHERE carId = ?;", aS.update(Car.class, columns));
+
+        PreparedStatement statement = mock(PreparedStatement.class);
+        aS.bindUpdate(statement, new Car(), columns);
+
+        verify(statement).setDouble(1, 4128.13);
+        verify(statement).setInt(2, 56789);
+        verifyNoMoreInteractions(statement);
+    }
+    @Test
+    public void testPartialUpdateOfEveryColumn() {
+        AnnotationStrategy aS = new AnnotationStrategy();
+        BitSet columns = new BitSet();
+        columns.set(1, 4);
+
+        assertSame(aS.update(Car.class), aS.update(Car.class, columns));
+    }
+    @Test
+    public void testTemplateIsCached() {
+        AnnotationStrategy aS = new AnnotationStrategy();
+
+        assertSame(aS.update(Animal.class), aS.update(Animal.class));
+    }
+    @Test
+    public void testBindInsert() throws SQLException, CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+        PreparedStatement statement = mock(PreparedStatement.class);
+        aS.bindInsert(statement, new Animal());
+
+        verify(statement).setBoolean(1, true);
+        verify(statement).setBoolean(2, false);
+        verify(statement).setString(3, "blue");
+        verify(statement).setInt(4, 26);
+        verify(statement).setInt(5, 4);
+        verify(statement).setDouble(6, 212.07);
+        verify(statement).setDouble(7, 160.12);
+        verifyNoMoreInteractions(statement);
+    }
+    @Test
+    public void testBindUpdate() throws SQLException, CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+        PreparedStatement statement = mock(PreparedStatement.class);
+        Car car = new Car();
+        car.weight = null;
+        aS.bindUpdate(statement, car);
+
+        verify(statement).setString(1, "silver");
+        verify(statement).setNull(2, Types.DOUBLE);
+        verify(statement).setInt(3, 357);
+        verify(statement).setInt(4, 56789);
+        verifyNoMoreInteractions(statement);
+    }
+    @Test
+    public void testGetByIds() {
+        AnnotationStrategy aS = new AnnotationStrategy();
+
+        assertEquals("SELECT * FROM Car WHERE carId = ANY(?);", aS.getByIds(Car.class));
+    }
+    @Test
+    public void testGetRowVersions() {
+        AnnotationStrategy aS = new AnnotationStrategy();
+
+        assertEquals("SELECT carId, xmin::text::bigint FROM Car WHERE carId = ANY(?);", aS.getRowVersions(Car.class));
+    }
+    @Test
+    public void testGetPage() {
+        AnnotationStrategy aS = new AnnotationStrategy();
+
+        assertEquals("SELECT * FROM Car ORDER BY carId ASC LIMIT ?;", aS.getPage(Car.class));
+        assertEquals("SELECT * FROM Car WHERE carId > ? ORDER BY carId ASC LIMIT ?;", aS.getPageAfter(Car.class));
+        assertEquals("SELECT * FROM Animals ORDER BY numOfTeeth ASC, numOfLegs ASC NULLS LAST, weight ASC NULLS LAST," +
+                " animalId ASC LIMIT ?;", aS.getPage(Animal.class));
+        assertEquals("SELECT * FROM Animals WHERE (numOfTeeth > ?)" +
+                " OR (numOfTeeth = ? AND (numOfLegs > ? OR numOfLegs IS NULL AND CAST(? AS INTEGER) IS NOT NULL))" +
+                " OR (numOfTeeth = ? AND numOfLegs IS NOT DISTINCT FROM ? AND (weight > ? OR weight IS NULL AND CAST(? AS float8) IS NOT NULL))" +
+                " OR (numOfTeeth = ? AND numOfLegs IS NOT DISTINCT FROM ? AND weight IS NOT DISTINCT FROM ? AND animalId > ?)" +
+                " ORDER BY numOfTeeth ASC, numOfLegs ASC NULLS LAST, weight ASC NULLS LAST, animalId ASC LIMIT ?;", aS.getPageAfter(Animal.class));
+    }
+    @Test
+    public void testGetPageMixedDirections() throws SQLException, CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+
+        assertEquals("SELECT * FROM Post WHERE (score < ?)" +
+                " OR (score = ? AND (title > ? OR title IS NULL AND CAST(? AS VARCHAR) IS NOT NULL))" +
+                " OR (score = ? AND title IS NOT DISTINCT FROM ? AND postId > ?)" +
+                " ORDER BY score DESC, title ASC NULLS LAST, postId ASC LIMIT ?;", aS.getPageAfter(Post.class));
+
+        PreparedStatement statement = mock(PreparedStatement.class);
+        aS.bindPage(statement, Post.class, new Post(), 11);
+
+        verify(statement).setInt(1, 90);
+        verify(statement).setInt(2, 90);
+        verify(statement).setString(3, "hello");
+        verify(statement).setString(4, "hello");
+        verify(statement).setInt(5, 90);
+        verify(statement).setString(6, "hello");
+        verify(statement).setInt(7, 7);
+        verify(statement).setInt(8, 11);
+        verifyNoMoreInteractions(statement);
+    }
+    @Test
+    public void testBindPageAfterNullSortValue() throws SQLException, CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+        Post post = new Post();
+        post.title = null;
+
+        PreparedStatement statement = mock(PreparedStatement.class);
+        aS.bindPage(statement, Post.class, post, 11);
+
+        // the rows with a NULL title after the token's row are found through IS NOT DISTINCT FROM and postId
+        verify(statement).setInt(1, 90);
+        verify(statement).setInt(2, 90);
+        verify(statement).setNull(3, Types.VARCHAR);
+        verify(statement).setNull(4, Types.VARCHAR);
+        verify(statement).setInt(5, 90);
+        verify(statement).setNull(6, Types.VARCHAR);
+        verify(statement).setInt(7, 7);
+        verify(statement).setInt(8, 11);
+        verifyNoMoreInteractions(statement);
+    }
+    @Test
+    public void testUpsert() throws SQLException, CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+
+        assertEquals("INSERT INTO Car (carId, paintColor, weight, horsePower) VALUES (?, ?, ?, ?), (?, ?, ?, ?)" +
+                " ON CONFLICT (carId) DO UPDATE SET paintColor = EXCLUDED.paintColor, weight = EXCLUDED.weight," +
+                " horsePower = EXCLUDED.horsePower RETURNING *;", aS.upsert(Car.class, 2));
+
+        PreparedStatement statement = mock(PreparedStatement.class);
+        aS.bindUpsert(statement, Arrays.asList(new Car()));
+
+        verify(statement).setInt(1, 56789);
+        verify(statement).setString(2, "silver");
+        verify(statement).setDouble(3, 4128.13);
+        verify(statement).setInt(4, 357);
+        verifyNoMoreInteractions(statement);
+    }
+    @Test
+    public void testCountAndExists() {
+        AnnotationStrategy aS = new AnnotationStrategy();
+
+        assertEquals("SELECT count(*) FROM Animals;", aS.count(Animal.class));
+        assertEquals("SELECT EXISTS (SELECT 1 FROM Car WHERE carId = ?);", aS.exists(Car.class));
+    }
+    @Test
+    public void testAggregate() throws CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+
+        assertEquals("SELECT sum(horsePower) FROM Car;", aS.aggregate(Car.class, Aggregate.SUM, "horsePower", null));
+        assertEquals("SELECT paintColor, avg(weight) FROM Car GROUP BY paintColor ORDER BY paintColor;",
+                aS.aggregate(Car.class, Aggregate.AVG, "weight", "paintColor"));
+        assertThrows(CatnapException.class, () -> aS.aggregate(Car.class, Aggregate.MAX, "paintColor", null));
+        assertThrows(CatnapException.class, () -> aS.aggregate(Car.class, Aggregate.MIN, "weight", "wheels"));
+    }
+    @Test
+    public void testQuery() throws CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+        Query query = new Query(Car.class)
+                .where(Criteria.or(Criteria.eq("paintColor", "red"), Criteria.in("carId", Arrays.asList(1, 2))))
+                .where(Criteria.between("horsePower", 100, 300))
+                .orderByDescending("weight")
+                .limit(10);
+
+        assertEquals("SELECT * FROM Car WHERE ((paintColor = ? OR carId = ANY(?)) AND horsePower BETWEEN ? AND ?)" +
+                " ORDER BY weight DESC LIMIT ?;", aS.query(query));
+        assertEquals("SELECT * FROM Animals WHERE eyeColor LIKE ? ORDER BY numOfTeeth ASC, numOfLegs ASC, weight ASC;",
+                aS.query(new Query(Animal.class).where(Criteria.like("eyeColor", "bl%"))));
+        assertEquals("SELECT * FROM Car WHERE paintColor IS NULL;", aS.query(new Query(Car.class).where(Criteria.eq("paintColor", null))));
+    }
+    @Test
+    public void testQueryTemplateIsCachedByShape() throws CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+        String sql = aS.query(new Query(Car.class).where(Criteria.in("carId", Arrays.asList(1, 2, 3))));
+
+        assertSame(sql, aS.query(new Query(Car.class).where(Criteria.in("carId", Arrays.asList(4)))));
+    }
+    @Test
+    public void testSelect() throws CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+        Query query = new Query(Car.class).select("paintColor", "horsePower").where(Criteria.lt("weight", 3000.0)).limit(3);
+
+        assertEquals("SELECT paintColor, horsePower FROM Car WHERE weight < ? LIMIT ?;", aS.select(query));
+        assertEquals("SELECT * FROM Car WHERE weight < ? LIMIT ?;", aS.query(query));
+        assertEquals("SELECT carId, paintColor, weight, horsePower FROM Car;", aS.select(new Query(Car.class)));
+        assertThrows(CatnapException.class, () -> aS.select(new Query(Car.class).select("wheels")));
+    }
+    @Test
+    public void testUpdateWhereAndDeleteWhere() throws SQLException, CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("paintColor", "black");
+        values.put("horsePower", 400);
+        Criteria where = Criteria.lt("weight", 3000.0);
+
+        assertEquals("UPDATE Car SET paintColor = ?, horsePower = ? WHERE weight < ?;", aS.updateWhere(Car.class, values.keySet(), where));
+        assertEquals("DELETE FROM Car WHERE weight < ?;", aS.deleteWhere(Car.class, where));
+        assertThrows(CatnapException.class, () -> aS.updateWhere(Car.class, Arrays.asList("carId"), where));
+        assertThrows(CatnapException.class, () -> aS.updateWhere(Car.class, new ArrayList<>(), where));
+
+        PreparedStatement statement = mock(PreparedStatement.class);
+        aS.bindWhere(statement, Car.class, values, where);
+
+        verify(statement).setString(1, "black");
+        verify(statement).setInt(2, 400);
+        verify(statement).setDouble(3, 3000.0);
+        verifyNoMoreInteractions(statement);
+    }
+    @Test
+    public void testQueryUnknownColumn() {
+        AnnotationStrategy aS = new AnnotationStrategy();
+
+        assertThrows(CatnapException.class, () -> aS.query(new Query(Car.class).where(Criteria.eq("wheels", 4))));
+        assertThrows(CatnapException.class, () -> aS.query(new Query(Car.class).orderBy("wheels")));
+        assertThrows(CatnapException.class, () -> aS.query(new Query(Car.class).where(Criteria.like("horsePower", "3%"))));
+    }
+    @Test
+    public void testBindQuery() throws SQLException, CatnapException {
+        AnnotationStrategy aS = new AnnotationStrategy();
+        PreparedStatement statement = mock(PreparedStatement.class);
+        Connection connection = mock(Connection.class);
+        Array array = mock(Array.class);
+        when(statement.getConnection()).thenReturn(connection);
+        when(connection.createArrayOf("integer", new Object[]{1, 2})).thenReturn(array);
+
+        aS.bindQuery(statement, new Query(Car.class)
+                .where(Criteria.and(Criteria.eq("paintColor", "red"), Criteria.in("carId", Arrays.asList(1, 2)), Criteria.ge("weight", 2.5)))
+                .limit(5));
+
+        verify(statement).setString(1, "red");
+        verify(statement).setArray(2, array);
+        verify(statement).setDouble(3, 2.5);
+        verify(statement).setInt(4, 5);
+
+        assertThrows(CatnapException.class, () -> aS.bindQuery(statement, new Query(Car.class).where(Criteria.eq("horsePower", "fast"))));
     }
     @Test
     public void testGetAll() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
@@ -100,17 +401,17 @@ public class AnnotationStrategyTest {
     public void testGet() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
         AnnotationStrategy aS = new AnnotationStrategy();
         Class animal = Animal.class;
-        String result = aS.get(animal, 12345);
+        String result = aS.get(animal);
 
-        assertEquals("SELECT * FROM Animals WHERE animalId = 12345;", result);
+        assertEquals("SELECT * FROM Animals WHERE animalId = ?;", result);
     }
     @Test
     public void testDelete() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
         AnnotationStrategy aS = new AnnotationStrategy();
         Class animal = Animal.class;
-        String result = aS.delete(animal, 12345);
+        String result = aS.delete(animal);
 
-        assertEquals("DELETE FROM Animals WHERE animalId = 12345;", result);
+        assertEquals("DELETE FROM Animals WHERE animalId = ?;", result);
     }
     @Test
     public void testBuildSchema() {
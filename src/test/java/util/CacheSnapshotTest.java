@@ -0,0 +1,307 @@
+package util;
+
+import annotations.Cacheable;
+import annotations.Id;
+import exceptions.CatnapException;
+import models.CachedModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheSnapshotTest {
+
+    @Cacheable
+    static class Part {
+        @Id
+        private int id;
+        private long serial;
+        private double price;
+        private Integer stock;
+        private String label;
+    }
+
+    @TempDir
+    Path directory;
+
+    private static long[] versionsOf(int[] ids) {
+        return Arrays.stream(ids).mapToLong(id -> id * 10L).toArray();
+    }
+
+    private SharedEntityCache cacheOf(int count) throws CatnapException {
+        SharedEntityCache cache = new SharedEntityCache();
+        for (int i = 1; i <= count; i++) {
+            cache.store(new CatnapResult(new CachedModel(i, "model " + i)));
+        }
+        return cache;
+    }
+
+    @Test
+    public void testWritesAndOpensSnapshot() throws CatnapException {
+        SharedEntityCache cache = cacheOf(3);
+        Part part = new Part();
+        part.id = 9;
+        part.serial = 1L << 40;
+        part.price = 4.5;
+        part.stock = 12;
+        cache.store(new CatnapResult(part));
+        Path file = directory.resolve("cache.snapshot");
+
+        CacheSnapshot.write(file, cache, (clazz, ids) -> versionsOf(ids));
+        CacheSnapshot snapshot = CacheSnapshot.open(file, (clazz, ids) -> versionsOf(ids)).get();
+
+        assertEquals(4, snapshot.size());
+        CatnapResult model = snapshot.get(CachedModel.class, 2).get();
+        assertEquals("model 2", ((CachedModel) model.getEntity()).getName());
+        assertTrue(model.hasSnapshot());
+        Part got = (Part) snapshot.get(Part.class, 9).get().getEntity();
+        assertNotSame(part, got);
+        assertEquals(1L << 40, got.serial);
+        assertEquals(4.5, got.price);
+        assertEquals(12, got.stock);
+        assertNull(got.label);
+        assertFalse(Files.exists(directory.resolve("cache.snapshot.tmp")));
+    }
+
+    @Test
+    public void testDropsRowsWrittenSince() throws CatnapException {
+        Path file = directory.resolve("cache.snapshot");
+        CacheSnapshot.write(file, cacheOf(3), (clazz, ids) -> versionsOf(ids));
+
+        CacheSnapshot snapshot = CacheSnapshot.open(file, (clazz, ids) -> {
+            long[] versions = versionsOf(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if(ids[i] == 2) {
+                    versions[i] = 21;
+                } else if(ids[i] == 3) {
+                    versions[i] = CacheSnapshot.MISSING_VERSION;
+                }
+            }
+            return versions;
+        }).get();
+
+        assertTrue(snapshot.contains(CachedModel.class, 1));
+        assertFalse(snapshot.contains(CachedModel.class, 2));
+        assertFalse(snapshot.get(CachedModel.class, 3).isPresent());
+        assertEquals(1, snapshot.size());
+    }
+
+    @Test
+    public void testChecksVersionsOnAccess() throws CatnapException {
+        Path file = directory.resolve("cache.snapshot");
+        CacheSnapshot.write(file, cacheOf(3), (clazz, ids) -> versionsOf(ids));
+
+        AtomicInteger fetches = new AtomicInteger();
+        CacheSnapshot snapshot = CacheSnapshot.open(file, (clazz, ids) -> {
+            fetches.incrementAndGet();
+            return Arrays.stream(ids).mapToLong(id -> id == 2 ? 21 : id * 10L).toArray();
+        }).get();
+
+        assertEquals(0, fetches.get());
+        assertEquals(3, snapshot.size());
+
+        assertFalse(snapshot.get(CachedModel.class, 2).isPresent());
+        assertEquals(1, fetches.get());
+        assertTrue(snapshot.get(CachedModel.class, 1).isPresent());
+        assertTrue(snapshot.contains(CachedModel.class, 3));
+        assertEquals(1, fetches.get());
+        assertEquals(2, snapshot.size());
+    }
+
+    @Test
+    public void testChecksOneChunkAtATime() throws CatnapException {
+        Path file = directory.resolve("cache.snapshot");
+        CacheSnapshot.write(file, cacheOf(CacheSnapshot.CHUNK_SIZE + 5), (clazz, ids) -> versionsOf(ids));
+
+        List<int[]> fetched = new ArrayList<>();
+        CacheSnapshot snapshot = CacheSnapshot.open(file, (clazz, ids) -> {
+            fetched.add(ids);
+            return versionsOf(ids);
+        }).get();
+
+        assertTrue(snapshot.get(CachedModel.class, 7).isPresent());
+        assertEquals(1, fetched.size());
+        assertTrue(Arrays.stream(fetched.get(0)).anyMatch(id -> id == 7));
+
+        AtomicInteger visited = new AtomicInteger();
+        snapshot.forEach(entity -> visited.incrementAndGet());
+        assertEquals(2, fetched.size());
+        assertEquals(CacheSnapshot.CHUNK_SIZE + 5, fetched.get(0).length + fetched.get(1).length);
+        assertEquals(CacheSnapshot.CHUNK_SIZE + 5, visited.get());
+    }
+
+    @Test
+    public void testConcurrentGets() throws CatnapException, InterruptedException, ExecutionException {
+        int count = CacheSnapshot.CHUNK_SIZE * 2;
+        Path file = directory.resolve("cache.snapshot");
+        CacheSnapshot.write(file, cacheOf(count), (clazz, ids) -> versionsOf(ids));
+
+        AtomicInteger fetches = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlapping = new AtomicInteger();
+        CacheSnapshot snapshot = CacheSnapshot.open(file, (clazz, ids) -> {
+            if(running.incrementAndGet() > 1) {
+                overlapping.incrementAndGet();
+            }
+            try {
+                fetches.incrementAndGet();
+                Thread.sleep(20);
+                return versionsOf(ids);
+            } catch (InterruptedException e) {
+                throw new CatnapException("interrupted");
+            } finally {
+                running.decrementAndGet();
+            }
+        }).get();
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int first = i;
+            futures.add(executor.submit(() -> {
+                int found = 0;
+                for (int id = 1; id <= count; id++) {
+                    // each thread starts at another id, so the threads ask for both chunks at once
+                    int next = (id + first * 997) % count + 1;
+                    if(snapshot.get(CachedModel.class, next).isPresent()) {
+                        found++;
+                    }
+                }
+                return found;
+            }));
+        }
+        for (Future<Integer> future: futures) {
+            assertEquals(count, future.get());
+        }
+        executor.shutdown();
+
+        assertEquals(2, fetches.get());
+        assertEquals(0, overlapping.get());
+    }
+
+    @Test
+    public void testWriteLeavesOutDeletedRows() throws CatnapException {
+        Path file = directory.resolve("cache.snapshot");
+        CacheSnapshot.write(file, cacheOf(2), (clazz, ids) ->
+                Arrays.stream(ids).mapToLong(id -> id == 1 ? CacheSnapshot.MISSING_VERSION : id * 10L).toArray());
+
+        CacheSnapshot snapshot = CacheSnapshot.open(file, (clazz, ids) -> versionsOf(ids)).get();
+
+        assertFalse(snapshot.contains(CachedModel.class, 1));
+        assertTrue(snapshot.contains(CachedModel.class, 2));
+    }
+
+    @Test
+    public void testIgnoresOtherFiles() throws CatnapException, IOException {
+        Path file = directory.resolve("cache.snapshot");
+        Files.write(file, "not a snapshot".getBytes());
+
+        assertFalse(CacheSnapshot.open(file, (clazz, ids) -> versionsOf(ids)).isPresent());
+
+        CacheSnapshot.write(file, cacheOf(1), (clazz, ids) -> versionsOf(ids));
+        patch(file, 8, ByteBuffer.allocate(4).putInt(0, CacheSnapshot.FORMAT_VERSION + 1));
+
+        assertFalse(CacheSnapshot.open(file, (clazz, ids) -> versionsOf(ids)).isPresent());
+    }
+
+    @Test
+    public void testIgnoresTypesWhoseSchemaChanged() throws CatnapException, IOException {
+        Path file = directory.resolve("cache.snapshot");
+        CacheSnapshot.write(file, cacheOf(2), (clazz, ids) -> versionsOf(ids));
+
+        long tableOffset = ByteBuffer.wrap(Files.readAllBytes(file)).getLong(20);
+        int nameLength = CachedModel.class.getName().length();
+        long hash = EntityMetadata.of(CachedModel.class).getSchemaHash();
+        patch(file, tableOffset + 4 + nameLength, ByteBuffer.allocate(8).putLong(0, hash + 1));
+
+        AtomicInteger fetches = new AtomicInteger();
+        CacheSnapshot snapshot = CacheSnapshot.open(file, (clazz, ids) -> {
+            fetches.incrementAndGet();
+            return versionsOf(ids);
+        }).get();
+
+        assertEquals(0, snapshot.size());
+        assertEquals(0, fetches.get());
+    }
+
+    @Test
+    public void testEntriesDoNotCrossSegments() throws CatnapException {
+        SharedEntityCache cache = new SharedEntityCache();
+        for (int i = 1; i <= 50; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int j = 0; j < i % 7; j++) {
+                name.append("name");
+            }
+            cache.store(new CatnapResult(new CachedModel(i, name.toString())));
+        }
+        Path file = directory.resolve("cache.snapshot");
+
+        CacheSnapshot.write(file, cache, (clazz, ids) -> versionsOf(ids), 64);
+        CacheSnapshot snapshot = CacheSnapshot.open(file, (clazz, ids) -> versionsOf(ids)).get();
+
+        assertEquals(50, snapshot.size());
+        for (int i = 1; i <= 50; i++) {
+            CachedModel model = (CachedModel) snapshot.get(CachedModel.class, i).get().getEntity();
+            assertEquals(i, model.getId());
+            assertEquals((i % 7) * 4, model.getName().length());
+        }
+    }
+
+    @Test
+    public void testBackedCacheDoesNotMoveStaleEntities() throws CatnapException {
+        Path file = directory.resolve("cache.snapshot");
+        CacheSnapshot.write(file, cacheOf(2), (clazz, ids) -> versionsOf(ids));
+        SharedEntityCache live = new SharedEntityCache();
+        SnapshotBackedCache cache = new SnapshotBackedCache(live, CacheSnapshot.open(file, (clazz, ids) ->
+                Arrays.stream(ids).mapToLong(id -> id == 1 ? CacheSnapshot.MISSING_VERSION : id * 10L).toArray()).get());
+
+        assertNull(cache.getIfPresent(CachedModel.class, 1));
+        assertFalse(live.contains(CachedModel.class, 1));
+        assertNotNull(cache.getIfPresent(CachedModel.class, 2));
+    }
+
+    @Test
+    public void testBackedCacheMovesEntitiesFromSnapshot() throws CatnapException {
+        Path file = directory.resolve("cache.snapshot");
+        CacheSnapshot.write(file, cacheOf(3), (clazz, ids) -> versionsOf(ids));
+        SharedEntityCache live = new SharedEntityCache();
+        SnapshotBackedCache cache = new SnapshotBackedCache(live, CacheSnapshot.open(file, (clazz, ids) -> versionsOf(ids)).get());
+
+        CatnapResult model = cache.getIfPresent(CachedModel.class, 1);
+
+        assertEquals("model 1", ((CachedModel) model.getEntity()).getName());
+        assertTrue(live.contains(CachedModel.class, 1));
+        assertFalse(cache.getSnapshot().contains(CachedModel.class, 1));
+
+        cache.remove(CachedModel.class, 2);
+
+        assertFalse(cache.contains(CachedModel.class, 2));
+        assertFalse(cache.get(CachedModel.class, 2).isPresent());
+
+        AtomicInteger visited = new AtomicInteger();
+        cache.forEach(entity -> visited.incrementAndGet());
+        assertEquals(2, visited.get());
+    }
+
+    private static void patch(Path file, long position, ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(bytes, position);
+        }
+    }
+}
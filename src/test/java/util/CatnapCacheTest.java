@@ -5,6 +5,7 @@ import models.MockModel;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -89,6 +90,34 @@ public class CatnapCacheTest {
         assertFalse(cache.get(model.getClass(), model.getId()).isPresent());
     }
 
+    @Test
+    public void testRemoveCollection() throws CatnapException {
+        MockModel model1 = new MockModel(1, "mock1");
+        MockModel model2 = new MockModel(2, "mock2");
+        CatnapCache cache = new CatnapCache();
+        List<CatnapResult> results = Arrays.asList(new CatnapResult(model1), new CatnapResult(model2));
+        cache.store(results);
+        cache.remove(results);
+
+        assertFalse(cache.contains(model1.getClass(), model1.getId()));
+        assertFalse(cache.contains(model2.getClass(), model2.getId()));
+    }
+
+    @Test
+    public void testRemoveByIdAndType() throws CatnapException {
+        MockModel model1 = new MockModel(1, "mock1");
+        MockModel model2 = new MockModel(2, "mock2");
+        CatnapCache cache = new CatnapCache();
+        cache.store(Arrays.asList(new CatnapResult(model1), new CatnapResult(model2)));
+
+        cache.remove(MockModel.class, 1);
+        assertFalse(cache.contains(MockModel.class, 1));
+        assertTrue(cache.contains(MockModel.class, 2));
+
+        cache.removeAll(MockModel.class);
+        assertFalse(cache.contains(MockModel.class, 2));
+    }
+
     @Test
     public void testRemoveException() {
         CatnapResult er = new CatnapResult(null);
@@ -96,4 +125,86 @@ public class CatnapCacheTest {
 
         assertThrows(CatnapException.class, () -> cache.store(er));
     }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedEntry() throws CatnapException {
+        CatnapCache cache = new CatnapCache(2, Long.MAX_VALUE, CatnapCache.EvictionPolicy.LRU);
+        cache.store(new CatnapResult(new MockModel(1, "mock1")));
+        cache.store(new CatnapResult(new MockModel(2, "mock2")));
+
+        cache.get(MockModel.class, 1);
+        cache.store(new CatnapResult(new MockModel(3, "mock3")));
+
+        assertTrue(cache.contains(MockModel.class, 1));
+        assertFalse(cache.contains(MockModel.class, 2));
+        assertTrue(cache.contains(MockModel.class, 3));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testEvictsByEstimatedBytes() throws CatnapException {
+        CatnapResult small = new CatnapResult(new MockModel(1, "a"));
+        long size = CatnapCache.estimateSize(small);
+        CatnapCache cache = new CatnapCache(Integer.MAX_VALUE, size * 2, CatnapCache.EvictionPolicy.LRU);
+
+        cache.store(small);
+        cache.store(new CatnapResult(new MockModel(2, "b")));
+        assertEquals(size * 2, cache.getEstimatedBytes());
+
+        cache.store(new CatnapResult(new MockModel(3, "a much longer name")));
+
+        assertFalse(cache.contains(MockModel.class, 1));
+        assertFalse(cache.contains(MockModel.class, 2));
+        assertTrue(cache.contains(MockModel.class, 3));
+    }
+
+    @Test
+    public void testEstimatedBytesFollowStoresAndRemoves() throws CatnapException {
+        CatnapCache cache = new CatnapCache();
+        CatnapResult model = new CatnapResult(new MockModel(1, "mock"));
+
+        cache.store(model);
+        cache.store(model);
+        assertEquals(CatnapCache.estimateSize(model), cache.getEstimatedBytes());
+
+        cache.removeAll(MockModel.class);
+        assertEquals(0, cache.getEstimatedBytes());
+    }
+
+    @Test
+    public void testSoftPolicyKeepsReachableEntities() throws CatnapException {
+        MockModel model = new MockModel(1, "mock");
+        CatnapCache cache = new CatnapCache(10, Long.MAX_VALUE, CatnapCache.EvictionPolicy.SOFT);
+        CatnapResult result = new CatnapResult(model);
+
+        cache.store(result);
+
+        assertSame(result, cache.get(MockModel.class, 1).get());
+    }
+
+    @Test
+    public void testGetIfPresent() throws CatnapException {
+        CatnapCache cache = new CatnapCache();
+        CatnapResult result = new CatnapResult(new MockModel(1, "mock"));
+        cache.store(result);
+
+        assertSame(result, cache.getIfPresent(MockModel.class, 1));
+        assertNull(cache.getIfPresent(MockModel.class, 2));
+    }
+
+    @Test
+    public void testManyEntitiesAcrossRemovals() throws CatnapException {
+        CatnapCache cache = new CatnapCache();
+        for (int id = 0; id < 1000; id++) {
+            cache.store(new CatnapResult(new MockModel(id, "mock" + id)));
+        }
+        for (int id = 0; id < 1000; id += 2) {
+            cache.remove(MockModel.class, id);
+        }
+
+        assertEquals(500, cache.size());
+        for (int id = 0; id < 1000; id++) {
+            assertEquals(id % 2 == 1, cache.contains(MockModel.class, id));
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package util;
+
+import annotations.Id;
+import exceptions.CatnapException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CopyFormatTest {
+
+    static class Row {
+        @Id
+        public int id;
+        public String text;
+        public Double amount;
+        public boolean flag;
+        public long count;
+    }
+
+    @Test
+    public void testAppendRow() throws CatnapException {
+        EntityMetadata metadata = EntityMetadata.of(Row.class);
+        Row row = new Row();
+        row.id = 3;
+        row.text = "a\tb\\c\nd";
+        row.amount = null;
+        row.flag = true;
+        row.count = 42L;
+
+        StringBuilder out = new StringBuilder();
+        CopyFormat.appendRow(out, metadata.getColumns(), metadata.getAccessor(), row);
+
+        assertEquals("3\ta\\tb\\\\c\\nd\t\\N\tt\t42\n", out.toString());
+    }
+
+    @Test
+    public void testRoundTrip() throws CatnapException {
+        EntityMetadata metadata = EntityMetadata.of(Row.class);
+        Row row = new Row();
+        row.id = 7;
+        row.text = "tab\there \\N";
+        row.amount = 1.5;
+        row.flag = false;
+        row.count = -1L;
+
+        StringBuilder out = new StringBuilder();
+        CopyFormat.appendRow(out, metadata.getColumns(), metadata.getAccessor(), row);
+        Row read = new Row();
+        CopyFormat.readRow(out.toString(), metadata.getColumns(), metadata.getAccessor(), read);
+
+        assertEquals(row.id, read.id);
+        assertEquals(row.text, read.text);
+        assertEquals(row.amount, read.amount);
+        assertEquals(row.flag, read.flag);
+        assertEquals(row.count, read.count);
+    }
+
+    @Test
+    public void testReadNull() throws CatnapException {
+        EntityMetadata metadata = EntityMetadata.of(Row.class);
+        Row read = new Row();
+        read.text = "old";
+        CopyFormat.readRow("1\t\\N\t\\N\tf\t0\n", metadata.getColumns(), metadata.getAccessor(), read);
+
+        assertNull(read.text);
+        assertNull(read.amount);
+    }
+
+    @Test
+    public void testReadShortRow() {
+        EntityMetadata metadata = EntityMetadata.of(Row.class);
+
+        assertThrows(CatnapException.class,
+                () -> CopyFormat.readRow("1\ttext\n", metadata.getColumns(), metadata.getAccessor(), new Row()));
+    }
+}
@@ -0,0 +1,91 @@
+package util;
+
+import annotations.Entity;
+import annotations.Id;
+import annotations.Length;
+import annotations.OrderBy;
+import models.MockModel;
+import org.junit.jupiter.api.Test;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class EntityMetadataTest {
+
+    @Entity(name = "Plants")
+    class Plant {
+        @Id
+        public int plantId;
+        @Length(size = "20")
+        public String species;
+        @OrderBy(direction = "DESC")
+        public double height;
+        public static final int count = 0;
+    }
+
+    @Test
+    public void testTableName() {
+        assertEquals("Plants", EntityMetadata.of(Plant.class).getTableName());
+        assertEquals("MockModel", EntityMetadata.of(MockModel.class).getTableName());
+    }
+
+    @Test
+    public void testColumnsSkipStaticAndSyntheticFields() {
+        List<String> names = EntityMetadata.of(Plant.class).getColumns().stream()
+                .map(ColumnMetadata::getName)
+                .collect(Collectors.toList());
+
+        assertEquals(3, names.size());
+        assertEquals("plantId", names.get(0));
+        assertEquals("species", names.get(1));
+        assertEquals("height", names.get(2));
+    }
+
+    @Test
+    public void testColumnMetadata() {
+        EntityMetadata metadata = EntityMetadata.of(Plant.class);
+
+        assertEquals("plantId", metadata.getIdColumn().orElseThrow(AssertionError::new).getName());
+        assertEquals(2, metadata.getValueColumns().size());
+        assertEquals("VARCHAR(20)", metadata.getColumn("species").orElseThrow(AssertionError::new).getSqlType());
+        assertEquals("DESC", metadata.getOrderByColumns().get(0).getOrderDirection());
+        assertFalse(metadata.getColumn("count").isPresent());
+    }
+
+    @Test
+    public void testSchemaHash() {
+        EntityMetadata metadata = EntityMetadata.of(Plant.class);
+
+        assertEquals(metadata.getSchemaHash(), EntityMetadata.of(Plant.class).getSchemaHash());
+        assertNotEquals(metadata.getSchemaHash(), EntityMetadata.of(MockModel.class).getSchemaHash());
+    }
+
+    @Test
+    public void testMetadataIsShared() {
+        assertSame(EntityMetadata.of(MockModel.class), EntityMetadata.of(MockModel.class));
+    }
+
+    @Test
+    public void testColumnPlanIsResolvedOnce() throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+        when(rs.getMetaData()).thenReturn(rsmd);
+        when(rsmd.getColumnCount()).thenReturn(3);
+        when(rsmd.getColumnLabel(1)).thenReturn("height");
+        when(rsmd.getColumnLabel(2)).thenReturn("plantid");
+        when(rsmd.getColumnLabel(3)).thenReturn("other");
+
+        EntityMetadata metadata = EntityMetadata.of(Plant.class);
+        int[] plan = metadata.getColumnPlan("SELECT height, plantid, other FROM Plants;", rs);
+
+        assertArrayEquals(new int[]{2, 0, 1}, plan);
+        assertSame(plan, metadata.getColumnPlan("SELECT height, plantid, other FROM Plants;", rs));
+        verify(rs, times(1)).getMetaData();
+    }
+}
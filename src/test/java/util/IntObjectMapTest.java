@@ -0,0 +1,63 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IntObjectMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+
+        assertNull(map.put(1, "one"));
+        assertEquals("one", map.put(1, "uno"));
+        assertEquals("uno", map.get(1));
+        assertNull(map.get(2));
+        assertEquals("uno", map.remove(1));
+        assertNull(map.remove(1));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        IntObjectMap<Integer> map = new IntObjectMap<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        // a small key range makes collisions, growth and removals in the middle of probe sequences common
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(512) - 256;
+            if(random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (int key = -256; key < 256; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void testForEachValueAndClear() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, "v" + i);
+        }
+
+        int[] count = {0};
+        map.forEachValue(value -> count[0]++);
+        map.clear();
+
+        assertEquals(100, count[0]);
+        assertEquals(0, map.size());
+        assertNull(map.get(5));
+    }
+}
@@ -0,0 +1,129 @@
+package util;
+
+import annotations.Cacheable;
+import annotations.Id;
+import exceptions.CatnapException;
+import models.CachedModel;
+import models.MockModel;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapEntityCacheTest {
+
+    @Cacheable
+    static class Reading {
+        @Id
+        private int id;
+        private long time;
+        private double value;
+        private boolean valid;
+        private float weight;
+        private short channel;
+        private byte flags;
+        private char unit;
+        private Integer sensor;
+        private Double calibration;
+        private Boolean checked;
+        private Character grade;
+        private String note;
+    }
+
+    @Test
+    public void testStoresAndDecodesEveryColumnType() throws CatnapException {
+        OffHeapEntityCache cache = new OffHeapEntityCache(1 << 16, 1 << 12);
+        Reading reading = new Reading();
+        reading.id = 7;
+        reading.time = 1L << 40;
+        reading.value = 2.5;
+        reading.valid = true;
+        reading.weight = 0.25f;
+        reading.channel = 300;
+        reading.flags = -3;
+        reading.unit = '\u00b5';
+        reading.sensor = 12;
+        reading.checked = false;
+        reading.note = "temp\u00e9rature";
+
+        cache.store(new CatnapResult(reading));
+        Reading got = (Reading) cache.get(Reading.class, 7).get().getEntity();
+
+        assertNotSame(reading, got);
+        assertEquals(7, got.id);
+        assertEquals(1L << 40, got.time);
+        assertEquals(2.5, got.value);
+        assertTrue(got.valid);
+        assertEquals(0.25f, got.weight);
+        assertEquals(300, got.channel);
+        assertEquals(-3, got.flags);
+        assertEquals('\u00b5', got.unit);
+        assertEquals(12, got.sensor);
+        assertNull(got.calibration);
+        assertEquals(false, got.checked);
+        assertNull(got.grade);
+        assertEquals("temp\u00e9rature", got.note);
+    }
+
+    @Test
+    public void testReturnsNewInstances() throws CatnapException {
+        OffHeapEntityCache cache = new OffHeapEntityCache(1 << 16, 1 << 12);
+        cache.store(new CatnapResult(new CachedModel(1, "mock")));
+
+        CachedModel first = (CachedModel) cache.getIfPresent(CachedModel.class, 1).getEntity();
+        first.setName("changed");
+        CachedModel second = (CachedModel) cache.getIfPresent(CachedModel.class, 1).getEntity();
+
+        assertEquals("mock", second.getName());
+        assertNull(cache.getIfPresent(CachedModel.class, 2));
+    }
+
+    @Test
+    public void testIgnoresTypesThatArentCacheable() throws CatnapException {
+        OffHeapEntityCache cache = new OffHeapEntityCache(1 << 16, 1 << 12);
+
+        cache.store(new CatnapResult(new MockModel(1, "mock")));
+
+        assertFalse(cache.contains(MockModel.class, 1));
+    }
+
+    @Test
+    public void testReclaimsOldestSlab() throws CatnapException {
+        // two slabs of 256 bytes hold about 20 rows
+        OffHeapEntityCache cache = new OffHeapEntityCache(512, 256);
+
+        for (int id = 0; id < 1000; id++) {
+            cache.store(new CatnapResult(new CachedModel(id, "mock")));
+        }
+
+        assertFalse(cache.contains(CachedModel.class, 0));
+        assertTrue(cache.contains(CachedModel.class, 999));
+        assertEquals("mock", ((CachedModel) cache.getIfPresent(CachedModel.class, 999).getEntity()).getName());
+        assertTrue(cache.size() < 30);
+        assertTrue(cache.getUsedBytes() <= cache.getCapacity());
+    }
+
+    @Test
+    public void testStoringAgainReplacesTheRow() throws CatnapException {
+        OffHeapEntityCache cache = new OffHeapEntityCache(1 << 16, 1 << 12);
+
+        cache.store(new CatnapResult(new CachedModel(1, "old")));
+        cache.store(new CatnapResult(new CachedModel(1, "new")));
+
+        assertEquals(1, cache.size());
+        assertEquals("new", ((CachedModel) cache.getIfPresent(CachedModel.class, 1).getEntity()).getName());
+    }
+
+    @Test
+    public void testRemoveAndStaleLoad() throws CatnapException {
+        OffHeapEntityCache cache = new OffHeapEntityCache(1 << 16, 1 << 12);
+        cache.store(new CatnapResult(new CachedModel(1, "mock")));
+
+        long version = cache.getVersion(CachedModel.class);
+        cache.remove(CachedModel.class, 1);
+        cache.store(Collections.singletonList(new CatnapResult(new CachedModel(1, "stale"))), version);
+
+        assertFalse(cache.contains(CachedModel.class, 1));
+    }
+}
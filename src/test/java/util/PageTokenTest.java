@@ -0,0 +1,57 @@
+package util;
+
+import annotations.Id;
+import annotations.OrderBy;
+import exceptions.CatnapException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageTokenTest {
+
+    static class Item {
+        @Id
+        public int id;
+        @OrderBy(direction = "DESC")
+        public String name;
+        public double price;
+    }
+
+    static class Other {
+        @Id
+        public int id;
+    }
+
+    @Test
+    public void testRoundTrip() throws CatnapException {
+        EntityMetadata metadata = EntityMetadata.of(Item.class);
+        Item item = new Item();
+        item.id = 12;
+        item.name = "tab\there";
+        item.price = 3.5;
+
+        String token = PageToken.encode(metadata, item);
+        Item read = (Item) PageToken.decode(metadata, token);
+
+        assertFalse(token.contains("tab"));
+        assertEquals(12, read.id);
+        assertEquals("tab\there", read.name);
+        assertEquals(0.0, read.price);
+    }
+
+    @Test
+    public void testDecodeInvalidToken() {
+        EntityMetadata metadata = EntityMetadata.of(Item.class);
+
+        assertThrows(CatnapException.class, () -> PageToken.decode(metadata, "not a token!"));
+    }
+
+    @Test
+    public void testDecodeTokenOfOtherType() throws CatnapException {
+        Other other = new Other();
+        other.id = 3;
+        String token = PageToken.encode(EntityMetadata.of(Other.class), other);
+
+        assertThrows(CatnapException.class, () -> PageToken.decode(EntityMetadata.of(Item.class), token));
+    }
+}
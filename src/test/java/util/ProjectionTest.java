@@ -0,0 +1,81 @@
+package util;
+
+import annotations.Id;
+import exceptions.CatnapException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProjectionTest {
+
+    static class Cat {
+        @Id
+        public int id;
+        public String name;
+        public Double weight;
+    }
+
+    static class NameAndWeight {
+        private final String name;
+        private final double weight;
+
+        NameAndWeight(String name, double weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+    }
+
+    static class IdAndName {
+        private Integer id;
+        private String name;
+    }
+
+    static class Mismatch {
+        private String id;
+    }
+
+    private List<ColumnMetadata> columns(String... names) {
+        EntityMetadata metadata = EntityMetadata.of(Cat.class);
+        ColumnMetadata[] columns = new ColumnMetadata[names.length];
+        for (int i = 0; i < names.length; i++) {
+            columns[i] = metadata.getColumn(names[i]).get();
+        }
+
+        return Arrays.asList(columns);
+    }
+
+    @Test
+    public void testConstructorProjection() throws CatnapException {
+        Projection projection = Projection.of(NameAndWeight.class, columns("name", "weight"));
+        NameAndWeight dto = (NameAndWeight) projection.map(new Object[]{"Tom", 4.5});
+
+        assertEquals("Tom", dto.name);
+        assertEquals(4.5, dto.weight);
+        assertSame(projection, Projection.of(NameAndWeight.class, columns("name", "weight")));
+    }
+
+    @Test
+    public void testFieldProjection() throws CatnapException {
+        Projection projection = Projection.of(IdAndName.class, columns("id", "name"));
+        IdAndName dto = (IdAndName) projection.map(new Object[]{3, "Tom"});
+
+        assertEquals(3, dto.id);
+        assertEquals("Tom", dto.name);
+    }
+
+    @Test
+    public void testNullIntoPrimitive() throws CatnapException {
+        Projection projection = Projection.of(NameAndWeight.class, columns("name", "weight"));
+
+        assertThrows(CatnapException.class, () -> projection.map(new Object[]{"Tom", null}));
+    }
+
+    @Test
+    public void testNoMatchingConstructorOrField() {
+        assertThrows(CatnapException.class, () -> Projection.of(Mismatch.class, columns("id")));
+        assertThrows(CatnapException.class, () -> Projection.of(IdAndName.class, columns("weight")));
+    }
+}
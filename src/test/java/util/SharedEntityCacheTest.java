@@ -0,0 +1,75 @@
+package util;
+
+import exceptions.CatnapException;
+import models.CachedModel;
+import models.MockModel;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharedEntityCacheTest {
+
+    @Test
+    public void testStoresCopies() throws CatnapException {
+        SharedEntityCache cache = new SharedEntityCache();
+        CachedModel model = new CachedModel(1, "mock");
+
+        cache.store(new CatnapResult(model));
+        model.setName("changed");
+        CachedModel first = (CachedModel) cache.get(CachedModel.class, 1).get().getEntity();
+        first.setName("changed too");
+        CachedModel second = (CachedModel) cache.get(CachedModel.class, 1).get().getEntity();
+
+        assertNotSame(first, second);
+        assertEquals("mock", second.getName());
+    }
+
+    @Test
+    public void testIgnoresTypesThatArentCacheable() throws CatnapException {
+        SharedEntityCache cache = new SharedEntityCache();
+
+        cache.store(new CatnapResult(new MockModel(1, "mock")));
+
+        assertFalse(cache.contains(MockModel.class, 1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws CatnapException {
+        // one entry per segment
+        SharedEntityCache cache = new SharedEntityCache(16);
+
+        for (int id = 0; id < 1000; id++) {
+            cache.store(new CatnapResult(new CachedModel(id, "mock")));
+        }
+
+        assertTrue(cache.size() <= 16);
+        assertTrue(cache.contains(CachedModel.class, 999));
+    }
+
+    @Test
+    public void testStaleLoadIsNotStored() throws CatnapException {
+        SharedEntityCache cache = new SharedEntityCache();
+
+        long version = cache.getVersion(CachedModel.class);
+        cache.remove(CachedModel.class, 1);
+        cache.store(Collections.singletonList(new CatnapResult(new CachedModel(1, "old"))), version);
+
+        assertFalse(cache.contains(CachedModel.class, 1));
+    }
+
+    @Test
+    public void testRemoveAll() throws CatnapException {
+        SharedEntityCache cache = new SharedEntityCache();
+        cache.store(new CatnapResult(new CachedModel(1, "mock")));
+        cache.store(new CatnapResult(new CachedModel(2, "mock")));
+
+        cache.removeAll(CachedModel.class);
+
+        assertEquals(Optional.empty(), cache.get(CachedModel.class, 1));
+        assertEquals(0, cache.size());
+    }
+}
@@ -7,9 +7,16 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
 
 public class SimpleConnectionPoolTest {
 
@@ -104,4 +111,39 @@ public class SimpleConnectionPoolTest {
             e.printStackTrace();
         }
     }
+
+    @Test
+    public void testBaseConnections() {
+        final SimpleConnectionPool pool = new SimpleConnectionPool(url, username, password, 4);
+
+        assertEquals(4, pool.getBaseConnections());
+        assertEquals(0, pool.getConnectionCount());
+    }
+
+    @Test
+    public void testConcurrentGetAndRelease() throws InterruptedException, ExecutionException {
+        int threads = 8;
+        final SimpleConnectionPool pool = new SimpleConnectionPool(url, username, password, threads);
+        // every thread holds at most one connection, so the pool never has to connect
+        for (int i = 0; i < threads; i++) {
+            pool.releaseConnection(mock(Connection.class));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    pool.releaseConnection(pool.getConnection());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future: futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(threads, pool.getConnectionCount());
+    }
 }
@@ -0,0 +1,71 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class StatementCacheTest {
+
+    @Mock
+    private Connection connection;
+
+    @Mock
+    private PreparedStatement statement1;
+
+    @Mock
+    private PreparedStatement statement2;
+
+    @Mock
+    private PreparedStatement statement3;
+
+    @Test
+    public void testPrepareReusesStatement() throws SQLException {
+        when(connection.prepareStatement("a")).thenReturn(statement1);
+        StatementCache cache = new StatementCache(connection, 2);
+
+        assertSame(statement1, cache.prepare("a"));
+        assertSame(statement1, cache.prepare("a"));
+
+        verify(connection, times(1)).prepareStatement("a");
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws SQLException {
+        when(connection.prepareStatement("a")).thenReturn(statement1);
+        when(connection.prepareStatement("b")).thenReturn(statement2);
+        when(connection.prepareStatement("c")).thenReturn(statement3);
+        StatementCache cache = new StatementCache(connection, 2);
+
+        cache.prepare("a");
+        cache.prepare("b");
+        cache.prepare("a");
+        cache.prepare("c");
+
+        verify(statement2, times(1)).close();
+        verify(statement1, never()).close();
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testClearClosesStatements() throws SQLException {
+        when(connection.prepareStatement("a")).thenReturn(statement1);
+        StatementCache cache = new StatementCache(connection, 2);
+
+        cache.prepare("a");
+        cache.clear();
+
+        verify(statement1, times(1)).close();
+        assertEquals(0, cache.size());
+    }
+}